@@ -58,6 +58,8 @@ public class KafkaBinderConfigurationProperties {
 
 	private final Transaction transaction = new Transaction();
 
+	private final ProducerPool producerPool = new ProducerPool();
+
 	private final KafkaProperties kafkaProperties;
 
 	private String[] zkNodes = new String[] { "localhost" };
@@ -85,7 +87,7 @@ public class KafkaBinderConfigurationProperties {
 
 	private String[] headers = new String[] {};
 
-	private int offsetUpdateTimeWindow = 10000;
+	private int offsetUpdateTimeWindow;
 
 	private int offsetUpdateCount;
 
@@ -145,6 +147,10 @@ public class KafkaBinderConfigurationProperties {
 		return this.transaction;
 	}
 
+	public ProducerPool getProducerPool() {
+		return this.producerPool;
+	}
+
 	/**
 	 * No longer used.
 	 * @return the connection String
@@ -169,34 +175,28 @@ public class KafkaBinderConfigurationProperties {
 	}
 
 	/**
-	 * No longer used.
+	 * The time (ms) after which the offsets of processed records are committed; 0 to
+	 * commit after each poll unless {@link #getOffsetUpdateCount()} is set.
 	 * @return the window.
-	 * @deprecated No longer used by the binder
 	 */
-	@Deprecated
-	@DeprecatedConfigurationProperty(reason = "Not used since 2.0")
 	public int getOffsetUpdateTimeWindow() {
 		return this.offsetUpdateTimeWindow;
 	}
 
 	/**
-	 * No longer used.
+	 * The number of processed records after which their offsets are committed; 0 to
+	 * commit after each poll unless {@link #getOffsetUpdateTimeWindow()} is set.
 	 * @return the count.
-	 * @deprecated No longer used by the binder
 	 */
-	@Deprecated
-	@DeprecatedConfigurationProperty(reason = "Not used since 2.0")
 	public int getOffsetUpdateCount() {
 		return this.offsetUpdateCount;
 	}
 
 	/**
-	 * No longer used.
+	 * The time (ms) to wait for a consumer to commit its pending offsets and stop, when
+	 * offsets are committed by count or time.
 	 * @return the timeout.
-	 * @deprecated No longer used by the binder
 	 */
-	@Deprecated
-	@DeprecatedConfigurationProperty(reason = "Not used since 2.0")
 	public int getOffsetUpdateShutdownTimeout() {
 		return this.offsetUpdateShutdownTimeout;
 	}
@@ -250,35 +250,14 @@ public class KafkaBinderConfigurationProperties {
 		this.headers = headers;
 	}
 
-	/**
-	 * No longer used.
-	 * @param offsetUpdateTimeWindow the window.
-	 * @deprecated No longer used by the binder
-	 */
-	@Deprecated
-	@DeprecatedConfigurationProperty(reason = "Not used since 2.0")
 	public void setOffsetUpdateTimeWindow(int offsetUpdateTimeWindow) {
 		this.offsetUpdateTimeWindow = offsetUpdateTimeWindow;
 	}
 
-	/**
-	 * No longer used.
-	 * @param offsetUpdateCount the count.
-	 * @deprecated No longer used by the binder
-	 */
-	@Deprecated
-	@DeprecatedConfigurationProperty(reason = "Not used since 2.0")
 	public void setOffsetUpdateCount(int offsetUpdateCount) {
 		this.offsetUpdateCount = offsetUpdateCount;
 	}
 
-	/**
-	 * No longer used.
-	 * @param offsetUpdateShutdownTimeout the timeout.
-	 * @deprecated No longer used by the binder
-	 */
-	@Deprecated
-	@DeprecatedConfigurationProperty(reason = "Not used since 2.0")
 	public void setOffsetUpdateShutdownTimeout(int offsetUpdateShutdownTimeout) {
 		this.offsetUpdateShutdownTimeout = offsetUpdateShutdownTimeout;
 	}
@@ -595,6 +574,8 @@ public class KafkaBinderConfigurationProperties {
 
 		private final CombinedProducerProperties producer = new CombinedProducerProperties();
 
+		private final GroupCommit groupCommit = new GroupCommit();
+
 		private String transactionIdPrefix;
 
 		public String getTransactionIdPrefix() {
@@ -609,6 +590,96 @@ public class KafkaBinderConfigurationProperties {
 			return this.producer;
 		}
 
+		public GroupCommit getGroupCommit() {
+			return this.groupCommit;
+		}
+
+	}
+
+	/**
+	 * Settings for committing the records sent outside of a transaction in shared
+	 * transactions.
+	 * @since 2.1.5
+	 */
+	public static class GroupCommit {
+
+		/**
+		 * When true, records sent by producer bindings when no transaction is in process
+		 * are gathered into shared transactions instead of one transaction each.
+		 */
+		private boolean enabled;
+
+		/**
+		 * The maximum number of records in a transaction.
+		 */
+		private int maxRecords = 500;
+
+		/**
+		 * The maximum time (ms) a record waits for other records to join its transaction.
+		 */
+		private long maxDelay = 10;
+
+		public boolean isEnabled() {
+			return this.enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public int getMaxRecords() {
+			return this.maxRecords;
+		}
+
+		public void setMaxRecords(int maxRecords) {
+			this.maxRecords = maxRecords;
+		}
+
+		public long getMaxDelay() {
+			return this.maxDelay;
+		}
+
+		public void setMaxDelay(long maxDelay) {
+			this.maxDelay = maxDelay;
+		}
+
+	}
+
+	/**
+	 * Settings for the binder-wide pool of non-transactional producers.
+	 * @since 2.1.5
+	 */
+	public static class ProducerPool {
+
+		/**
+		 * When true, producer bindings and DLQ producers with the same effective
+		 * configuration share a single Kafka producer.
+		 */
+		private boolean enabled;
+
+		/**
+		 * Total {@code buffer.memory}, in bytes, divided evenly among the pooled producers;
+		 * not applied to producers that set {@code buffer.memory} explicitly. 0 disables the
+		 * budget.
+		 */
+		private long bufferMemory;
+
+		public boolean isEnabled() {
+			return this.enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public long getBufferMemory() {
+			return this.bufferMemory;
+		}
+
+		public void setBufferMemory(long bufferMemory) {
+			this.bufferMemory = bufferMemory;
+		}
+
 	}
 
 	/**
@@ -739,6 +810,38 @@ public class KafkaBinderConfigurationProperties {
 			this.kafkaProducerProperties.setBatchTimeout(batchTimeout);
 		}
 
+		public boolean isBatchMode() {
+			return this.kafkaProducerProperties.isBatchMode();
+		}
+
+		public void setBatchMode(boolean batchMode) {
+			this.kafkaProducerProperties.setBatchMode(batchMode);
+		}
+
+		public int getMaxInFlight() {
+			return this.kafkaProducerProperties.getMaxInFlight();
+		}
+
+		public void setMaxInFlight(int maxInFlight) {
+			this.kafkaProducerProperties.setMaxInFlight(maxInFlight);
+		}
+
+		public KafkaProducerProperties.BackPressure getBackPressure() {
+			return this.kafkaProducerProperties.getBackPressure();
+		}
+
+		public void setBackPressure(KafkaProducerProperties.BackPressure backPressure) {
+			this.kafkaProducerProperties.setBackPressure(backPressure);
+		}
+
+		public long getBackPressureTimeout() {
+			return this.kafkaProducerProperties.getBackPressureTimeout();
+		}
+
+		public void setBackPressureTimeout(long backPressureTimeout) {
+			this.kafkaProducerProperties.setBackPressureTimeout(backPressureTimeout);
+		}
+
 		public Expression getMessageKeyExpression() {
 			return this.kafkaProducerProperties.getMessageKeyExpression();
 		}
@@ -781,6 +884,46 @@ public class KafkaBinderConfigurationProperties {
 			this.kafkaProducerProperties.setTopic(topic);
 		}
 
+		public KafkaProducerProperties.AdaptiveBatching getAdaptiveBatching() {
+			return this.kafkaProducerProperties.getAdaptiveBatching();
+		}
+
+		public void setAdaptiveBatching(KafkaProducerProperties.AdaptiveBatching adaptiveBatching) {
+			this.kafkaProducerProperties.setAdaptiveBatching(adaptiveBatching);
+		}
+
+		public KafkaProducerProperties.AutoCompression getAutoCompression() {
+			return this.kafkaProducerProperties.getAutoCompression();
+		}
+
+		public void setAutoCompression(KafkaProducerProperties.AutoCompression autoCompression) {
+			this.kafkaProducerProperties.setAutoCompression(autoCompression);
+		}
+
+		public KafkaProducerProperties.Conflation getConflation() {
+			return this.kafkaProducerProperties.getConflation();
+		}
+
+		public void setConflation(KafkaProducerProperties.Conflation conflation) {
+			this.kafkaProducerProperties.setConflation(conflation);
+		}
+
+		public KafkaProducerProperties.Envelope getEnvelope() {
+			return this.kafkaProducerProperties.getEnvelope();
+		}
+
+		public void setEnvelope(KafkaProducerProperties.Envelope envelope) {
+			this.kafkaProducerProperties.setEnvelope(envelope);
+		}
+
+		public KafkaProducerProperties.DynamicDestinations getDynamicDestinations() {
+			return this.kafkaProducerProperties.getDynamicDestinations();
+		}
+
+		public void setDynamicDestinations(KafkaProducerProperties.DynamicDestinations dynamicDestinations) {
+			this.kafkaProducerProperties.setDynamicDestinations(dynamicDestinations);
+		}
+
 		public KafkaProducerProperties getExtension() {
 			return this.kafkaProducerProperties;
 		}
@@ -116,6 +116,32 @@ public class KafkaConsumerProperties {
 
 	private KafkaTopicProperties topic = new KafkaTopicProperties();
 
+	private boolean batchMode;
+
+	private KeyOrdered keyOrdered = new KeyOrdered();
+
+	private boolean virtualThreads;
+
+	private Autoscaling autoscaling = new Autoscaling();
+
+	private RetryTopics retryTopics = new RetryTopics();
+
+	private boolean pausePartitionOnError;
+
+	private MemoryBudget memoryBudget = new MemoryBudget();
+
+	private Priority priority = new Priority();
+
+	private boolean latestValueOnly;
+
+	private String sharedFetchGroup;
+
+	private Map<String, String> headerFilter = new HashMap<>();
+
+	private int pollablePrefetch;
+
+	private int conversionThreads;
+
 	public boolean isAckEachRecord() {
 		return this.ackEachRecord;
 	}
@@ -286,4 +312,436 @@ public class KafkaConsumerProperties {
 		this.topic = topic;
 	}
 
+	public boolean isBatchMode() {
+		return this.batchMode;
+	}
+
+	public void setBatchMode(boolean batchMode) {
+		this.batchMode = batchMode;
+	}
+
+	public KeyOrdered getKeyOrdered() {
+		return this.keyOrdered;
+	}
+
+	public void setKeyOrdered(KeyOrdered keyOrdered) {
+		this.keyOrdered = keyOrdered;
+	}
+
+	public boolean isVirtualThreads() {
+		return this.virtualThreads;
+	}
+
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	public Autoscaling getAutoscaling() {
+		return this.autoscaling;
+	}
+
+	public void setAutoscaling(Autoscaling autoscaling) {
+		this.autoscaling = autoscaling;
+	}
+
+	public RetryTopics getRetryTopics() {
+		return this.retryTopics;
+	}
+
+	public void setRetryTopics(RetryTopics retryTopics) {
+		this.retryTopics = retryTopics;
+	}
+
+	public boolean isPausePartitionOnError() {
+		return this.pausePartitionOnError;
+	}
+
+	public void setPausePartitionOnError(boolean pausePartitionOnError) {
+		this.pausePartitionOnError = pausePartitionOnError;
+	}
+
+	public MemoryBudget getMemoryBudget() {
+		return this.memoryBudget;
+	}
+
+	public void setMemoryBudget(MemoryBudget memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	public Priority getPriority() {
+		return this.priority;
+	}
+
+	public void setPriority(Priority priority) {
+		this.priority = priority;
+	}
+
+	public boolean isLatestValueOnly() {
+		return this.latestValueOnly;
+	}
+
+	public void setLatestValueOnly(boolean latestValueOnly) {
+		this.latestValueOnly = latestValueOnly;
+	}
+
+	public String getSharedFetchGroup() {
+		return this.sharedFetchGroup;
+	}
+
+	public void setSharedFetchGroup(String sharedFetchGroup) {
+		this.sharedFetchGroup = sharedFetchGroup;
+	}
+
+	public Map<String, String> getHeaderFilter() {
+		return this.headerFilter;
+	}
+
+	public void setHeaderFilter(Map<String, String> headerFilter) {
+		this.headerFilter = headerFilter;
+	}
+
+	public int getPollablePrefetch() {
+		return this.pollablePrefetch;
+	}
+
+	public void setPollablePrefetch(int pollablePrefetch) {
+		this.pollablePrefetch = pollablePrefetch;
+	}
+
+	public int getConversionThreads() {
+		return this.conversionThreads;
+	}
+
+	public void setConversionThreads(int conversionThreads) {
+		this.conversionThreads = conversionThreads;
+	}
+
+	/**
+	 * Priorities of the topics of a multiplexed binding.
+	 */
+	public static class Priority {
+
+		/**
+		 * The priority of each topic; topics without one have priority 0. While a
+		 * consumer's partitions of a topic lag, it pauses its partitions of topics with a
+		 * lower priority.
+		 */
+		private Map<String, Integer> topics = new HashMap<>();
+
+		/**
+		 * The lag (records) above which a partition counts as lagging.
+		 */
+		private long lagThreshold = 0;
+
+		/**
+		 * The maximum time (ms) lower priority partitions stay paused before they are
+		 * resumed for one poll.
+		 */
+		private long maxPause = 10_000;
+
+		public Map<String, Integer> getTopics() {
+			return this.topics;
+		}
+
+		public void setTopics(Map<String, Integer> topics) {
+			this.topics = topics;
+		}
+
+		public long getLagThreshold() {
+			return this.lagThreshold;
+		}
+
+		public void setLagThreshold(long lagThreshold) {
+			this.lagThreshold = lagThreshold;
+		}
+
+		public long getMaxPause() {
+			return this.maxPause;
+		}
+
+		public void setMaxPause(long maxPause) {
+			this.maxPause = maxPause;
+		}
+
+	}
+
+	/**
+	 * Bound on the bytes of the records fetched but not yet processed.
+	 */
+	public static class MemoryBudget {
+
+		/**
+		 * The bytes above which the consumers pause their partitions; 0 for no bound.
+		 */
+		private long maxBytes;
+
+		/**
+		 * The fraction of maxBytes at or below which the consumers resume their
+		 * partitions.
+		 */
+		private double lowWaterMark = 0.5;
+
+		public long getMaxBytes() {
+			return this.maxBytes;
+		}
+
+		public void setMaxBytes(long maxBytes) {
+			this.maxBytes = maxBytes;
+		}
+
+		public double getLowWaterMark() {
+			return this.lowWaterMark;
+		}
+
+		public void setLowWaterMark(double lowWaterMark) {
+			this.lowWaterMark = lowWaterMark;
+		}
+
+	}
+
+	/**
+	 * Retries of failed records through delayed retry topics instead of on the consumer
+	 * thread.
+	 */
+	public static class RetryTopics {
+
+		/**
+		 * Whether failed records are retried through retry topics.
+		 */
+		private boolean enabled;
+
+		/**
+		 * The delay (ms) of each retry topic; a failed record is retried once from each
+		 * topic, in order, then sent to the DLQ if enabled.
+		 */
+		private long[] delays = { 1000, 10_000, 60_000 };
+
+		public boolean isEnabled() {
+			return this.enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public long[] getDelays() {
+			return this.delays;
+		}
+
+		public void setDelays(long[] delays) {
+			this.delays = delays;
+		}
+
+		/**
+		 * Return the name of the retry topic with the provided delay.
+		 * @param destination the topic the records were consumed from.
+		 * @param group the consumer group.
+		 * @param delay the delay.
+		 * @return the topic name.
+		 */
+		public static String topicName(String destination, String group, long delay) {
+			return "retry." + destination + "." + group + "." + delay;
+		}
+
+	}
+
+	/**
+	 * Adjustment of the binding's concurrency to the consumer lag.
+	 */
+	public static class Autoscaling {
+
+		/**
+		 * Whether the concurrency is adjusted.
+		 */
+		private boolean enabled;
+
+		/**
+		 * The minimum concurrency.
+		 */
+		private int minConcurrency = 1;
+
+		/**
+		 * The maximum concurrency; the number of partitions when 0.
+		 */
+		private int maxConcurrency;
+
+		/**
+		 * The time (ms) between evaluations of the lag and processing time.
+		 */
+		private long interval = 10_000;
+
+		/**
+		 * The lag above which the concurrency may be increased.
+		 */
+		private long scaleUpLag = 1000;
+
+		/**
+		 * The lag below which the concurrency may be decreased.
+		 */
+		private long scaleDownLag = 100;
+
+		/**
+		 * The fraction of the consumer threads' time spent processing records above which
+		 * the concurrency may be increased.
+		 */
+		private double highUtilization = 0.75;
+
+		/**
+		 * The fraction of the consumer threads' time spent processing records below which
+		 * the concurrency may be decreased.
+		 */
+		private double lowUtilization = 0.25;
+
+		/**
+		 * The number of consecutive evaluations a condition must hold before the
+		 * concurrency is changed.
+		 */
+		private int stableIntervals = 3;
+
+		/**
+		 * The minimum time (ms) between concurrency changes.
+		 */
+		private long cooldown = 60_000;
+
+		public boolean isEnabled() {
+			return this.enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public int getMinConcurrency() {
+			return this.minConcurrency;
+		}
+
+		public void setMinConcurrency(int minConcurrency) {
+			this.minConcurrency = minConcurrency;
+		}
+
+		public int getMaxConcurrency() {
+			return this.maxConcurrency;
+		}
+
+		public void setMaxConcurrency(int maxConcurrency) {
+			this.maxConcurrency = maxConcurrency;
+		}
+
+		public long getInterval() {
+			return this.interval;
+		}
+
+		public void setInterval(long interval) {
+			this.interval = interval;
+		}
+
+		public long getScaleUpLag() {
+			return this.scaleUpLag;
+		}
+
+		public void setScaleUpLag(long scaleUpLag) {
+			this.scaleUpLag = scaleUpLag;
+		}
+
+		public long getScaleDownLag() {
+			return this.scaleDownLag;
+		}
+
+		public void setScaleDownLag(long scaleDownLag) {
+			this.scaleDownLag = scaleDownLag;
+		}
+
+		public double getHighUtilization() {
+			return this.highUtilization;
+		}
+
+		public void setHighUtilization(double highUtilization) {
+			this.highUtilization = highUtilization;
+		}
+
+		public double getLowUtilization() {
+			return this.lowUtilization;
+		}
+
+		public void setLowUtilization(double lowUtilization) {
+			this.lowUtilization = lowUtilization;
+		}
+
+		public int getStableIntervals() {
+			return this.stableIntervals;
+		}
+
+		public void setStableIntervals(int stableIntervals) {
+			this.stableIntervals = stableIntervals;
+		}
+
+		public long getCooldown() {
+			return this.cooldown;
+		}
+
+		public void setCooldown(long cooldown) {
+			this.cooldown = cooldown;
+		}
+
+	}
+
+	/**
+	 * Processing of records on a pool of workers, in order for each key.
+	 */
+	public static class KeyOrdered {
+
+		/**
+		 * Whether records are handed to the workers.
+		 */
+		private boolean enabled;
+
+		/**
+		 * The number of workers; the binding's concurrency when 0.
+		 */
+		private int workers;
+
+		/**
+		 * The maximum number of records handed to the workers and not yet processed.
+		 */
+		private int maxInFlight = 1000;
+
+		/**
+		 * The time (ms) to wait for the records of revoked partitions to be processed.
+		 */
+		private long drainTimeout = 10_000;
+
+		public boolean isEnabled() {
+			return this.enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public int getWorkers() {
+			return this.workers;
+		}
+
+		public void setWorkers(int workers) {
+			this.workers = workers;
+		}
+
+		public int getMaxInFlight() {
+			return this.maxInFlight;
+		}
+
+		public void setMaxInFlight(int maxInFlight) {
+			this.maxInFlight = maxInFlight;
+		}
+
+		public long getDrainTimeout() {
+			return this.drainTimeout;
+		}
+
+		public void setDrainTimeout(long drainTimeout) {
+			this.drainTimeout = drainTimeout;
+		}
+
+	}
+
 }
@@ -42,6 +42,14 @@ public class KafkaProducerProperties {
 
 	private int batchTimeout;
 
+	private boolean batchMode;
+
+	private int maxInFlight;
+
+	private BackPressure backPressure = BackPressure.block;
+
+	private long backPressureTimeout = 30000;
+
 	private Expression messageKeyExpression;
 
 	private String[] headerPatterns;
@@ -50,6 +58,16 @@ public class KafkaProducerProperties {
 
 	private KafkaTopicProperties topic = new KafkaTopicProperties();
 
+	private AdaptiveBatching adaptiveBatching = new AdaptiveBatching();
+
+	private AutoCompression autoCompression = new AutoCompression();
+
+	private Conflation conflation = new Conflation();
+
+	private Envelope envelope = new Envelope();
+
+	private DynamicDestinations dynamicDestinations = new DynamicDestinations();
+
 	public int getBufferSize() {
 		return this.bufferSize;
 	}
@@ -83,6 +101,61 @@ public class KafkaProducerProperties {
 		this.batchTimeout = batchTimeout;
 	}
 
+	/**
+	 * When true, a message with a {@link java.util.Collection} payload is sent as one record
+	 * per element, followed by a single flush.
+	 * @return true if batch mode is enabled.
+	 * @since 2.1.5
+	 */
+	public boolean isBatchMode() {
+		return this.batchMode;
+	}
+
+	public void setBatchMode(boolean batchMode) {
+		this.batchMode = batchMode;
+	}
+
+	/**
+	 * The maximum number of records sent by the binding that are not yet acknowledged by
+	 * the broker; 0 means unbounded.
+	 * @return the maximum.
+	 * @since 2.1.5
+	 */
+	public int getMaxInFlight() {
+		return this.maxInFlight;
+	}
+
+	public void setMaxInFlight(int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * What to do when {@link #getMaxInFlight()} records are in flight.
+	 * @return the back pressure policy.
+	 * @since 2.1.5
+	 */
+	public BackPressure getBackPressure() {
+		return this.backPressure;
+	}
+
+	public void setBackPressure(BackPressure backPressure) {
+		this.backPressure = backPressure;
+	}
+
+	/**
+	 * How long (ms) to wait for an in-flight record to complete with
+	 * {@link BackPressure#timeout}.
+	 * @return the timeout.
+	 * @since 2.1.5
+	 */
+	public long getBackPressureTimeout() {
+		return this.backPressureTimeout;
+	}
+
+	public void setBackPressureTimeout(long backPressureTimeout) {
+		this.backPressureTimeout = backPressureTimeout;
+	}
+
 	public Expression getMessageKeyExpression() {
 		return this.messageKeyExpression;
 	}
@@ -138,6 +211,46 @@ public class KafkaProducerProperties {
 		this.topic = topic;
 	}
 
+	public AdaptiveBatching getAdaptiveBatching() {
+		return this.adaptiveBatching;
+	}
+
+	public void setAdaptiveBatching(AdaptiveBatching adaptiveBatching) {
+		this.adaptiveBatching = adaptiveBatching;
+	}
+
+	public AutoCompression getAutoCompression() {
+		return this.autoCompression;
+	}
+
+	public void setAutoCompression(AutoCompression autoCompression) {
+		this.autoCompression = autoCompression;
+	}
+
+	public Conflation getConflation() {
+		return this.conflation;
+	}
+
+	public void setConflation(Conflation conflation) {
+		this.conflation = conflation;
+	}
+
+	public Envelope getEnvelope() {
+		return this.envelope;
+	}
+
+	public void setEnvelope(Envelope envelope) {
+		this.envelope = envelope;
+	}
+
+	public DynamicDestinations getDynamicDestinations() {
+		return this.dynamicDestinations;
+	}
+
+	public void setDynamicDestinations(DynamicDestinations dynamicDestinations) {
+		this.dynamicDestinations = dynamicDestinations;
+	}
+
 	/**
 	 * Enumeration for compression types.
 	 */
@@ -163,10 +276,325 @@ public class KafkaProducerProperties {
 		 */
 		lz4,
 
-		//		/** // TODO: uncomment and fix docs when kafka-clients 2.1.0 or newer is the default
-		//		 * zstd compression
-		//		 */
-		//		zstd
+		/**
+		 * zstd compression; requires kafka-clients 2.1.0 or newer.
+		 */
+		zstd,
+
+		/**
+		 * Select the compression type at runtime from samples of the outbound payloads.
+		 */
+		auto
+
+	}
+
+	/**
+	 * Properties for retuning {@code batch.size} and {@code linger.ms} at runtime, based on
+	 * the producer's own metrics.
+	 *
+	 * @since 2.1.5
+	 */
+	public static class AdaptiveBatching {
+
+		/**
+		 * Whether adaptive batching is enabled; ignored for transactional producers.
+		 */
+		private boolean enabled;
+
+		/**
+		 * The target for the average time (ms) a record spends in the producer: the time
+		 * waiting in the accumulator plus the request latency.
+		 */
+		private long targetLatency = 100;
+
+		/**
+		 * The upper bound for {@code batch.size}.
+		 */
+		private int maxBufferSize = 1048576;
+
+		/**
+		 * The upper bound for {@code linger.ms}.
+		 */
+		private int maxBatchTimeout = 100;
+
+		/**
+		 * How often (ms) the producer metrics are evaluated; at most one adjustment is made
+		 * per interval.
+		 */
+		private long interval = 30000;
+
+		public boolean isEnabled() {
+			return this.enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public long getTargetLatency() {
+			return this.targetLatency;
+		}
+
+		public void setTargetLatency(long targetLatency) {
+			this.targetLatency = targetLatency;
+		}
+
+		public int getMaxBufferSize() {
+			return this.maxBufferSize;
+		}
+
+		public void setMaxBufferSize(int maxBufferSize) {
+			this.maxBufferSize = maxBufferSize;
+		}
+
+		public int getMaxBatchTimeout() {
+			return this.maxBatchTimeout;
+		}
+
+		public void setMaxBatchTimeout(int maxBatchTimeout) {
+			this.maxBatchTimeout = maxBatchTimeout;
+		}
+
+		public long getInterval() {
+			return this.interval;
+		}
+
+		public void setInterval(long interval) {
+			this.interval = interval;
+		}
+
+	}
+
+	/**
+	 * Properties for {@link CompressionType#auto}.
+	 *
+	 * @since 2.1.5
+	 */
+	public static class AutoCompression {
+
+		/**
+		 * The maximum compression time (ms) per megabyte of payload; codecs slower than
+		 * this on the sampled payloads are not selected.
+		 */
+		private double cpuBudget = 10;
+
+		/**
+		 * The number of payload bytes sampled per interval.
+		 */
+		private int sampleSize = 65536;
+
+		/**
+		 * How often (ms) the sampled payloads are evaluated.
+		 */
+		private long interval = 60000;
+
+		public double getCpuBudget() {
+			return this.cpuBudget;
+		}
+
+		public void setCpuBudget(double cpuBudget) {
+			this.cpuBudget = cpuBudget;
+		}
+
+		public int getSampleSize() {
+			return this.sampleSize;
+		}
+
+		public void setSampleSize(int sampleSize) {
+			this.sampleSize = sampleSize;
+		}
+
+		public long getInterval() {
+			return this.interval;
+		}
+
+		public void setInterval(long interval) {
+			this.interval = interval;
+		}
+
+	}
+
+	/**
+	 * Properties for conflating outbound messages by key.
+	 *
+	 * @since 2.1.5
+	 */
+	public static class Conflation {
+
+		/**
+		 * Whether only the latest message for each key is sent per window.
+		 */
+		private boolean enabled;
+
+		/**
+		 * The window (ms) over which messages are conflated.
+		 */
+		private long window = 100;
+
+		/**
+		 * The maximum number of keys buffered; when reached, the buffered messages are sent
+		 * before the window ends.
+		 */
+		private int maxKeys = 10000;
+
+		public boolean isEnabled() {
+			return this.enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public long getWindow() {
+			return this.window;
+		}
+
+		public void setWindow(long window) {
+			this.window = window;
+		}
+
+		public int getMaxKeys() {
+			return this.maxKeys;
+		}
+
+		public void setMaxKeys(int maxKeys) {
+			this.maxKeys = maxKeys;
+		}
+
+	}
+
+	/**
+	 * Packing of several small messages into a single record.
+	 *
+	 * @since 2.1.5
+	 */
+	public static class Envelope {
+
+		/**
+		 * Whether messages are packed into envelope records.
+		 */
+		private boolean enabled;
+
+		/**
+		 * The maximum number of messages in an envelope.
+		 */
+		private int maxMessages = 100;
+
+		/**
+		 * The maximum size (bytes) of an envelope; a message that does not fit starts a new
+		 * envelope.
+		 */
+		private int maxBytes = 16384;
+
+		/**
+		 * The maximum time (ms) a message waits for its envelope to fill.
+		 */
+		private long window = 10;
+
+		public boolean isEnabled() {
+			return this.enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public int getMaxMessages() {
+			return this.maxMessages;
+		}
+
+		public void setMaxMessages(int maxMessages) {
+			this.maxMessages = maxMessages;
+		}
+
+		public int getMaxBytes() {
+			return this.maxBytes;
+		}
+
+		public void setMaxBytes(int maxBytes) {
+			this.maxBytes = maxBytes;
+		}
+
+		public long getWindow() {
+			return this.window;
+		}
+
+		public void setWindow(long window) {
+			this.window = window;
+		}
+
+	}
+
+	/**
+	 * Sending to topics determined per message.
+	 *
+	 * @since 2.1.5
+	 */
+	public static class DynamicDestinations {
+
+		/**
+		 * Whether the topic is determined for each message.
+		 */
+		private boolean enabled;
+
+		/**
+		 * An expression evaluated against the outgoing message to determine the topic;
+		 * when not set, the 'kafka_topic' header is used.
+		 */
+		private Expression expression;
+
+		/**
+		 * The maximum number of topics whose partitions are cached; the least recently used
+		 * topic is evicted beyond this.
+		 */
+		private int cacheSize = 1000;
+
+		public boolean isEnabled() {
+			return this.enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public Expression getExpression() {
+			return this.expression;
+		}
+
+		public void setExpression(Expression expression) {
+			this.expression = expression;
+		}
+
+		public int getCacheSize() {
+			return this.cacheSize;
+		}
+
+		public void setCacheSize(int cacheSize) {
+			this.cacheSize = cacheSize;
+		}
+
+	}
+
+	/**
+	 * Policy applied to a send when the in-flight window is full.
+	 */
+	public enum BackPressure {
+
+		/**
+		 * Block the sending thread until a record completes.
+		 */
+		block,
+
+		/**
+		 * Block the sending thread until a record completes, or the timeout elapses, in
+		 * which case the send is rejected.
+		 */
+		timeout,
+
+		/**
+		 * Reject the send immediately.
+		 */
+		reject
 
 	}
 
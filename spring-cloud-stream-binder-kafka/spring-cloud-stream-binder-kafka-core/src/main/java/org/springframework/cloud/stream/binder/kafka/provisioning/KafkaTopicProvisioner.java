@@ -175,6 +175,8 @@ public class KafkaTopicProvisioner implements ProvisioningProvider<ExtendedConsu
 		if (properties.getExtension().isDestinationIsPattern()) {
 			Assert.isTrue(!properties.getExtension().isEnableDlq(),
 					"enableDLQ is not allowed when listening to topic patterns");
+			Assert.isTrue(!properties.getExtension().getRetryTopics().isEnabled(),
+					"Retry topics are not allowed when listening to topic patterns");
 			if (this.logger.isDebugEnabled()) {
 				this.logger.debug("Listening to a topic pattern - " + name
 						+ " - no provisioning performed");
@@ -185,6 +187,8 @@ public class KafkaTopicProvisioner implements ProvisioningProvider<ExtendedConsu
 		boolean anonymous = !StringUtils.hasText(group);
 		Assert.isTrue(!anonymous || !properties.getExtension().isEnableDlq(),
 				"DLQ support is not available for anonymous subscriptions");
+		Assert.isTrue(!anonymous || !properties.getExtension().getRetryTopics().isEnabled(),
+				"Retry topics are not available for anonymous subscriptions");
 		if (properties.getInstanceCount() == 0) {
 			throw new IllegalArgumentException("Instance count cannot be zero");
 		}
@@ -200,6 +204,7 @@ public class KafkaTopicProvisioner implements ProvisioningProvider<ExtendedConsu
 					Map<String, TopicDescription> topicDescriptions = all.get(this.operationTimeout, TimeUnit.SECONDS);
 					TopicDescription topicDescription = topicDescriptions.get(name);
 					int partitions = topicDescription.partitions().size();
+					createRetryTopicsIfNeedBe(adminClient, name, group, properties, anonymous, partitions);
 					consumerDestination = createDlqIfNeedBe(adminClient, name, group, properties, anonymous, partitions);
 					if (consumerDestination == null) {
 						consumerDestination = new KafkaConsumerDestination(name, partitions);
@@ -252,6 +257,28 @@ public class KafkaTopicProvisioner implements ProvisioningProvider<ExtendedConsu
 		});
 	}
 
+	private void createRetryTopicsIfNeedBe(AdminClient adminClient, String name, String group,
+			ExtendedConsumerProperties<KafkaConsumerProperties> properties, boolean anonymous, int partitions) {
+
+		if (properties.getExtension().getRetryTopics().isEnabled() && !anonymous) {
+			for (long delay : properties.getExtension().getRetryTopics().getDelays()) {
+				try {
+					createTopicAndPartitions(adminClient, KafkaConsumerProperties.RetryTopics.topicName(name, group, delay),
+							partitions, properties.getExtension().isAutoRebalanceEnabled(),
+							properties.getExtension().getTopic());
+				}
+				catch (Throwable throwable) {
+					if (throwable instanceof Error) {
+						throw (Error) throwable;
+					}
+					else {
+						throw new ProvisioningException("provisioning exception", throwable);
+					}
+				}
+			}
+		}
+	}
+
 	private ConsumerDestination createDlqIfNeedBe(AdminClient adminClient, String name, String group,
 												ExtendedConsumerProperties<KafkaConsumerProperties> properties,
 												boolean anonymous, int partitions) {
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaProducerProperties;
+
+/**
+ * Retunes {@code batch.size} and {@code linger.ms} from the producer's own metrics.
+ * <p>
+ * While the average time a record spends in the producer ({@code record-queue-time-avg}
+ * plus {@code request-latency-avg}) is above the target, {@code linger.ms} (and then
+ * {@code batch.size}) is halved; while it is well below the target, {@code batch.size}
+ * is doubled if batches are filling up, otherwise {@code linger.ms} is increased.
+ *
+ * @since 2.1.5
+ */
+class AdaptiveBatchingTuner implements AdaptiveProducerFactory.Tuner {
+
+	private static final Log logger = LogFactory.getLog(AdaptiveBatchingTuner.class);
+
+	private static final String PRODUCER_METRICS = "producer-metrics";
+
+	private final KafkaProducerProperties.AdaptiveBatching properties;
+
+	private final int minBatchSize;
+
+	private final AtomicLong adjustments = new AtomicLong();
+
+	private volatile int batchSize;
+
+	private volatile int lingerMs;
+
+	AdaptiveBatchingTuner(Map<String, Object> configs, KafkaProducerProperties.AdaptiveBatching properties) {
+		this.properties = properties;
+		this.batchSize = Integer.parseInt(String.valueOf(configs.get(ProducerConfig.BATCH_SIZE_CONFIG)));
+		this.lingerMs = Integer.parseInt(String.valueOf(configs.get(ProducerConfig.LINGER_MS_CONFIG)));
+		this.minBatchSize = this.batchSize;
+	}
+
+	@Override
+	public long getInterval() {
+		return this.properties.getInterval();
+	}
+
+	int getBatchSize() {
+		return this.batchSize;
+	}
+
+	int getLingerMs() {
+		return this.lingerMs;
+	}
+
+	long getAdjustments() {
+		return this.adjustments.get();
+	}
+
+	@Override
+	public synchronized void tune(AdaptiveProducerFactory producerFactory) {
+		Map<MetricName, ? extends Metric> metrics = producerFactory.metrics();
+		if (metrics.isEmpty()) {
+			// nothing sent since the producer was (re)created
+			return;
+		}
+		double sendRate = metric(metrics, "record-send-rate");
+		double batchSizeAvg = metric(metrics, "batch-size-avg");
+		double queueTime = metric(metrics, "record-queue-time-avg");
+		double requestLatency = metric(metrics, "request-latency-avg");
+		if (!(sendRate > 0) || Double.isNaN(batchSizeAvg) || Double.isNaN(queueTime)
+				|| Double.isNaN(requestLatency)) {
+			return;
+		}
+		double latency = queueTime + requestLatency;
+		long target = this.properties.getTargetLatency();
+		int newBatchSize = this.batchSize;
+		int newLingerMs = this.lingerMs;
+		if (latency > target) {
+			if (this.lingerMs > 0) {
+				newLingerMs = this.lingerMs / 2;
+			}
+			else {
+				newBatchSize = Math.max(this.minBatchSize, this.batchSize / 2);
+			}
+		}
+		else if (latency < target / 2.0) {
+			if (batchSizeAvg >= this.batchSize * 0.8) {
+				newBatchSize = Math.min(this.properties.getMaxBufferSize(), this.batchSize * 2);
+			}
+			else if (requestLatency + Math.max(1, this.lingerMs * 2) < target) {
+				newLingerMs = Math.min(this.properties.getMaxBatchTimeout(), Math.max(1, this.lingerMs * 2));
+			}
+		}
+		if (newBatchSize != this.batchSize || newLingerMs != this.lingerMs) {
+			if (logger.isInfoEnabled()) {
+				logger.info(String.format("Adjusting producer for %s: batch.size %d -> %d, linger.ms %d -> %d "
+						+ "(latency %.1fms, target %dms, batch-size-avg %.0f)", producerFactory.getName(),
+						this.batchSize, newBatchSize, this.lingerMs, newLingerMs, latency, target, batchSizeAvg));
+			}
+			this.batchSize = newBatchSize;
+			this.lingerMs = newLingerMs;
+			Map<String, Object> changes = new HashMap<>();
+			changes.put(ProducerConfig.BATCH_SIZE_CONFIG, newBatchSize);
+			changes.put(ProducerConfig.LINGER_MS_CONFIG, newLingerMs);
+			producerFactory.reconfigure(changes);
+			this.adjustments.incrementAndGet();
+		}
+	}
+
+	private static double metric(Map<MetricName, ? extends Metric> metrics, String name) {
+		for (Map.Entry<MetricName, ? extends Metric> metric : metrics.entrySet()) {
+			if (name.equals(metric.getKey().name()) && PRODUCER_METRICS.equals(metric.getKey().group())) {
+				Object value = metric.getValue().metricValue();
+				return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+			}
+		}
+		return Double.NaN;
+	}
+
+}
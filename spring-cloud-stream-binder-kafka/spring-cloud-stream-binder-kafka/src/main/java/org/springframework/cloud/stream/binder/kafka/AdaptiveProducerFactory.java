@@ -0,0 +1,277 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+
+import org.springframework.context.Lifecycle;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.ProducerFactory;
+
+/**
+ * A {@link ProducerFactory} whose producer configuration is retuned at runtime by one or
+ * more {@link Tuner}s.
+ * <p>
+ * While the factory is running, each tuner is invoked on a scheduler thread, once per its
+ * interval. Since a producer's configuration cannot be changed, {@link #reconfigure(Map)}
+ * replaces the producer; each previous one is closed by the scheduler after its own grace
+ * period so that sends already in progress can complete, whether or not there are further
+ * sends. Any retired producer still open is closed when the factory is stopped.
+ *
+ * @since 2.1.5
+ */
+class AdaptiveProducerFactory implements ProducerFactory<byte[], byte[]>, Lifecycle {
+
+	private static final Log logger = LogFactory.getLog(AdaptiveProducerFactory.class);
+
+	private static final long RETIREMENT_GRACE = 5000;
+
+	private final Map<String, Object> configs;
+
+	private final String name;
+
+	private final long retirementGrace;
+
+	private final List<Tuner> tuners = new CopyOnWriteArrayList<>();
+
+	private volatile TrackingProducerFactory delegate;
+
+	private final List<Retired> retired = new ArrayList<>();
+
+	private ScheduledExecutorService scheduler;
+
+	AdaptiveProducerFactory(Map<String, Object> configs, String name) {
+		this(configs, name, RETIREMENT_GRACE);
+	}
+
+	AdaptiveProducerFactory(Map<String, Object> configs, String name, long retirementGrace) {
+		this.configs = new HashMap<>(configs);
+		this.name = name;
+		this.retirementGrace = retirementGrace;
+		this.delegate = new TrackingProducerFactory(this.configs);
+	}
+
+	synchronized void addTuner(Tuner tuner) {
+		this.tuners.add(tuner);
+		if (this.scheduler != null) {
+			schedule(tuner);
+		}
+	}
+
+	<T extends Tuner> T getTuner(Class<T> type) {
+		for (Tuner tuner : this.tuners) {
+			if (type.isInstance(tuner)) {
+				return type.cast(tuner);
+			}
+		}
+		return null;
+	}
+
+	String getName() {
+		return this.name;
+	}
+
+	@Override
+	public Producer<byte[], byte[]> createProducer() {
+		return this.delegate.createProducer();
+	}
+
+	/**
+	 * Return the current value of a producer property.
+	 * @param key the property.
+	 * @return the value.
+	 */
+	synchronized Object getConfiguration(String key) {
+		return this.configs.get(key);
+	}
+
+	/**
+	 * Replace the producer with one using the changed properties.
+	 * @param changes the changed producer properties.
+	 */
+	synchronized void reconfigure(Map<String, Object> changes) {
+		this.configs.putAll(changes);
+		this.retired.add(new Retired(this.delegate, System.currentTimeMillis() + this.retirementGrace));
+		if (this.scheduler != null) {
+			this.scheduler.schedule(this::closeRetired, this.retirementGrace, TimeUnit.MILLISECONDS);
+		}
+		this.delegate = new TrackingProducerFactory(new HashMap<>(this.configs));
+	}
+
+	/**
+	 * Return the metrics of the current producer, without creating it.
+	 * @return the metrics, or an empty map if there is no current producer.
+	 */
+	Map<MetricName, ? extends Metric> metrics() {
+		return this.delegate.metrics();
+	}
+
+	private void closeRetired() {
+		closeRetired(System.currentTimeMillis());
+	}
+
+	/*
+	 * Close the retired producers whose grace period ended before the time.
+	 */
+	private synchronized void closeRetired(long now) {
+		Iterator<Retired> iterator = this.retired.iterator();
+		while (iterator.hasNext()) {
+			Retired retired = iterator.next();
+			if (retired.closeAt > now) {
+				break;
+			}
+			retired.producerFactory.reset();
+			iterator.remove();
+		}
+	}
+
+	private void schedule(Tuner tuner) {
+		this.scheduler.scheduleWithFixedDelay(() -> tune(tuner), tuner.getInterval(), tuner.getInterval(),
+				TimeUnit.MILLISECONDS);
+	}
+
+	private void tune(Tuner tuner) {
+		try {
+			tuner.tune(this);
+		}
+		catch (Exception ex) {
+			logger.error("Failed to tune the producer for " + this.name, ex);
+		}
+	}
+
+	@Override
+	public synchronized void start() {
+		if (this.scheduler == null) {
+			this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "adaptive-producer-" + this.name);
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.tuners.forEach(this::schedule);
+			if (!this.retired.isEmpty()) {
+				this.scheduler.schedule(this::closeRetired, this.retirementGrace, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	@Override
+	public void stop() {
+		ScheduledExecutorService scheduler;
+		synchronized (this) {
+			scheduler = this.scheduler;
+			this.scheduler = null;
+		}
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			try {
+				scheduler.awaitTermination(this.retirementGrace, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (this) {
+			closeRetired(Long.MAX_VALUE);
+			this.delegate.reset();
+		}
+	}
+
+	@Override
+	public synchronized boolean isRunning() {
+		return this.scheduler != null;
+	}
+
+	/**
+	 * Periodically adjusts the producer configuration.
+	 */
+	interface Tuner {
+
+		/**
+		 * @return the time (ms) between invocations of {@link #tune}.
+		 */
+		long getInterval();
+
+		/**
+		 * Evaluate and, if necessary, {@link AdaptiveProducerFactory#reconfigure(Map)
+		 * reconfigure} the producer.
+		 * @param producerFactory the producer factory.
+		 */
+		void tune(AdaptiveProducerFactory producerFactory);
+
+	}
+
+	/**
+	 * Keeps a reference to the (shared) producer, so that its metrics can be read without
+	 * creating one.
+	 */
+	private static final class TrackingProducerFactory extends DefaultKafkaProducerFactory<byte[], byte[]> {
+
+		private volatile Producer<byte[], byte[]> producer;
+
+		TrackingProducerFactory(Map<String, Object> configs) {
+			super(configs);
+		}
+
+		@Override
+		public Producer<byte[], byte[]> createProducer() {
+			Producer<byte[], byte[]> producer = super.createProducer();
+			this.producer = producer;
+			return producer;
+		}
+
+		@Override
+		public void reset() {
+			this.producer = null;
+			super.reset();
+		}
+
+		Map<MetricName, ? extends Metric> metrics() {
+			Producer<byte[], byte[]> producer = this.producer;
+			return producer != null ? producer.metrics() : Collections.emptyMap();
+		}
+
+	}
+
+	private static final class Retired {
+
+		private final DefaultKafkaProducerFactory<byte[], byte[]> producerFactory;
+
+		private final long closeAt;
+
+		Retired(DefaultKafkaProducerFactory<byte[], byte[]> producerFactory, long closeAt) {
+			this.producerFactory = producerFactory;
+			this.closeAt = closeAt;
+		}
+
+	}
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import org.springframework.kafka.listener.AbstractMessageListenerContainer;
+import org.springframework.kafka.support.KafkaHeaderMapper;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+
+/**
+ * An {@link EnvelopeAwareMessageDrivenChannelAdapter} that records the time spent
+ * processing each message for a {@link ConcurrencyAutoscaler}, and starts and stops the
+ * autoscaler with the container.
+ *
+ * @param <K> the key type.
+ * @param <V> the value type.
+ * @since 2.1.5
+ */
+class AutoscalingMessageDrivenChannelAdapter<K, V> extends EnvelopeAwareMessageDrivenChannelAdapter<K, V> {
+
+	private final ConcurrencyAutoscaler autoscaler;
+
+	private final String name;
+
+	AutoscalingMessageDrivenChannelAdapter(AbstractMessageListenerContainer<K, V> messageListenerContainer,
+			@Nullable KafkaHeaderMapper headerMapper, ConcurrencyAutoscaler autoscaler, String name) {
+
+		super(messageListenerContainer, headerMapper);
+		this.autoscaler = autoscaler;
+		this.name = name;
+	}
+
+	@Override
+	protected void sendMessage(Message<?> message) {
+		long start = System.nanoTime();
+		try {
+			super.sendMessage(message);
+		}
+		finally {
+			this.autoscaler.recordProcessingTime(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	protected void doStart() {
+		super.doStart();
+		this.autoscaler.start(this.name);
+	}
+
+	@Override
+	protected void doStop() {
+		// a concurrency change in progress would restart the container
+		this.autoscaler.stop();
+		super.doStop();
+	}
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * Thrown by the handler of a consumer binding in batch mode to indicate that only some of
+ * the records of the batch failed; only those records are sent to the dead letter topic.
+ *
+ * @since 2.1.5
+ */
+@SuppressWarnings("serial")
+public class BatchRecordsFailedException extends RuntimeException {
+
+	private final SortedSet<Integer> failedIndices;
+
+	/**
+	 * Construct an instance with the provided properties.
+	 * @param message the message.
+	 * @param cause the cause, if any.
+	 * @param failedIndices the positions of the failed records in the batch.
+	 */
+	public BatchRecordsFailedException(String message, @Nullable Throwable cause,
+			Collection<Integer> failedIndices) {
+
+		super(message, cause);
+		this.failedIndices = Collections.unmodifiableSortedSet(new TreeSet<>(failedIndices));
+	}
+
+	/**
+	 * Return the positions of the failed records in the batch.
+	 * @return the indices, in ascending order.
+	 */
+	public SortedSet<Integer> getFailedIndices() {
+		return this.failedIndices;
+	}
+
+}
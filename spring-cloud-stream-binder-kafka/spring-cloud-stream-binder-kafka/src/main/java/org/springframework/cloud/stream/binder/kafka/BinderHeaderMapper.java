@@ -19,6 +19,7 @@ package org.springframework.cloud.stream.binder.kafka;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
@@ -84,6 +85,11 @@ public class BinderHeaderMapper extends AbstractKafkaHeaderMapper {
 
 	private final Set<String> toStringClasses = new LinkedHashSet<>(DEFAULT_TO_STRING_CLASSES);
 
+	/**
+	 * The last decoded {@link #JSON_TYPES} header; consecutive records usually carry the same one.
+	 */
+	private volatile DecodedJsonTypes lastJsonTypes;
+
 	/**
 	 * Construct an instance with the default object mapper and default header patterns
 	 * for outbound headers; all inbound headers are mapped. The default pattern list is
@@ -264,8 +270,10 @@ public class BinderHeaderMapper extends AbstractKafkaHeaderMapper {
 						logger.error("Could not load class for header: " + h.key(), e);
 					}
 					if (trusted) {
+						String decoded = String.class.equals(type) ? decodeUnescapedString(h.value()) : null;
 						try {
-							headers.put(h.key(), getObjectMapper().readValue(h.value(), type));
+							headers.put(h.key(), decoded != null ? decoded
+									: getObjectMapper().readValue(h.value(), type));
 						}
 						catch (IOException e) {
 							logger.error("Could not decode json type: " + new String(h.value()) + " for key: " + h
@@ -293,8 +301,13 @@ public class BinderHeaderMapper extends AbstractKafkaHeaderMapper {
 		while (iterator.hasNext()) {
 			Header next = iterator.next();
 			if (next.key().equals(JSON_TYPES)) {
+				DecodedJsonTypes last = this.lastJsonTypes;
+				if (last != null && Arrays.equals(last.encoded, next.value())) {
+					return last.types;
+				}
 				try {
-					types = getObjectMapper().readValue(next.value(), Map.class);
+					types = Collections.unmodifiableMap(getObjectMapper().readValue(next.value(), Map.class));
+					this.lastJsonTypes = new DecodedJsonTypes(next.value().clone(), types);
 				}
 				catch (IOException e) {
 					logger.error("Could not decode json types: " + new String(next.value()), e);
@@ -305,6 +318,25 @@ public class BinderHeaderMapper extends AbstractKafkaHeaderMapper {
 		return types;
 	}
 
+	/*
+	 * Decode a JSON string without escape sequences, which is how most string headers are encoded,
+	 * without a parser; return null for any other value.
+	 */
+	@Nullable
+	private static String decodeUnescapedString(byte[] value) {
+		int last = value.length - 1;
+		if (last < 1 || value[0] != '"' || value[last] != '"') {
+			return null;
+		}
+		for (int i = 1; i < last; i++) {
+			// bytes of multi-byte characters are negative
+			if (value[i] == '"' || value[i] == '\\' || (value[i] >= 0 && value[i] < 0x20)) {
+				return null;
+			}
+		}
+		return new String(value, 1, last - 1, StandardCharsets.UTF_8);
+	}
+
 	protected boolean trusted(String requestedType) {
 		if (!this.trustedPackages.isEmpty()) {
 			int lastDot = requestedType.lastIndexOf('.');
@@ -350,6 +382,19 @@ public class BinderHeaderMapper extends AbstractKafkaHeaderMapper {
 
 	}
 
+	private static final class DecodedJsonTypes {
+
+		private final byte[] encoded;
+
+		private final Map<String, String> types;
+
+		DecodedJsonTypes(byte[] encoded, Map<String, String> types) { // NOSONAR
+			this.encoded = encoded; // NOSONAR
+			this.types = types;
+		}
+
+	}
+
 	/**
 	 * Represents a header that could not be decoded due to an untrusted type.
 	 */
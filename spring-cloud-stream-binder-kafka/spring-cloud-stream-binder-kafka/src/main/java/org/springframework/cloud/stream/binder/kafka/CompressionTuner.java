@@ -0,0 +1,189 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.utils.ByteBufferOutputStream;
+
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaProducerProperties;
+
+/**
+ * Selects {@code compression.type} from samples of the outbound payloads.
+ * <p>
+ * Each interval, the sampled bytes are compressed with every codec available to the
+ * kafka-clients in use; the codec producing the smallest output whose compression time
+ * is within the CPU budget is selected. The producer is only reconfigured if the current
+ * codec exceeds the budget or the selected codec saves at least 5% more.
+ *
+ * @since 2.1.5
+ */
+class CompressionTuner implements AdaptiveProducerFactory.Tuner {
+
+	private static final Log logger = LogFactory.getLog(CompressionTuner.class);
+
+	private static final int MIN_SAMPLE = 1024;
+
+	private static final double MIN_SAVING = 0.05;
+
+	private final KafkaProducerProperties.AutoCompression properties;
+
+	private final Set<String> codecs = Collections.synchronizedSet(new LinkedHashSet<>());
+
+	private final byte[] sample;
+
+	private final AtomicLong switches = new AtomicLong();
+
+	private volatile int sampled;
+
+	private volatile String codec;
+
+	private volatile double ratio = 1.0;
+
+	CompressionTuner(String codec, KafkaProducerProperties.AutoCompression properties) {
+		this.codec = codec;
+		this.properties = properties;
+		this.sample = new byte[properties.getSampleSize()];
+		for (KafkaProducerProperties.CompressionType type : KafkaProducerProperties.CompressionType.values()) {
+			if (type != KafkaProducerProperties.CompressionType.auto) {
+				this.codecs.add(type.name());
+			}
+		}
+	}
+
+	@Override
+	public long getInterval() {
+		return this.properties.getInterval();
+	}
+
+	String getCodec() {
+		return this.codec;
+	}
+
+	double getRatio() {
+		return this.ratio;
+	}
+
+	long getSwitches() {
+		return this.switches.get();
+	}
+
+	/**
+	 * Add (the start of) an outbound payload to the sample, unless the sample is full.
+	 * @param payload the payload.
+	 */
+	void sample(byte[] payload) {
+		if (this.sampled < this.sample.length) {
+			synchronized (this.sample) {
+				int length = Math.min(payload.length, this.sample.length - this.sampled);
+				System.arraycopy(payload, 0, this.sample, this.sampled, length);
+				this.sampled += length;
+			}
+		}
+	}
+
+	@Override
+	public void tune(AdaptiveProducerFactory producerFactory) {
+		byte[] bytes;
+		synchronized (this.sample) {
+			if (this.sampled < MIN_SAMPLE) {
+				return;
+			}
+			bytes = new byte[this.sampled];
+			System.arraycopy(this.sample, 0, bytes, 0, this.sampled);
+			this.sampled = 0;
+		}
+		long budget = (long) (this.properties.getCpuBudget() * 1_000_000.0 * bytes.length / (1024 * 1024));
+		String best = null;
+		int bestSize = Integer.MAX_VALUE;
+		int currentSize = bytes.length;
+		boolean currentWithinBudget = true;
+		for (String candidate : this.codecs.toArray(new String[0])) {
+			long[] result = measure(candidate, bytes);
+			if (result == null) {
+				continue;
+			}
+			int size = (int) result[0];
+			boolean withinBudget = result[1] <= budget;
+			if (candidate.equals(this.codec)) {
+				currentSize = size;
+				currentWithinBudget = withinBudget;
+			}
+			if (withinBudget && size < bestSize) {
+				best = candidate;
+				bestSize = size;
+			}
+		}
+		if (best == null) {
+			return;
+		}
+		if (!best.equals(this.codec) && (!currentWithinBudget || bestSize < currentSize * (1 - MIN_SAVING))) {
+			if (logger.isInfoEnabled()) {
+				logger.info(String.format("Switching compression for %s from %s to %s (ratio %.2f -> %.2f over %d "
+						+ "sampled bytes)", producerFactory.getName(), this.codec, best,
+						(double) currentSize / bytes.length, (double) bestSize / bytes.length, bytes.length));
+			}
+			producerFactory.reconfigure(Collections.singletonMap(ProducerConfig.COMPRESSION_TYPE_CONFIG, best));
+			this.codec = best;
+			this.switches.incrementAndGet();
+			this.ratio = (double) bestSize / bytes.length;
+		}
+		else {
+			this.ratio = (double) currentSize / bytes.length;
+		}
+	}
+
+	/*
+	 * Return the compressed size and the best of two compression times (ns), or null if the
+	 * codec is not supported by the kafka-clients (or native libraries) in use.
+	 */
+	private long[] measure(String candidate, byte[] bytes) {
+		try {
+			CompressionType type = CompressionType.forName(candidate);
+			long size = 0;
+			long time = Long.MAX_VALUE;
+			for (int i = 0; i < 2; i++) {
+				long start = System.nanoTime();
+				ByteBufferOutputStream buffer = new ByteBufferOutputStream(bytes.length / 2 + 64);
+				try (OutputStream out = type.wrapForOutput(buffer, RecordBatch.CURRENT_MAGIC_VALUE)) {
+					out.write(bytes);
+				}
+				time = Math.min(time, System.nanoTime() - start);
+				size = buffer.position();
+			}
+			return new long[] { size, time };
+		}
+		catch (IOException | RuntimeException | LinkageError ex) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Compression type " + candidate + " is not available", ex);
+			}
+			this.codecs.remove(candidate);
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaConsumerProperties;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+
+/**
+ * Periodically adjusts the concurrency of a consumer binding's container to the lag of
+ * its group and the fraction of the consumer threads' time spent processing records.
+ * <p>
+ * To avoid flapping, the concurrency is increased only when the lag is above one
+ * threshold, not decreasing, and the threads are busy, and decreased only when the lag is
+ * below a lower threshold and the threads are mostly idle; either condition must hold for
+ * a number of consecutive evaluations and a cooldown must have elapsed since the last
+ * change. The concurrency changes by one thread at a time, between the configured minimum
+ * and maximum. Each change restarts the container, which rebalances the group.
+ *
+ * @since 2.1.5
+ */
+class ConcurrencyAutoscaler {
+
+	private static final Log logger = LogFactory.getLog(ConcurrencyAutoscaler.class);
+
+	private final ConcurrentMessageListenerContainer<?, ?> container;
+
+	private final ConsumerFactory<?, ?> consumerFactory;
+
+	private final String group;
+
+	private final Collection<String> topics;
+
+	private final KafkaConsumerProperties.Autoscaling properties;
+
+	private final int minConcurrency;
+
+	private final int maxConcurrency;
+
+	private final LongAdder processingTime = new LongAdder();
+
+	private final AtomicLong changes = new AtomicLong();
+
+	private volatile int concurrency;
+
+	private ScheduledExecutorService scheduler;
+
+	// the following are only used by the scheduler thread, or the caller of decide()
+
+	private Consumer<?, ?> metadataConsumer;
+
+	private long lastCheck;
+
+	private long lastProcessingTime;
+
+	private long lastLag = -1;
+
+	private int highIntervals;
+
+	private int lowIntervals;
+
+	private long lastChange = Long.MIN_VALUE;
+
+	/**
+	 * Construct an instance with the provided properties.
+	 * @param container the container; its concurrency must be within the bounds.
+	 * @param consumerFactory the factory for the consumer used to compute the lag.
+	 * @param group the consumer group.
+	 * @param topics the topics.
+	 * @param properties the autoscaling properties.
+	 * @param minConcurrency the minimum concurrency.
+	 * @param maxConcurrency the maximum concurrency.
+	 */
+	ConcurrencyAutoscaler(ConcurrentMessageListenerContainer<?, ?> container, ConsumerFactory<?, ?> consumerFactory,
+			String group, Collection<String> topics, KafkaConsumerProperties.Autoscaling properties,
+			int minConcurrency, int maxConcurrency) {
+
+		this.container = container;
+		this.consumerFactory = consumerFactory;
+		this.group = group;
+		this.topics = topics;
+		this.properties = properties;
+		this.minConcurrency = minConcurrency;
+		this.maxConcurrency = maxConcurrency;
+		this.concurrency = container.getConcurrency();
+	}
+
+	synchronized void start(String name) {
+		if (this.scheduler == null) {
+			this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "autoscaler-" + name);
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.lastCheck = System.nanoTime();
+			this.lastProcessingTime = this.processingTime.sum();
+			long interval = this.properties.getInterval();
+			this.scheduler.scheduleWithFixedDelay(this::check, interval, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Record the time a consumer thread spent processing a record.
+	 * @param nanos the time.
+	 */
+	void recordProcessingTime(long nanos) {
+		this.processingTime.add(nanos);
+	}
+
+	int getConcurrency() {
+		return this.concurrency;
+	}
+
+	long getChanges() {
+		return this.changes.get();
+	}
+
+	private void check() {
+		try {
+			long now = System.nanoTime();
+			long processed = this.processingTime.sum();
+			double utilization = (double) (processed - this.lastProcessingTime)
+					/ ((now - this.lastCheck) * this.concurrency);
+			this.lastCheck = now;
+			this.lastProcessingTime = processed;
+			long lag = computeLag();
+			int target = decide(lag, utilization, TimeUnit.NANOSECONDS.toMillis(now));
+			if (target != this.concurrency) {
+				rescale(target);
+				// the processing time during the restart would understate the utilization
+				this.lastCheck = System.nanoTime();
+				this.lastProcessingTime = this.processingTime.sum();
+			}
+		}
+		catch (Exception ex) {
+			logger.warn("Failed to adjust the concurrency for " + this.topics, ex);
+		}
+	}
+
+	/**
+	 * Return the concurrency for the evaluation; a change resets the hysteresis.
+	 * @param lag the lag of the group.
+	 * @param utilization the fraction of the consumer threads' time spent processing
+	 * records since the previous evaluation.
+	 * @param now the current time (ms).
+	 * @return the concurrency.
+	 */
+	int decide(long lag, double utilization, long now) {
+		KafkaConsumerProperties.Autoscaling properties = this.properties;
+		boolean high = lag > properties.getScaleUpLag() && lag >= this.lastLag
+				&& utilization >= properties.getHighUtilization();
+		boolean low = lag < properties.getScaleDownLag() && utilization <= properties.getLowUtilization();
+		this.lastLag = lag;
+		this.highIntervals = high ? this.highIntervals + 1 : 0;
+		this.lowIntervals = low ? this.lowIntervals + 1 : 0;
+		int current = this.concurrency;
+		if (this.lastChange != Long.MIN_VALUE && now - this.lastChange < properties.getCooldown()) {
+			return current;
+		}
+		int target = current;
+		if (this.highIntervals >= properties.getStableIntervals() && current < this.maxConcurrency) {
+			target = current + 1;
+		}
+		else if (this.lowIntervals >= properties.getStableIntervals() && current > this.minConcurrency) {
+			target = current - 1;
+		}
+		if (target != current) {
+			this.highIntervals = 0;
+			this.lowIntervals = 0;
+			this.lastLag = -1;
+			this.lastChange = now;
+		}
+		return target;
+	}
+
+	private long computeLag() {
+		if (this.metadataConsumer == null) {
+			this.metadataConsumer = this.consumerFactory.createConsumer(this.group, "autoscaler");
+		}
+		List<TopicPartition> partitions = new ArrayList<>();
+		for (String topic : this.topics) {
+			for (PartitionInfo partitionInfo : this.metadataConsumer.partitionsFor(topic)) {
+				partitions.add(new TopicPartition(partitionInfo.topic(), partitionInfo.partition()));
+			}
+		}
+		long lag = 0;
+		for (Map.Entry<TopicPartition, Long> endOffset : this.metadataConsumer.endOffsets(partitions).entrySet()) {
+			OffsetAndMetadata committed = this.metadataConsumer.committed(endOffset.getKey());
+			lag += endOffset.getValue() - (committed != null ? committed.offset() : 0);
+		}
+		return lag;
+	}
+
+	private void rescale(int target) {
+		logger.info("Changing the concurrency for " + this.topics + " from " + this.concurrency + " to " + target);
+		synchronized (this) {
+			if (this.scheduler == null || !this.container.isRunning()) {
+				return;
+			}
+			this.container.stop();
+			this.container.setConcurrency(target);
+			this.concurrency = target;
+			this.changes.incrementAndGet();
+			this.container.start();
+		}
+	}
+
+	/**
+	 * Stop adjusting the concurrency; waits for a change in progress.
+	 */
+	void stop() {
+		ScheduledExecutorService scheduler;
+		synchronized (this) {
+			scheduler = this.scheduler;
+			this.scheduler = null;
+		}
+		if (scheduler != null) {
+			scheduler.shutdown();
+			try {
+				scheduler.awaitTermination(
+						this.container.getContainerProperties().getShutdownTimeout() + this.properties.getInterval(),
+						TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			if (this.metadataConsumer != null && scheduler.isTerminated()) {
+				this.metadataConsumer.close();
+				this.metadataConsumer = null;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+
+import org.springframework.kafka.core.ConsumerFactory;
+
+/**
+ * Bounds the bytes of the records a consumer binding has fetched but not yet processed:
+ * when they exceed the budget, each consumer pauses its assigned partitions before its
+ * next poll, and resumes them once they drop to the low-water mark. A paused consumer
+ * keeps polling, so it stays in the group.
+ * <p>
+ * The size of a record is the size of its serialized key and value. When records are
+ * processed on the consumer thread, the records of a poll are released before the next
+ * poll; when they are handed to other threads, the size of each record must be taken when
+ * it is handed off, and released once it is processed.
+ *
+ * @since 2.1.5
+ */
+class ConsumerMemoryBudget implements InterceptingConsumerFactory.PollInterceptor {
+
+	// the maximum time a paused consumer waits before checking whether it can resume
+	private static final long PAUSED_POLL_TIMEOUT = 100;
+
+	private final long maxBytes;
+
+	private final long lowWaterMark;
+
+	private final boolean handedOff;
+
+	private final AtomicLong used = new AtomicLong();
+
+	private final Map<Consumer<?, ?>, Long> polled = new ConcurrentHashMap<>();
+
+	private final Map<TopicPartition, PartitionRecords> pending = new ConcurrentHashMap<>();
+
+	private final Map<Consumer<?, ?>, Pause> paused = new ConcurrentHashMap<>();
+
+	private final AtomicLong pauses = new AtomicLong();
+
+	private final LongAdder pausedTime = new LongAdder();
+
+	/**
+	 * Construct an instance with the provided properties.
+	 * @param maxBytes the budget.
+	 * @param lowWaterMark the bytes at or below which paused consumers resume.
+	 * @param handedOff true if records are processed on other threads than the consumer's.
+	 */
+	ConsumerMemoryBudget(long maxBytes, long lowWaterMark, boolean handedOff) {
+		this.maxBytes = maxBytes;
+		this.lowWaterMark = lowWaterMark;
+		this.handedOff = handedOff;
+	}
+
+	/**
+	 * Return a factory whose consumers are bounded by this budget.
+	 * @param delegate the factory creating the consumers.
+	 * @param <K> the key type.
+	 * @param <V> the value type.
+	 * @return the factory.
+	 */
+	<K, V> ConsumerFactory<K, V> consumerFactory(ConsumerFactory<K, V> delegate) {
+		return new InterceptingConsumerFactory<>(delegate, this);
+	}
+
+	@Override
+	public long beforePoll(Consumer<?, ?> consumer) {
+		if (this.handedOff) {
+			releaseRevoked(consumer);
+		}
+		else {
+			// the records of the previous poll have been processed
+			Long bytes = this.polled.remove(consumer);
+			if (bytes != null) {
+				this.used.addAndGet(-bytes);
+			}
+		}
+		Pause pause = this.paused.get(consumer);
+		if (this.used.get() > this.maxBytes) {
+			if (pause == null) {
+				pause = new Pause();
+				this.paused.put(consumer, pause);
+				this.pauses.incrementAndGet();
+			}
+			// including partitions assigned since the consumer paused
+			Set<TopicPartition> toPause = new HashSet<>(consumer.assignment());
+			toPause.removeAll(consumer.paused());
+			if (!toPause.isEmpty()) {
+				consumer.pause(toPause);
+				pause.partitions.addAll(toPause);
+			}
+		}
+		else if (pause != null && this.used.get() <= this.lowWaterMark) {
+			pause.partitions.retainAll(consumer.assignment());
+			consumer.resume(pause.partitions);
+			this.paused.remove(consumer);
+			this.pausedTime.add(System.nanoTime() - pause.start);
+			pause = null;
+		}
+		return pause != null ? PAUSED_POLL_TIMEOUT : -1;
+	}
+
+	@Override
+	public ConsumerRecords<?, ?> afterPoll(Consumer<?, ?> consumer, ConsumerRecords<?, ?> records) {
+		long total = 0;
+		for (ConsumerRecord<?, ?> record : records) {
+			long size = Math.max(0, record.serializedKeySize()) + Math.max(0, record.serializedValueSize());
+			total += size;
+			if (this.handedOff) {
+				TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+				this.pending.computeIfAbsent(partition, tp -> new PartitionRecords(consumer))
+						.add(consumer, record.offset(), size, this.used);
+			}
+		}
+		if (!this.handedOff && total > 0) {
+			this.polled.put(consumer, total);
+		}
+		this.used.addAndGet(total);
+		return records;
+	}
+
+	/**
+	 * Take the size of a record that is handed off; it must be released once the record
+	 * is processed. Records must be taken in offset order.
+	 * @param partition the record's partition.
+	 * @param offset the record's offset.
+	 * @return the size, or 0 if unknown.
+	 */
+	long take(TopicPartition partition, long offset) {
+		PartitionRecords records = this.pending.get(partition);
+		return records != null ? records.take(offset, this.used) : 0;
+	}
+
+	/**
+	 * Release the size of a processed record.
+	 * @param bytes the size returned by {@link #take}.
+	 */
+	void release(long bytes) {
+		this.used.addAndGet(-bytes);
+	}
+
+	private void releaseRevoked(Consumer<?, ?> consumer) {
+		Iterator<Map.Entry<TopicPartition, PartitionRecords>> iterator = this.pending.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<TopicPartition, PartitionRecords> entry = iterator.next();
+			if (entry.getValue().owner == consumer && !consumer.assignment().contains(entry.getKey())) {
+				iterator.remove();
+				entry.getValue().clear(this.used);
+			}
+		}
+	}
+
+	long getUsed() {
+		return this.used.get();
+	}
+
+	long getPauses() {
+		return this.pauses.get();
+	}
+
+	double getPausedTime(TimeUnit unit) {
+		long nanos = this.pausedTime.sum();
+		long now = System.nanoTime();
+		for (Pause pause : this.paused.values()) {
+			nanos += now - pause.start;
+		}
+		return (double) nanos / unit.toNanos(1);
+	}
+
+	private static final class Pause {
+
+		private final long start = System.nanoTime();
+
+		private final Set<TopicPartition> partitions = new HashSet<>();
+
+	}
+
+	/**
+	 * The sizes of the fetched records of a partition that are not yet handed off, in
+	 * offset order.
+	 */
+	private static final class PartitionRecords {
+
+		private final ArrayDeque<long[]> records = new ArrayDeque<>();
+
+		private volatile Consumer<?, ?> owner;
+
+		PartitionRecords(Consumer<?, ?> owner) {
+			this.owner = owner;
+		}
+
+		synchronized void add(Consumer<?, ?> consumer, long offset, long size, AtomicLong used) {
+			long[] last = this.records.peekLast();
+			if (last != null && offset <= last[0]) {
+				// fetched again from an earlier offset (for example, after a rebalance)
+				clear(used);
+			}
+			this.owner = consumer;
+			this.records.add(new long[] { offset, size });
+		}
+
+		synchronized long take(long offset, AtomicLong used) {
+			long[] record;
+			while ((record = this.records.peek()) != null && record[0] <= offset) {
+				this.records.poll();
+				if (record[0] == offset) {
+					return record[1];
+				}
+				// not handed off (for example, skipped)
+				used.addAndGet(-record[1]);
+			}
+			return 0;
+		}
+
+		synchronized void clear(AtomicLong used) {
+			for (long[] record : this.records) {
+				used.addAndGet(-record[1]);
+			}
+			this.records.clear();
+		}
+
+	}
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+
+/**
+ * Buffers encoded messages by target partition and emits them as envelopes (see
+ * {@link RecordEnvelope}), once per window, or when an envelope reaches the maximum
+ * number of messages or bytes.
+ * <p>
+ * Envelopes for a partition are emitted in order.
+ *
+ * @since 2.1.5
+ */
+class EnvelopeAccumulator {
+
+	private static final Log logger = LogFactory.getLog(EnvelopeAccumulator.class);
+
+	private final int maxMessages;
+
+	private final int maxBytes;
+
+	private final long window;
+
+	private final Emitter emitter;
+
+	private final AtomicLong messages = new AtomicLong();
+
+	private final AtomicLong envelopes = new AtomicLong();
+
+	private final Object flushMonitor = new Object();
+
+	// a null partition is one chosen by the producer
+	private final Map<Integer, Batch> batches = new LinkedHashMap<>();
+
+	private ScheduledExecutorService scheduler;
+
+	EnvelopeAccumulator(int maxMessages, int maxBytes, long window, Emitter emitter) {
+		this.maxMessages = maxMessages;
+		this.maxBytes = maxBytes;
+		this.window = window;
+		this.emitter = emitter;
+	}
+
+	synchronized void start(String name) {
+		if (this.scheduler == null) {
+			this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "envelope-" + name);
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.scheduler.scheduleWithFixedDelay(this::flush, this.window, this.window, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Add an encoded message to the envelope for its partition, emitting the envelope if it
+	 * is full.
+	 * @param partition the partition, or null if the producer selects the partition.
+	 * @param entry the encoded message.
+	 * @param message the message.
+	 */
+	void offer(@Nullable Integer partition, byte[] entry, Message<?> message) {
+		this.messages.incrementAndGet();
+		List<Batch> ready = new ArrayList<>(2);
+		// envelopes are taken and emitted under the flush monitor so that they are emitted in order
+		synchronized (this.flushMonitor) {
+			synchronized (this) {
+				Batch batch = this.batches.get(partition);
+				if (batch != null && batch.size + entry.length > this.maxBytes) {
+					ready.add(this.batches.remove(partition));
+					batch = null;
+				}
+				if (batch == null) {
+					batch = new Batch(partition);
+					this.batches.put(partition, batch);
+				}
+				batch.add(entry, message);
+				if (batch.entries.size() >= this.maxMessages || batch.size >= this.maxBytes) {
+					ready.add(this.batches.remove(partition));
+				}
+			}
+			ready.forEach(this::emit);
+		}
+	}
+
+	/**
+	 * Emit all buffered envelopes.
+	 */
+	void flush() {
+		synchronized (this.flushMonitor) {
+			List<Batch> ready;
+			synchronized (this) {
+				if (this.batches.isEmpty()) {
+					return;
+				}
+				ready = new ArrayList<>(this.batches.values());
+				this.batches.clear();
+			}
+			ready.forEach(this::emit);
+		}
+	}
+
+	private void emit(Batch batch) {
+		try {
+			this.emitter.emit(batch.partition, RecordEnvelope.pack(batch.entries, batch.size), batch.messages);
+			this.envelopes.incrementAndGet();
+		}
+		catch (Exception ex) {
+			logger.error("Failed to send envelope of " + batch.messages.size() + " messages", ex);
+		}
+	}
+
+	long getMessages() {
+		return this.messages.get();
+	}
+
+	long getEnvelopes() {
+		return this.envelopes.get();
+	}
+
+	/**
+	 * Stop the timer and emit any buffered envelopes.
+	 */
+	void stop() {
+		ScheduledExecutorService scheduler;
+		synchronized (this) {
+			scheduler = this.scheduler;
+			this.scheduler = null;
+		}
+		if (scheduler != null) {
+			scheduler.shutdown();
+			try {
+				scheduler.awaitTermination(this.window + 1000, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		flush();
+	}
+
+	/**
+	 * Sends an envelope.
+	 */
+	@FunctionalInterface
+	interface Emitter {
+
+		/**
+		 * Send the envelope.
+		 * @param partition the partition, or null if the producer selects the partition.
+		 * @param envelope the envelope.
+		 * @param messages the messages in the envelope.
+		 */
+		void emit(@Nullable Integer partition, byte[] envelope, List<Message<?>> messages);
+
+	}
+
+	private static final class Batch {
+
+		private final Integer partition;
+
+		private final List<byte[]> entries = new ArrayList<>();
+
+		private final List<Message<?>> messages = new ArrayList<>();
+
+		private int size;
+
+		Batch(Integer partition) {
+			this.partition = partition;
+		}
+
+		void add(byte[] entry, Message<?> message) {
+			this.entries.add(entry);
+			this.messages.add(message);
+			this.size += entry.length;
+		}
+
+	}
+
+}
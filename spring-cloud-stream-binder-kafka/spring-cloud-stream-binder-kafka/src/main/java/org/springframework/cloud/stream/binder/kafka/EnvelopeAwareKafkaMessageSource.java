@@ -0,0 +1,182 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import org.springframework.integration.IntegrationMessageHeaderAccessor;
+import org.springframework.integration.StaticMessageHeaderAccessor;
+import org.springframework.integration.acks.AcknowledgmentCallback;
+import org.springframework.integration.kafka.inbound.KafkaMessageSource;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.support.KafkaHeaderMapper;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+
+/**
+ * A {@link KafkaMessageSource} that unpacks envelope records (see {@link RecordEnvelope})
+ * and returns each message individually, with its position in the
+ * {@link KafkaMessageChannelBinder#ENVELOPE_INDEX} header and, as its raw record, a
+ * record of its own.
+ * <p>
+ * The envelope record is acknowledged once each of its messages is accepted or rejected.
+ * If a message is requeued, the envelope record is requeued and the remaining messages are
+ * discarded; when the record is received again, it resumes with the requeued message.
+ *
+ * @param <K> the key type.
+ * @param <V> the value type.
+ * @since 2.1.5
+ */
+class EnvelopeAwareKafkaMessageSource<K, V> extends KafkaMessageSource<K, V> {
+
+	private final Deque<Message<?>> unpacked = new ArrayDeque<>();
+
+	private final KafkaHeaderMapper headerMapper;
+
+	private String resumeRecord;
+
+	private int resumeIndex;
+
+	EnvelopeAwareKafkaMessageSource(ConsumerFactory<K, V> consumerFactory, @Nullable KafkaHeaderMapper headerMapper,
+			String... topics) {
+
+		super(consumerFactory, topics);
+		this.headerMapper = headerMapper;
+	}
+
+	@Override
+	protected synchronized Object doReceive() {
+		Message<?> next = this.unpacked.poll();
+		if (next != null) {
+			return next;
+		}
+		Object received = super.doReceive();
+		if (!(received instanceof Message)
+				|| !EnvelopeAwareMessageDrivenChannelAdapter.isEnvelope((Message<?>) received)) {
+			return received;
+		}
+		Message<?> envelope = (Message<?>) received;
+		List<RecordEnvelope.Entry> entries = RecordEnvelope.unpack((byte[]) envelope.getPayload());
+		String record = EnvelopeAwareMessageDrivenChannelAdapter.recordId(envelope);
+		int start = record.equals(this.resumeRecord) ? this.resumeIndex : 0;
+		this.resumeRecord = null;
+		AcknowledgmentCallback callback = StaticMessageHeaderAccessor.getAcknowledgmentCallback(envelope);
+		EnvelopeAcknowledgment acknowledgment = new EnvelopeAcknowledgment(callback, record,
+				entries.size() - start);
+		for (int i = start; i < entries.size(); i++) {
+			RecordEnvelope.Entry entry = entries.get(i);
+			MessageBuilder<?> builder = MessageBuilder.fromMessage(EnvelopeAwareMessageDrivenChannelAdapter
+					.unpacked(envelope, entry, i, this.headerMapper))
+					.setHeader(IntegrationMessageHeaderAccessor.ACKNOWLEDGMENT_CALLBACK,
+							acknowledgment.forMessage(i));
+			if (envelope.getHeaders().containsKey(KafkaHeaders.RAW_DATA)) {
+				builder.setHeader(KafkaHeaders.RAW_DATA,
+						EnvelopeAwareMessageDrivenChannelAdapter.entryRecord(envelope, entry));
+			}
+			this.unpacked.add(builder.build());
+		}
+		if (this.unpacked.isEmpty()) {
+			// an empty envelope
+			if (callback != null) {
+				callback.acknowledge(AcknowledgmentCallback.Status.ACCEPT);
+			}
+			return null;
+		}
+		return this.unpacked.poll();
+	}
+
+	private synchronized void requeued(String record, int index) {
+		this.unpacked.clear();
+		this.resumeRecord = record;
+		this.resumeIndex = index;
+	}
+
+	/**
+	 * Acknowledges an envelope record once each of its messages is acknowledged.
+	 */
+	private final class EnvelopeAcknowledgment {
+
+		private final AcknowledgmentCallback delegate;
+
+		private final String record;
+
+		private int remaining;
+
+		private boolean requeued;
+
+		EnvelopeAcknowledgment(@Nullable AcknowledgmentCallback delegate, String record, int count) {
+			this.delegate = delegate;
+			this.record = record;
+			this.remaining = count;
+		}
+
+		AcknowledgmentCallback forMessage(int index) {
+			return new AcknowledgmentCallback() {
+
+				private boolean acknowledged;
+
+				private boolean autoAck = true;
+
+				@Override
+				public void acknowledge(Status status) {
+					if (!this.acknowledged) {
+						this.acknowledged = true;
+						acknowledged(index, status);
+					}
+				}
+
+				@Override
+				public boolean isAcknowledged() {
+					return this.acknowledged;
+				}
+
+				@Override
+				public void noAutoAck() {
+					this.autoAck = false;
+				}
+
+				@Override
+				public boolean isAutoAck() {
+					return this.autoAck;
+				}
+
+			};
+		}
+
+		private synchronized void acknowledged(int index, AcknowledgmentCallback.Status status) {
+			if (this.requeued) {
+				return;
+			}
+			if (AcknowledgmentCallback.Status.REQUEUE.equals(status)) {
+				this.requeued = true;
+				requeued(this.record, index);
+				if (this.delegate != null) {
+					this.delegate.acknowledge(status);
+				}
+			}
+			else if (--this.remaining == 0 && this.delegate != null) {
+				this.delegate.acknowledge(AcknowledgmentCallback.Status.ACCEPT);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.record.TimestampType;
+
+import org.springframework.core.AttributeAccessor;
+import org.springframework.integration.kafka.inbound.KafkaMessageDrivenChannelAdapter;
+import org.springframework.integration.support.ErrorMessageUtils;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.kafka.listener.AbstractMessageListenerContainer;
+import org.springframework.kafka.support.KafkaHeaderMapper;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.support.KafkaNull;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.retry.RecoveryCallback;
+import org.springframework.retry.support.RetryTemplate;
+
+/**
+ * A {@link KafkaMessageDrivenChannelAdapter} that unpacks envelope records (see
+ * {@link RecordEnvelope}) and sends each message individually, with its position in the
+ * {@link KafkaMessageChannelBinder#ENVELOPE_INDEX} header.
+ * <p>
+ * Each message is retried with the adapter's retry template; when its attempts are
+ * exhausted, the error message (for the recovery callback or the error channel) has a
+ * record for that message only (see {@link RecordEnvelope#toRecord}) as its raw record,
+ * and the remaining messages are sent. Without a recovery callback or error channel, the
+ * failure is thrown for the whole envelope record; a redelivery of the same record on
+ * this thread resumes with the failed message.
+ *
+ * @param <K> the key type.
+ * @param <V> the value type.
+ * @since 2.1.5
+ */
+class EnvelopeAwareMessageDrivenChannelAdapter<K, V> extends KafkaMessageDrivenChannelAdapter<K, V> {
+
+	private final ThreadLocal<Resume> resume = new ThreadLocal<>();
+
+	private final ThreadLocal<ConsumerRecord<?, ?>> failedEntry = new ThreadLocal<>();
+
+	private final KafkaHeaderMapper headerMapper;
+
+	private RetryTemplate retryTemplate;
+
+	private RecoveryCallback<Object> recoveryCallback;
+
+	EnvelopeAwareMessageDrivenChannelAdapter(AbstractMessageListenerContainer<K, V> messageListenerContainer,
+			@Nullable KafkaHeaderMapper headerMapper) {
+
+		super(messageListenerContainer);
+		this.headerMapper = headerMapper;
+	}
+
+	@Override
+	public void setRetryTemplate(RetryTemplate retryTemplate) {
+		super.setRetryTemplate(retryTemplate);
+		this.retryTemplate = retryTemplate;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void setRecoveryCallback(RecoveryCallback<? extends Object> recoveryCallback) {
+		super.setRecoveryCallback(recoveryCallback);
+		this.recoveryCallback = (RecoveryCallback<Object>) recoveryCallback;
+	}
+
+	@Override
+	protected void sendMessage(Message<?> message) {
+		if (!isEnvelope(message)) {
+			super.sendMessage(message);
+			return;
+		}
+		List<RecordEnvelope.Entry> entries = RecordEnvelope.unpack((byte[]) message.getPayload());
+		String record = recordId(message);
+		Resume resume = this.resume.get();
+		int start = resume != null && resume.record.equals(record) ? resume.index : 0;
+		this.resume.remove();
+		for (int i = start; i < entries.size(); i++) {
+			RecordEnvelope.Entry entry = entries.get(i);
+			Message<?> unpacked = unpacked(message, entry, i, this.headerMapper);
+			ConsumerRecord<?, ?> entryRecord = entryRecord(message, entry);
+			try {
+				deliver(unpacked, entryRecord);
+			}
+			catch (RuntimeException ex) {
+				if (!recover(unpacked, entryRecord, ex)) {
+					this.resume.set(new Resume(record, i, unpacked, entryRecord));
+					throw ex;
+				}
+			}
+		}
+	}
+
+	/**
+	 * If a failure of a record thrown by {@link #sendMessage(Message)} on this thread is that
+	 * of one of its messages, send the error message of that message to a channel; the next
+	 * delivery of the record on this thread resumes after that message.
+	 * @param message the record's message.
+	 * @param channel the channel.
+	 * @param ex the failure.
+	 * @return true if the error message was sent, false if the record is not an envelope.
+	 */
+	boolean recoverFailedEntry(Message<?> message, MessageChannel channel, RuntimeException ex) {
+		Resume resume = this.resume.get();
+		if (resume == null || resume.message == null || !isEnvelope(message)
+				|| !resume.record.equals(recordId(message))) {
+			return false;
+		}
+		this.resume.set(new Resume(resume.record, resume.index + 1, null, null));
+		this.failedEntry.set(resume.entryRecord);
+		try {
+			getMessagingTemplate().send(channel, buildErrorMessage(resume.message, ex));
+		}
+		finally {
+			this.failedEntry.remove();
+		}
+		return true;
+	}
+
+	/**
+	 * Send an unpacked message to the output channel.
+	 * @param message the message.
+	 */
+	void sendToOutput(Message<?> message) {
+		getMessagingTemplate().send(getOutputChannel(), message);
+	}
+
+	private void deliver(Message<?> message, ConsumerRecord<?, ?> entryRecord) {
+		if (this.retryTemplate == null) {
+			sendToOutput(message);
+			return;
+		}
+		// the attributes of the error message built by the recovery callback
+		this.retryTemplate.execute(context -> {
+			context.setAttribute(ErrorMessageUtils.INPUT_MESSAGE_CONTEXT_KEY, message);
+			context.setAttribute(KafkaHeaders.RAW_DATA, entryRecord);
+			sendToOutput(message);
+			return null;
+		}, this.recoveryCallback);
+	}
+
+	private boolean recover(Message<?> message, ConsumerRecord<?, ?> entryRecord, RuntimeException ex) {
+		if (this.retryTemplate != null && this.recoveryCallback != null) {
+			// the retry template has already recovered
+			return false;
+		}
+		this.failedEntry.set(entryRecord);
+		try {
+			return sendErrorMessageIfNecessary(message, ex);
+		}
+		finally {
+			this.failedEntry.remove();
+		}
+	}
+
+	@Override
+	protected AttributeAccessor getErrorMessageAttributes(Message<?> message) {
+		ConsumerRecord<?, ?> entryRecord = this.failedEntry.get();
+		if (entryRecord == null) {
+			return super.getErrorMessageAttributes(message);
+		}
+		AttributeAccessor attributes = ErrorMessageUtils.getAttributeAccessor(message, null);
+		attributes.setAttribute(KafkaHeaders.RAW_DATA, entryRecord);
+		return attributes;
+	}
+
+	static boolean isEnvelope(Message<?> message) {
+		return message.getPayload() instanceof byte[] && message.getHeaders().containsKey(RecordEnvelope.HEADER);
+	}
+
+	/**
+	 * Return the message for a message of an envelope record.
+	 * @param envelope the envelope record's message.
+	 * @param entry the message.
+	 * @param index the index of the message in the envelope.
+	 * @param headerMapper the header mapper of the message's headers, if any.
+	 * @return the message.
+	 */
+	static Message<?> unpacked(Message<?> envelope, RecordEnvelope.Entry entry, int index,
+			@Nullable KafkaHeaderMapper headerMapper) {
+
+		Map<String, Object> headers = new HashMap<>(envelope.getHeaders());
+		headers.remove(MessageHeaders.ID);
+		headers.remove(MessageHeaders.TIMESTAMP);
+		headers.remove(RecordEnvelope.HEADER);
+		if (headerMapper != null) {
+			headerMapper.toHeaders(entry.getHeaders(), headers);
+		}
+		if (entry.getKey() != null) {
+			headers.put(KafkaHeaders.RECEIVED_MESSAGE_KEY, entry.getKey());
+		}
+		else {
+			headers.remove(KafkaHeaders.RECEIVED_MESSAGE_KEY);
+		}
+		headers.put(KafkaMessageChannelBinder.ENVELOPE_INDEX, index);
+		return MessageBuilder.withPayload(entry.getValue() != null ? entry.getValue() : KafkaNull.INSTANCE)
+				.copyHeaders(headers)
+				.build();
+	}
+
+	static String recordId(Message<?> message) {
+		return message.getHeaders().get(KafkaHeaders.RECEIVED_TOPIC) + "-"
+				+ message.getHeaders().get(KafkaHeaders.RECEIVED_PARTITION_ID) + "@"
+				+ message.getHeaders().get(KafkaHeaders.OFFSET);
+	}
+
+	/**
+	 * Return the record for a message of an envelope record (see
+	 * {@link RecordEnvelope#toRecord}).
+	 * @param envelope the envelope record's message.
+	 * @param entry the message.
+	 * @return the record.
+	 */
+	static ConsumerRecord<?, ?> entryRecord(Message<?> envelope, RecordEnvelope.Entry entry) {
+		MessageHeaders headers = envelope.getHeaders();
+		Long timestamp = headers.get(KafkaHeaders.RECEIVED_TIMESTAMP, Long.class);
+		String timestampType = headers.get(KafkaHeaders.TIMESTAMP_TYPE, String.class);
+		return RecordEnvelope.toRecord(entry, headers.get(KafkaHeaders.RECEIVED_TOPIC, String.class),
+				headers.get(KafkaHeaders.RECEIVED_PARTITION_ID, Integer.class),
+				headers.get(KafkaHeaders.OFFSET, Long.class),
+				timestamp != null ? timestamp : ConsumerRecord.NO_TIMESTAMP,
+				timestampType != null ? TimestampType.valueOf(timestampType) : TimestampType.NO_TIMESTAMP_TYPE);
+	}
+
+	private static final class Resume {
+
+		private final String record;
+
+		private final int index;
+
+		private final Message<?> message;
+
+		private final ConsumerRecord<?, ?> entryRecord;
+
+		Resume(String record, int index, @Nullable Message<?> message, @Nullable ConsumerRecord<?, ?> entryRecord) {
+			this.record = record;
+			this.index = index;
+			this.message = message;
+			this.entryRecord = entryRecord;
+		}
+
+	}
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.core.convert.TypeDescriptor;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.integration.expression.FunctionExpression;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Direct accessors for the simple expressions evaluated for every outbound record, so
+ * that SpEL is only interpreted for expressions that need it.
+ * <p>
+ * Header access ({@code headers['foo']}, {@code headers.foo},
+ * {@code headers.get('foo')}), the payload and payload property paths
+ * ({@code payload.foo.bar}) are resolved without SpEL; anything else, and any case the
+ * accessor cannot resolve exactly as SpEL would (such as a missing property), is
+ * delegated to the original expression.
+ *
+ * @since 2.1.5
+ */
+final class FastPathExpressions {
+
+	private static final String IDENTIFIER = "[A-Za-z_$][\\w$]*";
+
+	private static final Pattern HEADER_INDEX = Pattern.compile("headers\\s*\\[\\s*(['\"])([^'\"]+)\\1\\s*\\]");
+
+	private static final Pattern HEADER_GET = Pattern.compile("headers\\.get\\(\\s*(['\"])([^'\"]+)\\1\\s*\\)");
+
+	private static final Pattern PAYLOAD_PATH = Pattern.compile("payload((?:\\." + IDENTIFIER + ")*)");
+
+	private static final Object UNRESOLVED = new Object();
+
+	private static final Map<Class<?>, Map<String, Optional<Method>>> GETTERS = new ConcurrentHashMap<>();
+
+	private FastPathExpressions() {
+		super();
+	}
+
+	/**
+	 * Return an expression that reads the header directly.
+	 * @param headerName the header.
+	 * @return the expression.
+	 */
+	static Expression header(String headerName) {
+		return new FunctionExpression<Message<?>>(message -> message.getHeaders().get(headerName));
+	}
+
+	/**
+	 * Return an equivalent expression with a direct accessor, if the expression is simple
+	 * enough, otherwise the expression itself.
+	 * @param expression the expression.
+	 * @return the optimized expression.
+	 */
+	@Nullable
+	static Expression optimize(@Nullable Expression expression) {
+		if (expression == null || expression instanceof FunctionExpression) {
+			return expression;
+		}
+		String expressionString = expression.getExpressionString().trim();
+		Matcher matcher = HEADER_INDEX.matcher(expressionString);
+		if (matcher.matches()) {
+			String headerName = matcher.group(2);
+			return new AccessorExpression(expression, root -> ((Message<?>) root).getHeaders().get(headerName));
+		}
+		matcher = HEADER_GET.matcher(expressionString);
+		if (matcher.matches()) {
+			String headerName = matcher.group(2);
+			return new AccessorExpression(expression, root -> ((Message<?>) root).getHeaders().get(headerName));
+		}
+		if (expressionString.startsWith("headers.")
+				&& expressionString.substring("headers.".length()).matches(IDENTIFIER)) {
+			String headerName = expressionString.substring("headers.".length());
+			return new AccessorExpression(expression, root -> mapEntry(((Message<?>) root).getHeaders(), headerName));
+		}
+		matcher = PAYLOAD_PATH.matcher(expressionString);
+		if (matcher.matches()) {
+			String path = matcher.group(1);
+			String[] properties = path.isEmpty() ? new String[0] : path.substring(1).split("\\.");
+			return new AccessorExpression(expression, root -> propertyPath(((Message<?>) root).getPayload(),
+					properties));
+		}
+		return expression;
+	}
+
+	private static Object propertyPath(Object target, String[] properties) {
+		Object value = target;
+		for (String property : properties) {
+			if (value == null) {
+				return UNRESOLVED;
+			}
+			value = value instanceof Map ? mapEntry((Map<?, ?>) value, property) : property(value, property);
+			if (value == UNRESOLVED) {
+				return UNRESOLVED;
+			}
+		}
+		return value;
+	}
+
+	private static Object mapEntry(Map<?, ?> map, String key) {
+		Object value = map.get(key);
+		return value != null || map.containsKey(key) ? value : UNRESOLVED;
+	}
+
+	private static Object property(Object target, String property) {
+		Optional<Method> getter = GETTERS.computeIfAbsent(target.getClass(), type -> new ConcurrentHashMap<>())
+				.computeIfAbsent(property, name -> {
+					PropertyDescriptor descriptor = BeanUtils.getPropertyDescriptor(target.getClass(), name);
+					Method method = descriptor != null ? descriptor.getReadMethod() : null;
+					if (method != null) {
+						ReflectionUtils.makeAccessible(method);
+					}
+					return Optional.ofNullable(method);
+				});
+		return getter.isPresent() ? ReflectionUtils.invokeMethod(getter.get(), target) : UNRESOLVED;
+	}
+
+	/**
+	 * An expression that applies the accessor, falling back to the original expression if
+	 * the accessor cannot resolve the value.
+	 */
+	private static final class AccessorExpression extends FunctionExpression<Object> {
+
+		private final Expression fallback;
+
+		private final Function<Object, Object> accessor;
+
+		AccessorExpression(Expression fallback, Function<Object, Object> accessor) {
+			super(root -> {
+				Object value = root instanceof Message ? accessor.apply(root) : UNRESOLVED;
+				return value != UNRESOLVED ? value : fallback.getValue(root);
+			});
+			this.fallback = fallback;
+			this.accessor = accessor;
+		}
+
+		@Override
+		public Object getValue(EvaluationContext context, Object rootObject) {
+			Object value = rootObject instanceof Message ? this.accessor.apply(rootObject) : UNRESOLVED;
+			return value != UNRESOLVED ? value : this.fallback.getValue(context, rootObject);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <T> T getValue(EvaluationContext context, Object rootObject, @Nullable Class<T> desiredResultType) {
+			Object value = rootObject instanceof Message ? this.accessor.apply(rootObject) : UNRESOLVED;
+			if (value == UNRESOLVED) {
+				return this.fallback.getValue(context, rootObject, desiredResultType);
+			}
+			if (desiredResultType == null || value == null || desiredResultType.isInstance(value)) {
+				return (T) value;
+			}
+			return (T) context.getTypeConverter().convertValue(value, TypeDescriptor.forObject(value),
+					TypeDescriptor.valueOf(desiredResultType));
+		}
+
+		@Override
+		public String getExpressionString() {
+			// called by the super constructor
+			return this.fallback != null ? this.fallback.getExpressionString() : super.getExpressionString();
+		}
+
+	}
+
+}
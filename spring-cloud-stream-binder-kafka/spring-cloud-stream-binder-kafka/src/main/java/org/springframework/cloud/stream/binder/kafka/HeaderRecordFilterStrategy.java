@@ -0,0 +1,113 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+
+import org.springframework.kafka.listener.adapter.RecordFilterStrategy;
+import org.springframework.util.StringUtils;
+
+/**
+ * Discards records, before they are converted to messages, unless the last value of each
+ * of the configured headers is one of its accepted values. Values are compared as bytes,
+ * with the accepted values encoded in UTF-8, either raw or as a JSON string, as written by
+ * the {@link BinderHeaderMapper} for {@code String} headers; records without one of the
+ * headers are discarded.
+ *
+ * @since 2.1.5
+ */
+class HeaderRecordFilterStrategy implements RecordFilterStrategy<Object, Object> {
+
+	private static final ObjectMapper JSON = new ObjectMapper();
+
+	private final String[] headers;
+
+	private final byte[][][] acceptedValues;
+
+	private final AtomicLong evaluated = new AtomicLong();
+
+	private final AtomicLong discarded = new AtomicLong();
+
+	/**
+	 * Construct an instance with the provided properties.
+	 * @param acceptedValues the comma-delimited accepted values of each header.
+	 */
+	HeaderRecordFilterStrategy(Map<String, String> acceptedValues) {
+		this.headers = new String[acceptedValues.size()];
+		this.acceptedValues = new byte[acceptedValues.size()][][];
+		int i = 0;
+		for (Map.Entry<String, String> entry : acceptedValues.entrySet()) {
+			this.headers[i] = entry.getKey();
+			String[] values = StringUtils.commaDelimitedListToStringArray(entry.getValue());
+			this.acceptedValues[i] = new byte[values.length * 2][];
+			for (int j = 0; j < values.length; j++) {
+				String value = values[j].trim();
+				this.acceptedValues[i][j * 2] = value.getBytes(StandardCharsets.UTF_8);
+				this.acceptedValues[i][j * 2 + 1] = json(value);
+			}
+			i++;
+		}
+	}
+
+	private static byte[] json(String value) {
+		try {
+			return JSON.writeValueAsBytes(value);
+		}
+		catch (JsonProcessingException ex) {
+			throw new IllegalStateException("Failed to encode the accepted header value " + value, ex);
+		}
+	}
+
+	@Override
+	public boolean filter(ConsumerRecord<Object, Object> record) {
+		this.evaluated.incrementAndGet();
+		for (int i = 0; i < this.headers.length; i++) {
+			Header header = record.headers().lastHeader(this.headers[i]);
+			if (header == null || !accepted(header.value(), this.acceptedValues[i])) {
+				this.discarded.incrementAndGet();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean accepted(byte[] value, byte[][] acceptedValues) {
+		for (byte[] acceptedValue : acceptedValues) {
+			if (Arrays.equals(value, acceptedValue)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	long getEvaluated() {
+		return this.evaluated.get();
+	}
+
+	long getDiscarded() {
+		return this.discarded.get();
+	}
+
+}
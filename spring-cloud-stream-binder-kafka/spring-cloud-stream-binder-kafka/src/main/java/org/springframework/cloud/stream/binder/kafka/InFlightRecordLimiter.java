@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.clients.producer.ProducerRecord;
+
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaProducerProperties;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.util.concurrent.ListenableFuture;
+
+/**
+ * Limits the number of records a producer binding has sent but not yet had acknowledged;
+ * when the window is full, the sending thread is blocked, blocked with a timeout, or
+ * rejected, according to the {@link KafkaProducerProperties.BackPressure} policy.
+ *
+ * @since 2.1.5
+ */
+class InFlightRecordLimiter {
+
+	private final int maxInFlight;
+
+	private final Semaphore permits;
+
+	private final KafkaProducerProperties.BackPressure backPressure;
+
+	private final long timeout;
+
+	private final AtomicLong waits = new AtomicLong();
+
+	private final AtomicLong waitNanos = new AtomicLong();
+
+	private final AtomicLong rejected = new AtomicLong();
+
+	InFlightRecordLimiter(int maxInFlight, KafkaProducerProperties.BackPressure backPressure, long timeout) {
+		this.maxInFlight = maxInFlight;
+		this.permits = new Semaphore(maxInFlight);
+		this.backPressure = backPressure;
+		this.timeout = timeout;
+	}
+
+	void acquire() {
+		if (this.permits.tryAcquire()) {
+			return;
+		}
+		boolean acquired = false;
+		long start = System.nanoTime();
+		try {
+			switch (this.backPressure) {
+				case block:
+					this.permits.acquire();
+					acquired = true;
+					break;
+				case timeout:
+					acquired = this.permits.tryAcquire(this.timeout, TimeUnit.MILLISECONDS);
+					break;
+				default:
+					break;
+			}
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for an in-flight record to complete", ex);
+		}
+		finally {
+			if (this.backPressure != KafkaProducerProperties.BackPressure.reject) {
+				this.waits.incrementAndGet();
+				this.waitNanos.addAndGet(System.nanoTime() - start);
+			}
+		}
+		if (!acquired) {
+			this.rejected.incrementAndGet();
+			throw new IllegalStateException("Too many in-flight records; the limit is " + this.maxInFlight);
+		}
+	}
+
+	void release() {
+		this.permits.release();
+	}
+
+	int getInFlight() {
+		return this.maxInFlight - this.permits.availablePermits();
+	}
+
+	long getWaits() {
+		return this.waits.get();
+	}
+
+	double getWaitTime(TimeUnit unit) {
+		return (double) this.waitNanos.get() / TimeUnit.NANOSECONDS.convert(1, unit);
+	}
+
+	long getRejected() {
+		return this.rejected.get();
+	}
+
+	/**
+	 * A {@link KafkaTemplate} that acquires a permit before each send, and releases it
+	 * when the send completes.
+	 *
+	 * @param <K> the key type.
+	 * @param <V> the value type.
+	 */
+	static class LimitingKafkaTemplate<K, V> extends KafkaTemplate<K, V> {
+
+		private final InFlightRecordLimiter limiter;
+
+		LimitingKafkaTemplate(ProducerFactory<K, V> producerFactory, InFlightRecordLimiter limiter) {
+			super(producerFactory);
+			this.limiter = limiter;
+		}
+
+		@Override
+		protected ListenableFuture<SendResult<K, V>> doSend(ProducerRecord<K, V> producerRecord) {
+			this.limiter.acquire();
+			ListenableFuture<SendResult<K, V>> future;
+			try {
+				future = super.doSend(producerRecord);
+			}
+			catch (RuntimeException ex) {
+				this.limiter.release();
+				throw ex;
+			}
+			future.addCallback(result -> this.limiter.release(), ex -> this.limiter.release());
+			return future;
+		}
+
+	}
+
+}
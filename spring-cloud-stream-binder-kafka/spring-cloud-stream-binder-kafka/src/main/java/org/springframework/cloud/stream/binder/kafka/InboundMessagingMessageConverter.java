@@ -0,0 +1,65 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.lang.reflect.Type;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.converter.KafkaMessageHeaders;
+import org.springframework.kafka.support.converter.MessagingMessageConverter;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+
+/**
+ * The binder's default inbound {@link MessagingMessageConverter}; when message ids are
+ * generated, they are taken from a counter (with a random prefix per converter) instead
+ * of the {@link MessageHeaders} id generator, which draws random bits for each record.
+ *
+ * @since 2.1.5
+ */
+class InboundMessagingMessageConverter extends MessagingMessageConverter {
+
+	private final long idPrefix = UUID.randomUUID().getMostSignificantBits();
+
+	private final AtomicLong idSequence = new AtomicLong();
+
+	private boolean generateMessageId;
+
+	@Override
+	public void setGenerateMessageId(boolean generateMessageId) {
+		this.generateMessageId = generateMessageId;
+	}
+
+	@Override
+	public Message<?> toMessage(ConsumerRecord<?, ?> record, Acknowledgment acknowledgment, Consumer<?, ?> consumer,
+			Type type) {
+
+		Message<?> message = super.toMessage(record, acknowledgment, consumer, type);
+		if (this.generateMessageId) {
+			// not yet visible to any other thread
+			((KafkaMessageHeaders) message.getHeaders()).getRawHeaders().put(MessageHeaders.ID,
+					new UUID(this.idPrefix, this.idSequence.incrementAndGet()));
+		}
+		return message;
+	}
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.Map;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import org.springframework.kafka.core.ConsumerFactory;
+
+/**
+ * A {@link ConsumerFactory} whose consumers call a {@link PollInterceptor} around each
+ * {@code poll()}, on the consumer thread; the listener container does not otherwise
+ * give access to the consumer between polls.
+ *
+ * @param <K> the key type.
+ * @param <V> the value type.
+ * @since 2.1.5
+ */
+class InterceptingConsumerFactory<K, V> implements ConsumerFactory<K, V> {
+
+	private final ConsumerFactory<K, V> delegate;
+
+	private final PollInterceptor interceptor;
+
+	InterceptingConsumerFactory(ConsumerFactory<K, V> delegate, PollInterceptor interceptor) {
+		this.delegate = delegate;
+		this.interceptor = interceptor;
+	}
+
+	@Override
+	public Consumer<K, V> createConsumer(String groupId, String clientIdPrefix, String clientIdSuffix) {
+		return intercepted(this.delegate.createConsumer(groupId, clientIdPrefix, clientIdSuffix), this.interceptor);
+	}
+
+	@Override
+	public boolean isAutoCommit() {
+		return this.delegate.isAutoCommit();
+	}
+
+	@Override
+	public Map<String, Object> getConfigurationProperties() {
+		return this.delegate.getConfigurationProperties();
+	}
+
+	@Override
+	public Deserializer<K> getKeyDeserializer() {
+		return this.delegate.getKeyDeserializer();
+	}
+
+	@Override
+	public Deserializer<V> getValueDeserializer() {
+		return this.delegate.getValueDeserializer();
+	}
+
+	/**
+	 * Return a consumer that calls the interceptor around each {@code poll()}.
+	 * @param consumer the consumer.
+	 * @param interceptor the interceptor.
+	 * @param <K> the key type.
+	 * @param <V> the value type.
+	 * @return the intercepted consumer.
+	 */
+	@SuppressWarnings("unchecked")
+	static <K, V> Consumer<K, V> intercepted(Consumer<K, V> consumer, PollInterceptor interceptor) {
+		return (Consumer<K, V>) Proxy.newProxyInstance(InterceptingConsumerFactory.class.getClassLoader(),
+				new Class<?>[] { Consumer.class }, (proxy, method, args) -> {
+					boolean poll = "poll".equals(method.getName());
+					if (poll) {
+						long maxTimeout = interceptor.beforePoll(consumer);
+						if (maxTimeout >= 0) {
+							if (args[0] instanceof Duration && ((Duration) args[0]).toMillis() > maxTimeout) {
+								args[0] = Duration.ofMillis(maxTimeout);
+							}
+							else if (args[0] instanceof Long && (Long) args[0] > maxTimeout) {
+								args[0] = maxTimeout;
+							}
+						}
+					}
+					Object result;
+					try {
+						result = method.invoke(consumer, args);
+					}
+					catch (InvocationTargetException ex) {
+						throw ex.getTargetException();
+					}
+					if (poll) {
+						result = interceptor.afterPoll(consumer, (ConsumerRecords<?, ?>) result);
+					}
+					return result;
+				});
+	}
+
+	/**
+	 * Called on the consumer thread around each {@code poll()}.
+	 */
+	interface PollInterceptor {
+
+		/**
+		 * Called before a poll.
+		 * @param consumer the consumer.
+		 * @return the maximum time (ms) the poll may wait for records, or -1 for the
+		 * container's poll timeout.
+		 */
+		long beforePoll(Consumer<?, ?> consumer);
+
+		/**
+		 * Called after a poll.
+		 * @param consumer the consumer.
+		 * @param records the records returned by the poll.
+		 * @return the records to return to the container, usually the polled records.
+		 */
+		default ConsumerRecords<?, ?> afterPoll(Consumer<?, ?> consumer, ConsumerRecords<?, ?> records) {
+			return records;
+		}
+
+	}
+
+}
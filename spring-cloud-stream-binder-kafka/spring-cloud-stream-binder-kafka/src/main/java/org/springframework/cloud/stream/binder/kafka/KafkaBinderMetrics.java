@@ -28,6 +28,8 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.binder.MeterBinder;
@@ -36,6 +38,8 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.serialization.ByteArrayDeserializer;
@@ -45,6 +49,7 @@ import org.springframework.cloud.stream.binder.kafka.properties.KafkaBinderConfi
 import org.springframework.context.ApplicationListener;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.listener.MessageListenerContainer;
 import org.springframework.lang.Nullable;
 import org.springframework.util.ObjectUtils;
 
@@ -67,6 +72,60 @@ public class KafkaBinderMetrics implements MeterBinder, ApplicationListener<Bind
 
 	static final String METRIC_NAME = "spring.cloud.stream.binder.kafka.offset";
 
+	static final String IN_FLIGHT_METRIC_NAME = "spring.cloud.stream.binder.kafka.producer.inflight";
+
+	static final String IN_FLIGHT_WAIT_METRIC_NAME = "spring.cloud.stream.binder.kafka.producer.inflight.wait";
+
+	static final String IN_FLIGHT_REJECTED_METRIC_NAME = "spring.cloud.stream.binder.kafka.producer.inflight.rejected";
+
+	static final String BATCH_SIZE_METRIC_NAME = "spring.cloud.stream.binder.kafka.producer.batch.size";
+
+	static final String LINGER_METRIC_NAME = "spring.cloud.stream.binder.kafka.producer.linger";
+
+	static final String BATCHING_ADJUSTMENTS_METRIC_NAME =
+			"spring.cloud.stream.binder.kafka.producer.batching.adjustments";
+
+	static final String COMPRESSION_RATIO_METRIC_NAME = "spring.cloud.stream.binder.kafka.producer.compression.ratio";
+
+	static final String COMPRESSION_SWITCHES_METRIC_NAME =
+			"spring.cloud.stream.binder.kafka.producer.compression.switches";
+
+	static final String CONFLATION_RECEIVED_METRIC_NAME =
+			"spring.cloud.stream.binder.kafka.producer.conflation.received";
+
+	static final String CONFLATION_EMITTED_METRIC_NAME =
+			"spring.cloud.stream.binder.kafka.producer.conflation.emitted";
+
+	static final String COMMITS_METRIC_NAME = "spring.cloud.stream.binder.kafka.consumer.commits";
+
+	static final String CONCURRENCY_METRIC_NAME = "spring.cloud.stream.binder.kafka.consumer.concurrency";
+
+	static final String CONCURRENCY_CHANGES_METRIC_NAME =
+			"spring.cloud.stream.binder.kafka.consumer.concurrency.changes";
+
+	static final String PAUSED_PARTITIONS_METRIC_NAME = "spring.cloud.stream.binder.kafka.consumer.paused.partitions";
+
+	static final String MEMORY_USED_METRIC_NAME = "spring.cloud.stream.binder.kafka.consumer.memory.used";
+
+	static final String MEMORY_PAUSED_METRIC_NAME = "spring.cloud.stream.binder.kafka.consumer.memory.paused";
+
+	static final String PRIORITY_PAUSED_METRIC_NAME =
+			"spring.cloud.stream.binder.kafka.consumer.priority.paused.partitions";
+
+	static final String CONSUMER_CONFLATION_RECEIVED_METRIC_NAME =
+			"spring.cloud.stream.binder.kafka.consumer.conflation.received";
+
+	static final String CONSUMER_CONFLATION_EMITTED_METRIC_NAME =
+			"spring.cloud.stream.binder.kafka.consumer.conflation.emitted";
+
+	static final String FILTER_EVALUATED_METRIC_NAME = "spring.cloud.stream.binder.kafka.consumer.filter.evaluated";
+
+	static final String FILTER_DISCARDED_METRIC_NAME = "spring.cloud.stream.binder.kafka.consumer.filter.discarded";
+
+	static final String CONVERSION_QUEUED_METRIC_NAME = "spring.cloud.stream.binder.kafka.consumer.conversion.queued";
+
+	static final String CONVERSION_TIME_METRIC_NAME = "spring.cloud.stream.binder.kafka.consumer.conversion.time";
+
 	private final KafkaMessageChannelBinder binder;
 
 	private final KafkaBinderConfigurationProperties binderConfigurationProperties;
@@ -119,6 +178,184 @@ public class KafkaBinderMetrics implements MeterBinder, ApplicationListener<Bind
 					.description("Unconsumed messages for a particular group and topic")
 					.register(registry);
 		}
+		for (Map.Entry<String, InFlightRecordLimiter> limiter : this.binder.getInFlightLimiters().entrySet()) {
+			String topic = limiter.getKey();
+			InFlightRecordLimiter inFlight = limiter.getValue();
+			Gauge.builder(IN_FLIGHT_METRIC_NAME, inFlight, InFlightRecordLimiter::getInFlight)
+					.tag("topic", topic)
+					.description("Records sent but not yet acknowledged for a particular topic")
+					.register(registry);
+			FunctionTimer.builder(IN_FLIGHT_WAIT_METRIC_NAME, inFlight, InFlightRecordLimiter::getWaits,
+					(l) -> l.getWaitTime(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS)
+					.tag("topic", topic)
+					.description("Time spent waiting for the in-flight window of a particular topic")
+					.register(registry);
+			FunctionCounter.builder(IN_FLIGHT_REJECTED_METRIC_NAME, inFlight, InFlightRecordLimiter::getRejected)
+					.tag("topic", topic)
+					.description("Sends rejected because the in-flight window of a particular topic was full")
+					.register(registry);
+		}
+		for (Map.Entry<String, AdaptiveProducerFactory> adaptive : this.binder.getAdaptiveProducerFactories()
+				.entrySet()) {
+			String topic = adaptive.getKey();
+			AdaptiveBatchingTuner batching = adaptive.getValue().getTuner(AdaptiveBatchingTuner.class);
+			if (batching != null) {
+				bindBatchingMetrics(registry, topic, batching);
+			}
+			CompressionTuner compression = adaptive.getValue().getTuner(CompressionTuner.class);
+			if (compression != null) {
+				Gauge.builder(COMPRESSION_RATIO_METRIC_NAME, compression, CompressionTuner::getRatio)
+						.tag("topic", topic)
+						.description("The sampled compression ratio of the selected codec for a particular topic")
+						.register(registry);
+				FunctionCounter.builder(COMPRESSION_SWITCHES_METRIC_NAME, compression,
+						CompressionTuner::getSwitches)
+						.tag("topic", topic)
+						.description("Compression type changes for a particular topic")
+						.register(registry);
+			}
+		}
+		for (Map.Entry<String, RecordConflator> conflator : this.binder.getConflators().entrySet()) {
+			FunctionCounter.builder(CONFLATION_RECEIVED_METRIC_NAME, conflator.getValue(),
+					RecordConflator::getReceived)
+					.tag("topic", conflator.getKey())
+					.description("Keyed messages received for conflation for a particular topic")
+					.register(registry);
+			FunctionCounter.builder(CONFLATION_EMITTED_METRIC_NAME, conflator.getValue(),
+					RecordConflator::getEmitted)
+					.tag("topic", conflator.getKey())
+					.description("Conflated messages sent for a particular topic")
+					.register(registry);
+		}
+		for (Map.Entry<KafkaMessageChannelBinder.ConsumerKey, MessageListenerContainer> container : this.binder
+				.getConsumerContainers().entrySet()) {
+			FunctionCounter.builder(COMMITS_METRIC_NAME, container.getValue(), KafkaBinderMetrics::commits)
+					.tag("group", container.getKey().getGroup())
+					.tag("topic", container.getKey().getTopic())
+					.description("Offset commits by the consumers of a particular topic")
+					.register(registry);
+		}
+		for (Map.Entry<KafkaMessageChannelBinder.ConsumerKey, ConcurrencyAutoscaler> autoscaler : this.binder
+				.getAutoscalers().entrySet()) {
+			Gauge.builder(CONCURRENCY_METRIC_NAME, autoscaler.getValue(), ConcurrencyAutoscaler::getConcurrency)
+					.tag("group", autoscaler.getKey().getGroup())
+					.tag("topic", autoscaler.getKey().getTopic())
+					.description("The current concurrency of the consumers of a particular topic")
+					.register(registry);
+			FunctionCounter.builder(CONCURRENCY_CHANGES_METRIC_NAME, autoscaler.getValue(),
+					ConcurrencyAutoscaler::getChanges)
+					.tag("group", autoscaler.getKey().getGroup())
+					.tag("topic", autoscaler.getKey().getTopic())
+					.description("Concurrency changes of the consumers of a particular topic")
+					.register(registry);
+		}
+		for (Map.Entry<KafkaMessageChannelBinder.ConsumerKey, PartitionBackoff> backoff : this.binder
+				.getPartitionBackoffs().entrySet()) {
+			Gauge.builder(PAUSED_PARTITIONS_METRIC_NAME, backoff.getValue(), PartitionBackoff::getPausedCount)
+					.tag("group", backoff.getKey().getGroup())
+					.tag("topic", backoff.getKey().getTopic())
+					.description("Partitions paused to back off the retry of a failed record for a particular topic")
+					.register(registry);
+		}
+		for (Map.Entry<KafkaMessageChannelBinder.ConsumerKey, ConsumerMemoryBudget> budget : this.binder
+				.getMemoryBudgets().entrySet()) {
+			Gauge.builder(MEMORY_USED_METRIC_NAME, budget.getValue(), ConsumerMemoryBudget::getUsed)
+					.tag("group", budget.getKey().getGroup())
+					.tag("topic", budget.getKey().getTopic())
+					.baseUnit("bytes")
+					.description("Bytes of the records fetched but not yet processed for a particular topic")
+					.register(registry);
+			FunctionTimer.builder(MEMORY_PAUSED_METRIC_NAME, budget.getValue(), ConsumerMemoryBudget::getPauses,
+					(b) -> b.getPausedTime(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS)
+					.tag("group", budget.getKey().getGroup())
+					.tag("topic", budget.getKey().getTopic())
+					.description("Time consumers were paused because the memory budget of a particular topic was exceeded")
+					.register(registry);
+		}
+		for (Map.Entry<KafkaMessageChannelBinder.ConsumerKey, TopicPriorityThrottle> throttle : this.binder
+				.getPriorityThrottles().entrySet()) {
+			Gauge.builder(PRIORITY_PAUSED_METRIC_NAME, throttle.getValue(), TopicPriorityThrottle::getThrottledCount)
+					.tag("group", throttle.getKey().getGroup())
+					.tag("topic", throttle.getKey().getTopic())
+					.description("Partitions paused in favor of lagging higher priority topics for a particular binding")
+					.register(registry);
+		}
+		for (Map.Entry<KafkaMessageChannelBinder.ConsumerKey, LatestValueConflator> conflator : this.binder
+				.getConsumerConflators().entrySet()) {
+			FunctionCounter.builder(CONSUMER_CONFLATION_RECEIVED_METRIC_NAME, conflator.getValue(),
+					LatestValueConflator::getReceived)
+					.tag("group", conflator.getKey().getGroup())
+					.tag("topic", conflator.getKey().getTopic())
+					.description("Records polled for conflation for a particular topic")
+					.register(registry);
+			FunctionCounter.builder(CONSUMER_CONFLATION_EMITTED_METRIC_NAME, conflator.getValue(),
+					LatestValueConflator::getEmitted)
+					.tag("group", conflator.getKey().getGroup())
+					.tag("topic", conflator.getKey().getTopic())
+					.description("Records left after conflation for a particular topic")
+					.register(registry);
+		}
+		for (Map.Entry<KafkaMessageChannelBinder.ConsumerKey, HeaderRecordFilterStrategy> filter : this.binder
+				.getHeaderFilters().entrySet()) {
+			FunctionCounter.builder(FILTER_EVALUATED_METRIC_NAME, filter.getValue(),
+					HeaderRecordFilterStrategy::getEvaluated)
+					.tag("group", filter.getKey().getGroup())
+					.tag("topic", filter.getKey().getTopic())
+					.description("Records evaluated by the header filter for a particular topic")
+					.register(registry);
+			FunctionCounter.builder(FILTER_DISCARDED_METRIC_NAME, filter.getValue(),
+					HeaderRecordFilterStrategy::getDiscarded)
+					.tag("group", filter.getKey().getGroup())
+					.tag("topic", filter.getKey().getTopic())
+					.description("Records discarded by the header filter for a particular topic")
+					.register(registry);
+		}
+		for (Map.Entry<KafkaMessageChannelBinder.ConsumerKey, ParallelConversionStage> stage : this.binder
+				.getConversionStages().entrySet()) {
+			Gauge.builder(CONVERSION_QUEUED_METRIC_NAME, stage.getValue(), ParallelConversionStage::getQueued)
+					.tag("group", stage.getKey().getGroup())
+					.tag("topic", stage.getKey().getTopic())
+					.description("Records converted but not yet handled for a particular topic")
+					.register(registry);
+			FunctionTimer.builder(CONVERSION_TIME_METRIC_NAME, stage.getValue(),
+					ParallelConversionStage::getConversions, (c) -> c.getConversionTime(TimeUnit.NANOSECONDS),
+					TimeUnit.NANOSECONDS)
+					.tag("group", stage.getKey().getGroup())
+					.tag("topic", stage.getKey().getTopic())
+					.description("Time spent converting records, on all threads, for a particular topic")
+					.register(registry);
+		}
+	}
+
+	private static double commits(MessageListenerContainer container) {
+		double commits = 0;
+		for (Map<MetricName, ? extends Metric> metrics : container.metrics().values()) {
+			for (Map.Entry<MetricName, ? extends Metric> metric : metrics.entrySet()) {
+				if ("commit-total".equals(metric.getKey().name())
+						&& "consumer-coordinator-metrics".equals(metric.getKey().group())) {
+					commits += ((Number) metric.getValue().metricValue()).doubleValue();
+				}
+			}
+		}
+		return commits;
+	}
+
+	private void bindBatchingMetrics(MeterRegistry registry, String topic, AdaptiveBatchingTuner tuner) {
+		Gauge.builder(BATCH_SIZE_METRIC_NAME, tuner, AdaptiveBatchingTuner::getBatchSize)
+				.tag("topic", topic)
+				.description("The current batch.size of the adaptive producer for a particular topic")
+				.baseUnit("bytes")
+				.register(registry);
+		Gauge.builder(LINGER_METRIC_NAME, tuner, AdaptiveBatchingTuner::getLingerMs)
+				.tag("topic", topic)
+				.description("The current linger.ms of the adaptive producer for a particular topic")
+				.baseUnit("milliseconds")
+				.register(registry);
+		FunctionCounter.builder(BATCHING_ADJUSTMENTS_METRIC_NAME, tuner,
+				AdaptiveBatchingTuner::getAdjustments)
+				.tag("topic", topic)
+				.description("Batching adjustments made by the adaptive producer for a particular topic")
+				.register(registry);
 	}
 
 	private long computeUnconsumedMessages(String topic, String group) {
@@ -18,6 +18,7 @@ package org.springframework.cloud.stream.binder.kafka;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.lang.reflect.Type;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
@@ -25,16 +26,26 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
@@ -45,12 +56,16 @@ import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
 import org.apache.kafka.common.header.Headers;
 import org.apache.kafka.common.header.internals.RecordHeader;
 import org.apache.kafka.common.header.internals.RecordHeaders;
 import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.utils.Utils;
 
+import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.cloud.stream.binder.AbstractMessageChannelBinder;
@@ -68,49 +83,70 @@ import org.springframework.cloud.stream.binder.kafka.properties.KafkaConsumerPro
 import org.springframework.cloud.stream.binder.kafka.properties.KafkaConsumerProperties.StandardHeaders;
 import org.springframework.cloud.stream.binder.kafka.properties.KafkaExtendedBindingProperties;
 import org.springframework.cloud.stream.binder.kafka.properties.KafkaProducerProperties;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaProducerProperties.CompressionType;
 import org.springframework.cloud.stream.binder.kafka.provisioning.KafkaTopicProvisioner;
 import org.springframework.cloud.stream.binding.MessageConverterConfigurer.PartitioningInterceptor;
 import org.springframework.cloud.stream.config.ListenerContainerCustomizer;
 import org.springframework.cloud.stream.provisioning.ConsumerDestination;
 import org.springframework.cloud.stream.provisioning.ProducerDestination;
 import org.springframework.context.Lifecycle;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
 import org.springframework.expression.common.LiteralExpression;
-import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.integration.MessageTimeoutException;
 import org.springframework.integration.StaticMessageHeaderAccessor;
 import org.springframework.integration.acks.AcknowledgmentCallback;
 import org.springframework.integration.channel.ChannelInterceptorAware;
 import org.springframework.integration.core.MessageProducer;
+import org.springframework.integration.expression.ExpressionUtils;
+import org.springframework.integration.expression.FunctionExpression;
+import org.springframework.integration.expression.ValueExpression;
 import org.springframework.integration.kafka.inbound.KafkaMessageDrivenChannelAdapter;
+import org.springframework.integration.kafka.inbound.KafkaMessageDrivenChannelAdapter.ListenerMode;
 import org.springframework.integration.kafka.inbound.KafkaMessageSource;
 import org.springframework.integration.kafka.outbound.KafkaProducerMessageHandler;
+import org.springframework.integration.kafka.support.KafkaSendFailureException;
 import org.springframework.integration.kafka.support.RawRecordHeaderErrorMessageStrategy;
+import org.springframework.integration.support.DefaultErrorMessageStrategy;
 import org.springframework.integration.support.ErrorMessageStrategy;
 import org.springframework.integration.support.MessageBuilder;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaOperations;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.core.ProducerFactory;
 import org.springframework.kafka.listener.AbstractMessageListenerContainer;
 import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
 import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
 import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.listener.adapter.RecordFilterStrategy;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.kafka.support.KafkaHeaderMapper;
 import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.support.KafkaNull;
 import org.springframework.kafka.support.ProducerListener;
 import org.springframework.kafka.support.SendResult;
 import org.springframework.kafka.support.TopicPartitionInitialOffset;
 import org.springframework.kafka.support.TopicPartitionInitialOffset.SeekPosition;
+import org.springframework.kafka.support.converter.BatchMessagingMessageConverter;
 import org.springframework.kafka.support.converter.MessagingMessageConverter;
+import org.springframework.kafka.support.converter.RecordMessageConverter;
 import org.springframework.kafka.transaction.KafkaTransactionManager;
 import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHandlingException;
 import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.MessagingException;
 import org.springframework.messaging.support.ChannelInterceptor;
 import org.springframework.messaging.support.ErrorMessage;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
 import org.springframework.util.CollectionUtils;
 import org.springframework.util.ObjectUtils;
 import org.springframework.util.StringUtils;
@@ -132,7 +168,8 @@ import org.springframework.util.concurrent.ListenableFutureCallback;
  */
 public class KafkaMessageChannelBinder extends
 		AbstractMessageChannelBinder<ExtendedConsumerProperties<KafkaConsumerProperties>, ExtendedProducerProperties<KafkaProducerProperties>, KafkaTopicProvisioner>
-		implements ExtendedPropertiesBinder<MessageChannel, KafkaConsumerProperties, KafkaProducerProperties> {
+		implements ExtendedPropertiesBinder<MessageChannel, KafkaConsumerProperties, KafkaProducerProperties>,
+		DisposableBean {
 
 	/**
 	 * Kafka header for x-exception-fqcn.
@@ -174,6 +211,24 @@ public class KafkaMessageChannelBinder extends
 	 */
 	public static final String X_ORIGINAL_TIMESTAMP_TYPE = "x-original-timestamp-type";
 
+	/**
+	 * Message header carrying the index of a record within a batch send; present on the
+	 * failed message of a send failure in batch mode.
+	 */
+	public static final String BATCH_INDEX = "kafka_batchIndex";
+
+	/**
+	 * Message header carrying the index of a message within an envelope record; present on
+	 * messages unpacked from an envelope.
+	 */
+	public static final String ENVELOPE_INDEX = "kafka_envelopeIndex";
+
+	/**
+	 * Kafka header for x-envelope-index; the index of the failed message when an envelope
+	 * record is sent to the DLQ.
+	 */
+	public static final String X_ENVELOPE_INDEX = "x-envelope-index";
+
 	private static final ThreadLocal<String> bindingNameHolder = new ThreadLocal<>();
 
 	private final KafkaBinderConfigurationProperties configurationProperties;
@@ -184,6 +239,38 @@ public class KafkaMessageChannelBinder extends
 
 	private final KafkaBindingRebalanceListener rebalanceListener;
 
+	private final KafkaProducerPool producerPool;
+
+	private final Map<String, InFlightRecordLimiter> inFlightLimiters = new ConcurrentHashMap<>();
+
+	private final Map<String, AdaptiveProducerFactory> adaptiveProducerFactories = new ConcurrentHashMap<>();
+
+	private final Map<String, KafkaProducerPool.PooledProducerFactory> dlqProducerFactories = new ConcurrentHashMap<>();
+
+	private final Map<String, RecordConflator> conflators = new ConcurrentHashMap<>();
+
+	private final Map<ConsumerDestination, ConsumerKey> consumerKeys = new ConcurrentHashMap<>();
+
+	private final Map<ConsumerKey, MessageListenerContainer> consumerContainers = new ConcurrentHashMap<>();
+
+	private final Map<ConsumerKey, ConcurrencyAutoscaler> autoscalers = new ConcurrentHashMap<>();
+
+	private final Map<ConsumerKey, PartitionBackoff> partitionBackoffs = new ConcurrentHashMap<>();
+
+	private final Map<ConsumerKey, ConsumerMemoryBudget> memoryBudgets = new ConcurrentHashMap<>();
+
+	private final Map<ConsumerKey, TopicPriorityThrottle> priorityThrottles = new ConcurrentHashMap<>();
+
+	private final Map<ConsumerKey, LatestValueConflator> consumerConflators = new ConcurrentHashMap<>();
+
+	private final Map<String, SharedFetchConsumer<?, ?>> sharedFetchConsumers = new ConcurrentHashMap<>();
+
+	private final Map<ConsumerKey, HeaderRecordFilterStrategy> headerFilters = new ConcurrentHashMap<>();
+
+	private final Map<ConsumerKey, ParallelConversionStage> conversionStages = new ConcurrentHashMap<>();
+
+	private TransactionGroupCommitter groupCommitter;
+
 	private ProducerListener<byte[], byte[]> producerListener;
 
 	private KafkaExtendedBindingProperties extendedBindingProperties = new KafkaExtendedBindingProperties();
@@ -210,6 +297,9 @@ public class KafkaMessageChannelBinder extends
 			this.transactionManager = null;
 		}
 		this.rebalanceListener = rebalanceListener;
+		this.producerPool = configurationProperties.getProducerPool().isEnabled()
+				? new KafkaProducerPool(configurationProperties.getProducerPool().getBufferMemory())
+				: null;
 	}
 
 	private static String[] headersToMap(KafkaBinderConfigurationProperties configurationProperties) {
@@ -240,6 +330,54 @@ public class KafkaMessageChannelBinder extends
 		return this.topicsInUse;
 	}
 
+	Map<String, InFlightRecordLimiter> getInFlightLimiters() {
+		return this.inFlightLimiters;
+	}
+
+	Map<String, AdaptiveProducerFactory> getAdaptiveProducerFactories() {
+		return this.adaptiveProducerFactories;
+	}
+
+	Map<String, RecordConflator> getConflators() {
+		return this.conflators;
+	}
+
+	Map<ConsumerKey, MessageListenerContainer> getConsumerContainers() {
+		return this.consumerContainers;
+	}
+
+	Map<ConsumerKey, ConcurrencyAutoscaler> getAutoscalers() {
+		return this.autoscalers;
+	}
+
+	Map<ConsumerKey, PartitionBackoff> getPartitionBackoffs() {
+		return this.partitionBackoffs;
+	}
+
+	Map<ConsumerKey, ConsumerMemoryBudget> getMemoryBudgets() {
+		return this.memoryBudgets;
+	}
+
+	Map<ConsumerKey, TopicPriorityThrottle> getPriorityThrottles() {
+		return this.priorityThrottles;
+	}
+
+	Map<ConsumerKey, LatestValueConflator> getConsumerConflators() {
+		return this.consumerConflators;
+	}
+
+	Map<ConsumerKey, HeaderRecordFilterStrategy> getHeaderFilters() {
+		return this.headerFilters;
+	}
+
+	Map<ConsumerKey, ParallelConversionStage> getConversionStages() {
+		return this.conversionStages;
+	}
+
+	KafkaProducerPool getProducerPool() {
+		return this.producerPool;
+	}
+
 	@Override
 	public KafkaConsumerProperties getExtendedConsumerProperties(String channelName) {
 		bindingNameHolder.set(channelName);
@@ -272,6 +410,38 @@ public class KafkaMessageChannelBinder extends
 		return this.transactionManager == null ? null : this.transactionManager.getProducerFactory();
 	}
 
+	@Override
+	public void destroy() {
+		if (this.producerPool != null) {
+			this.producerPool.destroy();
+		}
+		synchronized (this) {
+			if (this.groupCommitter != null) {
+				this.groupCommitter.destroy();
+				this.groupCommitter = null;
+			}
+		}
+	}
+
+	synchronized TransactionGroupCommitter getGroupCommitter() {
+		return this.groupCommitter;
+	}
+
+	/*
+	 * The committer is shared by all producer bindings, so that transactions gather records
+	 * for all destinations.
+	 */
+	private synchronized TransactionGroupCommitter obtainGroupCommitter() {
+		if (this.groupCommitter == null) {
+			KafkaBinderConfigurationProperties.GroupCommit groupCommit =
+					this.configurationProperties.getTransaction().getGroupCommit();
+			this.groupCommitter = new TransactionGroupCommitter(
+					new KafkaTemplate<>(this.transactionManager.getProducerFactory()), groupCommit.getMaxRecords(),
+					groupCommit.getMaxDelay());
+		}
+		return this.groupCommitter;
+	}
+
 	@Override
 	protected MessageHandler createProducerMessageHandler(final ProducerDestination destination,
 			ExtendedProducerProperties<KafkaProducerProperties> producerProperties, MessageChannel errorChannel)
@@ -290,6 +460,28 @@ public class KafkaMessageChannelBinder extends
 		 * properties are used instead, for all producers. A binder is transactional when
 		 * 'spring.cloud.stream.kafka.binder.transaction.transaction-id-prefix' has text.
 		 */
+		Assert.isTrue(!producerProperties.getExtension().isBatchMode() || useNativeEncoding(producerProperties),
+				"'batchMode' requires 'useNativeEncoding'; the elements of a batch are serialized individually "
+				+ "by the Kafka serializer");
+		Assert.isTrue(!producerProperties.getExtension().getConflation().isEnabled()
+				|| (this.transactionManager == null && !producerProperties.getExtension().isSync()),
+				"'conflation' cannot be used with a transactional binder or with 'sync'");
+		Assert.isTrue(!producerProperties.getExtension().getEnvelope().isEnabled()
+				|| (this.transactionManager == null && !producerProperties.getExtension().isSync()),
+				"'envelope' cannot be used with a transactional binder or with 'sync'");
+		Assert.isTrue(this.transactionManager == null
+				|| !producerProperties.getExtension().getAdaptiveBatching().isEnabled(),
+				"'adaptiveBatching' cannot be used with a transactional binder");
+		Assert.isTrue(this.transactionManager == null
+				|| producerProperties.getExtension().getCompressionType() != CompressionType.auto,
+				"'compression=auto' cannot be used with a transactional binder");
+		Assert.isTrue(!producerProperties.getExtension().getDynamicDestinations().isEnabled()
+				|| !(producerProperties.getExtension().getConflation().isEnabled()
+						|| producerProperties.getExtension().getEnvelope().isEnabled()),
+				"'dynamicDestinations' cannot be used with 'conflation' or 'envelope'");
+		Assert.isTrue(!producerProperties.getExtension().getDynamicDestinations().isEnabled()
+				|| producerProperties.getExtension().getDynamicDestinations().getCacheSize() > 0,
+				"'dynamicDestinations.cacheSize' must be greater than 0");
 		final ProducerFactory<byte[], byte[]> producerFB = this.transactionManager != null
 				? this.transactionManager.getProducerFactory()
 				: getProducerFactory(null, producerProperties);
@@ -319,12 +511,48 @@ public class KafkaMessageChannelBinder extends
 			});
 		}
 
-		KafkaTemplate<byte[], byte[]> kafkaTemplate = new KafkaTemplate<>(producerFB);
+		final ProducerFactory<byte[], byte[]> templateFB;
+		if (this.transactionManager != null) {
+			templateFB = producerFB;
+		}
+		else if (producerProperties.getExtension().getAdaptiveBatching().isEnabled()
+				|| producerProperties.getExtension().getCompressionType() == CompressionType.auto) {
+			Map<String, Object> configs =
+					((DefaultKafkaProducerFactory<byte[], byte[]>) producerFB).getConfigurationProperties();
+			AdaptiveProducerFactory adaptive = new AdaptiveProducerFactory(configs, destination.getName());
+			if (producerProperties.getExtension().getAdaptiveBatching().isEnabled()) {
+				adaptive.addTuner(new AdaptiveBatchingTuner(configs,
+						producerProperties.getExtension().getAdaptiveBatching()));
+			}
+			if (producerProperties.getExtension().getCompressionType() == CompressionType.auto) {
+				adaptive.addTuner(new CompressionTuner(
+						String.valueOf(configs.get(ProducerConfig.COMPRESSION_TYPE_CONFIG)),
+						producerProperties.getExtension().getAutoCompression()));
+			}
+			this.adaptiveProducerFactories.put(destination.getName(), adaptive);
+			templateFB = adaptive;
+		}
+		else {
+			templateFB = pooledIfEnabled((DefaultKafkaProducerFactory<byte[], byte[]>) producerFB,
+					producerProperties.getExtension());
+		}
+		KafkaTemplate<byte[], byte[]> kafkaTemplate;
+		InFlightRecordLimiter limiter = null;
+		if (producerProperties.getExtension().getMaxInFlight() > 0) {
+			limiter = new InFlightRecordLimiter(producerProperties.getExtension().getMaxInFlight(),
+					producerProperties.getExtension().getBackPressure(),
+					producerProperties.getExtension().getBackPressureTimeout());
+			kafkaTemplate = new InFlightRecordLimiter.LimitingKafkaTemplate<>(templateFB, limiter);
+			this.inFlightLimiters.put(destination.getName(), limiter);
+		}
+		else {
+			kafkaTemplate = new KafkaTemplate<>(templateFB);
+		}
 		if (this.producerListener != null) {
 			kafkaTemplate.setProducerListener(this.producerListener);
 		}
 		ProducerConfigurationMessageHandler handler = new ProducerConfigurationMessageHandler(kafkaTemplate,
-				destination.getName(), producerProperties, producerFB);
+				destination.getName(), producerProperties, templateFB, limiter);
 		if (errorChannel != null) {
 			handler.setSendFailureChannel(errorChannel);
 		}
@@ -362,6 +590,22 @@ public class KafkaMessageChannelBinder extends
 		return handler;
 	}
 
+	/*
+	 * Return a shared factory from the producer pool for the same configuration, if pooling
+	 * is enabled; otherwise the supplied factory.
+	 */
+	private DefaultKafkaProducerFactory<byte[], byte[]> pooledIfEnabled(
+			DefaultKafkaProducerFactory<byte[], byte[]> producerFactory, KafkaProducerProperties producerProperties) {
+
+		if (this.producerPool == null) {
+			return producerFactory;
+		}
+		boolean bufferMemoryConfigured = this.configurationProperties.mergedProducerConfiguration()
+				.containsKey(ProducerConfig.BUFFER_MEMORY_CONFIG)
+				|| producerProperties.getConfiguration().containsKey(ProducerConfig.BUFFER_MEMORY_CONFIG);
+		return this.producerPool.acquire(producerFactory.getConfigurationProperties(), !bufferMemoryConfigured);
+	}
+
 	protected DefaultKafkaProducerFactory<byte[], byte[]> getProducerFactory(String transactionIdPrefix,
 			ExtendedProducerProperties<KafkaProducerProperties> producerProperties) {
 		Map<String, Object> props = new HashMap<>();
@@ -386,8 +630,10 @@ public class KafkaMessageChannelBinder extends
 					String.valueOf(producerProperties.getExtension().getBatchTimeout()));
 		}
 		if (ObjectUtils.isEmpty(props.get(ProducerConfig.COMPRESSION_TYPE_CONFIG))) {
+			CompressionType compressionType = producerProperties.getExtension().getCompressionType();
+			// with 'auto', start uncompressed until the payloads have been sampled
 			props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG,
-					producerProperties.getExtension().getCompressionType().toString());
+					(compressionType == CompressionType.auto ? CompressionType.none : compressionType).toString());
 		}
 		if (!ObjectUtils.isEmpty(producerProperties.getExtension().getConfiguration())) {
 			props.putAll(producerProperties.getExtension().getConfiguration());
@@ -408,13 +654,16 @@ public class KafkaMessageChannelBinder extends
 	}
 
 	@Override
-	@SuppressWarnings("unchecked")
+	@SuppressWarnings({ "unchecked", "rawtypes" })
 	protected MessageProducer createConsumerEndpoint(final ConsumerDestination destination, final String group,
 			final ExtendedConsumerProperties<KafkaConsumerProperties> extendedConsumerProperties) {
 		boolean anonymous = !StringUtils.hasText(group);
 		Assert.isTrue(!anonymous || !extendedConsumerProperties.getExtension().isEnableDlq(),
 				"DLQ support is not available for anonymous subscriptions");
 		String consumerGroup = anonymous ? "anonymous." + UUID.randomUUID().toString() : group;
+		// the binding's entries in the consumer maps are removed when it is unbound
+		ConsumerKey consumerKey = new ConsumerKey(destination.getName(), consumerGroup);
+		this.consumerKeys.put(destination, consumerKey);
 		final ConsumerFactory<?, ?> consumerFactory = createKafkaConsumerFactory(anonymous, consumerGroup,
 				extendedConsumerProperties);
 		int partitionCount = extendedConsumerProperties.getInstanceCount()
@@ -427,6 +676,44 @@ public class KafkaMessageChannelBinder extends
 				"Cannot use a pattern with multiplexed destinations; "
 				+ "use the regex pattern to specify multiple topics instead");
 		boolean groupManagement = extendedConsumerProperties.getExtension().isAutoRebalanceEnabled();
+		KafkaConsumerProperties.KeyOrdered keyOrdered = extendedConsumerProperties.getExtension().getKeyOrdered();
+		if (keyOrdered.isEnabled()) {
+			Assert.isTrue(!extendedConsumerProperties.getExtension().isBatchMode(),
+					"'keyOrdered' cannot be used with 'batchMode'");
+			Assert.isTrue(extendedConsumerProperties.getExtension().isAutoCommitOffset(),
+					"'keyOrdered' requires 'autoCommitOffset'");
+			Assert.isTrue(this.transactionManager == null, "'keyOrdered' cannot be used with transactions");
+		}
+		KafkaConsumerProperties.RetryTopics retryTopics = extendedConsumerProperties.getExtension().getRetryTopics();
+		if (retryTopics.isEnabled()) {
+			Assert.isTrue(!anonymous, "Retry topics are not available for anonymous subscriptions");
+			Assert.isTrue(groupManagement, "Retry topics require 'autoRebalanceEnabled'");
+			Assert.isTrue(!extendedConsumerProperties.getExtension().isBatchMode(),
+					"'retryTopics' cannot be used with 'batchMode'");
+			Assert.isTrue(!keyOrdered.isEnabled(), "'retryTopics' cannot be used with 'keyOrdered'");
+			Assert.isTrue(retryTopics.getDelays().length > 0, "'retryTopics.delays' must not be empty");
+		}
+		boolean pausePartitionOnError = extendedConsumerProperties.getExtension().isPausePartitionOnError();
+		if (pausePartitionOnError) {
+			Assert.isTrue(!extendedConsumerProperties.getExtension().isBatchMode(),
+					"'pausePartitionOnError' cannot be used with 'batchMode'");
+			Assert.isTrue(extendedConsumerProperties.getExtension().isAutoCommitOffset(),
+					"'pausePartitionOnError' requires 'autoCommitOffset'");
+			Assert.isTrue(this.transactionManager == null, "'pausePartitionOnError' cannot be used with transactions");
+			Assert.isTrue(!keyOrdered.isEnabled() && !retryTopics.isEnabled(),
+					"'pausePartitionOnError' cannot be used with 'keyOrdered' or 'retryTopics'");
+		}
+		KafkaConsumerProperties.Autoscaling autoscaling = extendedConsumerProperties.getExtension().getAutoscaling();
+		if (autoscaling.isEnabled()) {
+			Assert.isTrue(!usingPatterns, "'autoscaling' cannot be used with a pattern destination");
+			Assert.isTrue(!extendedConsumerProperties.getExtension().isBatchMode(),
+					"'autoscaling' cannot be used with 'batchMode'");
+			Assert.isTrue(!keyOrdered.isEnabled(), "'autoscaling' cannot be used with 'keyOrdered'");
+			Assert.isTrue(!retryTopics.isEnabled(), "'autoscaling' cannot be used with 'retryTopics'");
+			Assert.isTrue(!pausePartitionOnError, "'autoscaling' cannot be used with 'pausePartitionOnError'");
+			Assert.isTrue(autoscaling.getMinConcurrency() > 0 && autoscaling.getInterval() > 0
+					&& autoscaling.getStableIntervals() > 0, "'autoscaling' properties must be positive");
+		}
 		if (!extendedConsumerProperties.isMultiplex()) {
 			listenedPartitions.addAll(processTopic(consumerGroup, extendedConsumerProperties, consumerFactory,
 					partitionCount, usingPatterns, groupManagement, destination.getName()));
@@ -440,6 +727,26 @@ public class KafkaMessageChannelBinder extends
 
 		String[] topics = extendedConsumerProperties.isMultiplex() ? StringUtils.commaDelimitedListToStringArray(destination.getName())
 				: new String[] { destination.getName() };
+		String sharedFetchGroup = extendedConsumerProperties.getExtension().getSharedFetchGroup();
+		if (StringUtils.hasText(sharedFetchGroup)) {
+			KafkaConsumerProperties extension = extendedConsumerProperties.getExtension();
+			Assert.isTrue(!anonymous && groupManagement, "'sharedFetchGroup' requires a named group and "
+					+ "'autoRebalanceEnabled'");
+			Assert.isTrue(!usingPatterns && !extendedConsumerProperties.isMultiplex(),
+					"'sharedFetchGroup' cannot be used with a pattern or multiplexed destination");
+			Assert.isTrue(extension.isAutoCommitOffset() && this.transactionManager == null,
+					"'sharedFetchGroup' requires 'autoCommitOffset' and cannot be used with transactions");
+			Assert.isTrue(!extension.isBatchMode() && !keyOrdered.isEnabled() && !retryTopics.isEnabled()
+					&& !pausePartitionOnError && !autoscaling.isEnabled()
+					&& extension.getMemoryBudget().getMaxBytes() == 0 && !extension.isLatestValueOnly()
+					&& extension.getHeaderFilter().isEmpty() && extension.getConversionThreads() <= 1,
+					"'sharedFetchGroup' cannot be used with 'batchMode', 'keyOrdered', 'retryTopics', "
+					+ "'pausePartitionOnError', 'autoscaling', 'memoryBudget', 'latestValueOnly', 'headerFilter' "
+					+ "or 'conversionThreads'");
+			return createSharedFetchEndpoint(destination, consumerGroup, sharedFetchGroup, consumerFactory,
+					Math.min(extendedConsumerProperties.getConcurrency(), listenedPartitions.size()),
+					extendedConsumerProperties);
+		}
 		for (int i = 0; i < topics.length; i++) {
 			topics[i] = topics[i].trim();
 		}
@@ -462,10 +769,112 @@ public class KafkaMessageChannelBinder extends
 		containerProperties.setIdleEventInterval(extendedConsumerProperties.getExtension().getIdleEventInterval());
 		int concurrency = usingPatterns ? extendedConsumerProperties.getConcurrency()
 				: Math.min(extendedConsumerProperties.getConcurrency(), listenedPartitions.size());
+		int minConcurrency = 0;
+		int maxConcurrency = 0;
+		if (autoscaling.isEnabled()) {
+			// more consumers than partitions would be idle
+			maxConcurrency = autoscaling.getMaxConcurrency() > 0
+					? Math.min(autoscaling.getMaxConcurrency(), listenedPartitions.size())
+					: listenedPartitions.size();
+			minConcurrency = Math.min(autoscaling.getMinConcurrency(), maxConcurrency);
+			concurrency = Math.max(minConcurrency, Math.min(concurrency, maxConcurrency));
+		}
 		resetOffsets(extendedConsumerProperties, consumerFactory, groupManagement, containerProperties);
+		boolean virtualThreads = extendedConsumerProperties.getExtension().isVirtualThreads();
+		if (virtualThreads && !VirtualThreads.isSupported()) {
+			this.logger.warn("Virtual threads are not supported by this JVM; consumers of '" + destination.getName()
+					+ "' will use platform threads");
+			virtualThreads = false;
+		}
+		if (virtualThreads) {
+			SimpleAsyncTaskExecutor consumerExecutor = new SimpleAsyncTaskExecutor();
+			consumerExecutor.setThreadFactory(VirtualThreads.threadFactory(destination.getName() + "-consumer-"));
+			containerProperties.setConsumerTaskExecutor(consumerExecutor);
+		}
+		final KeyOrderedDispatcher dispatcher;
+		if (keyOrdered.isEnabled()) {
+			dispatcher = new KeyOrderedDispatcher(destination.getName(),
+					keyOrdered.getWorkers() > 0 ? keyOrdered.getWorkers() : extendedConsumerProperties.getConcurrency(),
+					keyOrdered.getMaxInFlight(),
+					virtualThreads ? VirtualThreads.threadFactory(destination.getName() + "-worker-") : null);
+			onRevocation(containerProperties, partitions -> dispatcher.revoked(partitions, keyOrdered.getDrainTimeout()));
+		}
+		else {
+			dispatcher = null;
+		}
+		final PartitionBackoff backoff = pausePartitionOnError
+				? new PartitionBackoff(extendedConsumerProperties.getMaxAttempts(),
+						extendedConsumerProperties.getBackOffInitialInterval(),
+						extendedConsumerProperties.getBackOffMultiplier(),
+						extendedConsumerProperties.getBackOffMaxInterval())
+				: null;
+		if (backoff != null) {
+			onRevocation(containerProperties, backoff::revoked);
+		}
+		KafkaConsumerProperties.MemoryBudget memoryBudgetProperties =
+				extendedConsumerProperties.getExtension().getMemoryBudget();
+		final ConsumerMemoryBudget memoryBudget = memoryBudgetProperties.getMaxBytes() > 0
+				? new ConsumerMemoryBudget(memoryBudgetProperties.getMaxBytes(),
+						(long) (memoryBudgetProperties.getMaxBytes() * memoryBudgetProperties.getLowWaterMark()),
+						dispatcher != null)
+				: null;
+		ConsumerFactory<?, ?> containerConsumerFactory = consumerFactory;
+		final ParallelConversionStage conversionStage;
+		int conversionThreads = extendedConsumerProperties.getExtension().getConversionThreads();
+		if (conversionThreads > 1) {
+			Assert.isTrue(!extendedConsumerProperties.getExtension().isBatchMode(),
+					"'conversionThreads' cannot be used with 'batchMode'");
+			Deserializer<?> keyDeserializer = null;
+			Deserializer<?> valueDeserializer = null;
+			if (consumerFactory instanceof DefaultKafkaConsumerFactory) {
+				// the consumers return raw records, deserialized by the stage
+				Map<String, Object> configs = new HashMap<>(consumerFactory.getConfigurationProperties());
+				keyDeserializer = createConversionDeserializer(configs, ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG,
+						true);
+				valueDeserializer = createConversionDeserializer(configs,
+						ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, false);
+				if (keyDeserializer != null || valueDeserializer != null) {
+					configs.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+					configs.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+					containerConsumerFactory = new DefaultKafkaConsumerFactory<>(configs);
+				}
+			}
+			conversionStage = new ParallelConversionStage(destination.getName(), conversionThreads,
+					getMessageConverter(extendedConsumerProperties), keyDeserializer, valueDeserializer);
+		}
+		else {
+			conversionStage = null;
+		}
+		if (extendedConsumerProperties.getExtension().isLatestValueOnly()) {
+			// first, so that the other interceptors only see the conflated records
+			LatestValueConflator conflator = new LatestValueConflator();
+			containerConsumerFactory = conflator.consumerFactory(containerConsumerFactory);
+			this.consumerConflators.put(consumerKey, conflator);
+		}
+		if (backoff != null) {
+			containerConsumerFactory = backoff.consumerFactory(containerConsumerFactory);
+		}
+		if (memoryBudget != null) {
+			containerConsumerFactory = memoryBudget.consumerFactory(containerConsumerFactory);
+			this.memoryBudgets.put(consumerKey, memoryBudget);
+		}
+		KafkaConsumerProperties.Priority priority = extendedConsumerProperties.getExtension().getPriority();
+		if (!priority.getTopics().isEmpty()) {
+			Assert.isTrue(extendedConsumerProperties.isMultiplex() && !usingPatterns,
+					"Topic priorities require a multiplexed binding without patterns");
+			TopicPriorityThrottle priorityThrottle = new TopicPriorityThrottle(priority.getTopics(),
+					priority.getLagThreshold(), priority.getMaxPause());
+			containerConsumerFactory = priorityThrottle.consumerFactory(containerConsumerFactory);
+			this.priorityThrottles.put(consumerKey, priorityThrottle);
+		}
+		if (conversionStage != null) {
+			// last, so that only the records returned to the container are converted
+			containerConsumerFactory = conversionStage.consumerFactory(containerConsumerFactory);
+			this.conversionStages.put(consumerKey, conversionStage);
+		}
 		@SuppressWarnings("rawtypes")
 		final ConcurrentMessageListenerContainer<?, ?> messageListenerContainer =
-				new ConcurrentMessageListenerContainer(consumerFactory, containerProperties) {
+				new ConcurrentMessageListenerContainer(containerConsumerFactory, containerProperties) {
 
 			@Override
 			public void stop(Runnable callback) {
@@ -483,7 +892,11 @@ public class KafkaMessageChannelBinder extends
 		}
 		messageListenerContainer.setBeanName(topics + ".container");
 		// end of these won't be needed...
-		if (!extendedConsumerProperties.getExtension().isAutoCommitOffset()) {
+		// with keyOrdered, the dispatcher acknowledges records once they are processed, and with
+		// pausePartitionOnError, the adapter acknowledges records once they are processed or recovered,
+		// but not those skipped while their partition is paused
+		if (!extendedConsumerProperties.getExtension().isAutoCommitOffset() || dispatcher != null
+				|| backoff != null) {
 			messageListenerContainer.getContainerProperties()
 					.setAckMode(ContainerProperties.AckMode.MANUAL);
 			messageListenerContainer.getContainerProperties().setAckOnError(false);
@@ -491,31 +904,143 @@ public class KafkaMessageChannelBinder extends
 		else {
 			messageListenerContainer.getContainerProperties()
 					.setAckOnError(isAutoCommitOnError(extendedConsumerProperties));
-			if (extendedConsumerProperties.getExtension().isAckEachRecord()) {
+			if (extendedConsumerProperties.getExtension().isAckEachRecord()
+					&& !extendedConsumerProperties.getExtension().isBatchMode()) {
 				messageListenerContainer.getContainerProperties().setAckMode(ContainerProperties.AckMode.RECORD);
 			}
+			else if (this.transactionManager == null) {
+				windowCommits(messageListenerContainer.getContainerProperties());
+			}
 		}
+		this.consumerContainers.put(consumerKey, messageListenerContainer);
 		if (this.logger.isDebugEnabled()) {
 			this.logger.debug(
 					"Listened partitions: " + StringUtils.collectionToCommaDelimitedString(listenedPartitions));
 		}
 		this.getContainerCustomizer().configure(messageListenerContainer, destination.getName(), group);
-		final KafkaMessageDrivenChannelAdapter<?, ?> kafkaMessageDrivenChannelAdapter =
-				new KafkaMessageDrivenChannelAdapter<>(messageListenerContainer);
-		kafkaMessageDrivenChannelAdapter.setMessageConverter(getMessageConverter(extendedConsumerProperties));
+		boolean batchMode = extendedConsumerProperties.getExtension().isBatchMode();
+		final KafkaMessageDrivenChannelAdapter<?, ?> kafkaMessageDrivenChannelAdapter;
+		List<RetryTopicMessageDrivenChannelAdapter<?, ?>> retryAdapters = Collections.emptyList();
+		RecordMessageConverter recordMessageConverter = conversionStage != null
+				? conversionStage.messageConverter()
+				: getMessageConverter(extendedConsumerProperties);
+		if (batchMode) {
+			kafkaMessageDrivenChannelAdapter = new KafkaMessageDrivenChannelAdapter<>(messageListenerContainer,
+					ListenerMode.batch);
+			kafkaMessageDrivenChannelAdapter.setBatchMessageConverter(
+					getBatchMessageConverter(extendedConsumerProperties));
+		}
+		else if (dispatcher != null) {
+			kafkaMessageDrivenChannelAdapter = new KeyOrderedMessageDrivenChannelAdapter<>(messageListenerContainer,
+					getHeaderMapper(extendedConsumerProperties), dispatcher,
+					extendedConsumerProperties.getMaxAttempts() > 1 ? buildRetryTemplate(extendedConsumerProperties)
+							: null,
+					keyOrdered.getDrainTimeout(), memoryBudget);
+			kafkaMessageDrivenChannelAdapter.setMessageConverter(recordMessageConverter);
+		}
+		else if (backoff != null) {
+			this.partitionBackoffs.put(consumerKey, backoff);
+			kafkaMessageDrivenChannelAdapter = new PartitionBackoffMessageDrivenChannelAdapter(
+					messageListenerContainer, getHeaderMapper(extendedConsumerProperties), backoff);
+			kafkaMessageDrivenChannelAdapter.setMessageConverter(recordMessageConverter);
+		}
+		else if (retryTopics.isEnabled()) {
+			retryAdapters = createRetryTopicAdapters(consumerFactory, topics, consumerGroup, concurrency,
+					messageListenerContainer, extendedConsumerProperties);
+			kafkaMessageDrivenChannelAdapter = new RetryTopicMessageDrivenChannelAdapter(messageListenerContainer,
+					getHeaderMapper(extendedConsumerProperties), retryAdapters);
+			kafkaMessageDrivenChannelAdapter.setMessageConverter(recordMessageConverter);
+		}
+		else if (autoscaling.isEnabled()) {
+			ConcurrencyAutoscaler autoscaler = new ConcurrencyAutoscaler(messageListenerContainer, consumerFactory,
+					consumerGroup, Arrays.asList(topics), autoscaling, minConcurrency, maxConcurrency);
+			this.autoscalers.put(consumerKey, autoscaler);
+			kafkaMessageDrivenChannelAdapter = new AutoscalingMessageDrivenChannelAdapter<>(messageListenerContainer,
+					getHeaderMapper(extendedConsumerProperties), autoscaler, destination.getName());
+			kafkaMessageDrivenChannelAdapter.setMessageConverter(recordMessageConverter);
+		}
+		else {
+			kafkaMessageDrivenChannelAdapter = new EnvelopeAwareMessageDrivenChannelAdapter<>(messageListenerContainer,
+					getHeaderMapper(extendedConsumerProperties));
+			kafkaMessageDrivenChannelAdapter.setMessageConverter(recordMessageConverter);
+		}
+		if (!extendedConsumerProperties.getExtension().getHeaderFilter().isEmpty()) {
+			HeaderRecordFilterStrategy headerFilter = new HeaderRecordFilterStrategy(
+					extendedConsumerProperties.getExtension().getHeaderFilter());
+			this.headerFilters.put(consumerKey, headerFilter);
+			kafkaMessageDrivenChannelAdapter.setRecordFilterStrategy((RecordFilterStrategy) headerFilter);
+			// with keyOrdered, acknowledging a discarded record could commit records still being processed
+			// and, with pausePartitionOnError, a record being backed off; its offset is committed with the
+			// next processed record
+			kafkaMessageDrivenChannelAdapter.setAckDiscarded(extendedConsumerProperties.getExtension()
+					.isAutoCommitOffset() && dispatcher == null && backoff == null);
+		}
 		kafkaMessageDrivenChannelAdapter.setBeanFactory(this.getBeanFactory());
 		ErrorInfrastructure errorInfrastructure = registerErrorInfrastructure(destination, consumerGroup,
 				extendedConsumerProperties);
-		if (extendedConsumerProperties.getMaxAttempts() > 1) {
+		// retries are not supported for batches; with keyOrdered, they are performed by the workers, with
+		// retry topics, by the retry topic consumers and, with pausePartitionOnError, by the adapter
+		if (backoff != null) {
+			((PartitionBackoffMessageDrivenChannelAdapter<?, ?>) kafkaMessageDrivenChannelAdapter)
+					.setRecoveryChannel(errorInfrastructure.getErrorChannel());
+		}
+		else if (extendedConsumerProperties.getMaxAttempts() > 1 && !batchMode && dispatcher == null
+				&& !retryTopics.isEnabled()) {
 			kafkaMessageDrivenChannelAdapter.setRetryTemplate(buildRetryTemplate(extendedConsumerProperties));
 			kafkaMessageDrivenChannelAdapter.setRecoveryCallback(errorInfrastructure.getRecoverer());
 		}
 		else {
 			kafkaMessageDrivenChannelAdapter.setErrorChannel(errorInfrastructure.getErrorChannel());
 		}
+		for (RetryTopicMessageDrivenChannelAdapter<?, ?> retryAdapter : retryAdapters) {
+			retryAdapter.setBeanFactory(this.getBeanFactory());
+			retryAdapter.setErrorChannel(errorInfrastructure.getErrorChannel());
+		}
 		return kafkaMessageDrivenChannelAdapter;
 	}
 
+	/**
+	 * Create the endpoint of a binding whose records are fetched by the consumer shared by
+	 * the bindings of the destination with the same shared fetch group, creating that
+	 * consumer for the first binding (whose consumer configuration it uses).
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private MessageProducer createSharedFetchEndpoint(ConsumerDestination destination, String group,
+			String sharedFetchGroup, ConsumerFactory<?, ?> consumerFactory, int concurrency,
+			ExtendedConsumerProperties<KafkaConsumerProperties> extendedConsumerProperties) {
+
+		SharedFetchConsumer<?, ?> sharedConsumer = this.sharedFetchConsumers.computeIfAbsent(
+				destination.getName() + ":" + sharedFetchGroup, key -> {
+					ContainerProperties containerProperties = new ContainerProperties(destination.getName());
+					containerProperties.setGroupId(sharedFetchGroup);
+					// the bindings commit their own offsets
+					containerProperties.setAckMode(ContainerProperties.AckMode.MANUAL);
+					containerProperties.setAckOnError(false);
+					ConcurrentMessageListenerContainer<?, ?> container =
+							new ConcurrentMessageListenerContainer(consumerFactory, containerProperties);
+					container.setConcurrency(concurrency);
+					if (getApplicationEventPublisher() != null) {
+						container.setApplicationEventPublisher(getApplicationEventPublisher());
+					}
+					else if (getApplicationContext() != null) {
+						container.setApplicationEventPublisher(getApplicationContext());
+					}
+					container.setBeanName(key + ".container");
+					SharedFetchConsumer<?, ?> shared = new SharedFetchConsumer<>(container);
+					this.getContainerCustomizer().configure(container, destination.getName(), sharedFetchGroup);
+					return shared;
+				});
+		SharedFetchMessageProducer producer = new SharedFetchMessageProducer(sharedConsumer, consumerFactory, group,
+				extendedConsumerProperties.getMaxAttempts() > 1 ? buildRetryTemplate(extendedConsumerProperties)
+						: null,
+				getMessageConverter(extendedConsumerProperties), getHeaderMapper(extendedConsumerProperties));
+		producer.setBeanFactory(this.getBeanFactory());
+		ErrorInfrastructure errorInfrastructure = registerErrorInfrastructure(destination, group,
+				extendedConsumerProperties);
+		producer.setErrorChannel(errorInfrastructure.getErrorChannel());
+		return producer;
+	}
+
 	public void setupRebalanceListener(
 			final ExtendedConsumerProperties<KafkaConsumerProperties> extendedConsumerProperties,
 			final ContainerProperties containerProperties) {
@@ -562,6 +1087,145 @@ public class KafkaMessageChannelBinder extends
 		});
 	}
 
+	/*
+	 * Commit every offsetUpdateCount records or offsetUpdateTimeWindow ms, whichever
+	 * comes first, instead of after each poll.
+	 */
+	private void windowCommits(ContainerProperties containerProperties) {
+		int count = this.configurationProperties.getOffsetUpdateCount();
+		int window = this.configurationProperties.getOffsetUpdateTimeWindow();
+		if (count <= 0 && window <= 0) {
+			return;
+		}
+		if (count > 0 && window > 0) {
+			containerProperties.setAckMode(ContainerProperties.AckMode.COUNT_TIME);
+		}
+		else {
+			containerProperties.setAckMode(count > 0 ? ContainerProperties.AckMode.COUNT
+					: ContainerProperties.AckMode.TIME);
+		}
+		if (count > 0) {
+			containerProperties.setAckCount(count);
+		}
+		if (window > 0) {
+			containerProperties.setAckTime(window);
+		}
+		// the container commits the pending offsets when it stops
+		containerProperties.setShutdownTimeout(this.configurationProperties.getOffsetUpdateShutdownTimeout());
+	}
+
+	/**
+	 * Create an adapter, with its own container, for each retry topic of a binding; the
+	 * containers are configured like the binding's container, except that they use manual
+	 * acknowledgment, so that the records held back until they are due are not committed.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private List<RetryTopicMessageDrivenChannelAdapter<?, ?>> createRetryTopicAdapters(
+			ConsumerFactory<?, ?> consumerFactory, String[] topics, String group, int concurrency,
+			ConcurrentMessageListenerContainer<?, ?> bindingContainer,
+			ExtendedConsumerProperties<KafkaConsumerProperties> extendedConsumerProperties) {
+
+		ContainerProperties bindingProperties = bindingContainer.getContainerProperties();
+		List<RetryTopicMessageDrivenChannelAdapter<?, ?>> retryAdapters = new ArrayList<>();
+		for (long delay : extendedConsumerProperties.getExtension().getRetryTopics().getDelays()) {
+			String[] retryTopics = new String[topics.length];
+			for (int i = 0; i < topics.length; i++) {
+				retryTopics[i] = KafkaConsumerProperties.RetryTopics.topicName(topics[i], group, delay);
+			}
+			ContainerProperties containerProperties = new ContainerProperties(retryTopics);
+			containerProperties.setAckMode(ContainerProperties.AckMode.MANUAL);
+			containerProperties.setAckOnError(false);
+			containerProperties.setShutdownTimeout(bindingProperties.getShutdownTimeout());
+			containerProperties.setTransactionManager(bindingProperties.getTransactionManager());
+			containerProperties.setConsumerTaskExecutor(bindingProperties.getConsumerTaskExecutor());
+			containerProperties.setIdleEventInterval(bindingProperties.getIdleEventInterval());
+			PartitionBackoff backoff = new PartitionBackoff(1, 0, 1.0, 0);
+			onRevocation(containerProperties, backoff::revoked);
+			ConcurrentMessageListenerContainer<?, ?> container = new ConcurrentMessageListenerContainer(
+					backoff.consumerFactory(consumerFactory), containerProperties);
+			container.setConcurrency(concurrency);
+			if (getApplicationEventPublisher() != null) {
+				container.setApplicationEventPublisher(getApplicationEventPublisher());
+			}
+			else if (getApplicationContext() != null) {
+				container.setApplicationEventPublisher(getApplicationContext());
+			}
+			String name = StringUtils.arrayToCommaDelimitedString(retryTopics);
+			container.setBeanName(name + ".container");
+			this.getContainerCustomizer().configure(container, name, group);
+			RetryTopicMessageDrivenChannelAdapter<?, ?> retryAdapter = new RetryTopicMessageDrivenChannelAdapter(
+					container, getHeaderMapper(extendedConsumerProperties), delay, backoff,
+					extendedConsumerProperties.getExtension().isAutoCommitOffset());
+			retryAdapter.setMessageConverter(getMessageConverter(extendedConsumerProperties));
+			retryAdapters.add(retryAdapter);
+		}
+		return retryAdapters;
+	}
+
+	/**
+	 * Map each topic of a binding, and each of its retry topics but the last, to the retry
+	 * topic its failed records are sent to.
+	 */
+	private static Map<String, String> retryTopicRoutes(String destination, String group,
+			KafkaConsumerProperties.RetryTopics retryTopics) {
+
+		Map<String, String> routes = new LinkedHashMap<>();
+		for (String topic : StringUtils.commaDelimitedListToStringArray(destination)) {
+			String from = topic.trim();
+			for (long delay : retryTopics.getDelays()) {
+				String to = KafkaConsumerProperties.RetryTopics.topicName(topic.trim(), group, delay);
+				routes.put(from, to);
+				from = to;
+			}
+		}
+		return routes;
+	}
+
+	/*
+	 * Act on revoked partitions (for example, wait for their records to be processed and
+	 * acknowledged) before the container commits the pending offsets.
+	 */
+	private void onRevocation(ContainerProperties containerProperties,
+			java.util.function.Consumer<Collection<TopicPartition>> revoked) {
+
+		final ConsumerRebalanceListener delegate = containerProperties.getConsumerRebalanceListener();
+		containerProperties.setConsumerRebalanceListener(new ConsumerAwareRebalanceListener() {
+
+			@Override
+			public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer,
+					Collection<TopicPartition> partitions) {
+
+				revoked.accept(partitions);
+				if (delegate instanceof ConsumerAwareRebalanceListener) {
+					((ConsumerAwareRebalanceListener) delegate).onPartitionsRevokedBeforeCommit(consumer, partitions);
+				}
+				else if (delegate != null) {
+					delegate.onPartitionsRevoked(partitions);
+				}
+			}
+
+			@Override
+			public void onPartitionsRevokedAfterCommit(Consumer<?, ?> consumer,
+					Collection<TopicPartition> partitions) {
+
+				if (delegate instanceof ConsumerAwareRebalanceListener) {
+					((ConsumerAwareRebalanceListener) delegate).onPartitionsRevokedAfterCommit(consumer, partitions);
+				}
+			}
+
+			@Override
+			public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+				if (delegate instanceof ConsumerAwareRebalanceListener) {
+					((ConsumerAwareRebalanceListener) delegate).onPartitionsAssigned(consumer, partitions);
+				}
+				else if (delegate != null) {
+					delegate.onPartitionsAssigned(partitions);
+				}
+			}
+
+		});
+	}
+
 	public Collection<PartitionInfo> processTopic(final String group,
 			final ExtendedConsumerProperties<KafkaConsumerProperties> extendedConsumerProperties,
 			final ConsumerFactory<?, ?> consumerFactory, int partitionCount, boolean usingPatterns,
@@ -662,6 +1326,8 @@ public class KafkaMessageChannelBinder extends
 		boolean anonymous = !StringUtils.hasText(group);
 		Assert.isTrue(!anonymous || !consumerProperties.getExtension().isEnableDlq(),
 				"DLQ support is not available for anonymous subscriptions");
+		Assert.isTrue(!consumerProperties.getExtension().getRetryTopics().isEnabled(),
+				"Retry topics are not available for pollable sources");
 		String consumerGroup = anonymous ? "anonymous." + UUID.randomUUID().toString() : group;
 		final ConsumerFactory<?, ?> consumerFactory = createKafkaConsumerFactory(anonymous, consumerGroup,
 				consumerProperties);
@@ -671,7 +1337,13 @@ public class KafkaMessageChannelBinder extends
 		for (int i = 0; i < topics.length; i++) {
 			topics[i] = topics[i].trim();
 		}
-		KafkaMessageSource<?, ?> source = new KafkaMessageSource<>(consumerFactory, topics);
+		ConsumerFactory<?, ?> sourceConsumerFactory = consumerFactory;
+		int prefetch = consumerProperties.getExtension().getPollablePrefetch();
+		if (prefetch > 1) {
+			sourceConsumerFactory = new PrefetchingConsumerFactory<>(consumerFactory, prefetch);
+		}
+		KafkaMessageSource<?, ?> source = new EnvelopeAwareKafkaMessageSource<>(sourceConsumerFactory,
+				getHeaderMapper(consumerProperties), topics);
 		source.setMessageConverter(getMessageConverter(consumerProperties));
 		source.setRawMessageHeader(consumerProperties.getExtension().isEnableDlq());
 		String clientId = name;
@@ -726,7 +1398,7 @@ public class KafkaMessageChannelBinder extends
 			final ExtendedConsumerProperties<KafkaConsumerProperties> extendedConsumerProperties) {
 		MessagingMessageConverter messageConverter;
 		if (extendedConsumerProperties.getExtension().getConverterBeanName() == null) {
-			messageConverter = new MessagingMessageConverter();
+			messageConverter = new InboundMessagingMessageConverter();
 			StandardHeaders standardHeaders = extendedConsumerProperties.getExtension().getStandardHeaders();
 			messageConverter.setGenerateMessageId(StandardHeaders.id.equals(standardHeaders)
 					|| StandardHeaders.both.equals(standardHeaders));
@@ -747,6 +1419,39 @@ public class KafkaMessageChannelBinder extends
 		return messageConverter;
 	}
 
+	/*
+	 * Each record is converted by the record converter, so the per-record mapped headers are available in
+	 * the BATCH_CONVERTED_HEADERS header; envelope records are unpacked, each message being an element of
+	 * the batch.
+	 */
+	private BatchMessagingMessageConverter getBatchMessageConverter(
+			final ExtendedConsumerProperties<KafkaConsumerProperties> extendedConsumerProperties) {
+		BatchMessagingMessageConverter batchConverter =
+				new BatchMessagingMessageConverter(getMessageConverter(extendedConsumerProperties)) {
+
+			@Override
+			public Message<?> toMessage(List<ConsumerRecord<?, ?>> records, Acknowledgment acknowledgment,
+					Consumer<?, ?> consumer, Type type) {
+
+				List<ConsumerRecord<?, ?>> unpacked = unpackEnvelopes(records);
+				if (unpacked == null) {
+					KafkaMessageChannelBinder.this.logger.warn("Malformed envelope record in a batch from "
+							+ records.get(0).topic() + "; the batch is delivered with its envelopes packed");
+					unpacked = records;
+				}
+				return super.toMessage(unpacked, acknowledgment, consumer, type);
+			}
+
+		};
+		StandardHeaders standardHeaders = extendedConsumerProperties.getExtension().getStandardHeaders();
+		batchConverter.setGenerateMessageId(StandardHeaders.id.equals(standardHeaders)
+				|| StandardHeaders.both.equals(standardHeaders));
+		batchConverter.setGenerateTimestamp(StandardHeaders.timestamp.equals(standardHeaders)
+				|| StandardHeaders.both.equals(standardHeaders));
+		batchConverter.setHeaderMapper(getHeaderMapper(extendedConsumerProperties));
+		return batchConverter;
+	}
+
 	private KafkaHeaderMapper getHeaderMapper(
 			final ExtendedConsumerProperties<KafkaConsumerProperties> extendedConsumerProperties) {
 		KafkaHeaderMapper mapper = null;
@@ -798,21 +1503,33 @@ public class KafkaMessageChannelBinder extends
 	protected MessageHandler getErrorMessageHandler(final ConsumerDestination destination, final String group,
 			final ExtendedConsumerProperties<KafkaConsumerProperties> properties) {
 		KafkaConsumerProperties kafkaConsumerProperties = properties.getExtension();
-		if (kafkaConsumerProperties.isEnableDlq()) {
+		KafkaConsumerProperties.RetryTopics retryTopics = kafkaConsumerProperties.getRetryTopics();
+		if (kafkaConsumerProperties.isEnableDlq() || retryTopics.isEnabled()) {
 			KafkaProducerProperties dlqProducerProperties = kafkaConsumerProperties.getDlqProducerProperties();
 			ProducerFactory<?, ?> producerFactory = this.transactionManager != null
 					? this.transactionManager.getProducerFactory()
-					: getProducerFactory(null,
-						new ExtendedProducerProperties<>(dlqProducerProperties));
+					: pooledIfEnabled(getProducerFactory(null,
+						new ExtendedProducerProperties<>(dlqProducerProperties)), dlqProducerProperties);
+			if (producerFactory instanceof KafkaProducerPool.PooledProducerFactory) {
+				// released when the binding is unbound
+				KafkaProducerPool.PooledProducerFactory previous = this.dlqProducerFactories.put(
+						getErrorMessageHandlerName(destination, group, properties),
+						(KafkaProducerPool.PooledProducerFactory) producerFactory);
+				if (previous != null) {
+					this.producerPool.release(previous);
+				}
+			}
 			final KafkaTemplate<?, ?> kafkaTemplate = new KafkaTemplate<>(producerFactory);
 
 			@SuppressWarnings("rawtypes")
 			DlqSender<?, ?> dlqSender = new DlqSender(kafkaTemplate);
 
-			return (message) -> {
+			Map<String, String> retryRoutes = retryTopics.isEnabled()
+					? retryTopicRoutes(destination.getName(), group, retryTopics)
+					: Collections.emptyMap();
+			Set<String> retryTopicNames = new HashSet<>(retryRoutes.values());
 
-				final ConsumerRecord<Object, Object> record = message.getHeaders()
-						.get(KafkaHeaders.RAW_DATA, ConsumerRecord.class);
+			BiConsumer<ConsumerRecord<Object, Object>, Message<?>> publisher = (record, message) -> {
 
 				if (properties.isUseNativeDecoding()) {
 					if (record != null) {
@@ -844,22 +1561,25 @@ public class KafkaMessageChannelBinder extends
 
 					if (headerMode == null || HeaderMode.headers.equals(headerMode)) {
 
-						kafkaHeaders.add(
-								new RecordHeader(X_ORIGINAL_TOPIC, record.topic().getBytes(StandardCharsets.UTF_8)));
-						kafkaHeaders.add(new RecordHeader(X_ORIGINAL_PARTITION,
-								ByteBuffer.allocate(Integer.BYTES).putInt(record.partition()).array()));
-						kafkaHeaders.add(new RecordHeader(X_ORIGINAL_OFFSET,
-								ByteBuffer.allocate(Long.BYTES).putLong(record.offset()).array()));
-						kafkaHeaders.add(new RecordHeader(X_ORIGINAL_TIMESTAMP,
-								ByteBuffer.allocate(Long.BYTES).putLong(record.timestamp()).array()));
-						kafkaHeaders.add(new RecordHeader(X_ORIGINAL_TIMESTAMP_TYPE,
-								record.timestampType().toString().getBytes(StandardCharsets.UTF_8)));
+						// a record from a retry topic already has the original headers
+						if (kafkaHeaders.lastHeader(X_ORIGINAL_TOPIC) == null) {
+							addOriginalHeaders(kafkaHeaders, record);
+						}
 						kafkaHeaders.add(new RecordHeader(X_EXCEPTION_FQCN,
 								throwable.getClass().getName().getBytes(StandardCharsets.UTF_8)));
 						kafkaHeaders.add(new RecordHeader(X_EXCEPTION_MESSAGE,
 								throwable.getMessage().getBytes(StandardCharsets.UTF_8)));
 						kafkaHeaders.add(new RecordHeader(X_EXCEPTION_STACKTRACE,
 								getStackTraceAsString(throwable).getBytes(StandardCharsets.UTF_8)));
+						if (throwable instanceof MessagingException
+								&& ((MessagingException) throwable).getFailedMessage() != null) {
+							Integer envelopeIndex = ((MessagingException) throwable).getFailedMessage().getHeaders()
+									.get(ENVELOPE_INDEX, Integer.class);
+							if (envelopeIndex != null) {
+								kafkaHeaders.add(new RecordHeader(X_ENVELOPE_INDEX,
+										ByteBuffer.allocate(Integer.BYTES).putInt(envelopeIndex).array()));
+							}
+						}
 					}
 					else if (HeaderMode.embeddedHeaders.equals(headerMode)) {
 						try {
@@ -886,14 +1606,88 @@ public class KafkaMessageChannelBinder extends
 						}
 					}
 				}
+				String topic = record.topic();
+				Header originalTopic = retryTopicNames.contains(topic) ? record.headers().lastHeader(X_ORIGINAL_TOPIC)
+						: null;
+				if (originalTopic != null) {
+					// the DLQ of the binding's topic, not of the retry topic
+					topic = new String(originalTopic.value(), StandardCharsets.UTF_8);
+				}
 				String dlqName = StringUtils.hasText(kafkaConsumerProperties.getDlqName())
-						? kafkaConsumerProperties.getDlqName() : "error." + record.topic() + "." + group;
+						? kafkaConsumerProperties.getDlqName() : "error." + topic + "." + group;
 				dlqSender.sendToDlq(recordToSend.get(), kafkaHeaders, dlqName);
 			};
+
+			return (message) -> {
+				Object rawData = message.getHeaders().get(KafkaHeaders.RAW_DATA);
+				if (rawData instanceof List) {
+					// the indices of a BatchRecordsFailedException are those of the unpacked batch
+					List<ConsumerRecord<Object, Object>> records = (List<ConsumerRecord<Object, Object>>) rawData;
+					List<?> unpacked = unpackEnvelopes(records);
+					if (unpacked != null) {
+						records = (List<ConsumerRecord<Object, Object>>) unpacked;
+					}
+					for (int index : failedIndices(message.getPayload(), records.size())) {
+						publisher.accept(records.get(index), message);
+					}
+					return;
+				}
+				ConsumerRecord<Object, Object> record = (ConsumerRecord<Object, Object>) rawData;
+				String retryTopic = record != null ? retryRoutes.get(record.topic()) : null;
+				if (retryTopic != null) {
+					Headers kafkaHeaders = new RecordHeaders(record.headers().toArray());
+					if (kafkaHeaders.lastHeader(X_ORIGINAL_TOPIC) == null) {
+						addOriginalHeaders(kafkaHeaders, record);
+					}
+					dlqSender.send(record, kafkaHeaders, retryTopic, "retry topic");
+				}
+				else if (kafkaConsumerProperties.isEnableDlq()) {
+					publisher.accept(record, message);
+				}
+				else if (record != null) {
+					this.logger.error("Retries exhausted for a record from " + record.topic() + "-"
+							+ record.partition() + "@" + record.offset(), message.getPayload() instanceof Throwable
+									? (Throwable) message.getPayload() : null);
+				}
+			};
 		}
 		return null;
 	}
 
+	@Override
+	protected void afterUnbindConsumer(ConsumerDestination destination, String group,
+			ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties) {
+
+		KafkaProducerPool.PooledProducerFactory dlqProducerFactory = this.dlqProducerFactories
+				.remove(getErrorMessageHandlerName(destination, group, consumerProperties));
+		if (dlqProducerFactory != null) {
+			this.producerPool.release(dlqProducerFactory);
+		}
+		ConsumerKey consumerKey = this.consumerKeys.remove(destination);
+		if (consumerKey != null) {
+			this.consumerContainers.remove(consumerKey);
+			this.autoscalers.remove(consumerKey);
+			this.partitionBackoffs.remove(consumerKey);
+			this.memoryBudgets.remove(consumerKey);
+			this.priorityThrottles.remove(consumerKey);
+			this.consumerConflators.remove(consumerKey);
+			this.headerFilters.remove(consumerKey);
+			this.conversionStages.remove(consumerKey);
+		}
+	}
+
+	private static void addOriginalHeaders(Headers kafkaHeaders, ConsumerRecord<?, ?> record) {
+		kafkaHeaders.add(new RecordHeader(X_ORIGINAL_TOPIC, record.topic().getBytes(StandardCharsets.UTF_8)));
+		kafkaHeaders.add(new RecordHeader(X_ORIGINAL_PARTITION,
+				ByteBuffer.allocate(Integer.BYTES).putInt(record.partition()).array()));
+		kafkaHeaders.add(new RecordHeader(X_ORIGINAL_OFFSET,
+				ByteBuffer.allocate(Long.BYTES).putLong(record.offset()).array()));
+		kafkaHeaders.add(new RecordHeader(X_ORIGINAL_TIMESTAMP,
+				ByteBuffer.allocate(Long.BYTES).putLong(record.timestamp()).array()));
+		kafkaHeaders.add(new RecordHeader(X_ORIGINAL_TIMESTAMP_TYPE,
+				record.timestampType().toString().getBytes(StandardCharsets.UTF_8)));
+	}
+
 	@Override
 	protected MessageHandler getPolledConsumerErrorMessageHandler(ConsumerDestination destination, String group,
 			ExtendedConsumerProperties<KafkaConsumerProperties> properties) {
@@ -962,10 +1756,39 @@ public class KafkaMessageChannelBinder extends
 			props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG,
 					consumerProperties.getExtension().getStartOffset().name());
 		}
+		long maxBytes = consumerProperties.getExtension().getMemoryBudget().getMaxBytes();
+		if (maxBytes > 0) {
+			// bound the consumers' fetch buffers too, unless configured
+			int perConsumer = (int) Math.max(1,
+					Math.min(Integer.MAX_VALUE, maxBytes / Math.max(1, consumerProperties.getConcurrency())));
+			props.putIfAbsent(ConsumerConfig.FETCH_MAX_BYTES_CONFIG,
+					Math.min(perConsumer, ConsumerConfig.DEFAULT_FETCH_MAX_BYTES));
+			props.putIfAbsent(ConsumerConfig.MAX_PARTITION_FETCH_BYTES_CONFIG,
+					Math.min(perConsumer, ConsumerConfig.DEFAULT_MAX_PARTITION_FETCH_BYTES));
+		}
 
 		return new DefaultKafkaConsumerFactory<>(props);
 	}
 
+	/*
+	 * Return the configured deserializer, to be used by a parallel conversion stage, or null if it is
+	 * a ByteArrayDeserializer.
+	 */
+	@Nullable
+	private Deserializer<?> createConversionDeserializer(Map<String, Object> configs, String property,
+			boolean isKey) {
+
+		Object configured = configs.get(property);
+		Class<?> deserializerClass = configured instanceof Class ? (Class<?>) configured
+				: ClassUtils.resolveClassName(configured.toString().trim(), ClassUtils.getDefaultClassLoader());
+		if (ByteArrayDeserializer.class.equals(deserializerClass)) {
+			return null;
+		}
+		Deserializer<?> deserializer = BeanUtils.instantiateClass(deserializerClass, Deserializer.class);
+		deserializer.configure(configs, isKey);
+		return deserializer;
+	}
+
 	private boolean isAutoCommitOnError(ExtendedConsumerProperties<KafkaConsumerProperties> properties) {
 		return properties.getExtension().getAutoCommitOnError() != null
 				? properties.getExtension().getAutoCommitOnError()
@@ -992,6 +1815,37 @@ public class KafkaMessageChannelBinder extends
 		return original.substring(0, maxCharacters) + "...";
 	}
 
+	/*
+	 * Return the records of a batch with their envelope records unpacked, or null if an envelope is
+	 * malformed.
+	 */
+	@Nullable
+	private static List<ConsumerRecord<?, ?>> unpackEnvelopes(List<? extends ConsumerRecord<?, ?>> records) {
+		try {
+			return RecordEnvelope.unpackAll(records);
+		}
+		catch (IllegalStateException ex) {
+			return null;
+		}
+	}
+
+	/*
+	 * The records of a failed batch to send to the DLQ: those reported by a BatchRecordsFailedException,
+	 * or else the whole batch.
+	 */
+	private static Collection<Integer> failedIndices(Object payload, int size) {
+		Throwable throwable = payload instanceof Throwable ? (Throwable) payload : null;
+		while (throwable != null && !(throwable instanceof BatchRecordsFailedException)) {
+			throwable = throwable.getCause();
+		}
+		if (throwable != null) {
+			return ((BatchRecordsFailedException) throwable).getFailedIndices().stream()
+					.filter(index -> index >= 0 && index < size)
+					.collect(Collectors.toList());
+		}
+		return IntStream.range(0, size).boxed().collect(Collectors.toList());
+	}
+
 	private String getStackTraceAsString(Throwable cause) {
 		StringWriter stringWriter = new StringWriter();
 		PrintWriter printWriter = new PrintWriter(stringWriter, true);
@@ -1000,33 +1854,164 @@ public class KafkaMessageChannelBinder extends
 	}
 
 	private final class ProducerConfigurationMessageHandler extends KafkaProducerMessageHandler<byte[], byte[]>
-			implements Lifecycle {
+			implements Lifecycle, DisposableBean {
 
-		private boolean running = true;
+		private volatile boolean running;
+
+		private boolean released;
 
 		private final ProducerFactory<byte[], byte[]> producerFactory;
 
+		private final String topic;
+
+		private final InFlightRecordLimiter limiter;
+
+		private final CompressionTuner compressionTuner;
+
+		private final boolean partitioned;
+
+		private final boolean batchMode;
+
+		private final boolean sync;
+
+		private final Expression messageKeyExpression;
+
+		// the KafkaProducerMessageHandler default
+		private Expression sendTimeoutExpression = new ValueExpression<>(10000L);
+
+		private final ErrorMessageStrategy errorMessageStrategy = new DefaultErrorMessageStrategy();
+
+		private final RecordConflator conflator;
+
+		private final EnvelopeAccumulator envelopes;
+
+		private final TransactionGroupCommitter groupCommitter;
+
+		private final Expression destinationExpression;
+
+		private final Map<String, TopicInformation> destinations;
+
+		private final Map<String, CompletableFuture<TopicInformation>> discoveries = new ConcurrentHashMap<>();
+
+		private final ThreadLocal<String> sendingTo = new ThreadLocal<>();
+
+		private final ExtendedProducerProperties<KafkaProducerProperties> producerProperties;
+
+		private KafkaHeaderMapper headerMapper;
+
+		private int partitionCount;
+
+		private EvaluationContext evaluationContext;
+
 		ProducerConfigurationMessageHandler(KafkaTemplate<byte[], byte[]> kafkaTemplate, String topic,
 				ExtendedProducerProperties<KafkaProducerProperties> producerProperties,
-				ProducerFactory<byte[], byte[]> producerFactory) {
+				ProducerFactory<byte[], byte[]> producerFactory, @Nullable InFlightRecordLimiter limiter) {
 			super(kafkaTemplate);
-			setTopicExpression(new LiteralExpression(topic));
-			setMessageKeyExpression(producerProperties.getExtension().getMessageKeyExpression());
+			KafkaProducerProperties.DynamicDestinations dynamicDestinations =
+					producerProperties.getExtension().getDynamicDestinations();
+			if (dynamicDestinations.isEnabled()) {
+				this.destinationExpression = dynamicDestinations.getExpression() != null
+						? FastPathExpressions.optimize(dynamicDestinations.getExpression())
+						: FastPathExpressions.header(KafkaHeaders.TOPIC);
+				this.destinations = destinationCache(dynamicDestinations.getCacheSize());
+				setTopicExpression(new FunctionExpression<Message<?>>(this::sendingTo));
+			}
+			else {
+				this.destinationExpression = null;
+				this.destinations = null;
+				setTopicExpression(new LiteralExpression(topic));
+			}
+			this.messageKeyExpression = FastPathExpressions.optimize(
+					producerProperties.getExtension().getMessageKeyExpression());
+			setMessageKeyExpression(this.messageKeyExpression);
 			setBeanFactory(KafkaMessageChannelBinder.this.getBeanFactory());
 			if (producerProperties.isPartitioned()) {
-				SpelExpressionParser parser = new SpelExpressionParser();
-				setPartitionIdExpression(parser.parseExpression("headers['" + BinderHeaders.PARTITION_HEADER + "']"));
+				setPartitionIdExpression(this.destinationExpression != null
+						? new FunctionExpression<Message<?>>(message -> partition(message, sendingTo(message)))
+						: FastPathExpressions.header(BinderHeaders.PARTITION_HEADER));
 			}
+			this.producerProperties = producerProperties;
 			if (producerProperties.getExtension().isSync()) {
 				setSync(true);
 			}
 			this.producerFactory = producerFactory;
+			this.topic = topic;
+			this.limiter = limiter;
+			this.compressionTuner = producerFactory instanceof AdaptiveProducerFactory
+					? ((AdaptiveProducerFactory) producerFactory).getTuner(CompressionTuner.class)
+					: null;
+			KafkaProducerProperties.Conflation conflation = producerProperties.getExtension().getConflation();
+			this.conflator = conflation.isEnabled()
+					? new RecordConflator(conflation.getWindow(), conflation.getMaxKeys(), this::messageKey,
+							this::sendConflated)
+					: null;
+			KafkaProducerProperties.Envelope envelope = producerProperties.getExtension().getEnvelope();
+			this.envelopes = envelope.isEnabled()
+					? new EnvelopeAccumulator(envelope.getMaxMessages(), envelope.getMaxBytes(), envelope.getWindow(),
+							this::sendEnvelope)
+					: null;
+			this.groupCommitter = KafkaMessageChannelBinder.this.transactionManager != null
+					&& KafkaMessageChannelBinder.this.configurationProperties.getTransaction().getGroupCommit()
+							.isEnabled()
+					? obtainGroupCommitter()
+					: null;
+			this.partitioned = producerProperties.isPartitioned();
+			this.batchMode = producerProperties.getExtension().isBatchMode();
+			this.sync = producerProperties.getExtension().isSync();
+		}
+
+		/*
+		 * The dynamic destinations whose partitions are known, least recently used first; an evicted
+		 * destination is no longer reported as in use, unless it was registered by another binding.
+		 */
+		private Map<String, TopicInformation> destinationCache(int cacheSize) {
+			return Collections.synchronizedMap(new LinkedHashMap<String, TopicInformation>(16, 0.75f, true) {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, TopicInformation> eldest) {
+					if (size() <= cacheSize) {
+						return false;
+					}
+					KafkaMessageChannelBinder.this.topicsInUse.remove(eldest.getKey(), eldest.getValue());
+					return true;
+				}
+
+			});
+		}
+
+		@Override
+		public void setHeaderMapper(KafkaHeaderMapper headerMapper) {
+			super.setHeaderMapper(headerMapper);
+			this.headerMapper = headerMapper;
+		}
+
+		@Override
+		public void setSendTimeoutExpression(Expression sendTimeoutExpression) {
+			super.setSendTimeoutExpression(sendTimeoutExpression);
+			this.sendTimeoutExpression = sendTimeoutExpression;
 		}
 
 		@Override
 		public void start() {
 			try {
 				super.onInit();
+				this.evaluationContext = ExpressionUtils.createStandardEvaluationContext(getBeanFactory());
+				if (this.conflator != null) {
+					this.conflator.start(this.topic);
+					KafkaMessageChannelBinder.this.conflators.put(this.topic, this.conflator);
+				}
+				if (this.envelopes != null) {
+					this.envelopes.start(this.topic);
+				}
+				if (this.groupCommitter != null) {
+					this.groupCommitter.start();
+				}
+				if (this.producerFactory instanceof AdaptiveProducerFactory) {
+					((AdaptiveProducerFactory) this.producerFactory).start();
+				}
+				this.running = true;
 			}
 			catch (Exception ex) {
 				this.logger.error("Initialization errors: ", ex);
@@ -1034,10 +2019,347 @@ public class KafkaMessageChannelBinder extends
 			}
 		}
 
+		@Override
+		protected Object handleRequestMessage(Message<?> message) {
+			if (this.batchMode && message.getPayload() instanceof Collection) {
+				sendBatch(message, (Collection<?>) message.getPayload());
+				return null;
+			}
+			if (this.groupCommitter != null && !getKafkaTemplate().inTransaction()) {
+				sendInGroup(message);
+				return null;
+			}
+			if (this.conflator != null && this.conflator.offer(message)) {
+				return null;
+			}
+			return sendOrPack(message);
+		}
+
+		/*
+		 * Send a message emitted by the conflator, on the flush thread; a failure thrown by the send itself
+		 * (rather than reported by the producer) is sent to the send failure channel, like the others.
+		 */
+		private void sendConflated(Message<?> message) {
+			try {
+				sendOrPack(message);
+			}
+			catch (RuntimeException ex) {
+				MessageChannel failureChannel = getSendFailureChannel();
+				if (failureChannel == null) {
+					throw ex;
+				}
+				this.messagingTemplate.send(failureChannel, this.errorMessageStrategy.buildErrorMessage(
+						new KafkaSendFailureException(message, null, ex), null));
+			}
+		}
+
+		private Object sendOrPack(Message<?> message) {
+			if (this.envelopes != null && pack(message)) {
+				return null;
+			}
+			return send(message);
+		}
+
+		/*
+		 * The topic and partition expressions of the superclass both need the destination, which is
+		 * evaluated once, here.
+		 */
+		private Object send(Message<?> message) {
+			sample(message.getPayload());
+			if (this.destinationExpression == null) {
+				return super.handleRequestMessage(message);
+			}
+			this.sendingTo.set(topic(message));
+			try {
+				return super.handleRequestMessage(message);
+			}
+			finally {
+				this.sendingTo.remove();
+			}
+		}
+
+		/*
+		 * Add the message to the envelope for its partition; messages with a payload or key that
+		 * is not a byte[] cannot be packed.
+		 */
+		private boolean pack(Message<?> message) {
+			Object payload = message.getPayload();
+			Object key = messageKey(message);
+			if (!(payload instanceof byte[]) || (key != null && !(key instanceof byte[]))) {
+				return false;
+			}
+			RecordHeaders headers = new RecordHeaders();
+			if (this.headerMapper != null) {
+				this.headerMapper.fromHeaders(message.getHeaders(), headers);
+			}
+			sample(payload);
+			this.envelopes.offer(envelopePartition(message, (byte[]) key),
+					RecordEnvelope.encode((byte[]) key, headers, (byte[]) payload), message);
+			return true;
+		}
+
+		/*
+		 * Envelope records have no key, so the partition a keyed message would have been sent to
+		 * (with the default partitioner) is selected explicitly.
+		 */
+		private Integer envelopePartition(Message<?> message, byte[] key) {
+			if (this.partitioned) {
+				return message.getHeaders().get(BinderHeaders.PARTITION_HEADER, Integer.class);
+			}
+			if (key == null) {
+				return null;
+			}
+			if (this.partitionCount == 0) {
+				this.partitionCount = getKafkaTemplate().partitionsFor(this.topic).size();
+			}
+			return Utils.toPositive(Utils.murmur2(key)) % this.partitionCount;
+		}
+
+		@SuppressWarnings("unchecked")
+		private void sendEnvelope(Integer partition, byte[] envelope, List<Message<?>> messages) {
+			RecordHeaders headers = new RecordHeaders();
+			headers.add(RecordEnvelope.HEADER, new byte[] { RecordEnvelope.VERSION });
+			ProducerRecord<Object, Object> record = new ProducerRecord<>(this.topic, partition, null, null, envelope,
+					headers);
+			ListenableFuture<SendResult<Object, Object>> future;
+			try {
+				future = ((KafkaTemplate<Object, Object>) getKafkaTemplate()).send(record);
+			}
+			catch (RuntimeException ex) {
+				// e.g. a serialization failure or a timeout waiting for metadata or buffer memory
+				envelopeFailed(record, messages, ex);
+				return;
+			}
+			future.addCallback(result -> { }, ex -> envelopeFailed(record, messages, ex));
+		}
+
+		private void envelopeFailed(ProducerRecord<Object, Object> record, List<Message<?>> messages,
+				Throwable ex) {
+
+			MessageChannel failureChannel = getSendFailureChannel();
+			if (failureChannel != null) {
+				for (Message<?> message : messages) {
+					this.messagingTemplate.send(failureChannel, this.errorMessageStrategy.buildErrorMessage(
+							new KafkaSendFailureException(message, record, ex), null));
+				}
+			}
+			else {
+				this.logger.error("Failed to send envelope of " + messages.size() + " messages to " + this.topic,
+						ex);
+			}
+		}
+
+		/*
+		 * Add the record to a shared transaction; there is no transaction in process, so the record
+		 * would otherwise be sent in a transaction of its own. As with any other send, the result is
+		 * awaited (for at most the send timeout) only when sync, and failures are sent to the send
+		 * failure channel.
+		 */
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private void sendInGroup(Message<?> message) {
+			ProducerRecord<Object, Object> record = createRecord(message, message.getPayload());
+			ListenableFuture<SendResult<Object, Object>> future = this.groupCommitter.send(record);
+			if (!this.sync && getSendFailureChannel() == null) {
+				future.addCallback(result -> { }, ex -> this.logger.error("Failed to send record in a shared "
+						+ "transaction to " + record.topic(), ex));
+			}
+			try {
+				processSendResult(message, (ProducerRecord) record, (ListenableFuture) future, getSendSuccessChannel());
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new MessageHandlingException(message, ex);
+			}
+			catch (ExecutionException ex) {
+				throw new MessageHandlingException(message, "Failed to send record in a shared transaction",
+						ex.getCause());
+			}
+		}
+
+		private String sendingTo(Message<?> message) {
+			String topic = this.sendingTo.get();
+			return topic != null ? topic : topic(message);
+		}
+
+		private String topic(Message<?> message) {
+			if (this.destinationExpression == null) {
+				return this.topic;
+			}
+			Object destination = this.destinationExpression.getValue(this.evaluationContext, message);
+			String topic = destination != null ? destination.toString() : this.topic;
+			destination(topic);
+			return topic;
+		}
+
+		/*
+		 * The partition selected by the PartitioningInterceptor is based on the partition count of the
+		 * binding's destination.
+		 */
+		private Integer partition(Message<?> message, String topic) {
+			Integer partition = message.getHeaders().get(BinderHeaders.PARTITION_HEADER, Integer.class);
+			if (partition == null || this.destinationExpression == null) {
+				return partition;
+			}
+			return partition % destination(topic).getPartitionInfos().size();
+		}
+
+		/*
+		 * Discovery may block (provisioning, metadata), so it runs outside the cache's lock; only the
+		 * callers sending to the same new destination wait for it.
+		 */
+		private TopicInformation destination(String topic) {
+			TopicInformation topicInformation = this.destinations.get(topic);
+			if (topicInformation != null) {
+				return topicInformation;
+			}
+			CompletableFuture<TopicInformation> discovery = new CompletableFuture<>();
+			CompletableFuture<TopicInformation> inProgress = this.discoveries.putIfAbsent(topic, discovery);
+			if (inProgress != null) {
+				try {
+					return inProgress.join();
+				}
+				catch (CompletionException ex) {
+					throw ex.getCause() instanceof RuntimeException
+							? (RuntimeException) ex.getCause()
+							: ex;
+				}
+			}
+			try {
+				// it may have been discovered since the first lookup
+				topicInformation = this.destinations.get(topic);
+				if (topicInformation == null) {
+					topicInformation = discover(topic);
+					this.destinations.put(topic, topicInformation);
+				}
+				discovery.complete(topicInformation);
+				return topicInformation;
+			}
+			catch (RuntimeException ex) {
+				discovery.completeExceptionally(ex);
+				throw ex;
+			}
+			finally {
+				this.discoveries.remove(topic, discovery);
+			}
+		}
+
+		private TopicInformation discover(String topic) {
+			if (!topic.equals(this.topic) && KafkaMessageChannelBinder.this.configurationProperties.isAutoCreateTopics()) {
+				KafkaMessageChannelBinder.this.provisioningProvider.provisionProducerDestination(topic,
+						this.producerProperties);
+			}
+			List<PartitionInfo> partitions = getKafkaTemplate().partitionsFor(topic);
+			TopicInformation topicInformation = new TopicInformation(null, partitions, false);
+			KafkaMessageChannelBinder.this.topicsInUse.putIfAbsent(topic, topicInformation);
+			if (this.logger.isDebugEnabled()) {
+				this.logger.debug("Discovered " + partitions.size() + " partitions for dynamic destination " + topic);
+			}
+			return topicInformation;
+		}
+
+		private Object messageKey(Message<?> message) {
+			return this.messageKeyExpression != null
+					? this.messageKeyExpression.getValue(this.evaluationContext, message)
+					: message.getHeaders().get(KafkaHeaders.MESSAGE_KEY);
+		}
+
+		private void sample(Object payload) {
+			if (this.compressionTuner != null && payload instanceof byte[]) {
+				this.compressionTuner.sample((byte[]) payload);
+			}
+		}
+
+		/*
+		 * Send each element of the batch as a separate record and flush once; an element may be a
+		 * Message, in which case its own payload and headers are used. When sync, wait (for at most the
+		 * send timeout) for the whole batch and fail if any record failed or is still pending; failed
+		 * records are always reported individually to the send failure channel (if any), with their
+		 * index in the BATCH_INDEX header.
+		 */
+		@SuppressWarnings("unchecked")
+		private void sendBatch(Message<?> message, Collection<?> batch) {
+			KafkaTemplate<Object, Object> template = (KafkaTemplate<Object, Object>) getKafkaTemplate();
+			BatchCompletion completion = new BatchCompletion(batch.size());
+			KafkaOperations.OperationsCallback<Object, Object, Void> sendAll = (operations) -> {
+				int index = 0;
+				for (Object element : batch) {
+					Message<?> elementMessage = element instanceof Message ? (Message<?>) element : message;
+					Object payload = element instanceof Message ? elementMessage.getPayload() : element;
+					sample(payload);
+					ProducerRecord<Object, Object> record = createRecord(elementMessage, payload);
+					final int recordIndex = index++;
+					operations.send(record).addCallback(new ListenableFutureCallback<SendResult<Object, Object>>() {
+
+						@Override
+						public void onSuccess(SendResult<Object, Object> result) {
+							completion.success();
+						}
+
+						@Override
+						public void onFailure(Throwable ex) {
+							completion.failure(recordIndex, ex);
+							MessageChannel failureChannel = getSendFailureChannel();
+							if (failureChannel != null) {
+								// the failed element, not the whole batch, with the batch's headers
+								Message<?> failed = (element instanceof Message
+										? MessageBuilder.fromMessage(elementMessage)
+										: MessageBuilder.withPayload(payload).copyHeaders(message.getHeaders()))
+										.setHeader(BATCH_INDEX, recordIndex)
+										.build();
+								ProducerConfigurationMessageHandler.this.messagingTemplate.send(failureChannel,
+										ProducerConfigurationMessageHandler.this.errorMessageStrategy.buildErrorMessage(
+												new KafkaSendFailureException(failed, record, ex), null));
+							}
+						}
+
+					});
+				}
+				operations.flush();
+				return null;
+			};
+			if (template.isTransactional() && !TransactionSynchronizationManager.isActualTransactionActive()) {
+				template.executeInTransaction(sendAll);
+			}
+			else {
+				sendAll.doInOperations(template);
+			}
+			if (this.sync) {
+				Long sendTimeout = this.sendTimeoutExpression.getValue(this.evaluationContext, message, Long.class);
+				completion.await(message, sendTimeout != null ? sendTimeout : 10000L);
+			}
+		}
+
+		private ProducerRecord<Object, Object> createRecord(Message<?> message, Object payload) {
+			MessageHeaders headers = message.getHeaders();
+			String topic = topic(message);
+			Integer partition = this.partitioned ? partition(message, topic) : null;
+			Object key = messageKey(message);
+			Long timestamp = headers.get(KafkaHeaders.TIMESTAMP, Long.class);
+			RecordHeaders recordHeaders = null;
+			if (this.headerMapper != null) {
+				recordHeaders = new RecordHeaders();
+				this.headerMapper.fromHeaders(headers, recordHeaders);
+			}
+			return new ProducerRecord<>(topic, partition, timestamp, key,
+					payload instanceof KafkaNull ? null : payload, recordHeaders);
+		}
+
 		@Override
 		public void stop() {
-			if (this.producerFactory instanceof Lifecycle) {
-				((Lifecycle) producerFactory).stop();
+			if (this.conflator != null) {
+				this.conflator.stop();
+				KafkaMessageChannelBinder.this.conflators.remove(this.topic, this.conflator);
+			}
+			if (this.envelopes != null) {
+				this.envelopes.stop();
+			}
+			if (this.groupCommitter != null && this.running) {
+				this.groupCommitter.stop();
+			}
+			// a pooled producer may be shared with other bindings; it is closed by the pool when released
+			if (this.producerFactory instanceof Lifecycle
+					&& !(this.producerFactory instanceof KafkaProducerPool.PooledProducerFactory)) {
+				((Lifecycle) this.producerFactory).stop();
 			}
 			this.running = false;
 		}
@@ -1047,6 +2369,70 @@ public class KafkaMessageChannelBinder extends
 			return this.running;
 		}
 
+		@Override
+		public synchronized void destroy() {
+			if (this.limiter != null) {
+				KafkaMessageChannelBinder.this.inFlightLimiters.remove(this.topic, this.limiter);
+			}
+			if (this.producerFactory instanceof AdaptiveProducerFactory) {
+				KafkaMessageChannelBinder.this.adaptiveProducerFactories.remove(this.topic, this.producerFactory);
+			}
+			if (this.destinations != null) {
+				synchronized (this.destinations) {
+					this.destinations.forEach(KafkaMessageChannelBinder.this.topicsInUse::remove);
+					this.destinations.clear();
+				}
+			}
+			if (this.producerFactory instanceof KafkaProducerPool.PooledProducerFactory
+					&& KafkaMessageChannelBinder.this.producerPool != null && !this.released) {
+				KafkaMessageChannelBinder.this.producerPool
+						.release((KafkaProducerPool.PooledProducerFactory) this.producerFactory);
+				this.released = true;
+			}
+		}
+
+	}
+
+	/**
+	 * Aggregated completion of the records of a batch send.
+	 */
+	private static final class BatchCompletion {
+
+		private final CountDownLatch latch;
+
+		private final Map<Integer, Throwable> failures = new ConcurrentHashMap<>();
+
+		BatchCompletion(int size) {
+			this.latch = new CountDownLatch(size);
+		}
+
+		void success() {
+			this.latch.countDown();
+		}
+
+		void failure(int index, Throwable ex) {
+			this.failures.put(index, ex);
+			this.latch.countDown();
+		}
+
+		void await(Message<?> message, long timeout) {
+			try {
+				if (!this.latch.await(timeout, TimeUnit.MILLISECONDS)) {
+					throw new MessageTimeoutException(message, "Timed out after " + timeout + "ms waiting for "
+							+ this.latch.getCount() + " records of the batch; " + this.failures.size() + " failed");
+				}
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new MessageHandlingException(message, ex);
+			}
+			if (!this.failures.isEmpty()) {
+				Throwable cause = this.failures.values().iterator().next();
+				throw new MessageHandlingException(message, "Failed to send " + this.failures.size()
+						+ " records of the batch; failed indices: " + new TreeSet<>(this.failures.keySet()), cause);
+			}
+		}
+
 	}
 
 	/**
@@ -1084,6 +2470,53 @@ public class KafkaMessageChannelBinder extends
 
 	}
 
+	/**
+	 * The topic (or topics, for a multiplexed binding) and the consumer group of a consumer
+	 * binding; the key of the binder's per-binding consumer state.
+	 */
+	static final class ConsumerKey {
+
+		private final String topic;
+
+		private final String group;
+
+		ConsumerKey(String topic, String group) {
+			this.topic = topic;
+			this.group = group;
+		}
+
+		String getTopic() {
+			return this.topic;
+		}
+
+		String getGroup() {
+			return this.group;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (o == null || getClass() != o.getClass()) {
+				return false;
+			}
+			ConsumerKey that = (ConsumerKey) o;
+			return this.topic.equals(that.topic) && this.group.equals(that.group);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * this.topic.hashCode() + this.group.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return this.topic + ":" + this.group;
+		}
+
+	}
+
 	/**
 	 * Helper class to send to DLQ.
 	 *
@@ -1098,11 +2531,15 @@ public class KafkaMessageChannelBinder extends
 			this.kafkaTemplate = kafkaTemplate;
 		}
 
-		@SuppressWarnings("unchecked")
 		void sendToDlq(ConsumerRecord<?, ?> consumerRecord, Headers headers, String dlqName) {
+			send(consumerRecord, headers, dlqName, "DLQ");
+		}
+
+		@SuppressWarnings("unchecked")
+		void send(ConsumerRecord<?, ?> consumerRecord, Headers headers, String topic, String description) {
 			K key = (K) consumerRecord.key();
 			V value = (V) consumerRecord.value();
-			ProducerRecord<K, V> producerRecord = new ProducerRecord<>(dlqName, consumerRecord.partition(),
+			ProducerRecord<K, V> producerRecord = new ProducerRecord<>(topic, consumerRecord.partition(),
 					key, value, headers);
 
 			StringBuilder sb = new StringBuilder().append(" a message with key='")
@@ -1119,14 +2556,14 @@ public class KafkaMessageChannelBinder extends
 					@Override
 					public void onFailure(Throwable ex) {
 						KafkaMessageChannelBinder.this.logger.error(
-								"Error sending to DLQ " + sb.toString(), ex);
+								"Error sending to " + description + " " + sb.toString(), ex);
 					}
 
 					@Override
 					public void onSuccess(SendResult<K, V> result) {
 						if (KafkaMessageChannelBinder.this.logger.isDebugEnabled()) {
 							KafkaMessageChannelBinder.this.logger.debug(
-									"Sent to DLQ " + sb.toString());
+									"Sent to " + description + " " + sb.toString());
 						}
 					}
 				});
@@ -1134,7 +2571,7 @@ public class KafkaMessageChannelBinder extends
 			catch (Exception ex) {
 				if (sentDlq == null) {
 					KafkaMessageChannelBinder.this.logger.error(
-							"Error sending to DLQ " + sb.toString(), ex);
+							"Error sending to " + description + " " + sb.toString(), ex);
 				}
 			}
 
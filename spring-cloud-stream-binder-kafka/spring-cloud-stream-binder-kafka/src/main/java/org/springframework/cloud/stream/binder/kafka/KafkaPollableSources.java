@@ -0,0 +1,70 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import org.springframework.cloud.stream.binder.PollableMessageSource;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.util.Assert;
+
+/**
+ * Receives several messages from a {@link PollableMessageSource} at once. Each message is
+ * still handled, acknowledged or requeued individually; with the {@code pollablePrefetch}
+ * consumer property, the messages come from the records prefetched by the binding's
+ * consumer.
+ *
+ * @since 2.1.5
+ */
+public final class KafkaPollableSources {
+
+	private KafkaPollableSources() {
+		super();
+	}
+
+	/**
+	 * Handle up to {@code maxRecords} messages, stopping when no message is available.
+	 * @param source the source.
+	 * @param handler the handler, called once per message.
+	 * @param maxRecords the maximum number of messages.
+	 * @return the number of messages handled.
+	 */
+	public static int poll(PollableMessageSource source, MessageHandler handler, int maxRecords) {
+		return poll(source, handler, null, maxRecords);
+	}
+
+	/**
+	 * Handle up to {@code maxRecords} messages, converted to the type, stopping when no
+	 * message is available.
+	 * @param source the source.
+	 * @param handler the handler, called once per message.
+	 * @param type the type to convert the payloads to, if any.
+	 * @param maxRecords the maximum number of messages.
+	 * @return the number of messages handled.
+	 */
+	public static int poll(PollableMessageSource source, MessageHandler handler,
+			@Nullable ParameterizedTypeReference<?> type, int maxRecords) {
+
+		Assert.isTrue(maxRecords > 0, "'maxRecords' must be positive");
+		int handled = 0;
+		while (handled < maxRecords && (type != null ? source.poll(handler, type) : source.poll(handler))) {
+			handled++;
+		}
+		return handled;
+	}
+
+}
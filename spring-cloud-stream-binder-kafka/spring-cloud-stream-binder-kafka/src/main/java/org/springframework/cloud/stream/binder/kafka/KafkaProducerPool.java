@@ -0,0 +1,259 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+
+/**
+ * A reference-counted pool of non-transactional producer factories, keyed by the
+ * effective producer configuration; bindings with identical settings share a single
+ * {@link KafkaProducer} (and therefore one sender thread and one set of broker
+ * connections).
+ * <p>
+ * When a {@code bufferMemory} budget is provided, each pooled producer that does not
+ * configure {@code buffer.memory} explicitly receives an even share of the budget,
+ * computed when its {@link KafkaProducer} is created. When a new configuration joins
+ * the budget, the producers already created with a larger share are retired: the next
+ * send creates a producer with the smaller share, and the retired producer is closed
+ * after a grace period so that sends already in progress can complete.
+ *
+ * @since 2.1.5
+ */
+class KafkaProducerPool implements DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(KafkaProducerPool.class);
+
+	private static final long RETIREMENT_GRACE = 5000;
+
+	private final Map<Map<String, Object>, PooledProducerFactory> factories = new HashMap<>();
+
+	private final long bufferMemory;
+
+	private final Object retirementMonitor = new Object();
+
+	private volatile int budgeted;
+
+	private final List<Runnable> retired = new ArrayList<>();
+
+	private ScheduledExecutorService retirements;
+
+	private boolean destroyed;
+
+	KafkaProducerPool(long bufferMemory) {
+		this.bufferMemory = bufferMemory;
+	}
+
+	/**
+	 * Obtain the shared producer factory for the configuration, creating it if necessary;
+	 * each call must be balanced by a call to {@link #release(PooledProducerFactory)}.
+	 * @param configs the effective producer configuration.
+	 * @param applyBudget true if the global buffer memory budget applies to this configuration.
+	 * @return the pooled factory.
+	 */
+	synchronized PooledProducerFactory acquire(Map<String, Object> configs, boolean applyBudget) {
+		Map<String, Object> key = new HashMap<>(configs);
+		PooledProducerFactory factory = this.factories.get(key);
+		if (factory == null) {
+			factory = new PooledProducerFactory(key, applyBudget && this.bufferMemory > 0);
+			this.factories.put(key, factory);
+			if (factory.budgeted) {
+				this.budgeted++;
+				shrinkShares();
+			}
+		}
+		factory.references++;
+		return factory;
+	}
+
+	synchronized void release(PooledProducerFactory factory) {
+		if (--factory.references <= 0 && this.factories.remove(factory.key) != null) {
+			if (factory.budgeted) {
+				this.budgeted--;
+			}
+			factory.reset();
+		}
+	}
+
+	synchronized int size() {
+		return this.factories.size();
+	}
+
+	private long bufferMemoryShare() {
+		return this.bufferMemory / Math.max(1, this.budgeted);
+	}
+
+	private void shrinkShares() {
+		long share = bufferMemoryShare();
+		for (PooledProducerFactory factory : this.factories.values()) {
+			if (factory.share > share) {
+				if (logger.isInfoEnabled()) {
+					logger.info("Retiring pooled producer with buffer.memory=" + factory.share
+							+ " to recreate it with buffer.memory=" + share);
+				}
+				factory.retire();
+			}
+		}
+	}
+
+	/*
+	 * Close a retired producer after the grace period; immediately if the pool is destroyed.
+	 */
+	private void closeAfterGrace(Runnable close) {
+		synchronized (this.retirementMonitor) {
+			if (!this.destroyed) {
+				if (this.retirements == null) {
+					this.retirements = Executors.newSingleThreadScheduledExecutor(runnable -> {
+						Thread thread = new Thread(runnable, "kafka-producer-pool-retirement");
+						thread.setDaemon(true);
+						return thread;
+					});
+				}
+				this.retired.add(close);
+				this.retirements.schedule(() -> {
+					synchronized (this.retirementMonitor) {
+						if (!this.retired.remove(close)) {
+							return;
+						}
+					}
+					close.run();
+				}, RETIREMENT_GRACE, TimeUnit.MILLISECONDS);
+				return;
+			}
+		}
+		close.run();
+	}
+
+	@Override
+	public synchronized void destroy() {
+		this.factories.values().forEach(DefaultKafkaProducerFactory::reset);
+		this.factories.clear();
+		this.budgeted = 0;
+		List<Runnable> retired;
+		synchronized (this.retirementMonitor) {
+			this.destroyed = true;
+			if (this.retirements != null) {
+				this.retirements.shutdownNow();
+				this.retirements = null;
+			}
+			retired = new ArrayList<>(this.retired);
+			this.retired.clear();
+		}
+		retired.forEach(Runnable::run);
+	}
+
+	/**
+	 * A producer factory shared by all bindings with the same configuration.
+	 */
+	final class PooledProducerFactory extends DefaultKafkaProducerFactory<byte[], byte[]> {
+
+		private final Map<String, Object> key;
+
+		private final boolean budgeted;
+
+		private int references;
+
+		/**
+		 * The buffer memory of the current producer; 0 if there is none, or it is not budgeted.
+		 */
+		private volatile long share;
+
+		private BudgetedProducer producer;
+
+		private PooledProducerFactory(Map<String, Object> key, boolean budgeted) {
+			super(key);
+			this.key = key;
+			this.budgeted = budgeted;
+		}
+
+		long getShare() {
+			return this.share;
+		}
+
+		/*
+		 * Detach the current producer so that the next send creates one with the current share;
+		 * the detached producer is closed after the grace period. Called with the pool locked;
+		 * locking this factory excludes a concurrent createProducer().
+		 */
+		synchronized void retire() {
+			if (this.producer != null) {
+				this.producer.retired = true;
+				this.producer = null;
+			}
+			this.share = 0;
+			reset();
+		}
+
+		@Override
+		protected Producer<byte[], byte[]> createKafkaProducer() {
+			if (!this.budgeted) {
+				return super.createKafkaProducer();
+			}
+			Map<String, Object> configs = new HashMap<>(getConfigurationProperties());
+			long share = bufferMemoryShare();
+			configs.put(ProducerConfig.BUFFER_MEMORY_CONFIG, share);
+			this.share = share;
+			if (logger.isInfoEnabled()) {
+				logger.info("Creating pooled producer with buffer.memory=" + share + " ("
+						+ KafkaProducerPool.this.budgeted + " budgeted pooled producers)");
+			}
+			this.producer = new BudgetedProducer(configs);
+			return this.producer;
+		}
+
+	}
+
+	/**
+	 * A producer with a share of the budget; when retired, closing it is deferred by the grace
+	 * period.
+	 */
+	private final class BudgetedProducer extends KafkaProducer<byte[], byte[]> {
+
+		private volatile boolean retired;
+
+		BudgetedProducer(Map<String, Object> configs) {
+			super(configs);
+		}
+
+		@Override
+		public void close(long timeout, TimeUnit timeUnit) {
+			if (this.retired) {
+				this.retired = false;
+				closeAfterGrace(() -> super.close(timeout, timeUnit));
+			}
+			else {
+				super.close(timeout, timeUnit);
+			}
+		}
+
+	}
+
+}
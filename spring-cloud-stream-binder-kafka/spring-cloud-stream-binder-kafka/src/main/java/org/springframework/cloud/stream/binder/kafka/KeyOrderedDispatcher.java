@@ -0,0 +1,257 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Utils;
+
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Hands records to a pool of single-threaded workers, chosen by key, so that records
+ * with the same key are processed in order while records with different keys (including
+ * records from the same partition) are processed concurrently. Records without a key
+ * keep the order of their partition.
+ * <p>
+ * Completions are tracked per partition; when a record completes, the last record of
+ * the contiguous run of completed records at the head of its partition is acknowledged,
+ * so a committed offset never skips a record that is still being processed.
+ *
+ * @since 2.1.5
+ */
+class KeyOrderedDispatcher {
+
+	private static final Log logger = LogFactory.getLog(KeyOrderedDispatcher.class);
+
+	private final ExecutorService[] workers;
+
+	private final ThreadFactory threadFactory;
+
+	private final Semaphore inFlight;
+
+	private final int maxInFlight;
+
+	private final Map<TopicPartition, PartitionOffsets> partitions = new ConcurrentHashMap<>();
+
+	private volatile boolean running;
+
+	KeyOrderedDispatcher(String name, int workers, int maxInFlight) {
+		this(name, workers, maxInFlight, null);
+	}
+
+	/**
+	 * Construct an instance with the provided properties.
+	 * @param name the prefix of the worker thread names.
+	 * @param workers the number of workers.
+	 * @param maxInFlight the maximum number of records dispatched and not yet processed.
+	 * @param threadFactory the factory for the worker threads; daemon threads named
+	 * after the prefix if null.
+	 */
+	KeyOrderedDispatcher(String name, int workers, int maxInFlight, @Nullable ThreadFactory threadFactory) {
+		this.workers = new ExecutorService[workers];
+		if (threadFactory != null) {
+			this.threadFactory = threadFactory;
+		}
+		else {
+			CustomizableThreadFactory customizableThreadFactory = new CustomizableThreadFactory(name + "-worker-");
+			customizableThreadFactory.setDaemon(true);
+			this.threadFactory = customizableThreadFactory;
+		}
+		this.inFlight = new Semaphore(maxInFlight);
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Start the workers.
+	 */
+	synchronized void start() {
+		if (!this.running) {
+			for (int i = 0; i < this.workers.length; i++) {
+				this.workers[i] = Executors.newSingleThreadExecutor(this.threadFactory);
+			}
+			this.running = true;
+		}
+	}
+
+	/**
+	 * Hand a record to its worker, blocking while the maximum number of records are in
+	 * flight. Records of a partition must be dispatched in offset order.
+	 * @param partition the record's partition.
+	 * @param key the record's key.
+	 * @param acknowledgment acknowledges the record once it and all the records
+	 * dispatched before it from the same partition are processed.
+	 * @param task processes the record.
+	 */
+	void dispatch(TopicPartition partition, @Nullable Object key, Acknowledgment acknowledgment, Runnable task) {
+		try {
+			do {
+				if (!this.running) {
+					throw new IllegalStateException("The dispatcher is stopped");
+				}
+			}
+			while (!this.inFlight.tryAcquire(100, TimeUnit.MILLISECONDS));
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting to dispatch a record", ex);
+		}
+		PartitionOffsets offsets = this.partitions.computeIfAbsent(partition, tp -> new PartitionOffsets());
+		PendingRecord pending = offsets.add(acknowledgment);
+		int hash = key instanceof byte[] ? Arrays.hashCode((byte[]) key)
+				: key != null ? key.hashCode() : partition.hashCode();
+		try {
+			this.workers[Utils.toPositive(hash) % this.workers.length].execute(() -> {
+				try {
+					task.run();
+				}
+				catch (RuntimeException ex) {
+					logger.error("Failed to process a record from " + partition, ex);
+				}
+				finally {
+					offsets.complete(pending);
+					this.inFlight.release();
+				}
+			});
+		}
+		catch (RuntimeException ex) {
+			offsets.complete(pending);
+			this.inFlight.release();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Wait for the records already dispatched from the partitions to be processed, then
+	 * forget the partitions; later completions are not acknowledged.
+	 * @param revoked the partitions.
+	 * @param timeout the maximum time (ms) to wait.
+	 */
+	void revoked(Collection<TopicPartition> revoked, long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		for (TopicPartition partition : revoked) {
+			PartitionOffsets offsets = this.partitions.remove(partition);
+			if (offsets != null && !offsets.drain(deadline)) {
+				logger.warn("Records from " + partition + " still in process after " + timeout
+						+ "ms; they will be redelivered to the new owner of the partition");
+			}
+		}
+	}
+
+	int getInFlight() {
+		return this.maxInFlight - this.inFlight.availablePermits();
+	}
+
+	/**
+	 * Wait for the dispatched records to be processed and stop the workers.
+	 * @param timeout the maximum time (ms) to wait.
+	 */
+	synchronized void stop(long timeout) {
+		if (!this.running) {
+			return;
+		}
+		this.running = false;
+		long deadline = System.currentTimeMillis() + timeout;
+		for (ExecutorService worker : this.workers) {
+			worker.shutdown();
+		}
+		try {
+			for (ExecutorService worker : this.workers) {
+				worker.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			}
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		for (ExecutorService worker : this.workers) {
+			worker.shutdownNow();
+		}
+	}
+
+	/**
+	 * The records of a partition that are not yet acknowledged, in offset order.
+	 */
+	private static final class PartitionOffsets {
+
+		private final ArrayDeque<PendingRecord> pending = new ArrayDeque<>();
+
+		private boolean revoked;
+
+		synchronized PendingRecord add(Acknowledgment acknowledgment) {
+			PendingRecord record = new PendingRecord(acknowledgment);
+			this.pending.add(record);
+			return record;
+		}
+
+		synchronized void complete(PendingRecord record) {
+			record.done = true;
+			PendingRecord last = null;
+			while (!this.pending.isEmpty() && this.pending.peek().done) {
+				last = this.pending.poll();
+			}
+			if (last != null && !this.revoked) {
+				// the container commits the acknowledged offset on the consumer thread
+				last.acknowledgment.acknowledge();
+			}
+			if (this.pending.isEmpty()) {
+				notifyAll();
+			}
+		}
+
+		synchronized boolean drain(long deadline) {
+			try {
+				long remaining;
+				while (!this.pending.isEmpty() && (remaining = deadline - System.currentTimeMillis()) > 0) {
+					wait(remaining);
+				}
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			this.revoked = true;
+			return this.pending.isEmpty();
+		}
+
+	}
+
+	private static final class PendingRecord {
+
+		private final Acknowledgment acknowledgment;
+
+		private boolean done;
+
+		PendingRecord(Acknowledgment acknowledgment) {
+			this.acknowledgment = acknowledgment;
+		}
+
+	}
+
+}
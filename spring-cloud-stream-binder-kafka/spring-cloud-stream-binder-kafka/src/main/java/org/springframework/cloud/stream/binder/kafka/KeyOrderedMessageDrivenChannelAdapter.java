@@ -0,0 +1,164 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import org.apache.kafka.common.TopicPartition;
+
+import org.springframework.core.AttributeAccessor;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.kafka.listener.AbstractMessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaderMapper;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.retry.support.RetryTemplate;
+
+/**
+ * An {@link EnvelopeAwareMessageDrivenChannelAdapter} that sends each message on a
+ * {@link KeyOrderedDispatcher} worker instead of the consumer thread.
+ * <p>
+ * The container must use manual acknowledgment; the dispatcher acknowledges records
+ * once they are processed. Retries, and the error message sent when they are exhausted,
+ * happen on the worker, so this adapter needs an error channel and must not be given a
+ * retry template of its own; each message of an envelope is retried individually.
+ *
+ * @param <K> the key type.
+ * @param <V> the value type.
+ * @since 2.1.5
+ */
+class KeyOrderedMessageDrivenChannelAdapter<K, V> extends EnvelopeAwareMessageDrivenChannelAdapter<K, V> {
+
+	private final ThreadLocal<AttributeAccessor> workerAttributes = new ThreadLocal<>();
+
+	private final KeyOrderedDispatcher dispatcher;
+
+	private final RetryTemplate workerRetryTemplate;
+
+	private final long drainTimeout;
+
+	private final ConsumerMemoryBudget memoryBudget;
+
+	KeyOrderedMessageDrivenChannelAdapter(AbstractMessageListenerContainer<K, V> messageListenerContainer,
+			@Nullable KafkaHeaderMapper headerMapper, KeyOrderedDispatcher dispatcher,
+			@Nullable RetryTemplate retryTemplate, long drainTimeout, @Nullable ConsumerMemoryBudget memoryBudget) {
+
+		super(messageListenerContainer, headerMapper);
+		this.dispatcher = dispatcher;
+		this.workerRetryTemplate = retryTemplate;
+		this.drainTimeout = drainTimeout;
+		this.memoryBudget = memoryBudget;
+	}
+
+	@Override
+	protected void sendMessage(Message<?> message) {
+		MessageHeaders headers = message.getHeaders();
+		Acknowledgment acknowledgment = headers.get(KafkaHeaders.ACKNOWLEDGMENT, Acknowledgment.class);
+		if (acknowledgment == null) {
+			// not from the container
+			super.sendMessage(message);
+			return;
+		}
+		TopicPartition partition = new TopicPartition(headers.get(KafkaHeaders.RECEIVED_TOPIC, String.class),
+				headers.get(KafkaHeaders.RECEIVED_PARTITION_ID, Integer.class));
+		// the raw record for the error message is only available on the consumer thread
+		AttributeAccessor attributes = getErrorMessageAttributes(message);
+		Message<?> toSend = MessageBuilder.fromMessage(message)
+				.removeHeader(KafkaHeaders.ACKNOWLEDGMENT)
+				.build();
+		long bytes = this.memoryBudget != null
+				? this.memoryBudget.take(partition, headers.get(KafkaHeaders.OFFSET, Long.class))
+				: 0;
+		try {
+			this.dispatcher.dispatch(partition, headers.get(KafkaHeaders.RECEIVED_MESSAGE_KEY), acknowledgment,
+					() -> {
+						try {
+							process(toSend, attributes);
+						}
+						finally {
+							if (bytes > 0) {
+								this.memoryBudget.release(bytes);
+							}
+						}
+					});
+		}
+		catch (RuntimeException ex) {
+			if (bytes > 0) {
+				this.memoryBudget.release(bytes);
+			}
+			throw ex;
+		}
+	}
+
+	private void process(Message<?> message, AttributeAccessor attributes) {
+		this.workerAttributes.set(attributes);
+		try {
+			if (isEnvelope(message)) {
+				super.sendMessage(message);
+			}
+			else {
+				try {
+					sendToOutput(message);
+				}
+				catch (RuntimeException ex) {
+					if (!sendErrorMessageIfNecessary(message, ex)) {
+						throw ex;
+					}
+				}
+			}
+		}
+		finally {
+			this.workerAttributes.remove();
+		}
+	}
+
+	@Override
+	void sendToOutput(Message<?> message) {
+		if (this.workerRetryTemplate != null) {
+			this.workerRetryTemplate.execute(context -> {
+				super.sendToOutput(message);
+				return null;
+			});
+		}
+		else {
+			super.sendToOutput(message);
+		}
+	}
+
+	@Override
+	protected AttributeAccessor getErrorMessageAttributes(Message<?> message) {
+		AttributeAccessor attributes = this.workerAttributes.get();
+		// those of a message unpacked from an envelope have a record of its own
+		return attributes != null && !message.getHeaders().containsKey(KafkaMessageChannelBinder.ENVELOPE_INDEX)
+				? attributes
+				: super.getErrorMessageAttributes(message);
+	}
+
+	@Override
+	protected void doStart() {
+		this.dispatcher.start();
+		super.doStart();
+	}
+
+	@Override
+	protected void doStop() {
+		super.doStop();
+		this.dispatcher.stop(this.drainTimeout);
+	}
+
+}
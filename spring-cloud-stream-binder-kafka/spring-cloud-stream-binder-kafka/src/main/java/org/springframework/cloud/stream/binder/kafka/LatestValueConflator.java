@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+
+import org.springframework.kafka.core.ConsumerFactory;
+
+/**
+ * Reduces the records returned by each poll to the last record of each key in each
+ * partition, keeping the remaining records in order; records without a key are all kept.
+ * <p>
+ * The last record of each partition is always kept, so the container still commits the
+ * highest polled offset.
+ *
+ * @since 2.1.5
+ */
+class LatestValueConflator implements InterceptingConsumerFactory.PollInterceptor {
+
+	private final AtomicLong received = new AtomicLong();
+
+	private final AtomicLong emitted = new AtomicLong();
+
+	/**
+	 * Return a factory whose poll results are conflated by this instance.
+	 * @param delegate the factory creating the consumers.
+	 * @param <K> the key type.
+	 * @param <V> the value type.
+	 * @return the factory.
+	 */
+	<K, V> ConsumerFactory<K, V> consumerFactory(ConsumerFactory<K, V> delegate) {
+		return new InterceptingConsumerFactory<>(delegate, this);
+	}
+
+	@Override
+	public long beforePoll(Consumer<?, ?> consumer) {
+		return -1;
+	}
+
+	@Override
+	public ConsumerRecords<?, ?> afterPoll(Consumer<?, ?> consumer, ConsumerRecords<?, ?> records) {
+		return conflate(records);
+	}
+
+	private <K, V> ConsumerRecords<K, V> conflate(ConsumerRecords<K, V> records) {
+		int count = records.count();
+		if (count == 0) {
+			return records;
+		}
+		Map<TopicPartition, List<ConsumerRecord<K, V>>> conflated = new LinkedHashMap<>();
+		Set<Object> keys = new HashSet<>();
+		int kept = 0;
+		for (TopicPartition partition : records.partitions()) {
+			List<ConsumerRecord<K, V>> partitionRecords = records.records(partition);
+			List<ConsumerRecord<K, V>> latest = new ArrayList<>(partitionRecords.size());
+			keys.clear();
+			for (int i = partitionRecords.size() - 1; i >= 0; i--) {
+				ConsumerRecord<K, V> record = partitionRecords.get(i);
+				Object key = record.key();
+				if (key == null || keys.add(key instanceof byte[] ? ByteBuffer.wrap((byte[]) key) : key)) {
+					latest.add(record);
+				}
+			}
+			Collections.reverse(latest);
+			conflated.put(partition, latest);
+			kept += latest.size();
+		}
+		this.received.addAndGet(count);
+		this.emitted.addAndGet(kept);
+		return kept < count ? new ConsumerRecords<>(conflated) : records;
+	}
+
+	long getReceived() {
+		return this.received.get();
+	}
+
+	long getEmitted() {
+		return this.emitted.get();
+	}
+
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.ExtendedDeserializer;
+
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.support.converter.KafkaMessageHeaders;
+import org.springframework.kafka.support.converter.RecordMessageConverter;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Converts the records returned by each poll to messages on several threads (the
+ * consumer thread and a pool), instead of one record at a time on the consumer thread
+ * while the listener is invoked. The converted messages are kept per consumer thread
+ * and handed to the listener, in the original order, by the {@link RecordMessageConverter}
+ * returned by {@link #messageConverter()}; the records converted and not yet handed over
+ * (at most one poll per consumer) are dropped at the next poll.
+ * <p>
+ * If deserializers are provided, the consumers are expected to return raw
+ * {@code byte[]} keys and values, and the records are also deserialized by the stage;
+ * the deserializers must then be thread-safe.
+ * <p>
+ * A record that fails to be deserialized or converted is still returned by the poll
+ * (raw, if it failed to be deserialized); the failure is thrown when the record is
+ * handed to the listener, so it is handled like any other conversion failure.
+ *
+ * @since 2.1.5
+ */
+class ParallelConversionStage implements InterceptingConsumerFactory.PollInterceptor {
+
+	private final Map<Thread, Map<ConsumerRecord<?, ?>, Object>> converted = new ConcurrentHashMap<>();
+
+	private final ThreadPoolExecutor executor;
+
+	private final int threads;
+
+	private final RecordMessageConverter converter;
+
+	private final ExtendedDeserializer<?> keyDeserializer;
+
+	private final ExtendedDeserializer<?> valueDeserializer;
+
+	private final AtomicLong conversions = new AtomicLong();
+
+	private final AtomicLong conversionTime = new AtomicLong();
+
+	/**
+	 * Construct an instance with the provided properties.
+	 * @param name the prefix of the pool's thread names.
+	 * @param threads the number of threads converting the records of a poll, including
+	 * the consumer thread.
+	 * @param converter the converter.
+	 * @param keyDeserializer the key deserializer, if the keys are to be deserialized.
+	 * @param valueDeserializer the value deserializer, if the values are to be deserialized.
+	 */
+	ParallelConversionStage(String name, int threads, RecordMessageConverter converter,
+			@Nullable Deserializer<?> keyDeserializer, @Nullable Deserializer<?> valueDeserializer) {
+
+		this.threads = threads;
+		this.converter = converter;
+		this.keyDeserializer = keyDeserializer != null ? ExtendedDeserializer.Wrapper.ensureExtended(keyDeserializer)
+				: null;
+		this.valueDeserializer = valueDeserializer != null
+				? ExtendedDeserializer.Wrapper.ensureExtended(valueDeserializer)
+				: null;
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(name + "-conversion-");
+		threadFactory.setDaemon(true);
+		// idle threads time out, so the pool needs no shutdown
+		this.executor = new ThreadPoolExecutor(threads - 1, threads - 1, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), threadFactory);
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Return a factory whose poll results are converted by this instance.
+	 * @param delegate the factory creating the consumers.
+	 * @param <K> the key type.
+	 * @param <V> the value type.
+	 * @return the factory.
+	 */
+	<K, V> ConsumerFactory<K, V> consumerFactory(ConsumerFactory<K, V> delegate) {
+		return new InterceptingConsumerFactory<>(delegate, this);
+	}
+
+	/**
+	 * Return a converter handing over the converted messages, and converting the other
+	 * records with the stage's converter.
+	 * @return the converter.
+	 */
+	RecordMessageConverter messageConverter() {
+		return new RecordMessageConverter() {
+
+			@Override
+			public Message<?> toMessage(ConsumerRecord<?, ?> record, Acknowledgment acknowledgment,
+					Consumer<?, ?> consumer, Type payloadType) {
+
+				Message<?> message = take(record);
+				return message != null ? withListenerHeaders(message, acknowledgment, consumer)
+						: ParallelConversionStage.this.converter.toMessage(record, acknowledgment, consumer,
+								payloadType);
+			}
+
+			@Override
+			public ProducerRecord<?, ?> fromMessage(Message<?> message, String defaultTopic) {
+				return ParallelConversionStage.this.converter.fromMessage(message, defaultTopic);
+			}
+
+		};
+	}
+
+	@Override
+	public long beforePoll(Consumer<?, ?> consumer) {
+		return -1;
+	}
+
+	@Override
+	public ConsumerRecords<?, ?> afterPoll(Consumer<?, ?> consumer, ConsumerRecords<?, ?> records) {
+		this.converted.remove(Thread.currentThread());
+		if (records.isEmpty()) {
+			return records;
+		}
+		List<ConsumerRecord<?, ?>> polled = new ArrayList<>(records.count());
+		for (ConsumerRecord<?, ?> record : records) {
+			polled.add(record);
+		}
+		ConsumerRecord<?, ?>[] results = new ConsumerRecord<?, ?>[polled.size()];
+		Object[] messages = new Object[polled.size()];
+		int chunks = Math.min(this.threads, polled.size());
+		int chunkSize = (polled.size() + chunks - 1) / chunks;
+		List<Future<?>> futures = new ArrayList<>(chunks - 1);
+		for (int start = chunkSize; start < polled.size(); start += chunkSize) {
+			int from = start;
+			int to = Math.min(start + chunkSize, polled.size());
+			futures.add(this.executor.submit(() -> convert(polled, results, messages, from, to)));
+		}
+		convert(polled, results, messages, 0, Math.min(chunkSize, polled.size()));
+		for (Future<?> future : futures) {
+			await(future);
+		}
+		Map<ConsumerRecord<?, ?>, Object> convertedMessages = new IdentityHashMap<>(results.length);
+		Map<TopicPartition, List<ConsumerRecord<Object, Object>>> deserialized =
+				this.keyDeserializer != null || this.valueDeserializer != null ? new LinkedHashMap<>() : null;
+		for (int i = 0; i < results.length; i++) {
+			convertedMessages.put(results[i], messages[i]);
+			if (deserialized != null) {
+				deserialized.computeIfAbsent(new TopicPartition(results[i].topic(), results[i].partition()),
+						tp -> new ArrayList<>()).add(uncheckedRecord(results[i]));
+			}
+		}
+		this.converted.put(Thread.currentThread(), convertedMessages);
+		return deserialized != null ? new ConsumerRecords<>(deserialized) : records;
+	}
+
+	private void convert(List<ConsumerRecord<?, ?>> polled, ConsumerRecord<?, ?>[] results, Object[] messages,
+			int from, int to) {
+
+		long start = System.nanoTime();
+		for (int i = from; i < to; i++) {
+			results[i] = polled.get(i);
+			try {
+				results[i] = deserialize(polled.get(i));
+				messages[i] = this.converter.toMessage(results[i], null, null, null);
+			}
+			catch (RuntimeException ex) {
+				// the poll has already moved past the record; fail when it is handed over
+				messages[i] = new ConversionFailure(ex);
+			}
+		}
+		this.conversionTime.addAndGet(System.nanoTime() - start);
+		this.conversions.addAndGet(to - from);
+	}
+
+	private ConsumerRecord<?, ?> deserialize(ConsumerRecord<?, ?> record) {
+		if (this.keyDeserializer == null && this.valueDeserializer == null) {
+			return record;
+		}
+		Object key = this.keyDeserializer != null && record.key() != null
+				? this.keyDeserializer.deserialize(record.topic(), record.headers(), (byte[]) record.key())
+				: record.key();
+		Object value = this.valueDeserializer != null && record.value() != null
+				? this.valueDeserializer.deserialize(record.topic(), record.headers(), (byte[]) record.value())
+				: record.value();
+		return new ConsumerRecord<>(record.topic(), record.partition(), record.offset(), record.timestamp(),
+				record.timestampType(), null, record.serializedKeySize(), record.serializedValueSize(), key, value,
+				record.headers());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ConsumerRecord<Object, Object> uncheckedRecord(ConsumerRecord<?, ?> record) {
+		return (ConsumerRecord<Object, Object>) record;
+	}
+
+	private static void await(Future<?> future) {
+		try {
+			future.get();
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while converting records", ex);
+		}
+		catch (ExecutionException ex) {
+			if (ex.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ex.getCause();
+			}
+			throw new IllegalStateException("Failed to convert records", ex.getCause());
+		}
+	}
+
+	@Nullable
+	private Message<?> take(ConsumerRecord<?, ?> record) {
+		Map<ConsumerRecord<?, ?>, Object> convertedMessages = this.converted.get(Thread.currentThread());
+		Object converted = convertedMessages != null ? convertedMessages.get(record) : null;
+		if (converted instanceof ConversionFailure) {
+			// kept, so that the record fails again if it is handed over again
+			throw ((ConversionFailure) converted).exception;
+		}
+		return converted != null ? (Message<?>) convertedMessages.remove(record) : null;
+	}
+
+	private static Message<?> withListenerHeaders(Message<?> message, @Nullable Acknowledgment acknowledgment,
+			@Nullable Consumer<?, ?> consumer) {
+
+		if (acknowledgment == null && consumer == null) {
+			return message;
+		}
+		if (message.getHeaders() instanceof KafkaMessageHeaders) {
+			// not yet visible to any other thread
+			Map<String, Object> rawHeaders = ((KafkaMessageHeaders) message.getHeaders()).getRawHeaders();
+			if (acknowledgment != null) {
+				rawHeaders.put(KafkaHeaders.ACKNOWLEDGMENT, acknowledgment);
+			}
+			if (consumer != null) {
+				rawHeaders.put(KafkaHeaders.CONSUMER, consumer);
+			}
+			return message;
+		}
+		MessageBuilder<?> builder = MessageBuilder.fromMessage(message);
+		if (acknowledgment != null) {
+			builder.setHeader(KafkaHeaders.ACKNOWLEDGMENT, acknowledgment);
+		}
+		if (consumer != null) {
+			builder.setHeader(KafkaHeaders.CONSUMER, consumer);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Return the number of records converted and not yet handed to the listener.
+	 */
+	int getQueued() {
+		int queued = 0;
+		Iterator<Map.Entry<Thread, Map<ConsumerRecord<?, ?>, Object>>> iterator =
+				this.converted.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Thread, Map<ConsumerRecord<?, ?>, Object>> entry = iterator.next();
+			if (!entry.getKey().isAlive()) {
+				iterator.remove();
+			}
+			else {
+				queued += entry.getValue().size();
+			}
+		}
+		return queued;
+	}
+
+	long getConversions() {
+		return this.conversions.get();
+	}
+
+	double getConversionTime(TimeUnit unit) {
+		return unit.convert(this.conversionTime.get(), TimeUnit.NANOSECONDS);
+	}
+
+	private static final class ConversionFailure {
+
+		private final RuntimeException exception;
+
+		ConversionFailure(RuntimeException exception) {
+			this.exception = exception;
+		}
+
+	}
+
+}
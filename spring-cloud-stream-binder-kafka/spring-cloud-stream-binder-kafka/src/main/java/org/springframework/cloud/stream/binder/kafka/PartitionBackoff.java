@@ -0,0 +1,236 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+
+import org.springframework.kafka.core.ConsumerFactory;
+
+/**
+ * Backs off the retries of a failed record by pausing only its partition, and seeking it
+ * back to the record, instead of sleeping on the consumer thread; the consumer keeps
+ * polling and processing its other partitions. The delay grows exponentially with the
+ * attempts at the same offset. Records that are not yet due (on retry topics) are held
+ * back the same way by {@link #pauseUntil}.
+ * <p>
+ * The consumers must be created by {@link #consumerFactory(ConsumerFactory)}: their
+ * {@code poll()} resumes the partitions whose delay has elapsed, waiting no longer than
+ * the next of those delays, and makes the consumer available to {@link #backOff}, which
+ * must be called on the consumer thread. {@link #revoked} must be called when partitions
+ * are revoked, since a partition reassigned to the same consumer is no longer paused.
+ *
+ * @since 2.1.5
+ */
+class PartitionBackoff implements InterceptingConsumerFactory.PollInterceptor {
+
+	private final ThreadLocal<Consumer<?, ?>> currentConsumer = new ThreadLocal<>();
+
+	private final Map<TopicPartition, Attempts> attempts = new ConcurrentHashMap<>();
+
+	private final int maxAttempts;
+
+	private final long initialInterval;
+
+	private final double multiplier;
+
+	private final long maxInterval;
+
+	/**
+	 * Construct an instance with the provided properties.
+	 * @param maxAttempts the maximum number of attempts of a record, including the first.
+	 * @param initialInterval the delay (ms) before the first retry.
+	 * @param multiplier the factor applied to the delay for each following retry.
+	 * @param maxInterval the maximum delay (ms).
+	 */
+	PartitionBackoff(int maxAttempts, long initialInterval, double multiplier, long maxInterval) {
+		this.maxAttempts = maxAttempts;
+		this.initialInterval = initialInterval;
+		this.multiplier = multiplier;
+		this.maxInterval = maxInterval;
+	}
+
+	/**
+	 * Return a factory whose consumers are managed by this instance.
+	 * @param delegate the factory creating the consumers.
+	 * @param <K> the key type.
+	 * @param <V> the value type.
+	 * @return the factory.
+	 */
+	<K, V> ConsumerFactory<K, V> consumerFactory(ConsumerFactory<K, V> delegate) {
+		return new InterceptingConsumerFactory<>(delegate, this);
+	}
+
+	@Override
+	public long beforePoll(Consumer<?, ?> consumer) {
+		this.currentConsumer.set(consumer);
+		// wake up in time for the next resume even if no other partition has records
+		return resumeDue(consumer);
+	}
+
+	/**
+	 * Resume the consumer's partitions whose delay has elapsed.
+	 * @return the time (ms) until the next resume, or -1 if no partition is paused.
+	 */
+	private long resumeDue(Consumer<?, ?> consumer) {
+		long now = System.currentTimeMillis();
+		long next = -1;
+		Iterator<Map.Entry<TopicPartition, Attempts>> iterator = this.attempts.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<TopicPartition, Attempts> entry = iterator.next();
+			Attempts attempts = entry.getValue();
+			if (attempts.consumer != consumer || !attempts.paused) {
+				continue;
+			}
+			if (!consumer.assignment().contains(entry.getKey())
+					|| !consumer.paused().contains(entry.getKey())) {
+				// revoked (and possibly reassigned); the records are fetched again from the committed offset
+				iterator.remove();
+			}
+			else if (attempts.resumeAt <= now) {
+				consumer.resume(Collections.singleton(entry.getKey()));
+				attempts.paused = false;
+			}
+			else if (next < 0 || attempts.resumeAt - now < next) {
+				next = attempts.resumeAt - now;
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Return whether the partition is paused by the current consumer; its records fetched
+	 * before it was paused must be skipped, they are fetched again when it resumes.
+	 * @param partition the partition.
+	 * @return true if paused.
+	 */
+	boolean isPaused(TopicPartition partition) {
+		Attempts attempts = this.attempts.get(partition);
+		Consumer<?, ?> consumer = this.currentConsumer.get();
+		return attempts != null && attempts.paused && attempts.consumer == consumer
+				&& consumer.paused().contains(partition);
+	}
+
+	/**
+	 * Pause the partition of a failed record and seek it back to the record, unless the
+	 * record has been attempted the maximum number of times.
+	 * @param partition the partition.
+	 * @param offset the record's offset.
+	 * @return true if the record will be retried, false if the attempts are exhausted.
+	 */
+	boolean backOff(TopicPartition partition, long offset) {
+		Consumer<?, ?> consumer = this.currentConsumer.get();
+		Attempts attempts = this.attempts.get(partition);
+		if (attempts == null || attempts.offset != offset || attempts.consumer != consumer) {
+			attempts = new Attempts(consumer, offset);
+			this.attempts.put(partition, attempts);
+		}
+		if (++attempts.count >= this.maxAttempts || consumer == null) {
+			this.attempts.remove(partition);
+			return false;
+		}
+		long delay = (long) Math.min(this.initialInterval * Math.pow(this.multiplier, attempts.count - 1),
+				this.maxInterval);
+		pause(consumer, partition, offset, attempts, System.currentTimeMillis() + delay);
+		return true;
+	}
+
+	/**
+	 * Pause the partition of a record that must not be handled before a given time, and
+	 * seek it back to the record, unless that time has passed. The attempts are not
+	 * counted.
+	 * @param partition the partition.
+	 * @param offset the record's offset.
+	 * @param resumeAt the time (ms since the epoch) the record is due.
+	 * @return true if the partition is paused, false if the record is due.
+	 */
+	boolean pauseUntil(TopicPartition partition, long offset, long resumeAt) {
+		Consumer<?, ?> consumer = this.currentConsumer.get();
+		if (resumeAt <= System.currentTimeMillis() || consumer == null) {
+			return false;
+		}
+		Attempts attempts = new Attempts(consumer, offset);
+		this.attempts.put(partition, attempts);
+		pause(consumer, partition, offset, attempts, resumeAt);
+		return true;
+	}
+
+	private static void pause(Consumer<?, ?> consumer, TopicPartition partition, long offset, Attempts attempts,
+			long resumeAt) {
+
+		attempts.resumeAt = resumeAt;
+		attempts.paused = true;
+		consumer.pause(Collections.singleton(partition));
+		consumer.seek(partition, offset);
+	}
+
+	/**
+	 * Forget the attempts of the records of revoked partitions; the new owner of a
+	 * partition, or the same consumer if it is reassigned, fetches its records again from
+	 * the committed offset.
+	 * @param partitions the partitions.
+	 */
+	void revoked(Collection<TopicPartition> partitions) {
+		for (TopicPartition partition : partitions) {
+			this.attempts.remove(partition);
+		}
+	}
+
+	/**
+	 * Forget the attempts of a record that has been processed.
+	 * @param partition the partition.
+	 */
+	void succeeded(TopicPartition partition) {
+		this.attempts.remove(partition);
+	}
+
+	int getPausedCount() {
+		int paused = 0;
+		for (Attempts attempts : this.attempts.values()) {
+			if (attempts.paused) {
+				paused++;
+			}
+		}
+		return paused;
+	}
+
+	private static final class Attempts {
+
+		private final Consumer<?, ?> consumer;
+
+		private final long offset;
+
+		private int count;
+
+		private volatile boolean paused;
+
+		private long resumeAt;
+
+		Attempts(Consumer<?, ?> consumer, long offset) {
+			this.consumer = consumer;
+			this.offset = offset;
+		}
+
+	}
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import org.apache.kafka.common.TopicPartition;
+
+import org.springframework.kafka.listener.AbstractMessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaderMapper;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+
+/**
+ * An {@link EnvelopeAwareMessageDrivenChannelAdapter} that retries failed records with a
+ * {@link PartitionBackoff}.
+ * <p>
+ * The container must use manual acknowledgment and consumers created by the backoff's
+ * consumer factory; this adapter acknowledges the records once they are processed, or
+ * once the error message is sent to the recovery channel when their attempts are
+ * exhausted; each message of an envelope record is retried and recovered individually.
+ * It must not be given an error channel or a retry template.
+ *
+ * @param <K> the key type.
+ * @param <V> the value type.
+ * @since 2.1.5
+ */
+class PartitionBackoffMessageDrivenChannelAdapter<K, V> extends EnvelopeAwareMessageDrivenChannelAdapter<K, V> {
+
+	private final PartitionBackoff backoff;
+
+	private MessageChannel recoveryChannel;
+
+	PartitionBackoffMessageDrivenChannelAdapter(AbstractMessageListenerContainer<K, V> messageListenerContainer,
+			@Nullable KafkaHeaderMapper headerMapper, PartitionBackoff backoff) {
+
+		super(messageListenerContainer, headerMapper);
+		this.backoff = backoff;
+	}
+
+	/**
+	 * Set the channel for the error messages of the records whose attempts are exhausted.
+	 * @param recoveryChannel the channel.
+	 */
+	void setRecoveryChannel(MessageChannel recoveryChannel) {
+		this.recoveryChannel = recoveryChannel;
+	}
+
+	@Override
+	protected void sendMessage(Message<?> message) {
+		MessageHeaders headers = message.getHeaders();
+		Acknowledgment acknowledgment = headers.get(KafkaHeaders.ACKNOWLEDGMENT, Acknowledgment.class);
+		if (acknowledgment == null) {
+			// not from the container
+			super.sendMessage(message);
+			return;
+		}
+		TopicPartition partition = new TopicPartition(headers.get(KafkaHeaders.RECEIVED_TOPIC, String.class),
+				headers.get(KafkaHeaders.RECEIVED_PARTITION_ID, Integer.class));
+		if (this.backoff.isPaused(partition)) {
+			// fetched before the partition was paused; it is fetched again when it resumes
+			return;
+		}
+		try {
+			super.sendMessage(message);
+			this.backoff.succeeded(partition);
+		}
+		catch (RuntimeException ex) {
+			if (this.backoff.backOff(partition, headers.get(KafkaHeaders.OFFSET, Long.class))) {
+				return;
+			}
+			if (this.recoveryChannel == null) {
+				throw ex;
+			}
+			if (recoverFailedEntry(message, this.recoveryChannel, ex)) {
+				// send the remaining messages of the envelope
+				sendMessage(message);
+				return;
+			}
+			getMessagingTemplate().send(this.recoveryChannel, buildErrorMessage(message, ex));
+		}
+		acknowledgment.acknowledge();
+	}
+
+}
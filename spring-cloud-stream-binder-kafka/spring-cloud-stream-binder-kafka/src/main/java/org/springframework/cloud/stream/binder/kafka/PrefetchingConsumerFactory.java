@@ -0,0 +1,227 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+
+/**
+ * A {@link ConsumerFactory} for a {@code KafkaMessageSource}, which requires consumers
+ * returning one record per poll: the consumers fetch up to {@code prefetch} records per
+ * poll of the Kafka consumer, buffer them, and return them one at a time, so that most
+ * receives do not call the Kafka consumer's {@code poll()}.
+ * <p>
+ * Buffered records of a partition are dropped when the partition is seeked (for example,
+ * when a message is requeued) or revoked; the records are fetched again. Buffered records
+ * of paused partitions are kept and returned once the partitions are resumed.
+ *
+ * @param <K> the key type.
+ * @param <V> the value type.
+ * @since 2.1.5
+ */
+class PrefetchingConsumerFactory<K, V> implements ConsumerFactory<K, V> {
+
+	private final ConsumerFactory<K, V> delegate;
+
+	private final Map<String, Object> configurationProperties;
+
+	/**
+	 * Construct an instance with the provided properties.
+	 * @param delegate the factory whose configuration is used.
+	 * @param prefetch the maximum number of records fetched per poll of a Kafka consumer.
+	 */
+	PrefetchingConsumerFactory(ConsumerFactory<K, V> delegate, int prefetch) {
+		Map<String, Object> configs = new HashMap<>(delegate.getConfigurationProperties());
+		configs.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, prefetch);
+		this.delegate = new DefaultKafkaConsumerFactory<>(configs, delegate.getKeyDeserializer(),
+				delegate.getValueDeserializer());
+		// what the message source sees
+		configs.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, 1);
+		this.configurationProperties = Collections.unmodifiableMap(configs);
+	}
+
+	@Override
+	public Consumer<K, V> createConsumer(String groupId, String clientIdPrefix, String clientIdSuffix) {
+		return prefetching(this.delegate.createConsumer(groupId, clientIdPrefix, clientIdSuffix));
+	}
+
+	@Override
+	public boolean isAutoCommit() {
+		return this.delegate.isAutoCommit();
+	}
+
+	@Override
+	public Map<String, Object> getConfigurationProperties() {
+		return this.configurationProperties;
+	}
+
+	@Override
+	public Deserializer<K> getKeyDeserializer() {
+		return this.delegate.getKeyDeserializer();
+	}
+
+	@Override
+	public Deserializer<V> getValueDeserializer() {
+		return this.delegate.getValueDeserializer();
+	}
+
+	/**
+	 * Return a consumer returning the records fetched by the consumer one at a time.
+	 * @param consumer the consumer.
+	 * @param <K> the key type.
+	 * @param <V> the value type.
+	 * @return the prefetching consumer.
+	 */
+	@SuppressWarnings("unchecked")
+	static <K, V> Consumer<K, V> prefetching(Consumer<K, V> consumer) {
+		return (Consumer<K, V>) Proxy.newProxyInstance(PrefetchingConsumerFactory.class.getClassLoader(),
+				new Class<?>[] { Consumer.class }, new PrefetchBuffer<>(consumer));
+	}
+
+	private static final class PrefetchBuffer<K, V> implements InvocationHandler {
+
+		private final Consumer<K, V> consumer;
+
+		private final Map<TopicPartition, ArrayDeque<ConsumerRecord<K, V>>> buffered = new LinkedHashMap<>();
+
+		PrefetchBuffer(Consumer<K, V> consumer) {
+			this.consumer = consumer;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+				case "poll":
+					return poll(method, args);
+				case "subscribe":
+					if (args.length > 1 && args[1] instanceof ConsumerRebalanceListener) {
+						args[1] = dropRevoked((ConsumerRebalanceListener) args[1]);
+					}
+					break;
+				case "seek":
+					this.buffered.remove(args[0]);
+					break;
+				case "seekToBeginning":
+				case "seekToEnd":
+					Collection<TopicPartition> partitions = (Collection<TopicPartition>) args[0];
+					if (partitions.isEmpty()) {
+						this.buffered.clear();
+					}
+					else {
+						this.buffered.keySet().removeAll(partitions);
+					}
+					break;
+				case "assign":
+				case "unsubscribe":
+				case "close":
+					this.buffered.clear();
+					break;
+				default:
+			}
+			return invokeConsumer(method, args);
+		}
+
+		@SuppressWarnings("unchecked")
+		private ConsumerRecords<K, V> poll(Method method, Object[] args) throws Throwable {
+			ConsumerRecord<K, V> record = next();
+			if (record == null) {
+				ConsumerRecords<K, V> records = (ConsumerRecords<K, V>) invokeConsumer(method, args);
+				for (ConsumerRecord<K, V> polled : records) {
+					this.buffered.computeIfAbsent(new TopicPartition(polled.topic(), polled.partition()),
+							tp -> new ArrayDeque<>()).add(polled);
+				}
+				record = next();
+			}
+			if (record == null) {
+				return ConsumerRecords.empty();
+			}
+			return new ConsumerRecords<>(Collections.singletonMap(
+					new TopicPartition(record.topic(), record.partition()), Collections.singletonList(record)));
+		}
+
+		private ConsumerRecord<K, V> next() {
+			if (this.buffered.isEmpty()) {
+				return null;
+			}
+			Set<TopicPartition> paused = this.consumer.paused();
+			Iterator<Map.Entry<TopicPartition, ArrayDeque<ConsumerRecord<K, V>>>> iterator =
+					this.buffered.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<TopicPartition, ArrayDeque<ConsumerRecord<K, V>>> entry = iterator.next();
+				if (!paused.contains(entry.getKey())) {
+					ConsumerRecord<K, V> record = entry.getValue().poll();
+					if (entry.getValue().isEmpty()) {
+						iterator.remove();
+					}
+					return record;
+				}
+			}
+			return null;
+		}
+
+		private ConsumerRebalanceListener dropRevoked(ConsumerRebalanceListener listener) {
+			return new ConsumerRebalanceListener() {
+
+				@Override
+				public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+					// called within poll(), on the thread holding the lock
+					PrefetchBuffer.this.buffered.keySet().removeAll(partitions);
+					listener.onPartitionsRevoked(partitions);
+				}
+
+				@Override
+				public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+					listener.onPartitionsAssigned(partitions);
+				}
+
+			};
+		}
+
+		private Object invokeConsumer(Method method, Object[] args) throws Throwable {
+			try {
+				return method.invoke(this.consumer, args);
+			}
+			catch (InvocationTargetException ex) {
+				throw ex.getTargetException();
+			}
+		}
+
+	}
+
+}
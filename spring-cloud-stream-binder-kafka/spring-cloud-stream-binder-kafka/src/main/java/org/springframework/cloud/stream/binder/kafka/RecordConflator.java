@@ -0,0 +1,169 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.messaging.Message;
+
+/**
+ * Buffers outbound messages by key and emits only the latest message for each key, once
+ * per window, or when the number of buffered keys reaches the maximum.
+ * <p>
+ * Messages for a key are emitted in order, at most one per flush; messages without a
+ * key are not conflated.
+ *
+ * @since 2.1.5
+ */
+class RecordConflator {
+
+	private static final Log logger = LogFactory.getLog(RecordConflator.class);
+
+	private final long window;
+
+	private final int maxKeys;
+
+	private final Function<Message<?>, Object> keyFunction;
+
+	private final Consumer<Message<?>> emitter;
+
+	private final AtomicLong received = new AtomicLong();
+
+	private final AtomicLong emitted = new AtomicLong();
+
+	private final Object flushMonitor = new Object();
+
+	private Map<Object, Message<?>> buffer = new LinkedHashMap<>();
+
+	private ScheduledExecutorService scheduler;
+
+	RecordConflator(long window, int maxKeys, Function<Message<?>, Object> keyFunction,
+			Consumer<Message<?>> emitter) {
+
+		this.window = window;
+		this.maxKeys = maxKeys;
+		this.keyFunction = keyFunction;
+		this.emitter = emitter;
+	}
+
+	synchronized void start(String name) {
+		if (this.scheduler == null) {
+			this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "conflator-" + name);
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.scheduler.scheduleWithFixedDelay(this::flush, this.window, this.window, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Buffer the message, replacing any message with the same key.
+	 * @param message the message.
+	 * @return false if the message has no key and was not buffered.
+	 */
+	boolean offer(Message<?> message) {
+		Object key = this.keyFunction.apply(message);
+		if (key == null) {
+			return false;
+		}
+		if (key instanceof byte[]) {
+			key = ByteBuffer.wrap((byte[]) key);
+		}
+		this.received.incrementAndGet();
+		boolean full;
+		synchronized (this) {
+			// remove first so that the key moves to the end, after keys updated since
+			this.buffer.remove(key);
+			this.buffer.put(key, message);
+			full = this.buffer.size() >= this.maxKeys;
+		}
+		if (full) {
+			flush();
+		}
+		return true;
+	}
+
+	/**
+	 * Emit the buffered messages.
+	 */
+	void flush() {
+		// flushes are serialized so that the messages for a key are sent in order
+		synchronized (this.flushMonitor) {
+			List<Message<?>> messages;
+			synchronized (this) {
+				if (this.buffer.isEmpty()) {
+					return;
+				}
+				messages = new ArrayList<>(this.buffer.values());
+				this.buffer = new LinkedHashMap<>();
+			}
+			for (Message<?> message : messages) {
+				try {
+					this.emitter.accept(message);
+					this.emitted.incrementAndGet();
+				}
+				catch (Exception ex) {
+					logger.error("Failed to send conflated record " + message, ex);
+				}
+			}
+		}
+	}
+
+	long getReceived() {
+		return this.received.get();
+	}
+
+	long getEmitted() {
+		return this.emitted.get();
+	}
+
+	/**
+	 * Stop the timer and emit any buffered messages.
+	 */
+	void stop() {
+		ScheduledExecutorService scheduler;
+		synchronized (this) {
+			scheduler = this.scheduler;
+			this.scheduler = null;
+		}
+		if (scheduler != null) {
+			scheduler.shutdown();
+			try {
+				scheduler.awaitTermination(this.window + 1000, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		flush();
+	}
+
+}
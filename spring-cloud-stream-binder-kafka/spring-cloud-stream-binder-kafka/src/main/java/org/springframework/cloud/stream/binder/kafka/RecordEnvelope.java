@@ -0,0 +1,246 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.utils.ByteUtils;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * The framing of an envelope record - a record whose value carries several messages.
+ * <p>
+ * An envelope starts with a version byte and the (varint) number of entries; each entry
+ * is the key, the headers and the value, with lengths and counts written as varints (a
+ * length of {@code -1} denotes {@code null}). Records carrying an envelope have the
+ * {@link #HEADER} header.
+ *
+ * @since 2.1.5
+ */
+final class RecordEnvelope {
+
+	/**
+	 * The record header marking an envelope record; the value is the framing version.
+	 */
+	static final String HEADER = "scst_envelope";
+
+	static final byte VERSION = 1;
+
+	private RecordEnvelope() {
+		super();
+	}
+
+	/**
+	 * Encode a single entry of an envelope.
+	 * @param key the key.
+	 * @param headers the headers.
+	 * @param value the value.
+	 * @return the encoded entry.
+	 */
+	static byte[] encode(@Nullable byte[] key, Headers headers, @Nullable byte[] value) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+				16 + (key != null ? key.length : 0) + (value != null ? value.length : 0));
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			writeBytes(key, out);
+			Header[] headerArray = headers.toArray();
+			ByteUtils.writeVarint(headerArray.length, out);
+			for (Header header : headerArray) {
+				writeBytes(header.key().getBytes(StandardCharsets.UTF_8), out);
+				writeBytes(header.value(), out);
+			}
+			writeBytes(value, out);
+		}
+		catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Assemble encoded entries into an envelope.
+	 * @param entries the entries, as returned by {@link #encode(byte[], Headers, byte[])}.
+	 * @param size the total size of the entries.
+	 * @return the envelope.
+	 */
+	static byte[] pack(List<byte[]> entries, int size) {
+		ByteBuffer buffer = ByteBuffer.allocate(1 + ByteUtils.sizeOfVarint(entries.size()) + size);
+		buffer.put(VERSION);
+		ByteUtils.writeVarint(entries.size(), buffer);
+		for (byte[] entry : entries) {
+			buffer.put(entry);
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Decode an envelope.
+	 * @param envelope the envelope.
+	 * @return the entries.
+	 * @throws IllegalStateException if the envelope is malformed.
+	 */
+	static List<Entry> unpack(byte[] envelope) {
+		ByteBuffer buffer = ByteBuffer.wrap(envelope);
+		byte version = buffer.hasRemaining() ? buffer.get() : 0;
+		if (version != VERSION) {
+			throw new IllegalStateException("Unsupported envelope version: " + version);
+		}
+		try {
+			int count = ByteUtils.readVarint(buffer);
+			List<Entry> entries = new ArrayList<>(Math.min(count, buffer.remaining()));
+			for (int i = 0; i < count; i++) {
+				byte[] key = readBytes(buffer);
+				int headerCount = ByteUtils.readVarint(buffer);
+				RecordHeaders headers = new RecordHeaders();
+				for (int j = 0; j < headerCount; j++) {
+					byte[] name = readBytes(buffer);
+					if (name == null) {
+						throw new IllegalArgumentException("Null header name");
+					}
+					headers.add(new String(name, StandardCharsets.UTF_8), readBytes(buffer));
+				}
+				entries.add(new Entry(key, headers, readBytes(buffer)));
+			}
+			return entries;
+		}
+		catch (BufferUnderflowException | IllegalArgumentException ex) {
+			throw new IllegalStateException("Malformed envelope", ex);
+		}
+	}
+
+	/**
+	 * Replace each envelope record of a batch with a record for each of its messages, with
+	 * the envelope record's topic, partition, offset and timestamp; the other records are
+	 * unchanged.
+	 * @param records the records.
+	 * @return the records, with the envelope records unpacked.
+	 * @throws IllegalStateException if an envelope is malformed.
+	 */
+	static List<ConsumerRecord<?, ?>> unpackAll(List<? extends ConsumerRecord<?, ?>> records) {
+		List<ConsumerRecord<?, ?>> unpacked = null;
+		for (int i = 0; i < records.size(); i++) {
+			ConsumerRecord<?, ?> record = records.get(i);
+			boolean envelope = record.value() instanceof byte[] && record.headers().lastHeader(HEADER) != null;
+			if (envelope && unpacked == null) {
+				unpacked = new ArrayList<>(records.subList(0, i));
+			}
+			if (!envelope) {
+				if (unpacked != null) {
+					unpacked.add(record);
+				}
+				continue;
+			}
+			for (Entry entry : unpack((byte[]) record.value())) {
+				unpacked.add(toRecord(entry, record.topic(), record.partition(), record.offset(), record.timestamp(),
+						record.timestampType()));
+			}
+		}
+		return unpacked != null ? unpacked : Collections.unmodifiableList(records);
+	}
+
+	/**
+	 * Return a record for a message of an envelope record, with the envelope record's
+	 * topic, partition, offset and timestamp.
+	 * @param entry the message.
+	 * @param topic the topic.
+	 * @param partition the partition.
+	 * @param offset the offset.
+	 * @param timestamp the timestamp.
+	 * @param timestampType the timestamp type.
+	 * @return the record.
+	 */
+	static ConsumerRecord<byte[], byte[]> toRecord(Entry entry, String topic, int partition, long offset,
+			long timestamp, TimestampType timestampType) {
+
+		return new ConsumerRecord<>(topic, partition, offset, timestamp, timestampType, null,
+				entry.getKey() != null ? entry.getKey().length : -1,
+				entry.getValue() != null ? entry.getValue().length : -1,
+				entry.getKey(), entry.getValue(), entry.getHeaders());
+	}
+
+	private static void writeBytes(@Nullable byte[] bytes, DataOutputStream out) throws IOException {
+		if (bytes == null) {
+			ByteUtils.writeVarint(-1, out);
+		}
+		else {
+			ByteUtils.writeVarint(bytes.length, out);
+			out.write(bytes);
+		}
+	}
+
+	@Nullable
+	private static byte[] readBytes(ByteBuffer buffer) {
+		int length = ByteUtils.readVarint(buffer);
+		if (length < 0) {
+			return null;
+		}
+		if (length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * A message unpacked from an envelope.
+	 */
+	static final class Entry {
+
+		private final byte[] key;
+
+		private final Headers headers;
+
+		private final byte[] value;
+
+		Entry(@Nullable byte[] key, Headers headers, @Nullable byte[] value) {
+			this.key = key;
+			this.headers = headers;
+			this.value = value;
+		}
+
+		@Nullable
+		byte[] getKey() {
+			return this.key;
+		}
+
+		Headers getHeaders() {
+			return this.headers;
+		}
+
+		@Nullable
+		byte[] getValue() {
+			return this.value;
+		}
+
+	}
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.kafka.common.TopicPartition;
+
+import org.springframework.kafka.listener.AbstractMessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaderMapper;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+
+/**
+ * An {@link EnvelopeAwareMessageDrivenChannelAdapter} for a consumer binding with retry
+ * topics; the error channel republishes failed records to the next retry topic.
+ * <p>
+ * The adapter of the binding's topics has one adapter for each retry topic, with its own
+ * container, which it configures with its output channel and starts and stops with its
+ * own. A retry topic adapter holds back each record until its delay has elapsed since the
+ * record was republished, by pausing its partition with a {@link PartitionBackoff}
+ * (whose consumer factory must create the container's consumers), so the consumer keeps
+ * polling; since the records of a retry topic are republished in order, this only delays
+ * the records of that partition. The retry topic containers must use manual
+ * acknowledgment; unless the binding acknowledges the records itself, the adapter
+ * acknowledges them once they are handled.
+ *
+ * @param <K> the key type.
+ * @param <V> the value type.
+ * @since 2.1.5
+ */
+class RetryTopicMessageDrivenChannelAdapter<K, V> extends EnvelopeAwareMessageDrivenChannelAdapter<K, V> {
+
+	private final long delay;
+
+	private final PartitionBackoff backoff;
+
+	private final boolean acknowledge;
+
+	private final List<RetryTopicMessageDrivenChannelAdapter<K, V>> retryAdapters;
+
+	/**
+	 * Construct an adapter for the binding's topics.
+	 * @param messageListenerContainer the container.
+	 * @param headerMapper the header mapper.
+	 * @param retryAdapters the retry topic adapters.
+	 */
+	RetryTopicMessageDrivenChannelAdapter(AbstractMessageListenerContainer<K, V> messageListenerContainer,
+			@Nullable KafkaHeaderMapper headerMapper, List<RetryTopicMessageDrivenChannelAdapter<K, V>> retryAdapters) {
+
+		super(messageListenerContainer, headerMapper);
+		this.delay = 0;
+		this.backoff = null;
+		this.acknowledge = false;
+		this.retryAdapters = retryAdapters;
+	}
+
+	/**
+	 * Construct an adapter for a retry topic.
+	 * @param messageListenerContainer the container.
+	 * @param headerMapper the header mapper.
+	 * @param delay the delay of the retry topic.
+	 * @param backoff the backoff pausing the partitions of records not yet due.
+	 * @param acknowledge whether to acknowledge the records once they are handled.
+	 */
+	RetryTopicMessageDrivenChannelAdapter(AbstractMessageListenerContainer<K, V> messageListenerContainer,
+			@Nullable KafkaHeaderMapper headerMapper, long delay, PartitionBackoff backoff, boolean acknowledge) {
+
+		super(messageListenerContainer, headerMapper);
+		this.delay = delay;
+		this.backoff = backoff;
+		this.acknowledge = acknowledge;
+		this.retryAdapters = Collections.emptyList();
+	}
+
+	@Override
+	protected void onInit() {
+		for (RetryTopicMessageDrivenChannelAdapter<K, V> retryAdapter : this.retryAdapters) {
+			retryAdapter.setOutputChannel(getOutputChannel());
+			retryAdapter.afterPropertiesSet();
+		}
+		super.onInit();
+	}
+
+	@Override
+	protected void sendMessage(Message<?> message) {
+		MessageHeaders headers = message.getHeaders();
+		Acknowledgment acknowledgment = headers.get(KafkaHeaders.ACKNOWLEDGMENT, Acknowledgment.class);
+		if (this.backoff == null || acknowledgment == null) {
+			// the binding's topics, or not from the container
+			super.sendMessage(message);
+			return;
+		}
+		TopicPartition partition = new TopicPartition(headers.get(KafkaHeaders.RECEIVED_TOPIC, String.class),
+				headers.get(KafkaHeaders.RECEIVED_PARTITION_ID, Integer.class));
+		if (this.backoff.isPaused(partition)) {
+			// fetched before the partition was paused; it is fetched again when it resumes
+			return;
+		}
+		Long timestamp = headers.get(KafkaHeaders.RECEIVED_TIMESTAMP, Long.class);
+		if (timestamp != null && this.backoff.pauseUntil(partition, headers.get(KafkaHeaders.OFFSET, Long.class),
+				timestamp + this.delay)) {
+			return;
+		}
+		super.sendMessage(message);
+		this.backoff.succeeded(partition);
+		if (this.acknowledge) {
+			acknowledgment.acknowledge();
+		}
+	}
+
+	@Override
+	protected void doStart() {
+		super.doStart();
+		this.retryAdapters.forEach(RetryTopicMessageDrivenChannelAdapter::start);
+	}
+
+	@Override
+	protected void doStop() {
+		this.retryAdapters.forEach(RetryTopicMessageDrivenChannelAdapter::stop);
+		super.doStop();
+	}
+
+}
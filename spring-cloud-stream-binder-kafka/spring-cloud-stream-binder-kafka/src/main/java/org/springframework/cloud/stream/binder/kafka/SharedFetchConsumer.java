@@ -0,0 +1,198 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+
+import org.springframework.kafka.listener.BatchConsumerAwareMessageListener;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.listener.MessageListenerContainer;
+
+/**
+ * Fetches the records of a topic once for several consumer bindings (each a
+ * {@link SharedFetchMessageProducer} with its own group): the records polled by the
+ * container are sent to each binding in turn, which converts them with its own converter.
+ * <p>
+ * The container's own group only distributes the partitions; its offsets are never
+ * committed. Each binding tracks its own position in each partition and, after each
+ * poll, commits the records it was sent under its group, through a consumer of that
+ * group that never polls. When partitions are assigned, each binding's position is its
+ * committed offset (or the beginning or end of the partition, depending on its
+ * {@code auto.offset.reset}) and the container seeks to the lowest position; a binding
+ * is not sent the records before its position.
+ * <p>
+ * Adding or removing a binding restarts the container so that the positions are
+ * recomputed.
+ *
+ * @param <K> the key type.
+ * @param <V> the value type.
+ * @since 2.1.5
+ */
+class SharedFetchConsumer<K, V> implements BatchConsumerAwareMessageListener<K, V>, ConsumerAwareRebalanceListener {
+
+	private static final Log logger = LogFactory.getLog(SharedFetchConsumer.class);
+
+	private final MessageListenerContainer container;
+
+	private final List<SharedFetchMessageProducer> subscribers = new CopyOnWriteArrayList<>();
+
+	private final Map<Consumer<?, ?>, Map<SharedFetchMessageProducer, Consumer<?, ?>>> commitConsumers =
+			new ConcurrentHashMap<>();
+
+	SharedFetchConsumer(MessageListenerContainer container) {
+		this.container = container;
+		container.setupMessageListener(this);
+		container.getContainerProperties().setConsumerRebalanceListener(this);
+	}
+
+	/**
+	 * Start sending records to the binding, starting the container if needed.
+	 * @param subscriber the binding.
+	 */
+	synchronized void subscribe(SharedFetchMessageProducer subscriber) {
+		restart(() -> this.subscribers.add(subscriber));
+	}
+
+	/**
+	 * Stop sending records to the binding, stopping the container if it was the last one.
+	 * @param subscriber the binding.
+	 */
+	synchronized void unsubscribe(SharedFetchMessageProducer subscriber) {
+		restart(() -> this.subscribers.remove(subscriber));
+	}
+
+	private void restart(Runnable change) {
+		this.container.stop();
+		closeCommitConsumers();
+		change.run();
+		if (!this.subscribers.isEmpty()) {
+			this.container.start();
+		}
+	}
+
+	@Override
+	public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+		for (SharedFetchMessageProducer subscriber : this.subscribers) {
+			subscriber.getPositions().keySet().removeAll(partitions);
+		}
+	}
+
+	@Override
+	public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+		if (partitions.isEmpty()) {
+			return;
+		}
+		Map<TopicPartition, Long> beginningOffsets = null;
+		Map<TopicPartition, Long> endOffsets = null;
+		Map<TopicPartition, Long> seekTo = new HashMap<>();
+		for (SharedFetchMessageProducer subscriber : this.subscribers) {
+			Consumer<?, ?> commitConsumer = commitConsumer(consumer, subscriber);
+			for (TopicPartition partition : partitions) {
+				OffsetAndMetadata committed = commitConsumer.committed(partition);
+				long position;
+				if (committed != null) {
+					position = committed.offset();
+				}
+				else if (subscriber.isResetToEarliest()) {
+					if (beginningOffsets == null) {
+						beginningOffsets = consumer.beginningOffsets(partitions);
+					}
+					position = beginningOffsets.get(partition);
+				}
+				else {
+					if (endOffsets == null) {
+						endOffsets = consumer.endOffsets(partitions);
+					}
+					position = endOffsets.get(partition);
+				}
+				subscriber.getPositions().put(partition, position);
+				seekTo.merge(partition, position, Math::min);
+			}
+		}
+		seekTo.forEach(consumer::seek);
+	}
+
+	@Override
+	public void onMessage(List<ConsumerRecord<K, V>> records, Consumer<?, ?> consumer) {
+		Map<SharedFetchMessageProducer, Map<TopicPartition, OffsetAndMetadata>> commits = new HashMap<>();
+		for (ConsumerRecord<K, V> record : records) {
+			TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+			for (SharedFetchMessageProducer subscriber : this.subscribers) {
+				Long position = subscriber.getPositions().get(partition);
+				if (position != null && record.offset() < position) {
+					continue;
+				}
+				try {
+					subscriber.deliver(record, consumer);
+				}
+				catch (RuntimeException ex) {
+					logger.error("Failed to process " + record + " for group '" + subscriber.getGroup()
+							+ "'; skipping it", ex);
+				}
+				subscriber.getPositions().put(partition, record.offset() + 1);
+				commits.computeIfAbsent(subscriber, s -> new HashMap<>())
+						.put(partition, new OffsetAndMetadata(record.offset() + 1));
+			}
+		}
+		commits.forEach((subscriber, offsets) -> {
+			try {
+				commitConsumer(consumer, subscriber).commitSync(offsets);
+			}
+			catch (KafkaException ex) {
+				logger.error("Failed to commit " + offsets + " for group '" + subscriber.getGroup() + "'", ex);
+			}
+		});
+	}
+
+	private Consumer<?, ?> commitConsumer(Consumer<?, ?> consumer, SharedFetchMessageProducer subscriber) {
+		// consumers are not thread-safe, so each container thread has its own
+		return this.commitConsumers.computeIfAbsent(consumer, c -> new ConcurrentHashMap<>())
+				.computeIfAbsent(subscriber, SharedFetchMessageProducer::createCommitConsumer);
+	}
+
+	private void closeCommitConsumers() {
+		for (Map<SharedFetchMessageProducer, Consumer<?, ?>> consumers : this.commitConsumers.values()) {
+			for (Consumer<?, ?> consumer : consumers.values()) {
+				try {
+					consumer.close();
+				}
+				catch (RuntimeException ex) {
+					logger.debug("Failed to close a commit consumer", ex);
+				}
+			}
+		}
+		this.commitConsumers.clear();
+	}
+
+	int getSubscriberCount() {
+		return this.subscribers.size();
+	}
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+
+import org.springframework.core.AttributeAccessor;
+import org.springframework.integration.endpoint.MessageProducerSupport;
+import org.springframework.integration.kafka.support.RawRecordHeaderErrorMessageStrategy;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.support.KafkaHeaderMapper;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.support.converter.RecordMessageConverter;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+import org.springframework.retry.support.RetryTemplate;
+
+/**
+ * The endpoint of a consumer binding whose records are fetched by a
+ * {@link SharedFetchConsumer}, shared with other bindings of the same topic; messages
+ * are sent on the shared consumer's threads.
+ * <p>
+ * Records are converted with the binding's own converter and envelope records (see
+ * {@link RecordEnvelope}) are unpacked. Failed messages are retried with the retry
+ * template, if any, then sent to the error channel, with the raw record (for a message of
+ * an envelope, a record of its own), like those of the other consumer bindings.
+ *
+ * @since 2.1.5
+ */
+class SharedFetchMessageProducer extends MessageProducerSupport {
+
+	private final ThreadLocal<ConsumerRecord<?, ?>> failedRecord = new ThreadLocal<>();
+
+	private final Map<TopicPartition, Long> positions = new ConcurrentHashMap<>();
+
+	private final SharedFetchConsumer<?, ?> sharedConsumer;
+
+	private final ConsumerFactory<?, ?> consumerFactory;
+
+	private final String group;
+
+	private final RetryTemplate retryTemplate;
+
+	private final RecordMessageConverter converter;
+
+	private final KafkaHeaderMapper headerMapper;
+
+	/**
+	 * Construct an instance with the provided properties.
+	 * @param sharedConsumer the consumer fetching the records.
+	 * @param consumerFactory the factory for the consumers committing the offsets.
+	 * @param group the binding's group.
+	 * @param retryTemplate the retry template, if any.
+	 * @param converter the binding's converter.
+	 * @param headerMapper the header mapper of the messages of envelope records, if any.
+	 */
+	SharedFetchMessageProducer(SharedFetchConsumer<?, ?> sharedConsumer, ConsumerFactory<?, ?> consumerFactory,
+			String group, @Nullable RetryTemplate retryTemplate, RecordMessageConverter converter,
+			@Nullable KafkaHeaderMapper headerMapper) {
+
+		this.sharedConsumer = sharedConsumer;
+		this.consumerFactory = consumerFactory;
+		this.group = group;
+		this.retryTemplate = retryTemplate;
+		this.converter = converter;
+		this.headerMapper = headerMapper;
+		setErrorMessageStrategy(new RawRecordHeaderErrorMessageStrategy());
+	}
+
+	String getGroup() {
+		return this.group;
+	}
+
+	/**
+	 * The offset of the next record to send, for each assigned partition.
+	 */
+	Map<TopicPartition, Long> getPositions() {
+		return this.positions;
+	}
+
+	boolean isResetToEarliest() {
+		return "earliest".equals(
+				this.consumerFactory.getConfigurationProperties().get(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG));
+	}
+
+	Consumer<?, ?> createCommitConsumer() {
+		return this.consumerFactory.createConsumer(this.group, null, "-commits");
+	}
+
+	/**
+	 * Convert a record and send the message or, for an envelope record, each of its
+	 * messages.
+	 * @param record the record.
+	 * @param consumer the consumer that fetched the record.
+	 */
+	void deliver(ConsumerRecord<?, ?> record, Consumer<?, ?> consumer) {
+		Message<?> message = this.converter.toMessage(record, null, consumer, null);
+		if (!EnvelopeAwareMessageDrivenChannelAdapter.isEnvelope(message)) {
+			deliver(message, record);
+			return;
+		}
+		List<RecordEnvelope.Entry> entries = RecordEnvelope.unpack((byte[]) message.getPayload());
+		for (int i = 0; i < entries.size(); i++) {
+			RecordEnvelope.Entry entry = entries.get(i);
+			deliver(EnvelopeAwareMessageDrivenChannelAdapter.unpacked(message, entry, i, this.headerMapper),
+					EnvelopeAwareMessageDrivenChannelAdapter.entryRecord(message, entry));
+		}
+	}
+
+	private void deliver(Message<?> message, ConsumerRecord<?, ?> record) {
+		try {
+			if (this.retryTemplate != null) {
+				this.retryTemplate.execute(context -> {
+					getMessagingTemplate().send(getOutputChannel(), message);
+					return null;
+				});
+			}
+			else {
+				getMessagingTemplate().send(getOutputChannel(), message);
+			}
+		}
+		catch (RuntimeException ex) {
+			this.failedRecord.set(record);
+			try {
+				if (!sendErrorMessageIfNecessary(message, ex)) {
+					throw ex;
+				}
+			}
+			finally {
+				this.failedRecord.remove();
+			}
+		}
+	}
+
+	@Override
+	protected AttributeAccessor getErrorMessageAttributes(Message<?> message) {
+		AttributeAccessor attributes = super.getErrorMessageAttributes(message);
+		ConsumerRecord<?, ?> record = this.failedRecord.get();
+		if (record != null) {
+			attributes.setAttribute(KafkaHeaders.RAW_DATA, record);
+		}
+		return attributes;
+	}
+
+	@Override
+	protected void doStart() {
+		this.sharedConsumer.subscribe(this);
+	}
+
+	@Override
+	protected void doStop() {
+		this.sharedConsumer.unsubscribe(this);
+	}
+
+}
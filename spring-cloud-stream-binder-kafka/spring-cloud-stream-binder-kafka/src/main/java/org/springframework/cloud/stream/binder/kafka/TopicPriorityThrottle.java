@@ -0,0 +1,171 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.TopicPartition;
+
+import org.springframework.kafka.core.ConsumerFactory;
+
+/**
+ * Gives the topics of a multiplexed consumer binding priorities: while a consumer's
+ * partitions of a topic lag behind by more than a threshold, the consumer pauses its
+ * partitions of the topics with a lower priority, so that the records of the urgent
+ * topic are not queued behind theirs. The lag is the consumer's {@code records-lag}
+ * metric, whose {@code topic} tag has each '.' of the topic replaced with '_'.
+ * <p>
+ * To avoid starving them, partitions paused for the maximum pause are resumed for one
+ * poll.
+ *
+ * @since 2.1.5
+ */
+class TopicPriorityThrottle implements InterceptingConsumerFactory.PollInterceptor {
+
+	private final Map<String, Integer> priorities;
+
+	private final long lagThreshold;
+
+	private final long maxPause;
+
+	private final Map<Consumer<?, ?>, Throttled> throttled = new ConcurrentHashMap<>();
+
+	/**
+	 * Construct an instance with the provided properties.
+	 * @param priorities the priority of each topic; 0 for topics without one.
+	 * @param lagThreshold the lag above which a topic's partitions are urgent.
+	 * @param maxPause the maximum time (ms) partitions stay paused.
+	 */
+	TopicPriorityThrottle(Map<String, Integer> priorities, long lagThreshold, long maxPause) {
+		this.priorities = new HashMap<>(priorities);
+		this.lagThreshold = lagThreshold;
+		this.maxPause = maxPause;
+	}
+
+	/**
+	 * Return a factory whose consumers are throttled by this instance.
+	 * @param delegate the factory creating the consumers.
+	 * @param <K> the key type.
+	 * @param <V> the value type.
+	 * @return the factory.
+	 */
+	<K, V> ConsumerFactory<K, V> consumerFactory(ConsumerFactory<K, V> delegate) {
+		return new InterceptingConsumerFactory<>(delegate, this);
+	}
+
+	@Override
+	public long beforePoll(Consumer<?, ?> consumer) {
+		Set<TopicPartition> assignment = consumer.assignment();
+		Map<TopicPartition, Double> lags = lags(consumer);
+		int urgent = Integer.MIN_VALUE;
+		for (TopicPartition partition : assignment) {
+			Double lag = lags.get(metricPartition(partition));
+			if (lag != null && lag > this.lagThreshold) {
+				urgent = Math.max(urgent, priority(partition));
+			}
+		}
+		Set<TopicPartition> toThrottle = new HashSet<>();
+		for (TopicPartition partition : assignment) {
+			if (priority(partition) < urgent) {
+				toThrottle.add(partition);
+			}
+		}
+		Throttled throttled = this.throttled.get(consumer);
+		if (throttled != null && (toThrottle.isEmpty()
+				|| System.currentTimeMillis() - throttled.since >= this.maxPause)) {
+			resume(consumer, throttled.partitions, assignment);
+			this.throttled.remove(consumer);
+		}
+		else if (!toThrottle.isEmpty()) {
+			if (throttled == null) {
+				throttled = new Throttled();
+				this.throttled.put(consumer, throttled);
+			}
+			Set<TopicPartition> noLongerThrottled = new HashSet<>(throttled.partitions);
+			noLongerThrottled.removeAll(toThrottle);
+			resume(consumer, noLongerThrottled, assignment);
+			throttled.partitions.retainAll(toThrottle);
+			// partitions paused for other reasons are left alone
+			toThrottle.removeAll(consumer.paused());
+			consumer.pause(toThrottle);
+			throttled.partitions.addAll(toThrottle);
+		}
+		return -1;
+	}
+
+	private static void resume(Consumer<?, ?> consumer, Set<TopicPartition> partitions,
+			Set<TopicPartition> assignment) {
+
+		Set<TopicPartition> toResume = new HashSet<>(partitions);
+		toResume.retainAll(assignment);
+		if (!toResume.isEmpty()) {
+			consumer.resume(toResume);
+		}
+	}
+
+	private int priority(TopicPartition partition) {
+		return this.priorities.getOrDefault(partition.topic(), 0);
+	}
+
+	private static TopicPartition metricPartition(TopicPartition partition) {
+		String topic = partition.topic();
+		return topic.indexOf('.') < 0 ? partition : new TopicPartition(topic.replace('.', '_'), partition.partition());
+	}
+
+	/*
+	 * The lag of each partition, keyed by the topic name of the metric tags.
+	 */
+	private static Map<TopicPartition, Double> lags(Consumer<?, ?> consumer) {
+		Map<TopicPartition, Double> lags = new HashMap<>();
+		for (Map.Entry<MetricName, ? extends Metric> metric : consumer.metrics().entrySet()) {
+			MetricName name = metric.getKey();
+			if ("records-lag".equals(name.name()) && "consumer-fetch-manager-metrics".equals(name.group())
+					&& name.tags().containsKey("topic") && name.tags().containsKey("partition")) {
+				Object value = metric.getValue().metricValue();
+				if (value instanceof Double && !((Double) value).isNaN()) {
+					lags.put(new TopicPartition(name.tags().get("topic"),
+							Integer.parseInt(name.tags().get("partition"))), (Double) value);
+				}
+			}
+		}
+		return lags;
+	}
+
+	int getThrottledCount() {
+		int throttled = 0;
+		for (Throttled consumerThrottled : this.throttled.values()) {
+			throttled += consumerThrottled.partitions.size();
+		}
+		return throttled;
+	}
+
+	private static final class Throttled {
+
+		private final long since = System.currentTimeMillis();
+
+		private final Set<TopicPartition> partitions = ConcurrentHashMap.newKeySet();
+
+	}
+
+}
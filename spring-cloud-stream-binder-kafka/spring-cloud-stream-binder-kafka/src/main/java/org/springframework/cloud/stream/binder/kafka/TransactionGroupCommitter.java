@@ -0,0 +1,243 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.kafka.clients.producer.ProducerRecord;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+/**
+ * Gathers records sent from many threads into shared transactions, committed by a
+ * single thread when a transaction contains the maximum number of records, or when its
+ * first record has waited for the maximum delay.
+ * <p>
+ * Each record's future completes when its transaction is committed. When a shared
+ * transaction fails, each of its records is retried in a transaction of its own, so that
+ * only the records that fail on their own fail their futures.
+ * <p>
+ * The committer is shared by the producer bindings; it runs while at least one of them is
+ * {@link #start() started}.
+ *
+ * @since 2.1.5
+ */
+class TransactionGroupCommitter implements DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(TransactionGroupCommitter.class);
+
+	private final KafkaTemplate<Object, Object> kafkaTemplate;
+
+	private final int maxRecords;
+
+	private final long maxDelay;
+
+	private final BlockingQueue<PendingRecord> queue = new LinkedBlockingQueue<>();
+
+	private final AtomicLong transactions = new AtomicLong();
+
+	private final AtomicLong records = new AtomicLong();
+
+	private ExecutorService committer;
+
+	private int users;
+
+	private volatile boolean running;
+
+	@SuppressWarnings("unchecked")
+	TransactionGroupCommitter(KafkaTemplate<?, ?> kafkaTemplate, int maxRecords, long maxDelay) {
+		this.kafkaTemplate = (KafkaTemplate<Object, Object>) kafkaTemplate;
+		this.maxRecords = maxRecords;
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * Register a user (producer binding), starting the committer thread if it is the first.
+	 */
+	synchronized void start() {
+		this.users++;
+		if (this.committer == null) {
+			this.running = true;
+			this.committer = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "kafka-group-commit");
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.committer.execute(this::run);
+		}
+	}
+
+	/**
+	 * Unregister a user, stopping the committer thread, after it commits the queued records,
+	 * if it is the last.
+	 */
+	synchronized void stop() {
+		if (this.users > 0 && --this.users == 0) {
+			shutdown();
+		}
+	}
+
+	/**
+	 * Add the record to the next transaction.
+	 * @param record the record.
+	 * @return a future that completes when the transaction is committed.
+	 */
+	ListenableFuture<SendResult<Object, Object>> send(ProducerRecord<Object, Object> record) {
+		PendingRecord pending = new PendingRecord(record);
+		this.queue.add(pending);
+		// re-check, in case the queue was drained when the committer stopped
+		if (!this.running && this.queue.remove(pending)) {
+			throw new IllegalStateException("The group committer is stopped");
+		}
+		return pending.future;
+	}
+
+	long getTransactions() {
+		return this.transactions.get();
+	}
+
+	long getRecords() {
+		return this.records.get();
+	}
+
+	private void run() {
+		List<PendingRecord> group = new ArrayList<>(this.maxRecords);
+		while (this.running || !this.queue.isEmpty()) {
+			try {
+				PendingRecord first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				group.add(first);
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.maxDelay);
+				while (group.size() < this.maxRecords) {
+					long remaining = deadline - System.nanoTime();
+					PendingRecord next = remaining > 0 ? this.queue.poll(remaining, TimeUnit.NANOSECONDS)
+							: this.queue.poll();
+					if (next == null) {
+						break;
+					}
+					group.add(next);
+				}
+			}
+			catch (InterruptedException ex) {
+				// commit what we have and stop
+				this.running = false;
+			}
+			if (!group.isEmpty()) {
+				commit(group);
+				group.clear();
+			}
+		}
+	}
+
+	private void commit(List<PendingRecord> group) {
+		try {
+			commitInTransaction(group);
+		}
+		catch (Exception ex) {
+			if (group.size() == 1) {
+				if (logger.isDebugEnabled()) {
+					logger.debug("Transaction of 1 record failed", ex);
+				}
+				group.get(0).future.setException(ex);
+			}
+			else {
+				if (logger.isDebugEnabled()) {
+					logger.debug("Transaction of " + group.size() + " records failed; retrying each record in a "
+							+ "transaction of its own", ex);
+				}
+				for (PendingRecord pending : group) {
+					commit(Collections.singletonList(pending));
+				}
+			}
+		}
+	}
+
+	private void commitInTransaction(List<PendingRecord> group) throws Exception {
+		List<ListenableFuture<SendResult<Object, Object>>> futures = new ArrayList<>(group.size());
+		this.kafkaTemplate.executeInTransaction(operations -> {
+			for (PendingRecord pending : group) {
+				futures.add(operations.send(pending.record));
+			}
+			return null;
+		});
+		// the commit flushes the producer, so all the sends are complete
+		List<SendResult<Object, Object>> results = new ArrayList<>(group.size());
+		for (ListenableFuture<SendResult<Object, Object>> future : futures) {
+			results.add(future.get());
+		}
+		this.transactions.incrementAndGet();
+		this.records.addAndGet(group.size());
+		for (int i = 0; i < group.size(); i++) {
+			group.get(i).future.set(results.get(i));
+		}
+	}
+
+	@Override
+	public synchronized void destroy() {
+		this.users = 0;
+		shutdown();
+	}
+
+	private void shutdown() {
+		// the committer commits the queued records before it exits
+		this.running = false;
+		if (this.committer != null) {
+			this.committer.shutdown();
+			try {
+				this.committer.awaitTermination(this.maxDelay + 10_000, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			this.committer = null;
+		}
+		PendingRecord pending;
+		while ((pending = this.queue.poll()) != null) {
+			pending.future.setException(new IllegalStateException("The group committer is stopped"));
+		}
+	}
+
+	private static final class PendingRecord {
+
+		private final ProducerRecord<Object, Object> record;
+
+		private final SettableListenableFuture<SendResult<Object, Object>> future =
+				new SettableListenableFuture<>();
+
+		PendingRecord(ProducerRecord<Object, Object> record) {
+			this.record = record;
+		}
+
+	}
+
+}
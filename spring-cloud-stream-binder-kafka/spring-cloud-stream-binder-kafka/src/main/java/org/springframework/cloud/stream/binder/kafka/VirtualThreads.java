@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * Creates virtual threads, when the JVM supports them (Java 21 or later), through
+ * reflection since the binder is compiled for Java 8.
+ *
+ * @since 2.1.5
+ */
+final class VirtualThreads {
+
+	private static final Method OF_VIRTUAL;
+
+	private static final Method NAME;
+
+	private static final Method FACTORY;
+
+	static {
+		Method ofVirtual = null;
+		Method name = null;
+		Method factory = null;
+		try {
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			name = builder.getMethod("name", String.class, long.class);
+			factory = builder.getMethod("factory");
+			// fails if virtual threads are a disabled preview feature
+			ofVirtual.invoke(null);
+		}
+		catch (Exception | LinkageError ex) {
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		NAME = name;
+		FACTORY = factory;
+	}
+
+	private VirtualThreads() {
+		super();
+	}
+
+	static boolean isSupported() {
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * Return a factory for virtual threads named with the prefix and a counter.
+	 * @param prefix the thread name prefix.
+	 * @return the factory, or null if virtual threads are not supported.
+	 */
+	@Nullable
+	static ThreadFactory threadFactory(String prefix) {
+		if (OF_VIRTUAL == null) {
+			return null;
+		}
+		try {
+			Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), prefix, 0L);
+			return (ThreadFactory) FACTORY.invoke(builder);
+		}
+		catch (ReflectiveOperationException ex) {
+			throw new IllegalStateException("Failed to create a virtual thread factory", ex);
+		}
+	}
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.Test;
+
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaProducerProperties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @since 2.1.5
+ */
+public class AdaptiveBatchingTunerTests {
+
+	private final Map<MetricName, Metric> metrics = new HashMap<>();
+
+	@Test
+	public void testBatchingGrowsWhileBelowTargetAndShrinksAbove() {
+		AdaptiveProducerFactory producerFactory = producerFactory();
+		AdaptiveBatchingTuner tuner = producerFactory.getTuner(AdaptiveBatchingTuner.class);
+		tuner.tune(producerFactory);
+		assertThat(tuner.getAdjustments()).isEqualTo(0);
+
+		metrics(1000, 16384, 2, 5);
+		tuner.tune(producerFactory);
+		assertThat(tuner.getBatchSize()).isEqualTo(32768);
+		assertThat(tuner.getLingerMs()).isEqualTo(0);
+
+		metrics(1000, 1000, 2, 5);
+		tuner.tune(producerFactory);
+		assertThat(tuner.getBatchSize()).isEqualTo(32768);
+		assertThat(tuner.getLingerMs()).isEqualTo(1);
+		tuner.tune(producerFactory);
+		assertThat(tuner.getLingerMs()).isEqualTo(2);
+
+		metrics(1000, 1000, 80, 50);
+		tuner.tune(producerFactory);
+		assertThat(tuner.getLingerMs()).isEqualTo(1);
+		tuner.tune(producerFactory);
+		tuner.tune(producerFactory);
+		assertThat(tuner.getLingerMs()).isEqualTo(0);
+		assertThat(tuner.getBatchSize()).isEqualTo(16384);
+		tuner.tune(producerFactory);
+		assertThat(tuner.getBatchSize()).isEqualTo(16384);
+		assertThat(tuner.getAdjustments()).isEqualTo(6);
+		assertThat(producerFactory.getConfiguration(ProducerConfig.BATCH_SIZE_CONFIG)).isEqualTo(16384);
+		assertThat(producerFactory.getConfiguration(ProducerConfig.LINGER_MS_CONFIG)).isEqualTo(0);
+		producerFactory.stop();
+	}
+
+	private AdaptiveProducerFactory producerFactory() {
+		Map<String, Object> configs = new HashMap<>();
+		configs.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+		configs.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+		configs.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+		configs.put(ProducerConfig.BATCH_SIZE_CONFIG, "16384");
+		configs.put(ProducerConfig.LINGER_MS_CONFIG, "0");
+		KafkaProducerProperties.AdaptiveBatching properties = new KafkaProducerProperties.AdaptiveBatching();
+		properties.setTargetLatency(100);
+		AdaptiveProducerFactory producerFactory = new AdaptiveProducerFactory(configs, "test") {
+
+			@Override
+			Map<MetricName, ? extends Metric> metrics() {
+				return AdaptiveBatchingTunerTests.this.metrics;
+			}
+
+		};
+		producerFactory.addTuner(new AdaptiveBatchingTuner(configs, properties));
+		return producerFactory;
+	}
+
+	private void metrics(double sendRate, double batchSizeAvg, double queueTime, double requestLatency) {
+		metric("record-send-rate", sendRate);
+		metric("batch-size-avg", batchSizeAvg);
+		metric("record-queue-time-avg", queueTime);
+		metric("request-latency-avg", requestLatency);
+	}
+
+	private void metric(String name, double value) {
+		MetricName metricName = new MetricName(name, "producer-metrics", "", Collections.emptyMap());
+		this.metrics.put(metricName, new Metric() {
+
+			@Override
+			public MetricName metricName() {
+				return metricName;
+			}
+
+			@Override
+			@Deprecated
+			public double value() {
+				return value;
+			}
+
+			@Override
+			public Object metricValue() {
+				return value;
+			}
+
+		});
+	}
+
+}
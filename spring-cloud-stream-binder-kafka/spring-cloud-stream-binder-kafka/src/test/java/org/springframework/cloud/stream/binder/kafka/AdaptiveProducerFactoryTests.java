@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @since 2.1.5
+ */
+public class AdaptiveProducerFactoryTests {
+
+	@Test
+	public void testEachRetiredProducerIsClosedAfterItsGracePeriod() {
+		AdaptiveProducerFactory producerFactory = new AdaptiveProducerFactory(configs(), "test");
+		Producer<byte[], byte[]> first = producerFactory.createProducer();
+		producerFactory.reconfigure(Collections.singletonMap(ProducerConfig.LINGER_MS_CONFIG, 5));
+		Producer<byte[], byte[]> second = producerFactory.createProducer();
+		producerFactory.reconfigure(Collections.singletonMap(ProducerConfig.LINGER_MS_CONFIG, 10));
+		Producer<byte[], byte[]> third = producerFactory.createProducer();
+		assertThat(second).isNotSameAs(first);
+		assertThat(third).isNotSameAs(second);
+		// the second reconfiguration, within the grace period of the first, does not close the first producer
+		assertOpen(first);
+		assertOpen(second);
+		producerFactory.stop();
+		assertClosed(first);
+		assertClosed(second);
+		assertClosed(third);
+	}
+
+	@Test
+	public void testRetiredProducerIsClosedWithoutFurtherSends() throws Exception {
+		AdaptiveProducerFactory producerFactory = new AdaptiveProducerFactory(configs(), "test", 100);
+		producerFactory.start();
+		Producer<byte[], byte[]> first = producerFactory.createProducer();
+		producerFactory.reconfigure(Collections.singletonMap(ProducerConfig.LINGER_MS_CONFIG, 5));
+		long until = System.currentTimeMillis() + 10_000;
+		while (!isClosed(first) && System.currentTimeMillis() < until) {
+			Thread.sleep(50);
+		}
+		assertClosed(first);
+		producerFactory.stop();
+	}
+
+	@Test
+	public void testTunersRunOnTheSchedulerThread() throws Exception {
+		AdaptiveProducerFactory producerFactory = new AdaptiveProducerFactory(configs(), "test");
+		CountDownLatch latch = new CountDownLatch(2);
+		List<String> threads = new CopyOnWriteArrayList<>();
+		producerFactory.addTuner(new AdaptiveProducerFactory.Tuner() {
+
+			@Override
+			public long getInterval() {
+				return 10;
+			}
+
+			@Override
+			public void tune(AdaptiveProducerFactory factory) {
+				threads.add(Thread.currentThread().getName());
+				latch.countDown();
+			}
+
+		});
+		producerFactory.start();
+		assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+		producerFactory.stop();
+		assertThat(producerFactory.isRunning()).isFalse();
+		assertThat(threads).allMatch("adaptive-producer-test"::equals);
+	}
+
+	@Test
+	public void testMetricsDoNotCreateAProducer() {
+		AdaptiveProducerFactory producerFactory = new AdaptiveProducerFactory(configs(), "test");
+		assertThat(producerFactory.metrics()).isEmpty();
+		Producer<byte[], byte[]> producer = producerFactory.createProducer();
+		assertThat(producerFactory.metrics()).isNotEmpty();
+		producerFactory.reconfigure(Collections.singletonMap(ProducerConfig.LINGER_MS_CONFIG, 5));
+		assertThat(producerFactory.metrics()).isEmpty();
+		assertThat(producerFactory.createProducer()).isNotSameAs(producer);
+		assertThat(producerFactory.metrics()).isNotEmpty();
+		producerFactory.stop();
+		assertThat(producerFactory.metrics()).isEmpty();
+	}
+
+	private static void assertOpen(Producer<byte[], byte[]> producer) {
+		// the send times out waiting for metadata instead of being rejected
+		assertThatThrownBy(() -> producer.send(new ProducerRecord<>("foo", "bar".getBytes())).get())
+				.hasCauseInstanceOf(TimeoutException.class);
+	}
+
+	private static boolean isClosed(Producer<byte[], byte[]> producer) {
+		try {
+			producer.send(new ProducerRecord<>("foo", "bar".getBytes()));
+			return false;
+		}
+		catch (IllegalStateException ex) {
+			return true;
+		}
+	}
+
+	private static void assertClosed(Producer<byte[], byte[]> producer) {
+		assertThatThrownBy(() -> producer.send(new ProducerRecord<>("foo", "bar".getBytes())))
+				.isInstanceOf(IllegalStateException.class);
+	}
+
+	private static Map<String, Object> configs() {
+		Map<String, Object> configs = new HashMap<>();
+		configs.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+		configs.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+		configs.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+		configs.put(ProducerConfig.MAX_BLOCK_MS_CONFIG, 1);
+		return configs;
+	}
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.Test;
+
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaProducerProperties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @since 2.1.5
+ */
+public class CompressionTunerTests {
+
+	private static final byte[] JSON = ("{\"id\":12345,\"name\":\"some customer name\",\"status\":\"ACTIVE\","
+			+ "\"tags\":[\"a\",\"b\",\"c\"]}").getBytes();
+
+	@Test
+	public void testCompressibleTrafficSelectsCodecWithinBudget() {
+		KafkaProducerProperties.AutoCompression properties = new KafkaProducerProperties.AutoCompression();
+		properties.setCpuBudget(1000);
+		AdaptiveProducerFactory producerFactory = producerFactory(properties);
+		CompressionTuner tuner = producerFactory.getTuner(CompressionTuner.class);
+		for (int i = 0; i < 1000; i++) {
+			tuner.sample(JSON);
+		}
+		tuner.tune(producerFactory);
+		assertThat(tuner.getCodec()).isNotEqualTo("none");
+		assertThat(tuner.getRatio()).isLessThan(0.5);
+		assertThat(tuner.getSwitches()).isEqualTo(1);
+		assertThat(producerFactory.getConfiguration(ProducerConfig.COMPRESSION_TYPE_CONFIG))
+				.isEqualTo(tuner.getCodec());
+		producerFactory.stop();
+	}
+
+	@Test
+	public void testNoCodecWithinZeroBudget() {
+		KafkaProducerProperties.AutoCompression properties = new KafkaProducerProperties.AutoCompression();
+		properties.setCpuBudget(0);
+		AdaptiveProducerFactory producerFactory = producerFactory(properties);
+		CompressionTuner tuner = producerFactory.getTuner(CompressionTuner.class);
+		for (int i = 0; i < 1000; i++) {
+			tuner.sample(JSON);
+		}
+		tuner.tune(producerFactory);
+		assertThat(tuner.getCodec()).isEqualTo("none");
+		assertThat(tuner.getSwitches()).isEqualTo(0);
+		producerFactory.stop();
+	}
+
+	private AdaptiveProducerFactory producerFactory(KafkaProducerProperties.AutoCompression properties) {
+		Map<String, Object> configs = new HashMap<>();
+		configs.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+		configs.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+		configs.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+		configs.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "none");
+		AdaptiveProducerFactory producerFactory = new AdaptiveProducerFactory(configs, "test");
+		producerFactory.addTuner(new CompressionTuner("none", properties));
+		return producerFactory;
+	}
+
+}
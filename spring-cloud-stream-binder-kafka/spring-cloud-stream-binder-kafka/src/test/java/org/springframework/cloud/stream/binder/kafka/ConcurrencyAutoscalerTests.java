@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaConsumerProperties;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.ContainerProperties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @since 2.1.5
+ */
+public class ConcurrencyAutoscalerTests {
+
+	@Test
+	public void testScaleUpRequiresStableHighLagAndUtilization() {
+		ConcurrencyAutoscaler autoscaler = autoscaler(2);
+		assertThat(autoscaler.decide(5000, 0.9, 0)).isEqualTo(2);
+		assertThat(autoscaler.decide(6000, 0.9, 10)).isEqualTo(2);
+		// lag decreasing: the current consumers are catching up
+		assertThat(autoscaler.decide(5500, 0.9, 20)).isEqualTo(2);
+		assertThat(autoscaler.decide(5500, 0.9, 30)).isEqualTo(2);
+		assertThat(autoscaler.decide(5600, 0.5, 40)).isEqualTo(2);
+		assertThat(autoscaler.decide(5700, 0.9, 50)).isEqualTo(2);
+		assertThat(autoscaler.decide(5800, 0.9, 60)).isEqualTo(2);
+		assertThat(autoscaler.decide(5900, 0.9, 70)).isEqualTo(3);
+	}
+
+	@Test
+	public void testScaleDownRequiresStableLowLagAndUtilization() {
+		ConcurrencyAutoscaler autoscaler = autoscaler(2);
+		assertThat(autoscaler.decide(10, 0.1, 0)).isEqualTo(2);
+		assertThat(autoscaler.decide(10, 0.1, 10)).isEqualTo(2);
+		assertThat(autoscaler.decide(500, 0.1, 20)).isEqualTo(2);
+		assertThat(autoscaler.decide(10, 0.1, 30)).isEqualTo(2);
+		assertThat(autoscaler.decide(10, 0.1, 40)).isEqualTo(2);
+		assertThat(autoscaler.decide(10, 0.1, 50)).isEqualTo(1);
+	}
+
+	@Test
+	public void testCooldownAndBounds() {
+		ConcurrencyAutoscaler autoscaler = autoscaler(3);
+		for (int i = 0; i < 2; i++) {
+			autoscaler.decide(5000, 0.9, i);
+		}
+		assertThat(autoscaler.decide(5000, 0.9, 2)).isEqualTo(4);
+		ConcurrencyAutoscaler max = autoscaler(4);
+		for (int i = 0; i < 10; i++) {
+			assertThat(max.decide(5000 + i, 0.9, i * 1000)).isEqualTo(4);
+		}
+		ConcurrencyAutoscaler min = autoscaler(1);
+		for (int i = 0; i < 10; i++) {
+			assertThat(min.decide(0, 0, i * 1000)).isEqualTo(1);
+		}
+		ConcurrencyAutoscaler cooling = autoscaler(2);
+		for (int i = 0; i < 3; i++) {
+			cooling.decide(0, 0, i);
+		}
+		// the concurrency is only changed by the caller; still within the cooldown
+		for (int i = 3; i < 10; i++) {
+			assertThat(cooling.decide(0, 0, i)).isEqualTo(2);
+		}
+		assertThat(cooling.decide(0, 0, 1002)).isEqualTo(1);
+	}
+
+	private ConcurrencyAutoscaler autoscaler(int concurrency) {
+		@SuppressWarnings("unchecked")
+		ConcurrentMessageListenerContainer<byte[], byte[]> container =
+				new ConcurrentMessageListenerContainer<>(mock(ConsumerFactory.class), new ContainerProperties("foo"));
+		container.setConcurrency(concurrency);
+		KafkaConsumerProperties.Autoscaling properties = new KafkaConsumerProperties.Autoscaling();
+		properties.setEnabled(true);
+		properties.setCooldown(1000);
+		return new ConcurrencyAutoscaler(container, mock(ConsumerFactory.class), "group",
+				Collections.singletonList("foo"), properties, 1, 4);
+	}
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @since 2.1.5
+ */
+public class ConsumerMemoryBudgetTests {
+
+	@Test
+	public void testConsumersPauseWhileOtherConsumersHoldTheBudget() {
+		ConsumerMemoryBudget budget = new ConsumerMemoryBudget(100, 50, false);
+		MockConsumer<byte[], byte[]> mock0 = consumer(0);
+		MockConsumer<byte[], byte[]> mock1 = consumer(1);
+		Consumer<byte[], byte[]> consumer0 = InterceptingConsumerFactory.intercepted(mock0, budget);
+		Consumer<byte[], byte[]> consumer1 = InterceptingConsumerFactory.intercepted(mock1, budget);
+		mock0.addRecord(record(0, 0, 60));
+		mock0.addRecord(record(0, 1, 60));
+		assertThat(consumer0.poll(Duration.ZERO).count()).isEqualTo(2);
+		assertThat(budget.getUsed()).isEqualTo(120);
+		consumer1.poll(Duration.ZERO);
+		assertThat(mock1.paused()).containsExactly(new TopicPartition("foo", 1));
+		assertThat(budget.getPauses()).isEqualTo(1);
+		// the records of consumer 0 are processed
+		consumer0.poll(Duration.ZERO);
+		assertThat(budget.getUsed()).isEqualTo(0);
+		assertThat(mock0.paused()).isEmpty();
+		consumer1.poll(Duration.ZERO);
+		assertThat(mock1.paused()).isEmpty();
+		assertThat(budget.getPausedTime(TimeUnit.NANOSECONDS)).isGreaterThan(0);
+	}
+
+	@Test
+	public void testHandedOffRecordsAreReleasedWhenProcessed() {
+		ConsumerMemoryBudget budget = new ConsumerMemoryBudget(100, 50, true);
+		MockConsumer<byte[], byte[]> mock = consumer(0);
+		Consumer<byte[], byte[]> consumer = InterceptingConsumerFactory.intercepted(mock, budget);
+		mock.addRecord(record(0, 0, 40));
+		mock.addRecord(record(0, 1, 40));
+		mock.addRecord(record(0, 2, 40));
+		consumer.poll(Duration.ZERO);
+		TopicPartition partition = new TopicPartition("foo", 0);
+		long first = budget.take(partition, 0);
+		assertThat(first).isEqualTo(40);
+		consumer.poll(Duration.ZERO);
+		assertThat(mock.paused()).containsExactly(partition);
+		budget.release(first);
+		consumer.poll(Duration.ZERO);
+		assertThat(mock.paused()).containsExactly(partition);
+		// offset 1 was not handed off
+		assertThat(budget.take(partition, 2)).isEqualTo(40);
+		assertThat(budget.getUsed()).isEqualTo(40);
+		consumer.poll(Duration.ZERO);
+		assertThat(mock.paused()).isEmpty();
+	}
+
+	private static MockConsumer<byte[], byte[]> consumer(int partition) {
+		MockConsumer<byte[], byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+		TopicPartition topicPartition = new TopicPartition("foo", partition);
+		consumer.assign(Collections.singletonList(topicPartition));
+		consumer.updateBeginningOffsets(Collections.singletonMap(topicPartition, 0L));
+		return consumer;
+	}
+
+	private static ConsumerRecord<byte[], byte[]> record(int partition, long offset, int size) {
+		return new ConsumerRecord<>("foo", partition, offset, 0L, TimestampType.CREATE_TIME, 0L, -1, size, null,
+				new byte[size]);
+	}
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import org.springframework.cloud.stream.binder.BinderHeaders;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.integration.expression.ExpressionUtils;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+
+/**
+ * Measures the time taken to evaluate the partition and message key expressions of an
+ * outbound record with SpEL and with the accessors of {@link FastPathExpressions}.
+ * <p>
+ * Not a test; run the {@link #main(String[])} method with the test classpath, for
+ * example:
+ * <pre class="code">
+ * mvn -pl spring-cloud-stream-binder-kafka test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.springframework.cloud.stream.binder.kafka.FastPathExpressionsBenchmark
+ * </pre>
+ *
+ * @since 2.1.5
+ */
+public final class FastPathExpressionsBenchmark {
+
+	private static final int ITERATIONS = 5_000_000;
+
+	private static final String[] EXPRESSIONS = { "headers['" + BinderHeaders.PARTITION_HEADER + "']",
+			"headers['key']", "payload.bar" };
+
+	private FastPathExpressionsBenchmark() {
+		super();
+	}
+
+	public static void main(String[] args) {
+		SpelExpressionParser parser = new SpelExpressionParser();
+		EvaluationContext evaluationContext = ExpressionUtils.createStandardEvaluationContext();
+		Message<Foo> message = MessageBuilder.withPayload(new Foo("bar"))
+				.setHeader(BinderHeaders.PARTITION_HEADER, 1)
+				.setHeader("key", "baz")
+				.build();
+		for (String expressionString : EXPRESSIONS) {
+			Expression expression = parser.parseExpression(expressionString);
+			long spel = run(expression, evaluationContext, message);
+			long fastPath = run(FastPathExpressions.optimize(expression), evaluationContext, message);
+			System.out.println(expressionString + ": " + spel + " ns (SpEL), " + fastPath + " ns (fast path)");
+		}
+	}
+
+	/*
+	 * Return the time (ns) per evaluation, after as many evaluations to warm up.
+	 */
+	private static long run(Expression expression, EvaluationContext evaluationContext, Message<?> message) {
+		Object value = null;
+		for (int i = 0; i < ITERATIONS; i++) {
+			value = expression.getValue(evaluationContext, message);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			value = expression.getValue(evaluationContext, message);
+		}
+		long time = (System.nanoTime() - start) / ITERATIONS;
+		if (value == null) {
+			throw new IllegalStateException("Not resolved: " + expression.getExpressionString());
+		}
+		return time;
+	}
+
+	public static class Foo {
+
+		private final String bar;
+
+		public Foo(String bar) {
+			this.bar = bar;
+		}
+
+		public String getBar() {
+			return this.bar;
+		}
+
+	}
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.SpelEvaluationException;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.integration.expression.ExpressionUtils;
+import org.springframework.integration.expression.FunctionExpression;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @since 2.1.5
+ */
+public class FastPathExpressionsTests {
+
+	private final SpelExpressionParser parser = new SpelExpressionParser();
+
+	private final EvaluationContext evaluationContext = ExpressionUtils.createStandardEvaluationContext();
+
+	private final Message<Foo> message = MessageBuilder.withPayload(new Foo("bar"))
+			.setHeader("key", "baz")
+			.setHeader("partition", "1")
+			.build();
+
+	@Test
+	public void testSimpleExpressionsUseAccessors() {
+		assertOptimized("headers['key']", "baz");
+		assertOptimized("headers[\"key\"]", "baz");
+		assertOptimized("headers.key", "baz");
+		assertOptimized("headers.get('key')", "baz");
+		assertOptimized("headers['missing']", null);
+		assertOptimized("payload.bar", "bar");
+		assertOptimized("payload.nested.bar", "qux");
+		assertOptimized("payload.map.key", "value");
+		Expression expression = FastPathExpressions.optimize(this.parser.parseExpression("headers['partition']"));
+		assertThat(expression.getValue(this.evaluationContext, this.message, Integer.class)).isEqualTo(1);
+	}
+
+	@Test
+	public void testComplexExpressionsAreNotOptimized() {
+		Expression expression = this.parser.parseExpression("headers['key'] + payload.bar");
+		assertThat(FastPathExpressions.optimize(expression)).isSameAs(expression);
+		assertThat(FastPathExpressions.optimize(null)).isNull();
+	}
+
+	@Test
+	public void testUnresolvedPathsFallBackToSpel() {
+		Expression expression = FastPathExpressions.optimize(this.parser.parseExpression("payload.nope"));
+		assertThatThrownBy(() -> expression.getValue(this.evaluationContext, this.message))
+				.isInstanceOf(SpelEvaluationException.class);
+		Expression nullSafe = FastPathExpressions.optimize(this.parser.parseExpression("payload.empty.bar"));
+		assertThatThrownBy(() -> nullSafe.getValue(this.evaluationContext, this.message))
+				.isInstanceOf(SpelEvaluationException.class);
+	}
+
+	private void assertOptimized(String expressionString, Object expected) {
+		Expression spel = this.parser.parseExpression(expressionString);
+		Expression optimized = FastPathExpressions.optimize(spel);
+		assertThat(optimized).isInstanceOf(FunctionExpression.class);
+		assertThat(optimized.getExpressionString()).isEqualTo(expressionString);
+		assertThat(optimized.getValue(this.evaluationContext, this.message))
+				.isEqualTo(spel.getValue(this.evaluationContext, this.message))
+				.isEqualTo(expected);
+	}
+
+	public static class Foo {
+
+		private final String bar;
+
+		public Foo(String bar) {
+			this.bar = bar;
+		}
+
+		public String getBar() {
+			return this.bar;
+		}
+
+		public Foo getNested() {
+			return new Foo("qux");
+		}
+
+		public Foo getEmpty() {
+			return null;
+		}
+
+		public java.util.Map<String, String> getMap() {
+			return Collections.singletonMap("key", "value");
+		}
+
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.Test;
+
+import org.springframework.messaging.MessageHeaders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @since 2.1.5
+ */
+public class HeaderRecordFilterStrategyTests {
+
+	@Test
+	public void testRecordsAreDiscardedUnlessEachHeaderHasAnAcceptedValue() {
+		Map<String, String> acceptedValues = new LinkedHashMap<>();
+		acceptedValues.put("eventType", "created, cancelled");
+		acceptedValues.put("region", "eu");
+		HeaderRecordFilterStrategy filter = new HeaderRecordFilterStrategy(acceptedValues);
+		assertThat(filter.filter(record("created", "eu"))).isFalse();
+		assertThat(filter.filter(record("cancelled", "eu"))).isFalse();
+		assertThat(filter.filter(record("updated", "eu"))).isTrue();
+		assertThat(filter.filter(record("created", "us"))).isTrue();
+		assertThat(filter.filter(record("created", null))).isTrue();
+		assertThat(filter.getEvaluated()).isEqualTo(5);
+		assertThat(filter.getDiscarded()).isEqualTo(3);
+	}
+
+	@Test
+	public void testTheLastHeaderValueIsUsed() {
+		HeaderRecordFilterStrategy filter = new HeaderRecordFilterStrategy(
+				Collections.singletonMap("eventType", "created"));
+		ConsumerRecord<Object, Object> record = record("updated", null);
+		record.headers().add("eventType", "created".getBytes(StandardCharsets.UTF_8));
+		assertThat(filter.filter(record)).isFalse();
+		record.headers().add("eventType", "updated".getBytes(StandardCharsets.UTF_8));
+		assertThat(filter.filter(record)).isTrue();
+	}
+
+	@Test
+	public void testHeadersMappedByTheBinderAreAccepted() {
+		HeaderRecordFilterStrategy filter = new HeaderRecordFilterStrategy(
+				Collections.singletonMap("eventType", "OrderCreated"));
+		ConsumerRecord<Object, Object> record = new ConsumerRecord<>("foo", 0, 0, null, "bar".getBytes());
+		new BinderHeaderMapper().fromHeaders(new MessageHeaders(Collections.singletonMap("eventType",
+				"OrderCreated")), record.headers());
+		assertThat(filter.filter(record)).isFalse();
+		record = new ConsumerRecord<>("foo", 0, 0, null, "bar".getBytes());
+		new BinderHeaderMapper().fromHeaders(new MessageHeaders(Collections.singletonMap("eventType",
+				"OrderCancelled")), record.headers());
+		assertThat(filter.filter(record)).isTrue();
+	}
+
+	private static ConsumerRecord<Object, Object> record(String eventType, String region) {
+		ConsumerRecord<Object, Object> record = new ConsumerRecord<>("foo", 0, 0, null, "bar".getBytes());
+		record.headers().add("eventType", eventType.getBytes(StandardCharsets.UTF_8));
+		if (region != null) {
+			record.headers().add("region", region.getBytes(StandardCharsets.UTF_8));
+		}
+		return record;
+	}
+
+}
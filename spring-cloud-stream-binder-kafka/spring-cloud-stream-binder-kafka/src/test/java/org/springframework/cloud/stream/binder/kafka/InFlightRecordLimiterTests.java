@@ -0,0 +1,91 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.Test;
+
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaProducerProperties.BackPressure;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @since 2.1.5
+ */
+public class InFlightRecordLimiterTests {
+
+	@Test
+	public void testRejectWhenWindowFull() {
+		InFlightRecordLimiter limiter = new InFlightRecordLimiter(2, BackPressure.reject, 0);
+		limiter.acquire();
+		limiter.acquire();
+		assertThat(limiter.getInFlight()).isEqualTo(2);
+		assertThatThrownBy(limiter::acquire).isInstanceOf(IllegalStateException.class);
+		assertThat(limiter.getRejected()).isEqualTo(1);
+		limiter.release();
+		limiter.acquire();
+		assertThat(limiter.getInFlight()).isEqualTo(2);
+	}
+
+	@Test
+	public void testTimeoutWhenWindowFull() {
+		InFlightRecordLimiter limiter = new InFlightRecordLimiter(1, BackPressure.timeout, 50);
+		limiter.acquire();
+		assertThatThrownBy(limiter::acquire).isInstanceOf(IllegalStateException.class);
+		assertThat(limiter.getWaits()).isEqualTo(1);
+		assertThat(limiter.getWaitTime(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(40);
+		assertThat(limiter.getRejected()).isEqualTo(1);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testPermitReleasedWhenSendCompletes() {
+		MockProducer<byte[], byte[]> producer = new MockProducer<byte[], byte[]>(false, new ByteArraySerializer(),
+				new ByteArraySerializer()) {
+
+			@Override
+			public void close() {
+				// the template closes the producer after each send
+			}
+
+		};
+		ProducerFactory<byte[], byte[]> producerFactory = mock(ProducerFactory.class);
+		given(producerFactory.createProducer()).willReturn(producer);
+		InFlightRecordLimiter limiter = new InFlightRecordLimiter(1, BackPressure.reject, 0);
+		KafkaTemplate<byte[], byte[]> template = new InFlightRecordLimiter.LimitingKafkaTemplate<>(producerFactory,
+				limiter);
+		template.send(new ProducerRecord<>("foo", "bar".getBytes()));
+		assertThat(limiter.getInFlight()).isEqualTo(1);
+		assertThatThrownBy(() -> template.send(new ProducerRecord<>("foo", "baz".getBytes())))
+				.isInstanceOf(IllegalStateException.class);
+		producer.completeNext();
+		assertThat(limiter.getInFlight()).isEqualTo(0);
+		template.send(new ProducerRecord<>("foo", "baz".getBytes()));
+		producer.errorNext(new RuntimeException("test"));
+		assertThat(limiter.getInFlight()).isEqualTo(0);
+	}
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaderMapper;
+import org.springframework.kafka.support.converter.MessagingMessageConverter;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Measures the bytes allocated and the time taken to convert an inbound record to a
+ * message, with {@code standardHeaders=both}:
+ * <ul>
+ * <li>before: the stock spring-kafka {@link MessagingMessageConverter}, with the
+ * {@link BinderHeaderMapper}'s previous inbound decoding (the types header and each typed
+ * header decoded by Jackson for every record), see {@link PreviousHeaderMapper};</li>
+ * <li>mapper: the stock converter with the current {@link BinderHeaderMapper};</li>
+ * <li>after: the binder's default converter with the current {@link BinderHeaderMapper}.</li>
+ * </ul>
+ * The record has a 10 byte value and two String headers, written by the
+ * {@link BinderHeaderMapper}.
+ * <p>
+ * Not a test; run the {@link #main(String[])} method with the test classpath, for
+ * example:
+ * <pre class="code">
+ * mvn -pl spring-cloud-stream-binder-kafka test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.springframework.cloud.stream.binder.kafka.InboundConversionAllocationBenchmark
+ * </pre>
+ * Allocations are read from the JVM's per-thread allocation counter, so the results do
+ * not depend on the garbage collector.
+ *
+ * @since 2.1.5
+ */
+public final class InboundConversionAllocationBenchmark {
+
+	private static final int ITERATIONS = 2_000_000;
+
+	private InboundConversionAllocationBenchmark() {
+		super();
+	}
+
+	public static void main(String[] args) {
+		Map<String, Object> headers = new HashMap<>();
+		headers.put("contentType", "application/json");
+		headers.put("eventType", "OrderCreated");
+		Headers recordHeaders = new RecordHeaders();
+		new BinderHeaderMapper().fromHeaders(new MessageHeaders(headers), recordHeaders);
+		ConsumerRecord<byte[], byte[]> record = new ConsumerRecord<>("foo", 0, 42L, 0L, TimestampType.CREATE_TIME,
+				0L, 3, 10, "key".getBytes(), "0123456789".getBytes(), recordHeaders);
+
+		run("before", converter(new MessagingMessageConverter(), new PreviousHeaderMapper()), record);
+		run("mapper", converter(new MessagingMessageConverter(), new BinderHeaderMapper()), record);
+		run("after", converter(new InboundMessagingMessageConverter(), new BinderHeaderMapper()), record);
+	}
+
+	private static MessagingMessageConverter converter(MessagingMessageConverter converter,
+			KafkaHeaderMapper headerMapper) {
+
+		converter.setGenerateMessageId(true);
+		converter.setGenerateTimestamp(true);
+		converter.setHeaderMapper(headerMapper);
+		return converter;
+	}
+
+	private static void run(String name, MessagingMessageConverter converter, ConsumerRecord<?, ?> record) {
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		Acknowledgment acknowledgment = () -> { };
+		Message<?> message = null;
+		// warm up
+		for (int i = 0; i < ITERATIONS; i++) {
+			message = converter.toMessage(record, acknowledgment, null, null);
+		}
+		long bytes = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			message = converter.toMessage(record, acknowledgment, null, null);
+		}
+		long time = System.nanoTime() - start;
+		bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+		System.out.println(name + ": " + bytes / ITERATIONS + " B/record, " + time / ITERATIONS + " ns/record ("
+				+ message.getHeaders().size() + " headers)");
+	}
+
+	/**
+	 * The inbound decoding of the {@link BinderHeaderMapper} before the types header was
+	 * cached and plain String headers were decoded without Jackson.
+	 */
+	private static final class PreviousHeaderMapper extends BinderHeaderMapper {
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public void toHeaders(Headers source, Map<String, Object> headers) {
+			Map<String, String> jsonTypes = null;
+			Header typesHeader = source.lastHeader(JSON_TYPES);
+			if (typesHeader != null) {
+				try {
+					jsonTypes = getObjectMapper().readValue(typesHeader.value(), Map.class);
+				}
+				catch (IOException ex) {
+					throw new IllegalStateException(ex);
+				}
+			}
+			for (Header header : source) {
+				if (header.key().equals(JSON_TYPES)) {
+					continue;
+				}
+				String requestedType = jsonTypes != null ? jsonTypes.get(header.key()) : null;
+				if (requestedType != null && trusted(requestedType)) {
+					try {
+						headers.put(header.key(), getObjectMapper().readValue(header.value(),
+								ClassUtils.forName(requestedType, null)));
+					}
+					catch (IOException | ClassNotFoundException ex) {
+						throw new IllegalStateException(ex);
+					}
+				}
+				else if (requestedType != null) {
+					headers.put(header.key(), new NonTrustedHeaderType(header.value(), requestedType));
+				}
+				else {
+					headers.put(header.key(), header.value());
+				}
+			}
+		}
+
+	}
+
+}
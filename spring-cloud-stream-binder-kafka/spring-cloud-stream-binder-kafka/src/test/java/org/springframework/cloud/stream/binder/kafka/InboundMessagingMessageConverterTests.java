@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.Test;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.util.MimeType;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @since 2.1.5
+ */
+public class InboundMessagingMessageConverterTests {
+
+	@Test
+	public void testIdsAreSequential() {
+		InboundMessagingMessageConverter converter = new InboundMessagingMessageConverter();
+		converter.setGenerateMessageId(true);
+		UUID first = converter.toMessage(record(new RecordHeaders()), null, null, null).getHeaders().getId();
+		UUID second = converter.toMessage(record(new RecordHeaders()), null, null, null).getHeaders().getId();
+		assertThat(second.getMostSignificantBits()).isEqualTo(first.getMostSignificantBits());
+		assertThat(second.getLeastSignificantBits()).isEqualTo(first.getLeastSignificantBits() + 1);
+		converter.setGenerateMessageId(false);
+		assertThat(converter.toMessage(record(new RecordHeaders()), null, null, null).getHeaders())
+				.doesNotContainKey(MessageHeaders.ID);
+	}
+
+	@Test
+	public void testHeadersAreDecodedWithOrWithoutTheFastPath() {
+		Map<String, Object> headers = new HashMap<>();
+		headers.put("plain", "application/json");
+		headers.put("escaped", "a \"quoted\"\\value");
+		headers.put("unicode", "caf\u00e9");
+		headers.put("number", 42);
+		headers.put("mime", MimeType.valueOf("text/plain"));
+		Headers recordHeaders = new RecordHeaders();
+		new BinderHeaderMapper().fromHeaders(new MessageHeaders(headers), recordHeaders);
+		InboundMessagingMessageConverter converter = new InboundMessagingMessageConverter();
+		converter.setHeaderMapper(new BinderHeaderMapper());
+		for (int i = 0; i < 2; i++) {
+			// the second time, with the cached types
+			Message<?> message = converter.toMessage(record(recordHeaders), null, null, null);
+			assertThat(message.getHeaders())
+					.containsEntry("plain", "application/json")
+					.containsEntry("escaped", "a \"quoted\"\\value")
+					.containsEntry("unicode", "caf\u00e9")
+					.containsEntry("number", 42)
+					.containsEntry("mime", "text/plain")
+					.doesNotContainKey(BinderHeaderMapper.JSON_TYPES);
+		}
+	}
+
+	private static ConsumerRecord<byte[], byte[]> record(Headers headers) {
+		return new ConsumerRecord<>("foo", 0, 0L, 0L, TimestampType.CREATE_TIME, 0L, 0, 3, null, "bar".getBytes(),
+				headers);
+	}
+
+}
@@ -24,9 +24,14 @@ import java.util.Map;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
 import org.apache.kafka.common.Node;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
@@ -40,6 +45,7 @@ import org.mockito.MockitoAnnotations;
 import org.springframework.cloud.stream.binder.kafka.KafkaMessageChannelBinder.TopicInformation;
 import org.springframework.cloud.stream.binder.kafka.properties.KafkaBinderConfigurationProperties;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.listener.MessageListenerContainer;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
@@ -53,6 +59,9 @@ public class KafkaBinderMetricsTest {
 
 	private static final String TEST_TOPIC = "test";
 
+	private static final KafkaMessageChannelBinder.ConsumerKey TEST_CONSUMER =
+			new KafkaMessageChannelBinder.ConsumerKey(TEST_TOPIC, "group");
+
 	private KafkaBinderMetrics metrics;
 
 	@Mock
@@ -185,6 +194,69 @@ public class KafkaBinderMetricsTest {
 		org.mockito.Mockito.verify(this.consumerFactory).createConsumer(ArgumentMatchers.eq("group2-metrics"), ArgumentMatchers.any());
 	}
 
+	@Test
+	public void shouldCountCommits() {
+		Metric commits = mock(Metric.class);
+		org.mockito.BDDMockito.given(commits.metricValue()).willReturn(3.0);
+		Metric rate = mock(Metric.class);
+		org.mockito.BDDMockito.given(rate.metricValue()).willReturn(0.5);
+		Map<MetricName, Metric> consumerMetrics = new HashMap<>();
+		consumerMetrics.put(new MetricName("commit-total", "consumer-coordinator-metrics", "", new HashMap<>()),
+				commits);
+		consumerMetrics.put(new MetricName("commit-rate", "consumer-coordinator-metrics", "", new HashMap<>()),
+				rate);
+		Map<String, Map<MetricName, ? extends Metric>> containerMetrics = new HashMap<>();
+		containerMetrics.put("consumer-1", consumerMetrics);
+		containerMetrics.put("consumer-2", consumerMetrics);
+		MessageListenerContainer container = mock(MessageListenerContainer.class);
+		org.mockito.BDDMockito.given(container.metrics()).willReturn(containerMetrics);
+		org.mockito.BDDMockito.given(binder.getConsumerContainers())
+				.willReturn(java.util.Collections.singletonMap(TEST_CONSUMER, container));
+		metrics.bindTo(meterRegistry);
+		assertThat(meterRegistry.get(KafkaBinderMetrics.COMMITS_METRIC_NAME).tag("topic", TEST_TOPIC)
+				.tag("group", "group").functionCounter().count()).isEqualTo(6.0);
+	}
+
+	@Test
+	public void shouldReportAutoscaledConcurrency() {
+		ConcurrencyAutoscaler autoscaler = mock(ConcurrencyAutoscaler.class);
+		org.mockito.BDDMockito.given(autoscaler.getConcurrency()).willReturn(3);
+		org.mockito.BDDMockito.given(autoscaler.getChanges()).willReturn(2L);
+		org.mockito.BDDMockito.given(binder.getAutoscalers())
+				.willReturn(java.util.Collections.singletonMap(TEST_CONSUMER, autoscaler));
+		metrics.bindTo(meterRegistry);
+		assertThat(meterRegistry.get(KafkaBinderMetrics.CONCURRENCY_METRIC_NAME).tag("topic", TEST_TOPIC)
+				.gauge().value()).isEqualTo(3.0);
+		assertThat(meterRegistry.get(KafkaBinderMetrics.CONCURRENCY_CHANGES_METRIC_NAME).tag("topic", TEST_TOPIC)
+				.functionCounter().count()).isEqualTo(2.0);
+	}
+
+	@Test
+	public void shouldReportPausedPartitions() {
+		PartitionBackoff backoff = mock(PartitionBackoff.class);
+		org.mockito.BDDMockito.given(backoff.getPausedCount()).willReturn(2);
+		org.mockito.BDDMockito.given(binder.getPartitionBackoffs())
+				.willReturn(java.util.Collections.singletonMap(TEST_CONSUMER, backoff));
+		metrics.bindTo(meterRegistry);
+		assertThat(meterRegistry.get(KafkaBinderMetrics.PAUSED_PARTITIONS_METRIC_NAME).tag("topic", TEST_TOPIC)
+				.gauge().value()).isEqualTo(2.0);
+	}
+
+	@Test
+	public void shouldReportMemoryBudget() {
+		ConsumerMemoryBudget budget = new ConsumerMemoryBudget(100, 50, true);
+		budget.afterPoll(mock(Consumer.class), new ConsumerRecords<>(java.util.Collections.singletonMap(
+				new TopicPartition(TEST_TOPIC, 0), java.util.Collections.singletonList(new ConsumerRecord<>(TEST_TOPIC,
+						0, 0L, 0L, org.apache.kafka.common.record.TimestampType.CREATE_TIME, 0L, 3, 7, null, null)))));
+		org.mockito.BDDMockito.given(binder.getMemoryBudgets())
+				.willReturn(java.util.Collections.singletonMap(TEST_CONSUMER, budget));
+		metrics.bindTo(meterRegistry);
+		assertThat(meterRegistry.get(KafkaBinderMetrics.MEMORY_USED_METRIC_NAME).tag("topic", TEST_TOPIC)
+				.gauge().value()).isEqualTo(10.0);
+		assertThat(meterRegistry.get(KafkaBinderMetrics.MEMORY_PAUSED_METRIC_NAME).tag("topic", TEST_TOPIC)
+				.functionTimer().count()).isEqualTo(0.0);
+	}
+
 	private List<PartitionInfo> partitions(Node... nodes) {
 		List<PartitionInfo> partitions = new ArrayList<>();
 		for (int i = 0; i < nodes.length; i++) {
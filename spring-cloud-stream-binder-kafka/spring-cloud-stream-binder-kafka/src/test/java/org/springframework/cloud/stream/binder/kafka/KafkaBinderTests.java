@@ -51,6 +51,7 @@ import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.common.KafkaFuture;
 import org.apache.kafka.common.errors.TopicExistsException;
+import org.apache.kafka.common.header.internals.RecordHeaders;
 import org.apache.kafka.common.record.TimestampType;
 import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.ByteArraySerializer;
@@ -2587,6 +2588,35 @@ public class KafkaBinderTests extends
 		binding2.unbind();
 	}
 
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@Test
+	public void testPolledConsumerUnpacksEnvelopes() throws Exception {
+		KafkaTestBinder binder = getBinder();
+		PollableSource<MessageHandler> inboundBindTarget = new DefaultPollableMessageSource(this.messageConverter);
+		Binding<PollableSource<MessageHandler>> binding = binder.bindPollableConsumer("pollableEnvelope", "group",
+				inboundBindTarget, createConsumerProperties());
+		Map<String, Object> producerProps = KafkaTestUtils.producerProps(embeddedKafka.getEmbeddedKafka());
+		producerProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+		KafkaTemplate template = new KafkaTemplate(new DefaultKafkaProducerFactory<>(producerProps));
+		byte[] foo = RecordEnvelope.encode(null, new RecordHeaders(), "foo".getBytes());
+		byte[] bar = RecordEnvelope.encode(null, new RecordHeaders(), "bar".getBytes());
+		ProducerRecord<Integer, byte[]> record = new ProducerRecord<>("pollableEnvelope", null, null,
+				RecordEnvelope.pack(Arrays.asList(foo, bar), foo.length + bar.length),
+				new RecordHeaders().add(RecordEnvelope.HEADER, new byte[] { RecordEnvelope.VERSION }));
+		template.send(record);
+		List<Object> received = new ArrayList<>();
+		int n = 0;
+		while (n++ < 100 && received.size() < 2) {
+			if (!inboundBindTarget.poll(m -> received.add((m.getPayload() instanceof byte[]
+					? new String((byte[]) m.getPayload()) : m.getPayload())
+					+ "" + m.getHeaders().get(KafkaMessageChannelBinder.ENVELOPE_INDEX)))) {
+				Thread.sleep(100);
+			}
+		}
+		assertThat(received).containsExactly("foo0", "bar1");
+		binding.unbind();
+	}
+
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	@Test
 	public void testPolledConsumerRequeue() throws Exception {
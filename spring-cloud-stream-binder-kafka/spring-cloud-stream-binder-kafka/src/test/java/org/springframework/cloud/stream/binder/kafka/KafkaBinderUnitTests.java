@@ -19,39 +19,73 @@ package org.springframework.cloud.stream.binder.kafka;
 import java.lang.reflect.Method;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.clients.producer.internals.DefaultPartitioner;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
 import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.cloud.stream.binder.BinderHeaders;
 import org.springframework.cloud.stream.binder.Binding;
 import org.springframework.cloud.stream.binder.ExtendedConsumerProperties;
+import org.springframework.cloud.stream.binder.ExtendedProducerProperties;
 import org.springframework.cloud.stream.binder.kafka.properties.KafkaBinderConfigurationProperties;
 import org.springframework.cloud.stream.binder.kafka.properties.KafkaConsumerProperties;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaProducerProperties;
 import org.springframework.cloud.stream.binder.kafka.provisioning.KafkaTopicProvisioner;
 import org.springframework.cloud.stream.provisioning.ConsumerDestination;
+import org.springframework.cloud.stream.provisioning.ProducerDestination;
 import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.expression.common.LiteralExpression;
+import org.springframework.integration.MessageTimeoutException;
 import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.expression.FunctionExpression;
+import org.springframework.integration.kafka.outbound.KafkaProducerMessageHandler;
+import org.springframework.integration.kafka.support.KafkaSendFailureException;
+import org.springframework.integration.support.MessageBuilder;
 import org.springframework.integration.test.util.TestUtils;
 import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.support.ErrorMessage;
+import org.springframework.messaging.support.GenericMessage;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
@@ -59,7 +93,10 @@ import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.BDDMockito.willReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 /**
@@ -264,4 +301,600 @@ public class KafkaBinderUnitTests {
 		messageChannelBinding.unbind();
 	}
 
+	@Test
+	public void testBatchModeSendsRecordPerElementAndFlushesOnce() throws Exception {
+		ProducerFixture fixture = producerFixture("batchOut");
+		KafkaMessageChannelBinder binder = fixture.binder;
+		MockProducer<byte[], byte[]> producer = fixture.producer;
+		KafkaProducerProperties extension = new KafkaProducerProperties();
+		extension.setBatchMode(true);
+		extension.setSync(true);
+		ExtendedProducerProperties<KafkaProducerProperties> producerProperties =
+				new ExtendedProducerProperties<>(extension);
+		producerProperties.setUseNativeEncoding(true);
+		DirectChannel channel = new DirectChannel();
+		Binding<MessageChannel> binding = binder.bindProducer("batchOut", channel, producerProperties);
+		channel.send(new GenericMessage<>(Arrays.asList("foo".getBytes(),
+				MessageBuilder.withPayload("bar".getBytes()).setHeader(KafkaHeaders.MESSAGE_KEY, "baz".getBytes())
+						.build(),
+				"qux".getBytes())));
+		assertThat(producer.history()).hasSize(3);
+		assertThat(producer.history().get(0).value()).isEqualTo("foo".getBytes());
+		assertThat(producer.history().get(1).value()).isEqualTo("bar".getBytes());
+		assertThat(producer.history().get(1).key()).isEqualTo("baz".getBytes());
+		assertThat(producer.history().get(2).value()).isEqualTo("qux".getBytes());
+		assertThat(producer.flushed()).isTrue();
+		binding.unbind();
+	}
+
+	@Test
+	public void testDynamicDestinationsShareOneHandler() throws Exception {
+		Cluster cluster = new Cluster("test", Collections.emptyList(), Arrays.asList(
+				new PartitionInfo("dynOut", 0, null, null, null),
+				new PartitionInfo("dyn1", 0, null, null, null),
+				new PartitionInfo("dyn1", 1, null, null, null),
+				new PartitionInfo("dyn2", 0, null, null, null)),
+				Collections.emptySet(), Collections.emptySet());
+		ProducerFixture fixture = producerFixture("dynOut", new NonClosingMockProducer(cluster));
+		KafkaMessageChannelBinder binder = fixture.binder;
+		MockProducer<byte[], byte[]> producer = fixture.producer;
+		KafkaTopicProvisioner provisioningProvider = fixture.provisioningProvider;
+		KafkaProducerProperties extension = new KafkaProducerProperties();
+		extension.getDynamicDestinations().setEnabled(true);
+		ExtendedProducerProperties<KafkaProducerProperties> producerProperties =
+				new ExtendedProducerProperties<>(extension);
+		DirectChannel channel = new DirectChannel();
+		Binding<MessageChannel> binding = binder.bindProducer("dynOut", channel, producerProperties);
+		channel.send(MessageBuilder.withPayload("foo".getBytes()).setHeader(KafkaHeaders.TOPIC, "dyn1").build());
+		channel.send(MessageBuilder.withPayload("bar".getBytes()).setHeader(KafkaHeaders.TOPIC, "dyn2").build());
+		channel.send(MessageBuilder.withPayload("baz".getBytes()).setHeader(KafkaHeaders.TOPIC, "dyn1").build());
+		channel.send(new GenericMessage<>("qux".getBytes()));
+		assertThat(producer.history()).extracting(ProducerRecord::topic)
+				.containsExactly("dyn1", "dyn2", "dyn1", "dynOut");
+		assertThat(binder.getTopicsInUse()).containsKeys("dynOut", "dyn1", "dyn2");
+		assertThat(binder.getTopicsInUse().get("dyn1").getPartitionInfos()).hasSize(2);
+		verify(provisioningProvider, times(1)).provisionProducerDestination(eq("dyn1"), any());
+		verify(provisioningProvider, times(1)).provisionProducerDestination(eq("dyn2"), any());
+		binding.unbind();
+	}
+
+	@Test
+	public void testDynamicDestinationIsEvaluatedOncePerMessageAndEvicted() throws Exception {
+		Cluster cluster = new Cluster("test", Collections.emptyList(), Arrays.asList(
+				new PartitionInfo("dynOut", 0, null, null, null),
+				new PartitionInfo("dyn1", 0, null, null, null),
+				new PartitionInfo("dyn1", 1, null, null, null),
+				new PartitionInfo("dyn2", 0, null, null, null),
+				new PartitionInfo("dyn3", 0, null, null, null)),
+				Collections.emptySet(), Collections.emptySet());
+		ProducerFixture fixture = producerFixture("dynOut", new NonClosingMockProducer(cluster));
+		KafkaMessageChannelBinder binder = fixture.binder;
+		MockProducer<byte[], byte[]> producer = fixture.producer;
+		AtomicInteger evaluations = new AtomicInteger();
+		KafkaProducerProperties extension = new KafkaProducerProperties();
+		extension.getDynamicDestinations().setEnabled(true);
+		extension.getDynamicDestinations().setExpression(new FunctionExpression<Message<?>>(message -> {
+			evaluations.incrementAndGet();
+			return message.getHeaders().get(KafkaHeaders.TOPIC);
+		}));
+		extension.getDynamicDestinations().setCacheSize(2);
+		ExtendedProducerProperties<KafkaProducerProperties> producerProperties =
+				new ExtendedProducerProperties<>(extension);
+		producerProperties.setPartitionKeyExpression(new LiteralExpression("k"));
+		Binding<MessageChannel> binding = binder.bindProducer("dynOut", new DirectChannel(), producerProperties);
+		// the partition would normally be selected by the binding's PartitioningInterceptor
+		MessageHandler handler = TestUtils.getPropertyValue(binding, "lifecycle", MessageHandler.class);
+		handler.handleMessage(MessageBuilder.withPayload("foo".getBytes()).setHeader(KafkaHeaders.TOPIC, "dyn1")
+				.setHeader(BinderHeaders.PARTITION_HEADER, 3).build());
+		assertThat(evaluations.get()).isEqualTo(1);
+		assertThat(producer.history().get(0).topic()).isEqualTo("dyn1");
+		assertThat(producer.history().get(0).partition()).isEqualTo(1);
+		handler.handleMessage(MessageBuilder.withPayload("bar".getBytes()).setHeader(KafkaHeaders.TOPIC, "dyn2")
+				.setHeader(BinderHeaders.PARTITION_HEADER, 0).build());
+		handler.handleMessage(MessageBuilder.withPayload("baz".getBytes()).setHeader(KafkaHeaders.TOPIC, "dyn3")
+				.setHeader(BinderHeaders.PARTITION_HEADER, 0).build());
+		assertThat(evaluations.get()).isEqualTo(3);
+		assertThat(binder.getTopicsInUse()).containsKeys("dynOut", "dyn2", "dyn3").doesNotContainKey("dyn1");
+		binding.unbind();
+		assertThat(binder.getTopicsInUse()).doesNotContainKeys("dyn2", "dyn3");
+	}
+
+	@Test
+	public void testDiscoveringADynamicDestinationDoesNotBlockOtherDestinations() throws Exception {
+		Cluster cluster = new Cluster("test", Collections.emptyList(), Arrays.asList(
+				new PartitionInfo("dynOut", 0, null, null, null),
+				new PartitionInfo("dyn1", 0, null, null, null),
+				new PartitionInfo("dynSlow", 0, null, null, null)),
+				Collections.emptySet(), Collections.emptySet());
+		ProducerFixture fixture = producerFixture("dynOut", new NonClosingMockProducer(cluster));
+		KafkaMessageChannelBinder binder = fixture.binder;
+		MockProducer<byte[], byte[]> producer = fixture.producer;
+		CountDownLatch provisioning = new CountDownLatch(1);
+		CountDownLatch provisioned = new CountDownLatch(1);
+		ProducerDestination slow = mock(ProducerDestination.class);
+		given(slow.getName()).willReturn("dynSlow");
+		willAnswer(i -> {
+			provisioning.countDown();
+			provisioned.await(10, TimeUnit.SECONDS);
+			return slow;
+		}).given(fixture.provisioningProvider).provisionProducerDestination(eq("dynSlow"), any());
+		KafkaProducerProperties extension = new KafkaProducerProperties();
+		extension.getDynamicDestinations().setEnabled(true);
+		DirectChannel channel = new DirectChannel();
+		Binding<MessageChannel> binding = binder.bindProducer("dynOut", channel,
+				new ExtendedProducerProperties<>(extension));
+		channel.send(MessageBuilder.withPayload("foo".getBytes()).setHeader(KafkaHeaders.TOPIC, "dyn1").build());
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<?> slowSend = executor.submit(() -> channel.send(MessageBuilder.withPayload("bar".getBytes())
+					.setHeader(KafkaHeaders.TOPIC, "dynSlow").build()));
+			assertThat(provisioning.await(10, TimeUnit.SECONDS)).isTrue();
+			executor.submit(() -> channel.send(MessageBuilder.withPayload("baz".getBytes())
+					.setHeader(KafkaHeaders.TOPIC, "dyn1").build())).get(10, TimeUnit.SECONDS);
+			assertThat(producer.history()).extracting(ProducerRecord::topic).containsExactly("dyn1", "dyn1");
+			provisioned.countDown();
+			slowSend.get(10, TimeUnit.SECONDS);
+			assertThat(producer.history()).extracting(ProducerRecord::topic)
+					.containsExactly("dyn1", "dyn1", "dynSlow");
+		}
+		finally {
+			provisioned.countDown();
+			executor.shutdownNow();
+		}
+		binding.unbind();
+	}
+
+	@Test
+	public void testBatchDlqSendsOnlyFailedRecords() throws Exception {
+		ProducerFixture fixture = producerFixture("dlqOut");
+		KafkaMessageChannelBinder binder = fixture.binder;
+		MockProducer<byte[], byte[]> producer = fixture.producer;
+		KafkaConsumerProperties extension = new KafkaConsumerProperties();
+		extension.setBatchMode(true);
+		extension.setEnableDlq(true);
+		ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties =
+				new ExtendedConsumerProperties<>(extension);
+		ConsumerDestination dest = mock(ConsumerDestination.class);
+		given(dest.getName()).willReturn("batchIn");
+		MessageHandler dlqHandler = binder.getErrorMessageHandler(dest, "group", consumerProperties);
+		List<ConsumerRecord<byte[], byte[]>> records = Arrays.asList(
+				new ConsumerRecord<>("batchIn", 0, 10L, null, "foo".getBytes()),
+				new ConsumerRecord<>("batchIn", 0, 11L, null, "bar".getBytes()),
+				new ConsumerRecord<>("batchIn", 0, 12L, null, "baz".getBytes()));
+		Message<?> batch = new GenericMessage<>(Collections.emptyList());
+		dlqHandler.handleMessage(new ErrorMessage(new MessagingException(batch, "failed",
+				new BatchRecordsFailedException("bad records", null, Arrays.asList(2, 0))),
+				Collections.singletonMap(KafkaHeaders.RAW_DATA, records)));
+		assertThat(producer.history()).extracting(record -> new String(record.value()))
+				.containsExactly("foo", "baz");
+		assertThat(producer.history().get(0).topic()).isEqualTo("error.batchIn.group");
+		producer.clear();
+		dlqHandler.handleMessage(new ErrorMessage(new MessagingException(batch, "failed"),
+				Collections.singletonMap(KafkaHeaders.RAW_DATA, records)));
+		assertThat(producer.history()).hasSize(3);
+	}
+
+	@Test
+	public void testRecordsFailingTheLastRetryTopicGoToTheBindingDlq() throws Exception {
+		ProducerFixture fixture = producerFixture("dlqOut");
+		KafkaMessageChannelBinder binder = fixture.binder;
+		MockProducer<byte[], byte[]> producer = fixture.producer;
+		KafkaConsumerProperties extension = new KafkaConsumerProperties();
+		extension.setEnableDlq(true);
+		extension.getRetryTopics().setEnabled(true);
+		extension.getRetryTopics().setDelays(new long[] { 1000, 5000 });
+		ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties =
+				new ExtendedConsumerProperties<>(extension);
+		ConsumerDestination dest = mock(ConsumerDestination.class);
+		given(dest.getName()).willReturn("retryIn");
+		MessageHandler errorHandler = binder.getErrorMessageHandler(dest, "group", consumerProperties);
+		Message<?> failed = new GenericMessage<>("foo");
+		errorHandler.handleMessage(new ErrorMessage(new MessagingException(failed, "failed"),
+				Collections.singletonMap(KafkaHeaders.RAW_DATA,
+						new ConsumerRecord<>("retryIn", 0, 10L, null, "foo".getBytes()))));
+		ProducerRecord<byte[], byte[]> retried = producer.history().get(0);
+		assertThat(retried.topic()).isEqualTo("retry.retryIn.group.1000");
+		ConsumerRecord<byte[], byte[]> lastTier = new ConsumerRecord<>("retry.retryIn.group.5000", 0, 3L, null,
+				"foo".getBytes());
+		retried.headers().forEach(lastTier.headers()::add);
+		errorHandler.handleMessage(new ErrorMessage(new MessagingException(failed, "failed"),
+				Collections.singletonMap(KafkaHeaders.RAW_DATA, lastTier)));
+		assertThat(producer.history()).hasSize(2);
+		assertThat(producer.history().get(1).topic()).isEqualTo("error.retryIn.group");
+	}
+
+	@Test
+	public void testPooledDlqProducerIsReleasedWhenTheBindingIsUnbound() {
+		KafkaBinderConfigurationProperties configurationProperties = new KafkaBinderConfigurationProperties(
+				new TestKafkaProperties());
+		configurationProperties.getProducerPool().setEnabled(true);
+		KafkaMessageChannelBinder binder = new KafkaMessageChannelBinder(configurationProperties,
+				mock(KafkaTopicProvisioner.class));
+		KafkaConsumerProperties extension = new KafkaConsumerProperties();
+		extension.setEnableDlq(true);
+		ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties =
+				new ExtendedConsumerProperties<>(extension);
+		ConsumerDestination dest = mock(ConsumerDestination.class);
+		given(dest.getName()).willReturn("dlqIn");
+		binder.getErrorMessageHandler(dest, "group", consumerProperties);
+		assertThat(binder.getProducerPool().size()).isEqualTo(1);
+		binder.afterUnbindConsumer(dest, "group", consumerProperties);
+		assertThat(binder.getProducerPool().size()).isEqualTo(0);
+	}
+
+	@Test
+	public void testStoppedBindingDoesNotCloseASharedPooledProducer() {
+		KafkaBinderConfigurationProperties configurationProperties = new KafkaBinderConfigurationProperties(
+				new TestKafkaProperties());
+		configurationProperties.getProducerPool().setEnabled(true);
+		KafkaMessageChannelBinder binder = producerFixture(configurationProperties, "pooledOut",
+				new NonClosingMockProducer(true)).binder;
+		ExtendedProducerProperties<KafkaProducerProperties> producerProperties =
+				new ExtendedProducerProperties<>(new KafkaProducerProperties());
+		Binding<MessageChannel> one = binder.bindProducer("pooledOut", new DirectChannel(), producerProperties);
+		Binding<MessageChannel> two = binder.bindProducer("pooledOut", new DirectChannel(), producerProperties);
+		DefaultKafkaProducerFactory<?, ?> producerFactory = TestUtils.getPropertyValue(two,
+				"lifecycle.producerFactory", DefaultKafkaProducerFactory.class);
+		assertThat(producerFactory).isSameAs(TestUtils.getPropertyValue(one, "lifecycle.producerFactory"));
+		Producer<?, ?> producer = producerFactory.createProducer();
+		one.unbind();
+		assertThat(binder.getProducerPool().size()).isEqualTo(1);
+		assertThat(producerFactory.createProducer()).isSameAs(producer);
+		two.unbind();
+		assertThat(binder.getProducerPool().size()).isEqualTo(0);
+	}
+
+	@Test
+	public void testFailedBatchElementIsReportedWithTheBatchHeaders() throws Exception {
+		ProducerFixture fixture = producerFixture("batchFailOut", new NonClosingMockProducer(false) {
+
+			@Override
+			public void flush() {
+				// completed by the test
+			}
+
+		});
+		KafkaMessageChannelBinder binder = fixture.binder;
+		MockProducer<byte[], byte[]> producer = fixture.producer;
+		GenericApplicationContext context = fixture.context;
+		KafkaProducerProperties extension = new KafkaProducerProperties();
+		extension.setBatchMode(true);
+		ExtendedProducerProperties<KafkaProducerProperties> producerProperties =
+				new ExtendedProducerProperties<>(extension);
+		producerProperties.setUseNativeEncoding(true);
+		producerProperties.setErrorChannelEnabled(true);
+		DirectChannel channel = new DirectChannel();
+		Binding<MessageChannel> binding = binder.bindProducer("batchFailOut", channel, producerProperties);
+		List<Message<?>> failures = new ArrayList<>();
+		context.getBean("batchFailOut.errors", SubscribableChannel.class).subscribe(failures::add);
+		channel.send(MessageBuilder.withPayload(Arrays.asList("foo".getBytes(), "bar".getBytes()))
+				.setHeader("qux", "quux")
+				.build());
+		producer.completeNext();
+		producer.errorNext(new RuntimeException("failed"));
+		assertThat(failures).hasSize(1);
+		Message<?> failed = ((KafkaSendFailureException) failures.get(0).getPayload()).getFailedMessage();
+		assertThat(failed.getPayload()).isEqualTo("bar".getBytes());
+		assertThat(failed.getHeaders().get("qux")).isEqualTo("quux");
+		assertThat(failed.getHeaders().get(KafkaMessageChannelBinder.BATCH_INDEX)).isEqualTo(1);
+		binding.unbind();
+	}
+
+	@Test
+	public void testSynchronousBatchFailsWhenNotCompletedWithinTheSendTimeout() throws Exception {
+		ProducerFixture fixture = producerFixture("batchTimeoutOut", new NonClosingMockProducer(false) {
+
+			@Override
+			public void flush() {
+				// never completed
+			}
+
+		});
+		KafkaMessageChannelBinder binder = fixture.binder;
+		KafkaProducerProperties extension = new KafkaProducerProperties();
+		extension.setBatchMode(true);
+		extension.setSync(true);
+		ExtendedProducerProperties<KafkaProducerProperties> producerProperties =
+				new ExtendedProducerProperties<>(extension);
+		producerProperties.setUseNativeEncoding(true);
+		DirectChannel channel = new DirectChannel();
+		Binding<MessageChannel> binding = binder.bindProducer("batchTimeoutOut", channel, producerProperties);
+		TestUtils.getPropertyValue(binding, "lifecycle", KafkaProducerMessageHandler.class).setSendTimeout(100);
+		assertThatThrownBy(() -> channel.send(new GenericMessage<>(Arrays.asList("foo".getBytes(),
+				"bar".getBytes()))))
+				.isInstanceOf(MessageTimeoutException.class)
+				.hasMessageContaining("waiting for 2 records");
+		binding.unbind();
+	}
+
+	@Test
+	public void testSynchronousEnvelopeSendFailureIsReportedForEachMessage() throws Exception {
+		ProducerFixture fixture = producerFixture("envelopeFailOut", new NonClosingMockProducer(true) {
+
+			@Override
+			public synchronized Future<RecordMetadata> send(ProducerRecord<byte[], byte[]> record,
+					Callback callback) {
+				throw new KafkaException("buffer exhausted");
+			}
+
+		});
+		KafkaMessageChannelBinder binder = fixture.binder;
+		KafkaProducerProperties extension = new KafkaProducerProperties();
+		extension.getEnvelope().setEnabled(true);
+		extension.getEnvelope().setMaxMessages(2);
+		extension.getEnvelope().setWindow(60_000);
+		ExtendedProducerProperties<KafkaProducerProperties> producerProperties =
+				new ExtendedProducerProperties<>(extension);
+		producerProperties.setUseNativeEncoding(true);
+		producerProperties.setErrorChannelEnabled(true);
+		DirectChannel channel = new DirectChannel();
+		Binding<MessageChannel> binding = binder.bindProducer("envelopeFailOut", channel, producerProperties);
+		List<Message<?>> failures = new ArrayList<>();
+		fixture.context.getBean("envelopeFailOut.errors", SubscribableChannel.class).subscribe(failures::add);
+		channel.send(new GenericMessage<>("foo".getBytes()));
+		channel.send(new GenericMessage<>("bar".getBytes()));
+		assertThat(failures).extracting(failure -> new String((byte[]) ((KafkaSendFailureException) failure
+				.getPayload()).getFailedMessage().getPayload()))
+				.containsExactly("foo", "bar");
+		binding.unbind();
+	}
+
+	@Test
+	public void testConflationCannotBeSync() {
+		KafkaMessageChannelBinder binder = producerFixture("conflatedSyncOut").binder;
+		KafkaProducerProperties extension = new KafkaProducerProperties();
+		extension.getConflation().setEnabled(true);
+		extension.setSync(true);
+		assertThatThrownBy(() -> binder.bindProducer("conflatedSyncOut", new DirectChannel(),
+				new ExtendedProducerProperties<>(extension)))
+				.hasStackTraceContaining("'conflation' cannot be used with a transactional binder or with 'sync'");
+	}
+
+	@Test
+	public void testAdaptiveProducersCannotBeTransactional() {
+		KafkaBinderConfigurationProperties configurationProperties = new KafkaBinderConfigurationProperties(
+				new TestKafkaProperties());
+		configurationProperties.getTransaction().setTransactionIdPrefix("tx-");
+		KafkaMessageChannelBinder binder = producerFixture(configurationProperties, "adaptiveTxOut",
+				new NonClosingMockProducer(true)).binder;
+		KafkaProducerProperties adaptiveBatching = new KafkaProducerProperties();
+		adaptiveBatching.getAdaptiveBatching().setEnabled(true);
+		assertThatThrownBy(() -> binder.bindProducer("adaptiveTxOut", new DirectChannel(),
+				new ExtendedProducerProperties<>(adaptiveBatching)))
+				.hasStackTraceContaining("'adaptiveBatching' cannot be used with a transactional binder");
+		KafkaProducerProperties autoCompression = new KafkaProducerProperties();
+		autoCompression.setCompressionType(KafkaProducerProperties.CompressionType.auto);
+		assertThatThrownBy(() -> binder.bindProducer("adaptiveTxOut", new DirectChannel(),
+				new ExtendedProducerProperties<>(autoCompression)))
+				.hasStackTraceContaining("'compression=auto' cannot be used with a transactional binder");
+	}
+
+	@Test
+	public void testSynchronousConflatedSendFailureIsReported() throws Exception {
+		ProducerFixture fixture = producerFixture("conflatedFailOut", new NonClosingMockProducer(true) {
+
+			@Override
+			public synchronized Future<RecordMetadata> send(ProducerRecord<byte[], byte[]> record,
+					Callback callback) {
+				throw new KafkaException("buffer exhausted");
+			}
+
+		});
+		KafkaMessageChannelBinder binder = fixture.binder;
+		KafkaProducerProperties extension = new KafkaProducerProperties();
+		extension.getConflation().setEnabled(true);
+		extension.getConflation().setMaxKeys(1);
+		extension.getConflation().setWindow(60_000);
+		ExtendedProducerProperties<KafkaProducerProperties> producerProperties =
+				new ExtendedProducerProperties<>(extension);
+		producerProperties.setUseNativeEncoding(true);
+		producerProperties.setErrorChannelEnabled(true);
+		DirectChannel channel = new DirectChannel();
+		Binding<MessageChannel> binding = binder.bindProducer("conflatedFailOut", channel, producerProperties);
+		List<Message<?>> failures = new ArrayList<>();
+		fixture.context.getBean("conflatedFailOut.errors", SubscribableChannel.class).subscribe(failures::add);
+		channel.send(MessageBuilder.withPayload("foo".getBytes()).setHeader(KafkaHeaders.MESSAGE_KEY, "bar".getBytes())
+				.build());
+		assertThat(failures).hasSize(1);
+		assertThat(((KafkaSendFailureException) failures.get(0).getPayload()).getFailedMessage().getPayload())
+				.isEqualTo("foo".getBytes());
+		binding.unbind();
+	}
+
+	@Test
+	public void testOffsetUpdateCountOnlyCommitsByCount() throws Exception {
+		KafkaBinderConfigurationProperties configurationProperties = new KafkaBinderConfigurationProperties(
+				new TestKafkaProperties());
+		configurationProperties.setOffsetUpdateCount(100);
+		configurationProperties.setOffsetUpdateShutdownTimeout(7000);
+		ContainerProperties containerProperties = consumerContainerProperties(configurationProperties,
+				new KafkaConsumerProperties());
+		assertThat(containerProperties.getAckMode()).isEqualTo(ContainerProperties.AckMode.COUNT);
+		assertThat(containerProperties.getAckCount()).isEqualTo(100);
+		assertThat(containerProperties.getShutdownTimeout()).isEqualTo(7000L);
+	}
+
+	@Test
+	public void testOffsetUpdateTimeWindowOnlyCommitsByTime() throws Exception {
+		KafkaBinderConfigurationProperties configurationProperties = new KafkaBinderConfigurationProperties(
+				new TestKafkaProperties());
+		configurationProperties.setOffsetUpdateTimeWindow(2000);
+		ContainerProperties containerProperties = consumerContainerProperties(configurationProperties,
+				new KafkaConsumerProperties());
+		assertThat(containerProperties.getAckMode()).isEqualTo(ContainerProperties.AckMode.TIME);
+		assertThat(containerProperties.getAckTime()).isEqualTo(2000L);
+		assertThat(containerProperties.getShutdownTimeout())
+				.isEqualTo((long) configurationProperties.getOffsetUpdateShutdownTimeout());
+	}
+
+	@Test
+	public void testOffsetUpdateCountAndTimeWindowCommitByEither() throws Exception {
+		KafkaBinderConfigurationProperties configurationProperties = new KafkaBinderConfigurationProperties(
+				new TestKafkaProperties());
+		configurationProperties.setOffsetUpdateCount(100);
+		configurationProperties.setOffsetUpdateTimeWindow(2000);
+		ContainerProperties containerProperties = consumerContainerProperties(configurationProperties,
+				new KafkaConsumerProperties());
+		assertThat(containerProperties.getAckMode()).isEqualTo(ContainerProperties.AckMode.COUNT_TIME);
+		assertThat(containerProperties.getAckCount()).isEqualTo(100);
+		assertThat(containerProperties.getAckTime()).isEqualTo(2000L);
+	}
+
+	@Test
+	public void testOffsetUpdateSettingsDoNotOverrideTheBindingAckMode() throws Exception {
+		KafkaBinderConfigurationProperties configurationProperties = new KafkaBinderConfigurationProperties(
+				new TestKafkaProperties());
+		configurationProperties.setOffsetUpdateCount(100);
+		configurationProperties.setOffsetUpdateTimeWindow(2000);
+		KafkaConsumerProperties ackEachRecord = new KafkaConsumerProperties();
+		ackEachRecord.setAckEachRecord(true);
+		assertThat(consumerContainerProperties(configurationProperties, ackEachRecord).getAckMode())
+				.isEqualTo(ContainerProperties.AckMode.RECORD);
+		KafkaConsumerProperties keyOrdered = new KafkaConsumerProperties();
+		keyOrdered.getKeyOrdered().setEnabled(true);
+		assertThat(consumerContainerProperties(configurationProperties, keyOrdered).getAckMode())
+				.isEqualTo(ContainerProperties.AckMode.MANUAL);
+		KafkaConsumerProperties manual = new KafkaConsumerProperties();
+		manual.setAutoCommitOffset(false);
+		assertThat(consumerContainerProperties(configurationProperties, manual).getAckMode())
+				.isEqualTo(ContainerProperties.AckMode.MANUAL);
+		configurationProperties.getTransaction().setTransactionIdPrefix("tx-");
+		assertThat(consumerContainerProperties(configurationProperties, new KafkaConsumerProperties()).getAckMode())
+				.isEqualTo(ContainerProperties.AckMode.BATCH);
+	}
+
+	/*
+	 * Bind a consumer to a mock consumer that never returns records and return the properties of
+	 * the binding's container.
+	 */
+	private static ContainerProperties consumerContainerProperties(
+			KafkaBinderConfigurationProperties configurationProperties, KafkaConsumerProperties extension) {
+
+		String topic = "commitsIn";
+		KafkaTopicProvisioner provisioningProvider = mock(KafkaTopicProvisioner.class);
+		ConsumerDestination dest = mock(ConsumerDestination.class);
+		given(dest.getName()).willReturn(topic);
+		given(provisioningProvider.provisionConsumerDestination(anyString(), anyString(), any())).willReturn(dest);
+		willAnswer(i -> Collections.singletonList(new PartitionInfo(topic, 0, null, null, null)))
+				.given(provisioningProvider).getPartitionsForTopic(anyInt(), anyBoolean(), any(), any());
+		@SuppressWarnings("unchecked")
+		Consumer<byte[], byte[]> consumer = mock(Consumer.class);
+		willAnswer(i -> {
+			Thread.sleep(10);
+			return new ConsumerRecords<>(Collections.emptyMap());
+		}).given(consumer).poll(any(Duration.class));
+		@SuppressWarnings("unchecked")
+		ConsumerFactory<byte[], byte[]> consumerFactory = mock(ConsumerFactory.class);
+		given(consumerFactory.createConsumer(any(), any(), any())).willReturn(consumer);
+		given(consumerFactory.getConfigurationProperties()).willReturn(Collections.emptyMap());
+		KafkaMessageChannelBinder binder = new KafkaMessageChannelBinder(configurationProperties, provisioningProvider) {
+
+			@Override
+			protected ConsumerFactory<?, ?> createKafkaConsumerFactory(boolean anonymous, String consumerGroup,
+					ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties) {
+
+				return consumerFactory;
+			}
+
+		};
+		GenericApplicationContext context = new GenericApplicationContext();
+		context.refresh();
+		binder.setApplicationContext(context);
+		ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties =
+				new ExtendedConsumerProperties<>(extension);
+		Binding<MessageChannel> binding = binder.bindConsumer(topic, "group", new DirectChannel(),
+				consumerProperties);
+		try {
+			return TestUtils.getPropertyValue(binding, "lifecycle.messageListenerContainer.containerProperties",
+					ContainerProperties.class);
+		}
+		finally {
+			binding.unbind();
+		}
+	}
+
+	private static ProducerFixture producerFixture(String topic) {
+		return producerFixture(topic, new NonClosingMockProducer(true));
+	}
+
+	private static ProducerFixture producerFixture(String topic, MockProducer<byte[], byte[]> producer) {
+		return producerFixture(new KafkaBinderConfigurationProperties(new TestKafkaProperties()), topic, producer);
+	}
+
+	/*
+	 * A binder whose producer factories all create the same mock producer; the topic is provisioned with a
+	 * single partition.
+	 */
+	private static ProducerFixture producerFixture(KafkaBinderConfigurationProperties configurationProperties,
+			String topic, MockProducer<byte[], byte[]> producer) {
+
+		KafkaTopicProvisioner provisioningProvider = mock(KafkaTopicProvisioner.class);
+		ProducerDestination dest = mock(ProducerDestination.class);
+		given(dest.getName()).willReturn(topic);
+		given(provisioningProvider.provisionProducerDestination(anyString(), any())).willReturn(dest);
+		willAnswer(i -> Collections.singletonList(new PartitionInfo(topic, 0, null, null, null)))
+				.given(provisioningProvider).getPartitionsForTopic(anyInt(), anyBoolean(), any(), any());
+		KafkaMessageChannelBinder binder = new KafkaMessageChannelBinder(configurationProperties, provisioningProvider) {
+
+			@Override
+			protected DefaultKafkaProducerFactory<byte[], byte[]> getProducerFactory(String transactionIdPrefix,
+					ExtendedProducerProperties<KafkaProducerProperties> producerProperties) {
+				DefaultKafkaProducerFactory<byte[], byte[]> producerFactory =
+						spy(super.getProducerFactory(transactionIdPrefix, producerProperties));
+				willReturn(producer).given(producerFactory).createProducer();
+				return producerFactory;
+			}
+
+		};
+		GenericApplicationContext context = new GenericApplicationContext();
+		context.refresh();
+		binder.setApplicationContext(context);
+		return new ProducerFixture(binder, producer, provisioningProvider, context);
+	}
+
+	/**
+	 * A binder built by {@code producerFixture()}, with its mock producer, provisioner and
+	 * application context.
+	 */
+	private static final class ProducerFixture {
+
+		private final KafkaMessageChannelBinder binder;
+
+		private final MockProducer<byte[], byte[]> producer;
+
+		private final KafkaTopicProvisioner provisioningProvider;
+
+		private final GenericApplicationContext context;
+
+		ProducerFixture(KafkaMessageChannelBinder binder, MockProducer<byte[], byte[]> producer,
+				KafkaTopicProvisioner provisioningProvider, GenericApplicationContext context) {
+
+			this.binder = binder;
+			this.producer = producer;
+			this.provisioningProvider = provisioningProvider;
+			this.context = context;
+		}
+
+	}
+
+	/**
+	 * A mock producer that is not closed by the template (after each send) or the partition lookup.
+	 */
+	private static class NonClosingMockProducer extends MockProducer<byte[], byte[]> {
+
+		NonClosingMockProducer(boolean autoComplete) {
+			super(autoComplete, new ByteArraySerializer(), new ByteArraySerializer());
+		}
+
+		NonClosingMockProducer(Cluster cluster) {
+			super(cluster, true, new DefaultPartitioner(), new ByteArraySerializer(), new ByteArraySerializer());
+		}
+
+		@Override
+		public void close() {
+			// reused
+		}
+
+	}
+
 }
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import org.springframework.cloud.stream.binder.PollableMessageSource;
+import org.springframework.messaging.support.GenericMessage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @since 2.1.5
+ */
+public class KafkaPollableSourcesTests {
+
+	@Test
+	public void testPollHandlesUpToMaxRecords() {
+		Iterator<String> payloads = Arrays.asList("a", "b", "c").iterator();
+		PollableMessageSource source = handler -> {
+			if (!payloads.hasNext()) {
+				return false;
+			}
+			handler.handleMessage(new GenericMessage<>(payloads.next()));
+			return true;
+		};
+		List<Object> handled = new ArrayList<>();
+		assertThat(KafkaPollableSources.poll(source, message -> handled.add(message.getPayload()), 2)).isEqualTo(2);
+		assertThat(KafkaPollableSources.poll(source, message -> handled.add(message.getPayload()), 2)).isEqualTo(1);
+		assertThat(handled).containsExactly("a", "b", "c");
+	}
+
+}
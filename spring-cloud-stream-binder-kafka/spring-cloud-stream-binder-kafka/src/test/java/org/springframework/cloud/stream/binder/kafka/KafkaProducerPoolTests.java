@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @since 2.1.5
+ */
+public class KafkaProducerPoolTests {
+
+	@Test
+	public void testIdenticalConfigurationsShareAFactory() {
+		KafkaProducerPool pool = new KafkaProducerPool(0);
+		KafkaProducerPool.PooledProducerFactory one = pool.acquire(configs("1"), true);
+		KafkaProducerPool.PooledProducerFactory two = pool.acquire(configs("1"), true);
+		KafkaProducerPool.PooledProducerFactory three = pool.acquire(configs("10"), true);
+		assertThat(two).isSameAs(one);
+		assertThat(three).isNotSameAs(one);
+		assertThat(pool.size()).isEqualTo(2);
+		pool.destroy();
+		assertThat(pool.size()).isEqualTo(0);
+	}
+
+	@Test
+	public void testFactoryRemovedWhenLastReferenceReleased() {
+		KafkaProducerPool pool = new KafkaProducerPool(0);
+		KafkaProducerPool.PooledProducerFactory one = pool.acquire(configs("1"), true);
+		pool.acquire(configs("1"), true);
+		pool.release(one);
+		assertThat(pool.size()).isEqualTo(1);
+		pool.release(one);
+		assertThat(pool.size()).isEqualTo(0);
+		assertThat(pool.acquire(configs("1"), true)).isNotSameAs(one);
+	}
+
+	@Test
+	public void testProducersAreRecreatedWhenTheBudgetIsSharedByMoreProducers() {
+		KafkaProducerPool pool = new KafkaProducerPool(4_000_000);
+		KafkaProducerPool.PooledProducerFactory one = pool.acquire(configs("1"), true);
+		one.createProducer();
+		assertThat(one.getShare()).isEqualTo(4_000_000);
+		KafkaProducerPool.PooledProducerFactory unbudgeted = pool.acquire(configs("5"), false);
+		assertThat(one.getShare()).isEqualTo(4_000_000);
+		KafkaProducerPool.PooledProducerFactory two = pool.acquire(configs("10"), true);
+		assertThat(one.getShare()).isEqualTo(0);
+		one.createProducer();
+		two.createProducer();
+		assertThat(one.getShare() + two.getShare()).isLessThanOrEqualTo(4_000_000);
+		assertThat(unbudgeted.getShare()).isEqualTo(0);
+		pool.destroy();
+	}
+
+	@Test
+	public void testRetiredProducerIsClosedAfterTheGracePeriod() throws Exception {
+		KafkaProducerPool pool = new KafkaProducerPool(4_000_000);
+		Map<String, Object> configs = configs("1");
+		configs.put(ProducerConfig.MAX_BLOCK_MS_CONFIG, 1);
+		KafkaProducerPool.PooledProducerFactory one = pool.acquire(configs, true);
+		Producer<byte[], byte[]> retired = one.createProducer();
+		pool.acquire(configs("10"), true);
+		// still open: the send times out waiting for metadata instead of being rejected
+		assertThatThrownBy(() -> retired.send(new ProducerRecord<>("foo", "bar".getBytes())).get())
+				.hasCauseInstanceOf(TimeoutException.class);
+		assertThat(one.createProducer()).isNotSameAs(retired);
+		assertThat(one.getShare()).isEqualTo(2_000_000);
+		pool.destroy();
+		assertThatThrownBy(() -> retired.send(new ProducerRecord<>("foo", "bar".getBytes())))
+				.isInstanceOf(IllegalStateException.class);
+	}
+
+	private Map<String, Object> configs(String lingerMs) {
+		Map<String, Object> configs = new HashMap<>();
+		configs.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+		configs.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+		configs.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+		configs.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+		return configs;
+	}
+
+}
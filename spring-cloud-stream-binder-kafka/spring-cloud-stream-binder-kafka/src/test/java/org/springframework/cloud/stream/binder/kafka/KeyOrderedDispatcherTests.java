@@ -0,0 +1,150 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.KafkaMessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.ErrorMessage;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.retry.support.RetryTemplate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @since 2.1.5
+ */
+public class KeyOrderedDispatcherTests {
+
+	private static final TopicPartition PARTITION = new TopicPartition("foo", 0);
+
+	@Test
+	public void testOnlyContiguousOffsetsAreAcknowledged() throws Exception {
+		KeyOrderedDispatcher dispatcher = new KeyOrderedDispatcher("test", 4, 10);
+		dispatcher.start();
+		BlockingQueue<Long> acks = new LinkedBlockingQueue<>();
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch others = new CountDownLatch(2);
+		dispatcher.dispatch(PARTITION, "a".getBytes(), () -> acks.add(0L), () -> await(release));
+		dispatcher.dispatch(PARTITION, "b".getBytes(), () -> acks.add(1L), others::countDown);
+		dispatcher.dispatch(PARTITION, "c".getBytes(), () -> acks.add(2L), others::countDown);
+		assertThat(others.await(10, TimeUnit.SECONDS)).isTrue();
+		assertThat(acks.poll(100, TimeUnit.MILLISECONDS)).isNull();
+		assertThat(dispatcher.getInFlight()).isEqualTo(1);
+		release.countDown();
+		assertThat(acks.poll(10, TimeUnit.SECONDS)).isEqualTo(2L);
+		assertThat(acks.poll(100, TimeUnit.MILLISECONDS)).isNull();
+		dispatcher.stop(10_000);
+	}
+
+	@Test
+	public void testRecordsWithTheSameKeyAreProcessedInOrder() throws Exception {
+		KeyOrderedDispatcher dispatcher = new KeyOrderedDispatcher("test", 4, 10);
+		dispatcher.start();
+		List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch done = new CountDownLatch(100);
+		for (int i = 0; i < 100; i++) {
+			int n = i;
+			dispatcher.dispatch(new TopicPartition("foo", i % 3), "key".getBytes(), () -> { }, () -> {
+				processed.add(n);
+				done.countDown();
+			});
+		}
+		assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+		assertThat(processed).isSorted().hasSize(100);
+		dispatcher.stop(10_000);
+	}
+
+	@Test
+	public void testRevokedPartitionsAreDrained() throws Exception {
+		KeyOrderedDispatcher dispatcher = new KeyOrderedDispatcher("test", 2, 10);
+		dispatcher.start();
+		BlockingQueue<Long> acks = new LinkedBlockingQueue<>();
+		CountDownLatch release = new CountDownLatch(1);
+		dispatcher.dispatch(PARTITION, "a", () -> acks.add(0L), () -> await(release));
+		dispatcher.revoked(Collections.singletonList(PARTITION), 100);
+		release.countDown();
+		assertThat(acks.poll(200, TimeUnit.MILLISECONDS)).isNull();
+		dispatcher.dispatch(PARTITION, "b", () -> acks.add(1L), () -> { });
+		dispatcher.revoked(Collections.singletonList(PARTITION), 10_000);
+		assertThat(acks.poll()).isEqualTo(1L);
+		dispatcher.stop(10_000);
+	}
+
+	@Test
+	public void testAdapterRetriesOnWorkersThenSendsErrorMessage() throws Exception {
+		ContainerProperties containerProperties = new ContainerProperties("foo");
+		@SuppressWarnings("unchecked")
+		KafkaMessageListenerContainer<byte[], byte[]> container =
+				new KafkaMessageListenerContainer<>(mock(ConsumerFactory.class), containerProperties);
+		KeyOrderedDispatcher dispatcher = new KeyOrderedDispatcher("test", 2, 10);
+		dispatcher.start();
+		KeyOrderedMessageDrivenChannelAdapter<byte[], byte[]> adapter = new KeyOrderedMessageDrivenChannelAdapter<>(
+				container, new BinderHeaderMapper(), dispatcher, new RetryTemplate(), 10_000, null);
+		DirectChannel output = new DirectChannel();
+		List<String> threads = Collections.synchronizedList(new ArrayList<>());
+		output.subscribe(message -> {
+			threads.add(Thread.currentThread().getName());
+			assertThat(message.getHeaders()).doesNotContainKey(KafkaHeaders.ACKNOWLEDGMENT);
+			throw new IllegalStateException("test");
+		});
+		QueueChannel errors = new QueueChannel();
+		adapter.setOutputChannel(output);
+		adapter.setErrorChannel(errors);
+		BlockingQueue<Boolean> acks = new LinkedBlockingQueue<>();
+		Message<byte[]> message = MessageBuilder.withPayload("bar".getBytes())
+				.setHeader(KafkaHeaders.RECEIVED_TOPIC, "foo")
+				.setHeader(KafkaHeaders.RECEIVED_PARTITION_ID, 0)
+				.setHeader(KafkaHeaders.OFFSET, 42L)
+				.setHeader(KafkaHeaders.RECEIVED_MESSAGE_KEY, "baz".getBytes())
+				.setHeader(KafkaHeaders.ACKNOWLEDGMENT, (Acknowledgment) () -> acks.add(true))
+				.build();
+		adapter.sendMessage(message);
+		assertThat(acks.poll(10, TimeUnit.SECONDS)).isTrue();
+		Message<?> error = errors.receive(0);
+		assertThat(error).isInstanceOf(ErrorMessage.class);
+		assertThat(threads).hasSize(3).allMatch(name -> name.startsWith("test-worker-"));
+		dispatcher.stop(10_000);
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(10, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @since 2.1.5
+ */
+public class LatestValueConflatorTests {
+
+	private static final TopicPartition PARTITION0 = new TopicPartition("foo", 0);
+
+	private static final TopicPartition PARTITION1 = new TopicPartition("foo", 1);
+
+	@Test
+	public void testOnlyTheLastRecordOfEachKeyIsReturned() {
+		LatestValueConflator conflator = new LatestValueConflator();
+		MockConsumer<byte[], String> mock = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+		mock.assign(Arrays.asList(PARTITION0, PARTITION1));
+		Map<TopicPartition, Long> offsets = new HashMap<>();
+		offsets.put(PARTITION0, 0L);
+		offsets.put(PARTITION1, 0L);
+		mock.updateBeginningOffsets(offsets);
+		Consumer<byte[], String> consumer = InterceptingConsumerFactory.intercepted(mock, conflator);
+		mock.addRecord(new ConsumerRecord<>("foo", 0, 0, "a".getBytes(), "a0"));
+		mock.addRecord(new ConsumerRecord<>("foo", 0, 1, "b".getBytes(), "b1"));
+		mock.addRecord(new ConsumerRecord<>("foo", 0, 2, null, "null2"));
+		mock.addRecord(new ConsumerRecord<>("foo", 0, 3, "a".getBytes(), "a3"));
+		mock.addRecord(new ConsumerRecord<>("foo", 0, 4, null, "null4"));
+		mock.addRecord(new ConsumerRecord<>("foo", 0, 5, "c".getBytes(), "c5"));
+		mock.addRecord(new ConsumerRecord<>("foo", 0, 6, "b".getBytes(), "b6"));
+		mock.addRecord(new ConsumerRecord<>("foo", 1, 0, "a".getBytes(), "a0"));
+		mock.addRecord(new ConsumerRecord<>("foo", 1, 1, "a".getBytes(), "a1"));
+		List<String> values = new ArrayList<>();
+		for (ConsumerRecord<byte[], String> record : consumer.poll(Duration.ZERO).records(PARTITION0)) {
+			values.add(record.value());
+		}
+		assertThat(values).containsExactly("null2", "a3", "null4", "c5", "b6");
+		assertThat(conflator.getReceived()).isEqualTo(9);
+		assertThat(conflator.getEmitted()).isEqualTo(6);
+	}
+
+	@Test
+	public void testPollsWithoutDuplicateKeysAreReturnedAsIs() {
+		LatestValueConflator conflator = new LatestValueConflator();
+		MockConsumer<String, String> mock = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+		mock.assign(Arrays.asList(PARTITION0));
+		mock.updateBeginningOffsets(Collections.singletonMap(PARTITION0, 0L));
+		Consumer<String, String> consumer = InterceptingConsumerFactory.intercepted(mock, conflator);
+		mock.addRecord(new ConsumerRecord<>("foo", 0, 0, "a", "a0"));
+		mock.addRecord(new ConsumerRecord<>("foo", 0, 1, "b", "b1"));
+		assertThat(consumer.poll(Duration.ZERO).count()).isEqualTo(2);
+		assertThat(conflator.getEmitted()).isEqualTo(2);
+	}
+
+}
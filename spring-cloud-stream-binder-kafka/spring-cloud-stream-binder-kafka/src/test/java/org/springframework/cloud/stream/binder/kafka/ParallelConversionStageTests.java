@@ -0,0 +1,175 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.lang.reflect.Type;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.junit.Test;
+
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.support.converter.MessagingMessageConverter;
+import org.springframework.kafka.support.converter.RecordMessageConverter;
+import org.springframework.messaging.Message;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @since 2.1.5
+ */
+public class ParallelConversionStageTests {
+
+	private static final TopicPartition PARTITION = new TopicPartition("foo", 0);
+
+	@Test
+	public void testRecordsAreConvertedInParallelAndHandedOverInOrder() {
+		ThreadRecordingConverter converter = new ThreadRecordingConverter();
+		ParallelConversionStage stage = new ParallelConversionStage("test", 4, converter, new StringDeserializer(),
+				new StringDeserializer());
+		MockConsumer<byte[], byte[]> mock = mockConsumer();
+		Consumer<?, ?> consumer = InterceptingConsumerFactory.intercepted(mock, stage);
+		for (int i = 0; i < 100; i++) {
+			mock.addRecord(new ConsumerRecord<>("foo", 0, i, ("k" + i).getBytes(), ("v" + i).getBytes()));
+		}
+		ConsumerRecords<?, ?> records = consumer.poll(Duration.ZERO);
+		assertThat(converter.threads).hasSize(4);
+		assertThat(stage.getQueued()).isEqualTo(100);
+		assertThat(stage.getConversions()).isEqualTo(100);
+		RecordMessageConverter handOver = stage.messageConverter();
+		Acknowledgment acknowledgment = () -> { };
+		int i = 0;
+		for (ConsumerRecord<?, ?> record : records) {
+			assertThat(record.key()).isEqualTo("k" + i);
+			Message<?> message = handOver.toMessage(record, acknowledgment, consumer, null);
+			assertThat(message.getPayload()).isEqualTo("v" + i);
+			assertThat(message.getHeaders().get(KafkaHeaders.OFFSET)).isEqualTo((long) i);
+			assertThat(message.getHeaders().get(KafkaHeaders.ACKNOWLEDGMENT)).isSameAs(acknowledgment);
+			assertThat(message.getHeaders().get(KafkaHeaders.CONSUMER)).isSameAs(consumer);
+			i++;
+		}
+		assertThat(i).isEqualTo(100);
+		assertThat(stage.getQueued()).isEqualTo(0);
+		assertThat(converter.count.get()).isEqualTo(100);
+	}
+
+	@Test
+	public void testUnhandledMessagesAreDroppedAtTheNextPoll() {
+		ThreadRecordingConverter converter = new ThreadRecordingConverter();
+		ParallelConversionStage stage = new ParallelConversionStage("test", 2, converter, null, null);
+		MockConsumer<byte[], byte[]> mock = mockConsumer();
+		Consumer<?, ?> consumer = InterceptingConsumerFactory.intercepted(mock, stage);
+		mock.addRecord(new ConsumerRecord<>("foo", 0, 0, null, "a".getBytes()));
+		mock.addRecord(new ConsumerRecord<>("foo", 0, 1, null, "b".getBytes()));
+		ConsumerRecords<?, ?> records = consumer.poll(Duration.ZERO);
+		assertThat(stage.getQueued()).isEqualTo(2);
+		assertThat(consumer.poll(Duration.ZERO).isEmpty()).isTrue();
+		assertThat(stage.getQueued()).isEqualTo(0);
+		// converted again, on this thread
+		Message<?> message = stage.messageConverter().toMessage(records.iterator().next(), null, null, null);
+		assertThat(message.getPayload()).isEqualTo("a".getBytes());
+		assertThat(converter.count.get()).isEqualTo(3);
+	}
+
+	@Test
+	public void testConversionFailuresAreThrownWhenTheRecordIsHandedOver() {
+		ParallelConversionStage stage = new ParallelConversionStage("test", 2, new MessagingMessageConverter(),
+				null, new StringDeserializer() {
+
+					@Override
+					public String deserialize(String topic, byte[] data) {
+						if ("bad".equals(new String(data))) {
+							throw new IllegalArgumentException("test");
+						}
+						return super.deserialize(topic, data);
+					}
+
+				});
+		MockConsumer<byte[], byte[]> mock = mockConsumer();
+		Consumer<?, ?> consumer = InterceptingConsumerFactory.intercepted(mock, stage);
+		mock.addRecord(new ConsumerRecord<>("foo", 0, 0, null, "a".getBytes()));
+		mock.addRecord(new ConsumerRecord<>("foo", 0, 1, null, "bad".getBytes()));
+		mock.addRecord(new ConsumerRecord<>("foo", 0, 2, null, "c".getBytes()));
+		ConsumerRecords<?, ?> records = consumer.poll(Duration.ZERO);
+		assertThat(records.count()).isEqualTo(3);
+		RecordMessageConverter handOver = stage.messageConverter();
+		Iterator<? extends ConsumerRecord<?, ?>> iterator = records.iterator();
+		assertThat(handOver.toMessage(iterator.next(), null, null, null).getPayload()).isEqualTo("a");
+		ConsumerRecord<?, ?> bad = iterator.next();
+		assertThat(bad.value()).isEqualTo("bad".getBytes());
+		for (int i = 0; i < 2; i++) {
+			// a retry fails again
+			assertThatThrownBy(() -> handOver.toMessage(bad, null, null, null))
+					.isInstanceOf(IllegalArgumentException.class)
+					.hasMessage("test");
+		}
+		assertThat(handOver.toMessage(iterator.next(), null, null, null).getPayload()).isEqualTo("c");
+	}
+
+	private static MockConsumer<byte[], byte[]> mockConsumer() {
+		MockConsumer<byte[], byte[]> mock = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+		mock.assign(Collections.singletonList(PARTITION));
+		mock.updateBeginningOffsets(Collections.singletonMap(PARTITION, 0L));
+		return mock;
+	}
+
+	private static final class ThreadRecordingConverter implements RecordMessageConverter {
+
+		private final MessagingMessageConverter delegate = new MessagingMessageConverter();
+
+		private final Set<String> threads = ConcurrentHashMap.newKeySet();
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Message<?> toMessage(ConsumerRecord<?, ?> record, Acknowledgment acknowledgment,
+				Consumer<?, ?> consumer, Type payloadType) {
+
+			this.threads.add(Thread.currentThread().getName());
+			this.count.incrementAndGet();
+			try {
+				// give the other threads a chance to take their share
+				Thread.sleep(1);
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			return this.delegate.toMessage(record, acknowledgment, consumer, payloadType);
+		}
+
+		@Override
+		public ProducerRecord<?, ?> fromMessage(Message<?> message, String defaultTopic) {
+			return this.delegate.fromMessage(message, defaultTopic);
+		}
+
+	}
+
+}
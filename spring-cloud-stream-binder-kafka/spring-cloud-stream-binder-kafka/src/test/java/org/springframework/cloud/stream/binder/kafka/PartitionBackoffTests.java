@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @since 2.1.5
+ */
+public class PartitionBackoffTests {
+
+	private static final TopicPartition PARTITION_0 = new TopicPartition("foo", 0);
+
+	private static final TopicPartition PARTITION_1 = new TopicPartition("foo", 1);
+
+	@Test
+	public void testOnlyTheFailedPartitionIsPausedUntilItsDelayHasElapsed() throws Exception {
+		PartitionBackoff backoff = new PartitionBackoff(3, 200, 2.0, 10_000);
+		MockConsumer<byte[], byte[]> mock = consumer();
+		Consumer<byte[], byte[]> consumer = InterceptingConsumerFactory.intercepted(mock, backoff);
+		consumer.poll(Duration.ZERO);
+		assertThat(backoff.backOff(PARTITION_0, 5)).isTrue();
+		assertThat(mock.paused()).containsExactly(PARTITION_0);
+		assertThat(mock.position(PARTITION_0)).isEqualTo(5);
+		assertThat(backoff.isPaused(PARTITION_0)).isTrue();
+		assertThat(backoff.isPaused(PARTITION_1)).isFalse();
+		assertThat(backoff.getPausedCount()).isEqualTo(1);
+		consumer.poll(Duration.ZERO);
+		assertThat(mock.paused()).containsExactly(PARTITION_0);
+		Thread.sleep(250);
+		consumer.poll(Duration.ZERO);
+		assertThat(mock.paused()).isEmpty();
+		assertThat(backoff.isPaused(PARTITION_0)).isFalse();
+	}
+
+	@Test
+	public void testAttemptsAreCountedPerOffset() {
+		PartitionBackoff backoff = new PartitionBackoff(2, 0, 2.0, 10_000);
+		Consumer<byte[], byte[]> consumer = InterceptingConsumerFactory.intercepted(consumer(), backoff);
+		consumer.poll(Duration.ZERO);
+		assertThat(backoff.backOff(PARTITION_0, 5)).isTrue();
+		assertThat(backoff.backOff(PARTITION_0, 5)).isFalse();
+		assertThat(backoff.backOff(PARTITION_0, 6)).isTrue();
+		backoff.succeeded(PARTITION_0);
+		assertThat(backoff.backOff(PARTITION_0, 6)).isTrue();
+		assertThat(backoff.getPausedCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void testRevokedPartitionsAreForgotten() {
+		PartitionBackoff backoff = new PartitionBackoff(3, 10_000, 2.0, 10_000);
+		MockConsumer<byte[], byte[]> mock = consumer();
+		Consumer<byte[], byte[]> consumer = InterceptingConsumerFactory.intercepted(mock, backoff);
+		consumer.poll(Duration.ZERO);
+		assertThat(backoff.backOff(PARTITION_0, 5)).isTrue();
+		mock.assign(Collections.singletonList(PARTITION_1));
+		consumer.poll(Duration.ZERO);
+		assertThat(backoff.getPausedCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void testPartitionReassignedToTheSameConsumerIsNoLongerSkipped() {
+		PartitionBackoff backoff = new PartitionBackoff(3, 10_000, 2.0, 10_000);
+		MockConsumer<byte[], byte[]> mock = consumer();
+		Consumer<byte[], byte[]> consumer = InterceptingConsumerFactory.intercepted(mock, backoff);
+		consumer.poll(Duration.ZERO);
+		assertThat(backoff.backOff(PARTITION_0, 5)).isTrue();
+		// an eager rebalance loses the pause
+		mock.resume(Collections.singletonList(PARTITION_0));
+		assertThat(backoff.isPaused(PARTITION_0)).isFalse();
+		backoff.revoked(Collections.singletonList(PARTITION_0));
+		assertThat(backoff.getPausedCount()).isEqualTo(0);
+		assertThat(backoff.backOff(PARTITION_0, 5)).isTrue();
+		mock.resume(Collections.singletonList(PARTITION_0));
+		consumer.poll(Duration.ZERO);
+		assertThat(backoff.getPausedCount()).isEqualTo(0);
+	}
+
+	private static MockConsumer<byte[], byte[]> consumer() {
+		MockConsumer<byte[], byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+		consumer.assign(Arrays.asList(PARTITION_0, PARTITION_1));
+		Map<TopicPartition, Long> beginning = new HashMap<>();
+		beginning.put(PARTITION_0, 0L);
+		beginning.put(PARTITION_1, 0L);
+		consumer.updateBeginningOffsets(beginning);
+		return consumer;
+	}
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @since 2.1.5
+ */
+public class PrefetchingConsumerFactoryTests {
+
+	private static final TopicPartition PARTITION0 = new TopicPartition("foo", 0);
+
+	private static final TopicPartition PARTITION1 = new TopicPartition("foo", 1);
+
+	@Test
+	public void testTheMessageSourceSeesOneRecordPerPoll() {
+		Map<String, Object> configs = new HashMap<>();
+		configs.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, 500);
+		PrefetchingConsumerFactory<byte[], byte[]> factory = new PrefetchingConsumerFactory<>(
+				new DefaultKafkaConsumerFactory<>(configs), 100);
+		assertThat(factory.getConfigurationProperties().get(ConsumerConfig.MAX_POLL_RECORDS_CONFIG)).isEqualTo(1);
+	}
+
+	@Test
+	public void testBufferedRecordsAreReturnedOneAtATime() {
+		MockConsumer<byte[], byte[]> mock = consumer();
+		Consumer<byte[], byte[]> consumer = PrefetchingConsumerFactory.prefetching(mock);
+		for (long offset = 0; offset < 3; offset++) {
+			mock.addRecord(record(0, offset));
+		}
+		assertThat(offset(consumer.poll(Duration.ZERO))).isEqualTo(0L);
+		// records added now are only fetched once the buffer is empty
+		mock.addRecord(record(0, 3));
+		assertThat(offset(consumer.poll(Duration.ZERO))).isEqualTo(1L);
+		assertThat(offset(consumer.poll(Duration.ZERO))).isEqualTo(2L);
+		assertThat(offset(consumer.poll(Duration.ZERO))).isEqualTo(3L);
+		assertThat(consumer.poll(Duration.ZERO).isEmpty()).isTrue();
+	}
+
+	@Test
+	public void testSeekDropsTheBufferedRecordsOfThePartition() {
+		MockConsumer<byte[], byte[]> mock = consumer();
+		Consumer<byte[], byte[]> consumer = PrefetchingConsumerFactory.prefetching(mock);
+		mock.addRecord(record(0, 0));
+		mock.addRecord(record(0, 1));
+		mock.addRecord(record(1, 0));
+		assertThat(offset(consumer.poll(Duration.ZERO))).isEqualTo(0L);
+		// requeue
+		consumer.seek(PARTITION0, 0);
+		assertThat(consumer.poll(Duration.ZERO).records(PARTITION1)).hasSize(1);
+		mock.addRecord(record(0, 0));
+		assertThat(offset(consumer.poll(Duration.ZERO))).isEqualTo(0L);
+	}
+
+	@Test
+	public void testBufferedRecordsOfPausedPartitionsAreKept() {
+		MockConsumer<byte[], byte[]> mock = consumer();
+		Consumer<byte[], byte[]> consumer = PrefetchingConsumerFactory.prefetching(mock);
+		mock.addRecord(record(0, 0));
+		mock.addRecord(record(0, 1));
+		mock.addRecord(record(1, 0));
+		assertThat(offset(consumer.poll(Duration.ZERO))).isEqualTo(0L);
+		consumer.pause(Collections.singletonList(PARTITION0));
+		assertThat(consumer.poll(Duration.ZERO).records(PARTITION1)).hasSize(1);
+		assertThat(consumer.poll(Duration.ZERO).isEmpty()).isTrue();
+		consumer.resume(Collections.singletonList(PARTITION0));
+		assertThat(consumer.poll(Duration.ZERO).records(PARTITION0).get(0).offset()).isEqualTo(1L);
+	}
+
+	private static MockConsumer<byte[], byte[]> consumer() {
+		MockConsumer<byte[], byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+		consumer.assign(Arrays.asList(PARTITION0, PARTITION1));
+		Map<TopicPartition, Long> offsets = new HashMap<>();
+		offsets.put(PARTITION0, 0L);
+		offsets.put(PARTITION1, 0L);
+		consumer.updateBeginningOffsets(offsets);
+		return consumer;
+	}
+
+	private static ConsumerRecord<byte[], byte[]> record(int partition, long offset) {
+		return new ConsumerRecord<>("foo", partition, offset, null, "bar".getBytes());
+	}
+
+	private static long offset(ConsumerRecords<byte[], byte[]> records) {
+		assertThat(records.count()).isEqualTo(1);
+		return records.iterator().next().offset();
+	}
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @since 2.1.5
+ */
+public class RecordConflatorTests {
+
+	private final List<Message<?>> sent = new CopyOnWriteArrayList<>();
+
+	@Test
+	public void testLatestValuePerKeyIsSent() {
+		RecordConflator conflator = conflator(10000, 100);
+		assertThat(conflator.offer(message("a".getBytes(), "a1"))).isTrue();
+		assertThat(conflator.offer(message("b".getBytes(), "b1"))).isTrue();
+		assertThat(conflator.offer(message("a".getBytes(), "a2"))).isTrue();
+		assertThat(conflator.offer(message(null, "none"))).isFalse();
+		assertThat(this.sent).isEmpty();
+		conflator.flush();
+		assertThat(payloads()).containsExactly("b1", "a2");
+		conflator.offer(message("a".getBytes(), "a3"));
+		conflator.stop();
+		assertThat(payloads()).containsExactly("b1", "a2", "a3");
+		assertThat(conflator.getReceived()).isEqualTo(4);
+		assertThat(conflator.getEmitted()).isEqualTo(3);
+	}
+
+	@Test
+	public void testFlushWhenMaxKeysReached() {
+		RecordConflator conflator = conflator(10000, 2);
+		conflator.offer(message("a", "a1"));
+		conflator.offer(message("a", "a2"));
+		assertThat(this.sent).isEmpty();
+		conflator.offer(message("b", "b1"));
+		assertThat(payloads()).containsExactly("a2", "b1");
+	}
+
+	@Test
+	public void testFlushWhenWindowEnds() throws Exception {
+		RecordConflator conflator = conflator(50, 100);
+		conflator.start("test");
+		conflator.offer(message("a", "a1"));
+		conflator.offer(message("a", "a2"));
+		int n = 0;
+		while (n++ < 100 && this.sent.isEmpty()) {
+			Thread.sleep(20);
+		}
+		assertThat(payloads()).containsExactly("a2");
+		conflator.stop();
+	}
+
+	private RecordConflator conflator(long window, int maxKeys) {
+		return new RecordConflator(window, maxKeys, message -> message.getHeaders().get(KafkaHeaders.MESSAGE_KEY),
+				this.sent::add);
+	}
+
+	private Message<?> message(Object key, String payload) {
+		return MessageBuilder.withPayload(payload).setHeader(KafkaHeaders.MESSAGE_KEY, key).build();
+	}
+
+	private List<Object> payloads() {
+		return this.sent.stream().map(Message::getPayload).collect(Collectors.toList());
+	}
+
+}
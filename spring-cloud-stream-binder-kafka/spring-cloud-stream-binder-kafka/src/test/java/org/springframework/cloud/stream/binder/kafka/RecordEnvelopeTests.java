@@ -0,0 +1,210 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.Test;
+
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.integration.kafka.support.RawRecordHeaderErrorMessageStrategy;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.KafkaMessageListenerContainer;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.MessageBuilder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @since 2.1.5
+ */
+public class RecordEnvelopeTests {
+
+	@Test
+	public void testRoundTrip() {
+		RecordHeaders headers = new RecordHeaders();
+		headers.add("contentType", "text/plain".getBytes(StandardCharsets.UTF_8));
+		headers.add("empty", null);
+		byte[] one = RecordEnvelope.encode("k".getBytes(), headers, "foo".getBytes());
+		byte[] two = RecordEnvelope.encode(null, new RecordHeaders(), new byte[0]);
+		List<RecordEnvelope.Entry> entries = RecordEnvelope.unpack(
+				RecordEnvelope.pack(Arrays.asList(one, two), one.length + two.length));
+		assertThat(entries).hasSize(2);
+		assertThat(entries.get(0).getKey()).isEqualTo("k".getBytes());
+		assertThat(entries.get(0).getHeaders().lastHeader("contentType").value()).isEqualTo("text/plain".getBytes());
+		assertThat(entries.get(0).getHeaders().lastHeader("empty").value()).isNull();
+		assertThat(entries.get(0).getValue()).isEqualTo("foo".getBytes());
+		assertThat(entries.get(1).getKey()).isNull();
+		assertThat(entries.get(1).getHeaders().toArray()).isEmpty();
+		assertThat(entries.get(1).getValue()).isEmpty();
+	}
+
+	@Test
+	public void testEnvelopeRecordsOfABatchAreUnpacked() {
+		byte[] one = RecordEnvelope.encode("k".getBytes(), new RecordHeaders(), "foo".getBytes());
+		byte[] two = RecordEnvelope.encode(null, new RecordHeaders(), "bar".getBytes());
+		ConsumerRecord<byte[], byte[]> envelope = new ConsumerRecord<>("foo", 0, 11L, null,
+				RecordEnvelope.pack(Arrays.asList(one, two), one.length + two.length));
+		envelope.headers().add(RecordEnvelope.HEADER, new byte[] { RecordEnvelope.VERSION });
+		ConsumerRecord<byte[], byte[]> plain = new ConsumerRecord<>("foo", 0, 12L, null, "baz".getBytes());
+		List<ConsumerRecord<?, ?>> unpacked = RecordEnvelope.unpackAll(Arrays.asList(plain, envelope, plain));
+		assertThat(unpacked).extracting(record -> new String((byte[]) record.value()))
+				.containsExactly("baz", "foo", "bar", "baz");
+		assertThat(unpacked).extracting(ConsumerRecord::offset).containsExactly(12L, 11L, 11L, 12L);
+		assertThat(unpacked.get(1).key()).isEqualTo("k".getBytes());
+		assertThat(unpacked.get(1).headers().lastHeader(RecordEnvelope.HEADER)).isNull();
+		assertThat(RecordEnvelope.unpackAll(Collections.singletonList(plain))).containsExactly(plain);
+	}
+
+	@Test
+	public void testMalformed() {
+		byte[] entry = RecordEnvelope.encode(null, new RecordHeaders(), "foo".getBytes());
+		byte[] envelope = RecordEnvelope.pack(Collections.singletonList(entry), entry.length);
+		assertThatThrownBy(() -> RecordEnvelope.unpack(Arrays.copyOf(envelope, envelope.length - 1)))
+				.isInstanceOf(IllegalStateException.class);
+		envelope[0] = 42;
+		assertThatThrownBy(() -> RecordEnvelope.unpack(envelope))
+				.isInstanceOf(IllegalStateException.class)
+				.hasMessageContaining("version");
+	}
+
+	@Test
+	public void testAccumulatorEmitsPerPartitionWhenFull() {
+		List<Integer> partitions = new ArrayList<>();
+		List<Integer> counts = new ArrayList<>();
+		EnvelopeAccumulator accumulator = new EnvelopeAccumulator(2, 1024, 60_000, (partition, envelope, messages) -> {
+			partitions.add(partition);
+			counts.add(RecordEnvelope.unpack(envelope).size());
+		});
+		Message<byte[]> message = MessageBuilder.withPayload("foo".getBytes()).build();
+		byte[] entry = RecordEnvelope.encode(null, new RecordHeaders(), message.getPayload());
+		accumulator.offer(0, entry, message);
+		accumulator.offer(1, entry, message);
+		assertThat(partitions).isEmpty();
+		accumulator.offer(0, entry, message);
+		assertThat(partitions).containsExactly(0);
+		accumulator.offer(null, RecordEnvelope.encode(null, new RecordHeaders(), new byte[2000]), message);
+		assertThat(partitions).containsExactly(0, null);
+		accumulator.stop();
+		assertThat(partitions).containsExactly(0, null, 1);
+		assertThat(counts).containsExactly(2, 1, 1);
+		assertThat(accumulator.getMessages()).isEqualTo(4);
+		assertThat(accumulator.getEnvelopes()).isEqualTo(3);
+	}
+
+	@Test
+	public void testAdapterUnpacksAndResumesAfterFailure() {
+		ContainerProperties containerProperties = new ContainerProperties("foo");
+		@SuppressWarnings("unchecked")
+		KafkaMessageListenerContainer<byte[], byte[]> container =
+				new KafkaMessageListenerContainer<>(mock(ConsumerFactory.class), containerProperties);
+		EnvelopeAwareMessageDrivenChannelAdapter<byte[], byte[]> adapter =
+				new EnvelopeAwareMessageDrivenChannelAdapter<>(container, new BinderHeaderMapper());
+		DirectChannel output = new DirectChannel();
+		List<String> received = new ArrayList<>();
+		boolean[] failed = new boolean[1];
+		output.subscribe(message -> {
+			String payload = new String((byte[]) message.getPayload());
+			if ("bar".equals(payload) && !failed[0]) {
+				failed[0] = true;
+				throw new IllegalStateException("test");
+			}
+			received.add(payload + message.getHeaders().get(KafkaMessageChannelBinder.ENVELOPE_INDEX)
+					+ new String((byte[]) message.getHeaders().get(KafkaHeaders.RECEIVED_MESSAGE_KEY)));
+		});
+		adapter.setOutputChannel(output);
+		List<byte[]> entries = new ArrayList<>();
+		int size = 0;
+		for (String value : new String[] { "foo", "bar", "baz" }) {
+			byte[] entry = RecordEnvelope.encode(value.substring(0, 1).getBytes(), new RecordHeaders(),
+					value.getBytes());
+			entries.add(entry);
+			size += entry.length;
+		}
+		Message<byte[]> envelope = MessageBuilder.withPayload(RecordEnvelope.pack(entries, size))
+				.setHeader(RecordEnvelope.HEADER, new byte[] { RecordEnvelope.VERSION })
+				.setHeader(KafkaHeaders.RECEIVED_TOPIC, "foo")
+				.setHeader(KafkaHeaders.RECEIVED_PARTITION_ID, 0)
+				.setHeader(KafkaHeaders.OFFSET, 42L)
+				.build();
+		assertThatThrownBy(() -> adapter.sendMessage(envelope))
+				.isInstanceOf(MessagingException.class)
+				.satisfies(ex -> assertThat(((MessagingException) ex).getFailedMessage().getHeaders()
+						.get(KafkaMessageChannelBinder.ENVELOPE_INDEX)).isEqualTo(1));
+		assertThat(received).containsExactly("foo0f");
+		adapter.sendMessage(envelope);
+		assertThat(received).containsExactly("foo0f", "bar1b", "baz2b");
+	}
+
+	@Test
+	public void testAdapterRecoversOnlyTheFailedMessage() {
+		ContainerProperties containerProperties = new ContainerProperties("foo");
+		@SuppressWarnings("unchecked")
+		KafkaMessageListenerContainer<byte[], byte[]> container =
+				new KafkaMessageListenerContainer<>(mock(ConsumerFactory.class), containerProperties);
+		EnvelopeAwareMessageDrivenChannelAdapter<byte[], byte[]> adapter =
+				new EnvelopeAwareMessageDrivenChannelAdapter<>(container, new BinderHeaderMapper());
+		DirectChannel output = new DirectChannel();
+		List<String> received = new ArrayList<>();
+		output.subscribe(message -> {
+			String payload = new String((byte[]) message.getPayload());
+			if ("bar".equals(payload)) {
+				throw new IllegalStateException("test");
+			}
+			received.add(payload);
+		});
+		adapter.setOutputChannel(output);
+		QueueChannel errors = new QueueChannel();
+		adapter.setErrorChannel(errors);
+		adapter.setErrorMessageStrategy(new RawRecordHeaderErrorMessageStrategy());
+		List<byte[]> entries = new ArrayList<>();
+		int size = 0;
+		for (String value : new String[] { "foo", "bar", "baz" }) {
+			byte[] entry = RecordEnvelope.encode(null, new RecordHeaders(), value.getBytes());
+			entries.add(entry);
+			size += entry.length;
+		}
+		Message<byte[]> envelope = MessageBuilder.withPayload(RecordEnvelope.pack(entries, size))
+				.setHeader(RecordEnvelope.HEADER, new byte[] { RecordEnvelope.VERSION })
+				.setHeader(KafkaHeaders.RECEIVED_TOPIC, "foo")
+				.setHeader(KafkaHeaders.RECEIVED_PARTITION_ID, 0)
+				.setHeader(KafkaHeaders.OFFSET, 42L)
+				.build();
+		adapter.sendMessage(envelope);
+		assertThat(received).containsExactly("foo", "baz");
+		Message<?> error = errors.receive(0);
+		assertThat(error).isNotNull();
+		ConsumerRecord<?, ?> record = (ConsumerRecord<?, ?>) error.getHeaders().get(KafkaHeaders.RAW_DATA);
+		assertThat(record.offset()).isEqualTo(42L);
+		assertThat(record.value()).isEqualTo("bar".getBytes());
+		assertThat(record.headers().lastHeader(RecordEnvelope.HEADER)).isNull();
+		assertThat(errors.receive(0)).isNull();
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.time.Duration;
+import java.util.Collections;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * @since 2.1.5
+ */
+public class RetryTopicMessageDrivenChannelAdapterTests {
+
+	private static final TopicPartition PARTITION = new TopicPartition("retry.foo.bar.10000", 0);
+
+	private final PartitionBackoff backoff = new PartitionBackoff(1, 0, 1.0, 0);
+
+	private final MockConsumer<byte[], byte[]> mock = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+
+	private final Consumer<byte[], byte[]> consumer = InterceptingConsumerFactory.intercepted(this.mock,
+			this.backoff);
+
+	private final QueueChannel output = new QueueChannel();
+
+	@Test
+	public void testPartitionIsPausedUntilTheRecordIsDue() {
+		RetryTopicMessageDrivenChannelAdapter<byte[], byte[]> adapter = adapter(true);
+		this.consumer.poll(Duration.ZERO);
+		Acknowledgment acknowledgment = mock(Acknowledgment.class);
+		adapter.sendMessage(message(System.currentTimeMillis(), 5, acknowledgment));
+		assertThat(this.output.receive(0)).isNull();
+		verify(acknowledgment, never()).acknowledge();
+		assertThat(this.mock.paused()).containsExactly(PARTITION);
+		assertThat(this.mock.position(PARTITION)).isEqualTo(5);
+		// fetched before the partition was paused
+		adapter.sendMessage(message(System.currentTimeMillis() - 20_000, 6, acknowledgment));
+		assertThat(this.output.receive(0)).isNull();
+		verify(acknowledgment, never()).acknowledge();
+		this.consumer.poll(Duration.ZERO);
+		assertThat(this.mock.paused()).containsExactly(PARTITION);
+	}
+
+	@Test
+	public void testDueRecordIsSentAndAcknowledged() {
+		RetryTopicMessageDrivenChannelAdapter<byte[], byte[]> adapter = adapter(true);
+		this.consumer.poll(Duration.ZERO);
+		Acknowledgment acknowledgment = mock(Acknowledgment.class);
+		adapter.sendMessage(message(System.currentTimeMillis() - 20_000, 5, acknowledgment));
+		assertThat(this.output.receive(0)).isNotNull();
+		verify(acknowledgment).acknowledge();
+		assertThat(this.mock.paused()).isEmpty();
+	}
+
+	@Test
+	public void testDueRecordIsNotAcknowledgedWhenTheBindingAcknowledges() {
+		RetryTopicMessageDrivenChannelAdapter<byte[], byte[]> adapter = adapter(false);
+		this.consumer.poll(Duration.ZERO);
+		Acknowledgment acknowledgment = mock(Acknowledgment.class);
+		adapter.sendMessage(message(System.currentTimeMillis() - 20_000, 5, acknowledgment));
+		assertThat(this.output.receive(0)).isNotNull();
+		verify(acknowledgment, never()).acknowledge();
+	}
+
+	private RetryTopicMessageDrivenChannelAdapter<byte[], byte[]> adapter(boolean acknowledge) {
+		this.mock.assign(Collections.singletonList(PARTITION));
+		this.mock.updateBeginningOffsets(Collections.singletonMap(PARTITION, 0L));
+		@SuppressWarnings("unchecked")
+		ConcurrentMessageListenerContainer<byte[], byte[]> container = new ConcurrentMessageListenerContainer<>(
+				mock(ConsumerFactory.class), new ContainerProperties(PARTITION.topic()));
+		RetryTopicMessageDrivenChannelAdapter<byte[], byte[]> adapter = new RetryTopicMessageDrivenChannelAdapter<>(
+				container, new BinderHeaderMapper(), 10_000, this.backoff, acknowledge);
+		adapter.setOutputChannel(this.output);
+		return adapter;
+	}
+
+	private static Message<byte[]> message(long timestamp, long offset, Acknowledgment acknowledgment) {
+		return MessageBuilder.withPayload("baz".getBytes())
+				.setHeader(KafkaHeaders.RECEIVED_TOPIC, PARTITION.topic())
+				.setHeader(KafkaHeaders.RECEIVED_PARTITION_ID, PARTITION.partition())
+				.setHeader(KafkaHeaders.OFFSET, offset)
+				.setHeader(KafkaHeaders.RECEIVED_TIMESTAMP, timestamp)
+				.setHeader(KafkaHeaders.ACKNOWLEDGMENT, acknowledgment)
+				.build();
+	}
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.Test;
+
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.support.converter.MessagingMessageConverter;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @since 2.1.5
+ */
+public class SharedFetchConsumerTests {
+
+	private static final TopicPartition PARTITION = new TopicPartition("foo", 0);
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testEachGroupGetsTheRecordsAfterItsCommittedOffset() {
+		MessageListenerContainer container = mock(MessageListenerContainer.class);
+		given(container.getContainerProperties()).willReturn(new ContainerProperties("foo"));
+		SharedFetchConsumer<byte[], byte[]> shared = new SharedFetchConsumer<>(container);
+		MockConsumer<byte[], byte[]> commitsA = commitConsumer();
+		commitsA.commitSync(Collections.singletonMap(PARTITION, new OffsetAndMetadata(5)));
+		MockConsumer<byte[], byte[]> commitsB = commitConsumer();
+		QueueChannel outputA = new QueueChannel();
+		QueueChannel outputB = new QueueChannel();
+		shared.subscribe(subscriber(shared, "a", commitsA, outputA));
+		shared.subscribe(subscriber(shared, "b", commitsB, outputB));
+		assertThat(shared.getSubscriberCount()).isEqualTo(2);
+
+		MockConsumer<byte[], byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+		consumer.assign(Collections.singletonList(PARTITION));
+		consumer.updateBeginningOffsets(Collections.singletonMap(PARTITION, 3L));
+		shared.onPartitionsAssigned(consumer, Collections.singletonList(PARTITION));
+		assertThat(consumer.position(PARTITION)).isEqualTo(3L);
+
+		List<ConsumerRecord<byte[], byte[]>> records = new ArrayList<>();
+		for (long offset = 3; offset < 7; offset++) {
+			records.add(new ConsumerRecord<>("foo", 0, offset, null, "bar".getBytes()));
+		}
+		shared.onMessage(records, consumer);
+		assertThat(offsets(outputA)).containsExactly(5L, 6L);
+		assertThat(offsets(outputB)).containsExactly(3L, 4L, 5L, 6L);
+		assertThat(commitsA.committed(PARTITION).offset()).isEqualTo(7L);
+		assertThat(commitsB.committed(PARTITION).offset()).isEqualTo(7L);
+
+		// records already processed by a group are not sent again
+		shared.onMessage(records.subList(3, 4), consumer);
+		assertThat(outputA.receive(0)).isNull();
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testAFailingGroupDoesNotHoldBackTheOthers() {
+		MessageListenerContainer container = mock(MessageListenerContainer.class);
+		given(container.getContainerProperties()).willReturn(new ContainerProperties("foo"));
+		SharedFetchConsumer<byte[], byte[]> shared = new SharedFetchConsumer<>(container);
+		MockConsumer<byte[], byte[]> commitsA = commitConsumer();
+		MockConsumer<byte[], byte[]> commitsB = commitConsumer();
+		QueueChannel errors = new QueueChannel();
+		DirectChannel outputA = new DirectChannel();
+		outputA.subscribe(message -> {
+			throw new IllegalStateException("test");
+		});
+		SharedFetchMessageProducer failing = subscriber(shared, "a", commitsA, outputA);
+		failing.setErrorChannel(errors);
+		QueueChannel outputB = new QueueChannel();
+		shared.subscribe(failing);
+		shared.subscribe(subscriber(shared, "b", commitsB, outputB));
+		MockConsumer<byte[], byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+		shared.onMessage(Arrays.asList(new ConsumerRecord<>("foo", 0, 0, null, "bar".getBytes())), consumer);
+		Message<?> error = errors.receive(0);
+		assertThat(error).isNotNull();
+		assertThat(error.getHeaders().get(KafkaHeaders.RAW_DATA)).isInstanceOf(ConsumerRecord.class);
+		assertThat(offsets(outputB)).containsExactly(0L);
+		assertThat(commitsA.committed(PARTITION).offset()).isEqualTo(1L);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testEnvelopeRecordsAreUnpacked() {
+		MessageListenerContainer container = mock(MessageListenerContainer.class);
+		given(container.getContainerProperties()).willReturn(new ContainerProperties("foo"));
+		SharedFetchConsumer<byte[], byte[]> shared = new SharedFetchConsumer<>(container);
+		QueueChannel output = new QueueChannel();
+		shared.subscribe(subscriber(shared, "a", commitConsumer(), output));
+		byte[] foo = RecordEnvelope.encode(null, new RecordHeaders(), "foo".getBytes());
+		byte[] bar = RecordEnvelope.encode(null, new RecordHeaders(), "bar".getBytes());
+		ConsumerRecord<byte[], byte[]> envelope = new ConsumerRecord<>("foo", 0, 0, null,
+				RecordEnvelope.pack(Arrays.asList(foo, bar), foo.length + bar.length));
+		envelope.headers().add(RecordEnvelope.HEADER, new byte[] { RecordEnvelope.VERSION });
+		shared.onMessage(Collections.singletonList(envelope), new MockConsumer<>(OffsetResetStrategy.EARLIEST));
+		List<String> payloads = new ArrayList<>();
+		Message<?> message;
+		while ((message = output.receive(0)) != null) {
+			payloads.add(new String((byte[]) message.getPayload())
+					+ message.getHeaders().get(KafkaMessageChannelBinder.ENVELOPE_INDEX));
+		}
+		assertThat(payloads).containsExactly("foo0", "bar1");
+	}
+
+	@SuppressWarnings("unchecked")
+	private static SharedFetchMessageProducer subscriber(SharedFetchConsumer<?, ?> shared, String group,
+			MockConsumer<byte[], byte[]> commitConsumer, MessageChannel output) {
+
+		ConsumerFactory<byte[], byte[]> consumerFactory = mock(ConsumerFactory.class);
+		given(consumerFactory.createConsumer(eq(group), any(), any())).willReturn(commitConsumer);
+		given(consumerFactory.getConfigurationProperties()).willReturn(
+				Collections.singletonMap(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest"));
+		SharedFetchMessageProducer producer = new SharedFetchMessageProducer(shared, consumerFactory, group, null,
+				new MessagingMessageConverter(), new BinderHeaderMapper());
+		producer.setOutputChannel(output);
+		return producer;
+	}
+
+	private static MockConsumer<byte[], byte[]> commitConsumer() {
+		MockConsumer<byte[], byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+		// the mock only returns the committed offsets of assigned partitions
+		consumer.assign(Collections.singletonList(PARTITION));
+		return consumer;
+	}
+
+	private static List<Long> offsets(QueueChannel channel) {
+		List<Long> offsets = new ArrayList<>();
+		Message<?> message;
+		while ((message = channel.receive(0)) != null) {
+			offsets.add(message.getHeaders().get(KafkaHeaders.OFFSET, Long.class));
+		}
+		return offsets;
+	}
+
+}
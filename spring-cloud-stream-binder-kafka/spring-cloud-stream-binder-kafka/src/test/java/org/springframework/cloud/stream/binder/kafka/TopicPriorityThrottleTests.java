@@ -0,0 +1,159 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @since 2.1.5
+ */
+public class TopicPriorityThrottleTests {
+
+	private static final TopicPartition URGENT = new TopicPartition("urgent", 0);
+
+	private static final TopicPartition BULK = new TopicPartition("bulk", 0);
+
+	@Test
+	public void testLowerPriorityPartitionsArePausedWhileHigherPriorityPartitionsLag() {
+		TopicPriorityThrottle throttle = new TopicPriorityThrottle(Collections.singletonMap("urgent", 10), 5, 60_000);
+		LaggingConsumer mock = new LaggingConsumer();
+		Consumer<byte[], byte[]> consumer = InterceptingConsumerFactory.intercepted(mock, throttle);
+		mock.lag(BULK, 1000);
+		mock.lag(URGENT, 3);
+		consumer.poll(Duration.ZERO);
+		assertThat(mock.paused()).isEmpty();
+		mock.lag(URGENT, 100);
+		consumer.poll(Duration.ZERO);
+		assertThat(mock.paused()).containsExactly(BULK);
+		assertThat(throttle.getThrottledCount()).isEqualTo(1);
+		mock.lag(URGENT, 0);
+		consumer.poll(Duration.ZERO);
+		assertThat(mock.paused()).isEmpty();
+		assertThat(throttle.getThrottledCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void testPausedPartitionsAreResumedAfterTheMaximumPause() throws Exception {
+		TopicPriorityThrottle throttle = new TopicPriorityThrottle(Collections.singletonMap("urgent", 10), 0, 50);
+		LaggingConsumer mock = new LaggingConsumer();
+		Consumer<byte[], byte[]> consumer = InterceptingConsumerFactory.intercepted(mock, throttle);
+		mock.lag(URGENT, 100);
+		consumer.poll(Duration.ZERO);
+		assertThat(mock.paused()).containsExactly(BULK);
+		Thread.sleep(100);
+		consumer.poll(Duration.ZERO);
+		assertThat(mock.paused()).isEmpty();
+		consumer.poll(Duration.ZERO);
+		assertThat(mock.paused()).containsExactly(BULK);
+	}
+
+	@Test
+	public void testPartitionsPausedForOtherReasonsAreNotResumed() {
+		TopicPriorityThrottle throttle = new TopicPriorityThrottle(Collections.singletonMap("urgent", 10), 0, 60_000);
+		LaggingConsumer mock = new LaggingConsumer();
+		Consumer<byte[], byte[]> consumer = InterceptingConsumerFactory.intercepted(mock, throttle);
+		mock.pause(Collections.singleton(BULK));
+		mock.lag(URGENT, 100);
+		consumer.poll(Duration.ZERO);
+		mock.lag(URGENT, 0);
+		consumer.poll(Duration.ZERO);
+		assertThat(mock.paused()).containsExactly(BULK);
+		assertThat(throttle.getThrottledCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void testLagsOfDottedTopicsAreMatched() {
+		TopicPartition urgent = new TopicPartition("orders.urgent", 0);
+		TopicPartition bulk = new TopicPartition("orders.bulk", 0);
+		TopicPriorityThrottle throttle = new TopicPriorityThrottle(Collections.singletonMap("orders.urgent", 10), 5,
+				60_000);
+		LaggingConsumer mock = new LaggingConsumer(urgent, bulk);
+		Consumer<byte[], byte[]> consumer = InterceptingConsumerFactory.intercepted(mock, throttle);
+		mock.lag(urgent, 100);
+		consumer.poll(Duration.ZERO);
+		assertThat(mock.paused()).containsExactly(bulk);
+	}
+
+	private static final class LaggingConsumer extends MockConsumer<byte[], byte[]> {
+
+		private final Map<MetricName, Metric> metrics = new HashMap<>();
+
+		LaggingConsumer() {
+			this(URGENT, BULK);
+		}
+
+		LaggingConsumer(TopicPartition... partitions) {
+			super(OffsetResetStrategy.EARLIEST);
+			assign(Arrays.asList(partitions));
+			Map<TopicPartition, Long> offsets = new HashMap<>();
+			for (TopicPartition partition : partitions) {
+				offsets.put(partition, 0L);
+			}
+			updateBeginningOffsets(offsets);
+		}
+
+		/*
+		 * Like the consumer's fetch metrics, the topic tag has each '.' replaced with '_'.
+		 */
+		void lag(TopicPartition partition, double lag) {
+			Map<String, String> tags = new HashMap<>();
+			tags.put("topic", partition.topic().replace('.', '_'));
+			tags.put("partition", String.valueOf(partition.partition()));
+			MetricName name = new MetricName("records-lag", "consumer-fetch-manager-metrics", "", tags);
+			this.metrics.put(name, new Metric() {
+
+				@Override
+				public MetricName metricName() {
+					return name;
+				}
+
+				@Override
+				@Deprecated
+				public double value() {
+					return lag;
+				}
+
+				@Override
+				public Object metricValue() {
+					return lag;
+				}
+
+			});
+		}
+
+		@Override
+		public synchronized Map<MetricName, ? extends Metric> metrics() {
+			return this.metrics;
+		}
+
+	}
+
+}
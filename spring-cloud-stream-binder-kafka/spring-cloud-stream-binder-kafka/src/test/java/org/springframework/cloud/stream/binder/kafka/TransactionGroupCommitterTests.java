@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.Test;
+
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @since 2.1.5
+ */
+public class TransactionGroupCommitterTests {
+
+	@Test
+	public void testRecordsShareTransactions() throws Exception {
+		MockProducer<byte[], byte[]> producer = producer();
+		TransactionGroupCommitter committer = new TransactionGroupCommitter(template(producer), 3, 60_000);
+		committer.start();
+		List<ListenableFuture<SendResult<Object, Object>>> futures = new ArrayList<>();
+		for (int i = 0; i < 6; i++) {
+			futures.add(committer.send(new ProducerRecord<>("foo", ("bar" + i).getBytes())));
+		}
+		for (ListenableFuture<SendResult<Object, Object>> future : futures) {
+			assertThat(future.get(10, TimeUnit.SECONDS).getRecordMetadata()).isNotNull();
+		}
+		assertThat(committer.getTransactions()).isEqualTo(2);
+		assertThat(committer.getRecords()).isEqualTo(6);
+		assertThat(producer.history()).hasSize(6);
+		committer.destroy();
+	}
+
+	@Test
+	public void testTransactionCommittedAfterMaxDelay() throws Exception {
+		MockProducer<byte[], byte[]> producer = producer();
+		TransactionGroupCommitter committer = new TransactionGroupCommitter(template(producer), 100, 10);
+		committer.start();
+		assertThat(committer.send(new ProducerRecord<>("foo", "bar".getBytes())).get(10, TimeUnit.SECONDS))
+				.isNotNull();
+		assertThat(producer.transactionCommitted()).isTrue();
+		committer.destroy();
+		assertThatThrownBy(() -> committer.send(new ProducerRecord<>("foo", "bar".getBytes())))
+				.isInstanceOf(IllegalStateException.class);
+	}
+
+	@Test
+	public void testEveryRecordFailsWhenEveryTransactionFails() throws Exception {
+		MockProducer<byte[], byte[]> producer = producer();
+		producer.fenceProducer();
+		TransactionGroupCommitter committer = new TransactionGroupCommitter(template(producer), 2, 60_000);
+		committer.start();
+		ListenableFuture<SendResult<Object, Object>> one = committer.send(new ProducerRecord<>("foo", "a".getBytes()));
+		ListenableFuture<SendResult<Object, Object>> two = committer.send(new ProducerRecord<>("foo", "b".getBytes()));
+		for (ListenableFuture<SendResult<Object, Object>> future : new ListenableFuture[] { one, two }) {
+			assertThatThrownBy(() -> future.get(10, TimeUnit.SECONDS))
+					.isInstanceOf(ExecutionException.class)
+					.hasCauseInstanceOf(KafkaException.class);
+		}
+		assertThat(committer.getTransactions()).isEqualTo(0);
+		committer.destroy();
+	}
+
+	@Test
+	public void testOnlyTheFailingRecordFailsWhenASharedTransactionFails() throws Exception {
+		MockProducer<byte[], byte[]> producer = new MockProducer<byte[], byte[]>(true, new ByteArraySerializer(),
+				new ByteArraySerializer()) {
+
+			@Override
+			public synchronized Future<RecordMetadata> send(ProducerRecord<byte[], byte[]> record,
+					Callback callback) {
+				if (new String(record.value()).equals("poison")) {
+					throw new KafkaException("poison");
+				}
+				return super.send(record, callback);
+			}
+
+			@Override
+			public void close() {
+				// the template closes the producer after each transaction
+			}
+
+		};
+		producer.initTransactions();
+		TransactionGroupCommitter committer = new TransactionGroupCommitter(template(producer), 3, 60_000);
+		committer.start();
+		ListenableFuture<SendResult<Object, Object>> one = committer.send(new ProducerRecord<>("foo", "a".getBytes()));
+		ListenableFuture<SendResult<Object, Object>> poison =
+				committer.send(new ProducerRecord<>("foo", "poison".getBytes()));
+		ListenableFuture<SendResult<Object, Object>> two = committer.send(new ProducerRecord<>("foo", "b".getBytes()));
+		assertThat(one.get(10, TimeUnit.SECONDS)).isNotNull();
+		assertThat(two.get(10, TimeUnit.SECONDS)).isNotNull();
+		assertThatThrownBy(() -> poison.get(10, TimeUnit.SECONDS))
+				.isInstanceOf(ExecutionException.class)
+				.hasCauseInstanceOf(KafkaException.class);
+		assertThat(committer.getTransactions()).isEqualTo(2);
+		assertThat(producer.history()).extracting(record -> new String(record.value())).containsExactly("a", "b");
+		committer.destroy();
+	}
+
+	@Test
+	public void testCommitterStopsWithItsLastUser() throws Exception {
+		TransactionGroupCommitter committer = new TransactionGroupCommitter(template(producer()), 100, 10);
+		committer.start();
+		committer.start();
+		committer.stop();
+		assertThat(committer.send(new ProducerRecord<>("foo", "bar".getBytes())).get(10, TimeUnit.SECONDS))
+				.isNotNull();
+		committer.stop();
+		assertThatThrownBy(() -> committer.send(new ProducerRecord<>("foo", "bar".getBytes())))
+				.isInstanceOf(IllegalStateException.class);
+		committer.start();
+		assertThat(committer.send(new ProducerRecord<>("foo", "bar".getBytes())).get(10, TimeUnit.SECONDS))
+				.isNotNull();
+		committer.destroy();
+	}
+
+	private MockProducer<byte[], byte[]> producer() {
+		MockProducer<byte[], byte[]> producer = new MockProducer<byte[], byte[]>(true, new ByteArraySerializer(),
+				new ByteArraySerializer()) {
+
+			@Override
+			public void close() {
+				// the template closes the producer after each transaction
+			}
+
+		};
+		producer.initTransactions();
+		return producer;
+	}
+
+	@SuppressWarnings("unchecked")
+	private KafkaTemplate<byte[], byte[]> template(MockProducer<byte[], byte[]> producer) {
+		ProducerFactory<byte[], byte[]> producerFactory = mock(ProducerFactory.class);
+		given(producerFactory.createProducer()).willReturn(producer);
+		given(producerFactory.transactionCapable()).willReturn(true);
+		return new KafkaTemplate<>(producerFactory);
+	}
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.common.TopicPartition;
+
+import org.springframework.kafka.support.Acknowledgment;
+
+/**
+ * Measures the peak number of live (platform) threads, the peak heap used and the
+ * throughput of {@code keyOrdered} workers running a handler that sleeps, as a blocking
+ * call would, with {@code virtualThreads} off and on.
+ * <p>
+ * Not a test; run the {@link #main(String[])} method with the test classpath on Java 21
+ * or later, for example:
+ * <pre class="code">
+ * mvn -pl spring-cloud-stream-binder-kafka test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.springframework.cloud.stream.binder.kafka.VirtualThreadsBenchmark \
+ *     -Dexec.args=2000
+ * </pre>
+ * The optional argument is the number of workers (default 2000).
+ *
+ * @since 2.1.5
+ */
+public final class VirtualThreadsBenchmark {
+
+	private static final int RECORDS = 50_000;
+
+	private static final long HANDLER_SLEEP = 10;
+
+	private static final TopicPartition PARTITION = new TopicPartition("foo", 0);
+
+	private VirtualThreadsBenchmark() {
+		super();
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		if (!VirtualThreads.isSupported()) {
+			System.out.println("Virtual threads are not supported by this JVM (" + System.getProperty("java.version")
+					+ "); run the benchmark on Java 21 or later");
+			return;
+		}
+		int workers = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		// warm up
+		run("platform", new KeyOrderedDispatcher("platform", workers, workers * 2), workers);
+		run("virtual", new KeyOrderedDispatcher("virtual", workers, workers * 2,
+				VirtualThreads.threadFactory("virtual-worker-")), workers);
+		System.out.println();
+		report("platform", new KeyOrderedDispatcher("platform", workers, workers * 2), workers);
+		report("virtual", new KeyOrderedDispatcher("virtual", workers, workers * 2,
+				VirtualThreads.threadFactory("virtual-worker-")), workers);
+	}
+
+	private static void report(String name, KeyOrderedDispatcher dispatcher, int workers)
+			throws InterruptedException {
+
+		long[] result = run(name, dispatcher, workers);
+		System.out.println(name + " (" + workers + " workers): " + result[0] + " peak live threads, "
+				+ result[1] / (1024 * 1024) + " MB peak heap used, " + result[2] + " records/s");
+	}
+
+	/*
+	 * Return the peak live threads, the peak heap used (bytes) and the records per second.
+	 */
+	private static long[] run(String name, KeyOrderedDispatcher dispatcher, int workers)
+			throws InterruptedException {
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		System.gc();
+		threads.resetPeakThreadCount();
+		long heap = memory.getHeapMemoryUsage().getUsed();
+		CountDownLatch processed = new CountDownLatch(RECORDS);
+		Acknowledgment acknowledgment = () -> { };
+		Runnable handler = () -> {
+			try {
+				Thread.sleep(HANDLER_SLEEP);
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			processed.countDown();
+		};
+		dispatcher.start();
+		long start = System.nanoTime();
+		for (int i = 0; i < RECORDS; i++) {
+			dispatcher.dispatch(PARTITION, i, acknowledgment, handler);
+			if (i % workers == 0) {
+				heap = Math.max(heap, memory.getHeapMemoryUsage().getUsed());
+			}
+		}
+		if (!processed.await(5, TimeUnit.MINUTES)) {
+			throw new IllegalStateException(name + ": records not processed in time");
+		}
+		long time = System.nanoTime() - start;
+		long peakThreads = threads.getPeakThreadCount();
+		dispatcher.stop(10_000);
+		return new long[] { peakThreads, heap, RECORDS * TimeUnit.SECONDS.toNanos(1) / time };
+	}
+
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.concurrent.ThreadFactory;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @since 2.1.5
+ */
+public class VirtualThreadsTests {
+
+	@Test
+	public void testThreadFactory() throws Exception {
+		ThreadFactory threadFactory = VirtualThreads.threadFactory("test-");
+		if (!VirtualThreads.isSupported()) {
+			assertThat(threadFactory).isNull();
+			return;
+		}
+		Thread thread = threadFactory.newThread(() -> { });
+		assertThat(thread.getName()).isEqualTo("test-0");
+		assertThat(Thread.class.getMethod("isVirtual").invoke(thread)).isEqualTo(Boolean.TRUE);
+		assertThat(threadFactory.newThread(() -> { }).getName()).isEqualTo("test-1");
+	}
+
+}